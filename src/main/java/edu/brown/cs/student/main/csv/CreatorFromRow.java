@@ -7,6 +7,9 @@ import java.util.List;
  * some arbitrary passed type.
  *
  * <p>Your parser class constructor should take a second parameter of this generic interface type.
+ *
+ * <p>Rows passed in by Parser are Row views, so a field only becomes a String if create() asks
+ * for it.
  */
 public interface CreatorFromRow<T> {
   T create(List<String> row) throws FactoryFailureException;
@@ -2,15 +2,26 @@ package edu.brown.cs.student.main.csv;
 
 import java.io.*;
 import java.util.*;
+import java.util.function.Predicate;
 
 public class Parser<T> {
 
   // instance variables
   private CreatorFromRow<T> c;
-  private BufferedReader br;
 
   private List<List<String>> csvParsed;
 
+  // columns and filter the rows were read with, so rows parsed later can be read the same way
+  private int[] columns;
+  private Predicate<? super Row> filter;
+  private String source;
+
+  // the sample of rows kept, if only a sample was, and how many rows it was picked from
+  private int sampleSize = -1;
+  private boolean reservoir;
+  private long seed;
+  private long rowsRead;
+
   /**
    * constructor takes in 3 arguments and parses file into 2D array of strings
    *
@@ -19,26 +30,296 @@ public class Parser<T> {
    * @throws IOException throws if error in reading file and handled in main
    */
   public Parser(CreatorFromRow<T> convertor, Reader reader) throws IOException {
+    this(convertor, new RowReader(reader));
+  }
+
+  /**
+   * constructor that parses rows from an already set up RowReader
+   *
+   * @param convertor creatorFromRow object that converts rows csv to T objects
+   * @param rows reader that splits the csv into rows
+   * @throws IOException throws if error in reading file and handled in main
+   */
+  public Parser(CreatorFromRow<T> convertor, RowReader rows) throws IOException {
     c = convertor;
-    br = new BufferedReader(reader);
     csvParsed = new ArrayList<>();
 
     // file read in constructor so all methods can access and reader doesn't have to keep rereading
-    String line = br.readLine();
-    while (line != null) {
-      // split row into list of strings from regex
-      List<String> row =
-          new ArrayList<>(
-              Arrays.asList(line.split(",(?=([^\\\"]*\\\"[^\\\"]*\\\")*(?![^\\\"]*\\\"))")));
-      // remove white spaces
-      List<String> trimmedRow = new ArrayList<>();
-      for (String str : row) {
-        trimmedRow.add(str.trim());
+    // each row is a view over a shared buffer, so fields only become Strings when asked for
+    Row row = rows.next();
+    while (row != null) {
+      csvParsed.add(row);
+      row = rows.next();
+    }
+    rows.close();
+  }
+
+  /**
+   * constructor that only keeps some columns and rows of the csv, skipping the rest as they're
+   * read so they never take up any memory. If the csv has headers, the header row is always kept
+   * (with just the selected columns) and the selection can name columns by header.
+   *
+   * <p>If the selection asks for a sample, only that many rows are kept. A sample of the first
+   * rows stops reading as soon as it has them, so it takes the same time however big the csv is.
+   * A random sample reads every row but only ever holds the sample.
+   *
+   * @param convertor creatorFromRow object that converts rows csv to T objects
+   * @param rows reader that splits the csv into rows
+   * @param hasHeaders if the first row of the csv is headers
+   * @param selection which columns and rows to keep
+   * @throws IOException throws if error in reading file and handled in main
+   * @throws IllegalArgumentException if selection has a column the csv doesn't have
+   */
+  public Parser(CreatorFromRow<T> convertor, RowReader rows, boolean hasHeaders,
+      RowSelection selection) throws IOException {
+    c = convertor;
+    csvParsed = new ArrayList<>();
+
+    try {
+      Row headers = null;
+      if (hasHeaders) {
+        headers = rows.next();
+        if (headers == null) { // empty file, nothing to select from
+          return;
+        }
+      }
+      columns = selection.columnIndexes(headers);
+      filter = selection.filter(headers);
+      source = selection.source();
+      if (headers != null) {
+        List<String> kept = columns == null ? headers : headers.select(columns);
+        if (source != null) {
+          List<String> withSource = new ArrayList<>(kept.size() + 1);
+          withSource.add(selection.sourceHeader());
+          withSource.addAll(kept);
+          kept = Collections.unmodifiableList(withSource);
+        }
+        csvParsed.add(kept);
+      }
+      rows.selectColumns(columns);
+      rows.filterRows(filter);
+      rows.addFirstField(source);
+
+      sampleSize = selection.sampleSize();
+      reservoir = selection.reservoir();
+      seed = selection.seed();
+      if (sampleSize >= 0 && reservoir) {
+        readReservoir(rows);
+        return;
+      }
+      Row row = sampleSize == 0 ? null : rows.next();
+      while (row != null) {
+        csvParsed.add(row);
+        rowsRead++;
+        row = sampleSize >= 0 && rowsRead >= sampleSize ? null : rows.next();
+      }
+    } finally {
+      rows.close();
+    }
+  }
+
+  /**
+   * keeps a uniform random sample of the rows by reservoir sampling: the first sampleSize rows
+   * fill the sample, and after that the i-th row replaces a random one of them with probability
+   * sampleSize / i. Whether a row is kept is decided before it's copied out of its line, so rows
+   * that aren't kept cost nothing, and rows that replace others get buffers of their own so the
+   * sample never holds on to shared buffers that are mostly rows it dropped.
+   *
+   * @param rows reader that splits the csv into rows, already set up with the selection
+   * @throws IOException throws if error in reading file
+   */
+  private void readReservoir(RowReader rows) throws IOException {
+    Random random = new Random(seed);
+    int first = csvParsed.size(); // index of the first sampled row, after any header row
+    int[] slot = new int[1]; // where the row being kept goes, or -1 to add it on the end
+    Predicate<? super Row> keep = filter;
+    rows.filterRows(row -> {
+      if (keep != null && !keep.test(row)) {
+        return false;
+      }
+      long seen = rowsRead++;
+      if (seen < sampleSize) {
+        slot[0] = -1;
+        return true;
+      }
+      long pick = random.nextLong(seen + 1);
+      slot[0] = (int) pick;
+      return pick < sampleSize;
+    });
+    for (Row row = rows.next(); row != null; row = rows.next()) {
+      if (slot[0] < 0) {
+        csvParsed.add(row);
+      } else {
+        csvParsed.set(first + slot[0], row.compact());
+      }
+    }
+  }
+
+  /**
+   * constructor that carries on parsing a csv after the rows an earlier parser read
+   *
+   * @param earlier parser that read the start of the csv
+   * @param more reader for the rest of the csv, starting at a line break
+   * @throws IOException throws if error in reading file
+   */
+  private Parser(Parser<T> earlier, RowReader more) throws IOException {
+    c = earlier.c;
+    columns = earlier.columns;
+    filter = earlier.filter;
+    source = earlier.source;
+    rowsRead = earlier.rowsRead;
+    // the rows already read are shared, not parsed again
+    csvParsed = new ArrayList<>(earlier.csvParsed);
+    try {
+      more.selectColumns(columns);
+      more.filterRows(filter);
+      more.addFirstField(source);
+      Row row = more.next();
+      while (row != null) {
+        csvParsed.add(row);
+        rowsRead++;
+        row = more.next();
+      }
+    } finally {
+      more.close();
+    }
+  }
+
+  /**
+   * constructor for a parser over rows that were already parsed
+   *
+   * @param convertor creatorFromRow object that converts rows csv to T objects
+   * @param parsed the rows
+   */
+  private Parser(CreatorFromRow<T> convertor, List<List<String>> parsed) {
+    c = convertor;
+    csvParsed = parsed;
+  }
+
+  /**
+   * joins the rows of csvs with the same columns into one parser, as if they were all one csv.
+   * Only the first header row is kept. The joined parser can't be appended to.
+   *
+   * <p>If the parts were each sampled the same way, the joined parser is a sample of the same
+   * size of all of them together: the first rows across the parts, or for random samples, rows
+   * drawn from each part's sample in proportion to how many rows that part had, which is a
+   * uniform random sample of every part's rows.
+   *
+   * @param parts parsers of each csv, in order, all with the same convertor and selection
+   * @param hasHeaders if each csv starts with a header row
+   * @return parser with every part's rows
+   */
+  public static <T> Parser<T> concat(List<Parser<T>> parts, boolean hasHeaders) {
+    Parser<T> first = parts.get(0);
+    List<List<String>> joined = new ArrayList<>();
+    List<List<List<String>>> partRows = new ArrayList<>(parts.size());
+    long rowsRead = 0;
+    for (Parser<T> part : parts) {
+      List<List<String>> rows = part.csvParsed;
+      if (hasHeaders && !rows.isEmpty()) {
+        if (joined.isEmpty()) {
+          joined.add(rows.get(0));
+        }
+        rows = rows.subList(1, rows.size()); // a csv with no rows at all has no header row
+      }
+      partRows.add(rows);
+      rowsRead += part.rowsRead;
+    }
+
+    if (first.sampleSize >= 0 && first.reservoir) {
+      Random random = new Random(first.seed);
+      List<List<List<String>>> pools = new ArrayList<>(partRows.size());
+      long[] unpicked = new long[parts.size()];
+      long total = 0;
+      for (int p = 0; p < parts.size(); p++) {
+        pools.add(new ArrayList<>(partRows.get(p)));
+        unpicked[p] = parts.get(p).rowsRead;
+        total += unpicked[p];
+      }
+      for (int k = 0; k < first.sampleSize && total > 0; k++) {
+        long pick = random.nextLong(total);
+        int p = 0;
+        while (pick >= unpicked[p]) {
+          pick -= unpicked[p++];
+        }
+        List<List<String>> pool = pools.get(p);
+        int i = random.nextInt(pool.size());
+        joined.add(pool.get(i));
+        pool.set(i, pool.get(pool.size() - 1));
+        pool.remove(pool.size() - 1);
+        unpicked[p]--;
+        total--;
       }
-      csvParsed.add(trimmedRow);
-      line = br.readLine();
+    } else {
+      int header = joined.size();
+      for (List<List<String>> rows : partRows) {
+        joined.addAll(rows);
+      }
+      if (first.sampleSize >= 0 && joined.size() - header > first.sampleSize) {
+        joined.subList(header + first.sampleSize, joined.size()).clear();
+      }
+    }
+
+    Parser<T> parser = new Parser<>(first.c, joined);
+    parser.sampleSize = first.sampleSize;
+    parser.reservoir = first.reservoir;
+    parser.seed = first.seed;
+    parser.rowsRead = first.sampleSize >= 0 && !first.reservoir
+        ? joined.size() - (hasHeaders && !joined.isEmpty() ? 1 : 0) : rowsRead;
+    return parser;
+  }
+
+  /**
+   * number of rows, after any filter and not counting the header row, that were read to pick the
+   * rows that were kept. For a sample of the first rows, that's just the rows kept. Only counted
+   * by parsers made with a RowSelection.
+   *
+   * @return number of rows read
+   */
+  public long rowsRead() {
+    return rowsRead;
+  }
+
+  /**
+   * parses rows that were added to the end of the csv after this parser read it, keeping the same
+   * columns and rows this parser did. This parser doesn't change.
+   *
+   * @param more reader for just the new part of the csv, starting at a line break
+   * @return parser with this parser's rows followed by the new ones
+   * @throws IOException throws if error in reading file
+   * @throws UnsupportedOperationException if this parser only kept a sample of the rows
+   */
+  public Parser<T> append(RowReader more) throws IOException {
+    if (sampleSize >= 0) {
+      throw new UnsupportedOperationException("can't add rows to a sample");
+    }
+    return new Parser<>(this, more);
+  }
+
+  /**
+   * makes a parser that reads rows added to the csv the way this one did, but doesn't keep the
+   * rows this one read, for when they're kept somewhere else. Appending to it parses just the new
+   * rows. This parser doesn't change.
+   *
+   * @param hasHeaders if the first row of the csv is headers, which is kept
+   * @return parser with only the header row, if there is one
+   */
+  public Parser<T> withoutRows(boolean hasHeaders) {
+    List<List<String>> header = new ArrayList<>(1);
+    if (hasHeaders && !csvParsed.isEmpty()) {
+      List<String> row = csvParsed.get(0);
+      // a header row that's a view over a buffer would keep the rows after it in memory
+      header.add(row instanceof Row ? ((Row) row).compact() : row);
     }
-    br.close();
+    Parser<T> parser = new Parser<>(c, header);
+    parser.columns = columns;
+    parser.filter = filter;
+    parser.source = source;
+    parser.sampleSize = sampleSize;
+    parser.reservoir = reservoir;
+    parser.seed = seed;
+    parser.rowsRead = rowsRead;
+    return parser;
   }
 
   /**
@@ -7,10 +7,10 @@ public class RawCreator implements CreatorFromRow<List<String>> {
   public RawCreator() {}
 
   /**
-   * turn list of strings into one string object
+   * returns the row as is -- rows from Parser are Row views, so no fields get copied
    *
    * @param row list of strings to represent a row in csv
-   * @return one long string of the row feilds
+   * @return the same row
    */
   public List<String> create(List<String> row) {
     return row;
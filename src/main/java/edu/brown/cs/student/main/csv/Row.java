@@ -0,0 +1,199 @@
+package edu.brown.cs.student.main.csv;
+
+import java.nio.CharBuffer;
+import java.util.AbstractList;
+import java.util.Objects;
+import java.util.RandomAccess;
+
+/**
+ * A Row is a read-only view of one parsed csv row. Instead of holding a String for every field, it
+ * points into a char buffer that is shared with the rows parsed around it, and keeps a table of
+ * where each field starts and ends. A field is only copied into a new String when a caller asks
+ * for one with get(), so parsing and searching don't allocate anything per cell.
+ *
+ * <p>Row is a List of Strings so it can be handed to any CreatorFromRow unchanged.
+ */
+public final class Row extends AbstractList<String> implements RandomAccess {
+
+  // instance variables
+  private final char[] buffer;
+  private final int[] bounds; // start and end offset into buffer for each field, back to back
+  private final int size;
+
+  /**
+   * constructor used by RowReader once a row's fields have been copied into the shared buffer
+   *
+   * @param buffer shared char buffer the fields live in
+   * @param bounds start (inclusive) and end (exclusive) offsets of each field in buffer
+   */
+  Row(char[] buffer, int[] bounds) {
+    this(buffer, bounds, bounds.length / 2);
+  }
+
+  /**
+   * constructor for a row that only uses the first size fields of a bounds table, used by
+   * RowReader to look at a line before deciding whether to keep it
+   *
+   * @param buffer char buffer the fields live in
+   * @param bounds start (inclusive) and end (exclusive) offsets of each field in buffer
+   * @param size number of fields in the row
+   */
+  Row(char[] buffer, int[] bounds, int size) {
+    this.buffer = buffer;
+    this.bounds = bounds;
+    this.size = size;
+  }
+
+  /**
+   * number of fields in the row
+   *
+   * @return number of fields
+   */
+  @Override
+  public int size() {
+    return this.size;
+  }
+
+  /**
+   * copies a field out of the shared buffer -- the only place a Row allocates a String
+   *
+   * @param index index of field
+   * @return field value as a new String
+   */
+  @Override
+  public String get(int index) {
+    Objects.checkIndex(index, this.size());
+    int start = this.bounds[2 * index];
+    return new String(this.buffer, start, this.bounds[2 * index + 1] - start);
+  }
+
+  /**
+   * view of a field without copying it
+   *
+   * @param index index of field
+   * @return field value backed by the shared buffer
+   */
+  public CharSequence field(int index) {
+    Objects.checkIndex(index, this.size());
+    int start = this.bounds[2 * index];
+    return CharBuffer.wrap(this.buffer, start, this.bounds[2 * index + 1] - start);
+  }
+
+  /**
+   * length of a field without copying it
+   *
+   * @param index index of field
+   * @return number of chars in field
+   */
+  public int fieldLength(int index) {
+    Objects.checkIndex(index, this.size());
+    return this.bounds[2 * index + 1] - this.bounds[2 * index];
+  }
+
+  /**
+   * copies a field into an array, like String.getChars, so a caller can look at many fields with
+   * one array and no String or view per field
+   *
+   * @param index index of field
+   * @param dst array to copy into; has to have room for fieldLength(index) chars
+   * @param dstBegin where in dst to start
+   * @return number of chars copied
+   */
+  public int getChars(int index, char[] dst, int dstBegin) {
+    int length = this.fieldLength(index);
+    System.arraycopy(this.buffer, this.bounds[2 * index], dst, dstBegin, length);
+    return length;
+  }
+
+  /**
+   * compares a field to a value case-insensitively, the same way String.equalsIgnoreCase does, but
+   * straight against the shared buffer
+   *
+   * @param index index of field to compare
+   * @param value value to compare against
+   * @return true if field equals value ignoring case
+   * @throws IndexOutOfBoundsException if index is not a valid field index
+   */
+  public boolean fieldEqualsIgnoreCase(int index, String value) {
+    Objects.checkIndex(index, this.size());
+    int start = this.bounds[2 * index];
+    int length = this.bounds[2 * index + 1] - start;
+    if (value.length() != length) {
+      return false;
+    }
+    for (int k = 0; k < length; k++) {
+      char a = this.buffer[start + k];
+      char b = value.charAt(k);
+      if (a != b
+          && Character.toUpperCase(a) != Character.toUpperCase(b)
+          && Character.toLowerCase(a) != Character.toLowerCase(b)) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  /**
+   * view of some of the row's fields, sharing the same buffer. Like rows read with
+   * RowReader.selectColumns, a column past the end of the row is empty and empty fields at the end
+   * are dropped.
+   *
+   * @param columns indexes of the fields to keep, in order
+   * @return row with just those fields
+   */
+  public Row select(int[] columns) {
+    int count = columns.length;
+    while (count > 0
+        && (columns[count - 1] >= this.size || this.fieldLength(columns[count - 1]) == 0)) {
+      count--;
+    }
+    int[] selected = new int[2 * count];
+    for (int k = 0; k < count; k++) {
+      if (columns[k] < this.size) {
+        selected[2 * k] = this.bounds[2 * columns[k]];
+        selected[2 * k + 1] = this.bounds[2 * columns[k] + 1];
+      }
+    }
+    return new Row(this.buffer, selected);
+  }
+
+  /**
+   * copy of the row in a buffer of its own, just big enough for its fields, so holding on to it
+   * doesn't keep the rest of a shared buffer alive
+   *
+   * @return the copy
+   */
+  Row compact() {
+    int length = 0;
+    for (int k = 0; k < this.size; k++) {
+      length += this.bounds[2 * k + 1] - this.bounds[2 * k];
+    }
+    char[] own = new char[length];
+    int[] ownBounds = new int[2 * this.size];
+    int used = 0;
+    for (int k = 0; k < this.size; k++) {
+      int start = this.bounds[2 * k];
+      int fieldLength = this.bounds[2 * k + 1] - start;
+      System.arraycopy(this.buffer, start, own, used, fieldLength);
+      ownBounds[2 * k] = used;
+      ownBounds[2 * k + 1] = used + fieldLength;
+      used += fieldLength;
+    }
+    return new Row(own, ownBounds);
+  }
+
+  /**
+   * checks every field of the row for a value, case-insensitive
+   *
+   * @param value value to search for
+   * @return true if any field equals value ignoring case
+   */
+  public boolean anyFieldEqualsIgnoreCase(String value) {
+    for (int i = 0; i < this.size(); i++) {
+      if (this.fieldEqualsIgnoreCase(i, value)) {
+        return true;
+      }
+    }
+    return false;
+  }
+}
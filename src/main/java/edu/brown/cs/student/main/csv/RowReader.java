@@ -0,0 +1,319 @@
+package edu.brown.cs.student.main.csv;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.Reader;
+import java.util.function.Predicate;
+
+/**
+ * RowReader reads a csv one row at a time straight from a Reader. Lines are split on commas that
+ * are not inside quotes and each field is trimmed, the same as the regex split Parser used to do.
+ * Fields are copied into large shared char buffers and handed out as Row views, so a row costs one
+ * small offset table instead of one String per field.
+ *
+ * <p>A RowReader can also be told to only keep some columns and some rows. Unselected fields are
+ * never copied out of the line, and rows the filter rejects are dropped before anything of them is
+ * copied, so neither costs any memory in the rows that are kept.
+ *
+ * <p>Rows that come from somewhere other than csv text, like the columns of an Arrow file, can be
+ * read the same way by a subclass that overrides readFields to fill in each line's fields
+ * itself, so they're selected, filtered and stored just like csv rows.
+ */
+public class RowReader implements Closeable {
+
+  private static final int CHUNK_SIZE = 1 << 16; // chars per shared buffer
+
+  // instance variables
+  private final Reader reader;
+  private final char[] input = new char[8192];
+  private int inputPos;
+  private int inputLimit;
+  private boolean skipLineFeed; // last line ended in '\r', so a following '\n' belongs to it
+
+  private char[] line = new char[256];
+  private int lineLength;
+  private int[] fields = new int[32]; // raw field bounds within line
+
+  private char[] chunk = new char[CHUNK_SIZE];
+  private int chunkUsed;
+
+  private int[] columns; // fields to keep, in order, or null to keep all of them
+  private Predicate<? super Row> filter; // rows to keep, or null to keep all of them
+  private String firstField; // added to the front of every row, or null
+
+  /**
+   * constructor takes in the reader to pull csv text from
+   *
+   * @param reader any type of reader object from Reader abstract class
+   */
+  public RowReader(Reader reader) {
+    this.reader = reader;
+  }
+
+  /**
+   * constructor for a subclass that reads its rows some other way, by overriding readFields
+   */
+  protected RowReader() {
+    this(null);
+  }
+
+  /**
+   * reads the next row of the csv
+   *
+   * @return next row, or null once the reader has no more lines
+   * @throws IOException throws if error in reading file
+   */
+  public Row next() throws IOException {
+    int fieldCount;
+    while ((fieldCount = this.readFields()) >= 0) {
+      // the filter looks at the line in place, before anything is copied out of it
+      if (this.filter == null || this.filter.test(new Row(this.line, this.fields, fieldCount))) {
+        return this.copyFields(fieldCount);
+      }
+    }
+    return null;
+  }
+
+  /**
+   * only keeps some columns of the rows read from now on. A column past the end of a row is left
+   * empty, and empty fields at the end of a row are dropped like they are when splitting a line.
+   *
+   * @param columns indexes of the fields to keep, in order, or null to keep every field
+   */
+  public void selectColumns(int[] columns) {
+    this.columns = columns == null ? null : columns.clone();
+  }
+
+  /**
+   * only keeps the rows read from now on that a filter accepts. The filter is given a Row over
+   * the line being read, with every field, which is only valid until it returns.
+   *
+   * @param filter test for the rows to keep, or null to keep every row
+   */
+  public void filterRows(Predicate<? super Row> filter) {
+    this.filter = filter;
+  }
+
+  /**
+   * adds a field to the front of every row read from now on, ahead of the selected columns. The
+   * filter still sees the line without it.
+   *
+   * @param value value of the added field, or null to not add one
+   */
+  public void addFirstField(String value) {
+    this.firstField = value;
+  }
+
+  /**
+   * reads the next line and splits it into fields. A subclass that reads rows some other way
+   * overrides this, starting each line with startLine and adding its fields with addLineField.
+   *
+   * @return number of fields in the line, or -1 once there are no more lines
+   * @throws IOException throws if error in reading
+   */
+  protected int readFields() throws IOException {
+    return this.readLine() ? this.splitLine() : -1;
+  }
+
+  /**
+   * empties the scratch line, for a subclass's readFields to add the next line's fields to
+   */
+  protected final void startLine() {
+    this.lineLength = 0;
+  }
+
+  /**
+   * adds a field to the end of the scratch line, for a subclass's readFields. Fields are kept
+   * exactly as given, without trimming.
+   *
+   * @param index index of the field in the line, one more than the field added before it
+   * @param chars array holding the field's chars
+   * @param start where the field starts in chars
+   * @param length number of chars in the field
+   */
+  protected final void addLineField(int index, char[] chars, int start, int length) {
+    int fieldStart = this.lineLength;
+    this.appendToLine(chars, start, start + length);
+    this.addField(index, fieldStart, this.lineLength);
+  }
+
+  /**
+   * reads one line into the scratch line buffer, treating "\n", "\r" and "\r\n" as line ends like
+   * BufferedReader.readLine does
+   *
+   * @return false if the reader had nothing left
+   * @throws IOException throws if error in reading file
+   */
+  private boolean readLine() throws IOException {
+    this.lineLength = 0;
+    boolean readAny = false;
+    while (true) {
+      if (this.inputPos >= this.inputLimit) {
+        this.inputLimit = this.reader.read(this.input, 0, this.input.length);
+        this.inputPos = 0;
+        if (this.inputLimit <= 0) {
+          this.inputLimit = 0;
+          return readAny;
+        }
+      }
+      if (this.skipLineFeed) {
+        this.skipLineFeed = false;
+        if (this.input[this.inputPos] == '\n') {
+          this.inputPos++;
+          continue;
+        }
+      }
+      readAny = true;
+      int start = this.inputPos;
+      while (this.inputPos < this.inputLimit) {
+        char ch = this.input[this.inputPos];
+        if (ch == '\n' || ch == '\r') {
+          this.appendToLine(this.input, start, this.inputPos);
+          this.inputPos++;
+          this.skipLineFeed = ch == '\r';
+          return true;
+        }
+        this.inputPos++;
+      }
+      this.appendToLine(this.input, start, this.inputPos);
+    }
+  }
+
+  private void appendToLine(char[] chars, int start, int end) {
+    int length = end - start;
+    if (this.lineLength + length > this.line.length) {
+      char[] bigger = new char[Math.max(this.line.length * 2, this.lineLength + length)];
+      System.arraycopy(this.line, 0, bigger, 0, this.lineLength);
+      this.line = bigger;
+    }
+    System.arraycopy(chars, start, this.line, this.lineLength, length);
+    this.lineLength += length;
+  }
+
+  /**
+   * splits the scratch line into trimmed field bounds. A comma only separates fields if it has an
+   * even number of quotes after it, which is what keeps commas inside quoted fields together.
+   *
+   * @return number of fields in the line
+   */
+  private int splitLine() {
+    int totalQuotes = 0;
+    for (int i = 0; i < this.lineLength; i++) {
+      if (this.line[i] == '"') {
+        totalQuotes++;
+      }
+    }
+
+    int count = 0;
+    int quotesSeen = 0;
+    int start = 0;
+    for (int i = 0; i < this.lineLength; i++) {
+      char ch = this.line[i];
+      if (ch == '"') {
+        quotesSeen++;
+      } else if (ch == ',' && (totalQuotes - quotesSeen) % 2 == 0) {
+        this.addField(count++, start, i);
+        start = i + 1;
+      }
+    }
+    if (count == 0) {
+      this.addField(count++, 0, this.lineLength); // no separator -- whole line is one field
+      return this.trimFields(count);
+    }
+    this.addField(count++, start, this.lineLength);
+
+    // like String.split, drop empty fields at the end of the line
+    while (count > 0 && this.fields[2 * count - 2] == this.fields[2 * count - 1]) {
+      count--;
+    }
+    return this.trimFields(count);
+  }
+
+  private void addField(int index, int start, int end) {
+    if (2 * index + 2 > this.fields.length) {
+      int[] bigger = new int[this.fields.length * 2];
+      System.arraycopy(this.fields, 0, bigger, 0, this.fields.length);
+      this.fields = bigger;
+    }
+    this.fields[2 * index] = start;
+    this.fields[2 * index + 1] = end;
+  }
+
+  private int trimFields(int count) {
+    for (int f = 0; f < count; f++) {
+      int start = this.fields[2 * f];
+      int end = this.fields[2 * f + 1];
+      while (start < end && this.line[start] <= ' ') {
+        start++;
+      }
+      while (end > start && this.line[end - 1] <= ' ') {
+        end--;
+      }
+      this.fields[2 * f] = start;
+      this.fields[2 * f + 1] = end;
+    }
+    return count;
+  }
+
+  /**
+   * copies the fields of the scratch line into the shared buffer and wraps them in a Row. Only
+   * the selected fields are copied if columns were selected, after the added first field if there
+   * is one.
+   *
+   * @param fieldCount number of fields in the scratch line
+   * @return row view over the shared buffer
+   */
+  private Row copyFields(int fieldCount) {
+    int count = fieldCount;
+    if (this.columns != null) {
+      count = this.columns.length;
+      while (count > 0 && this.selectedLength(this.columns[count - 1], fieldCount) == 0) {
+        count--;
+      }
+    }
+    int first = this.firstField == null ? 0 : 1;
+    int needed = first == 0 ? 0 : this.firstField.length();
+    for (int k = 0; k < count; k++) {
+      needed += this.selectedLength(this.columns == null ? k : this.columns[k], fieldCount);
+    }
+    if (this.chunkUsed + needed > this.chunk.length) {
+      // start a new shared buffer; rows already handed out keep the old one alive
+      this.chunk = new char[Math.max(CHUNK_SIZE, needed)];
+      this.chunkUsed = 0;
+    }
+    int[] bounds = new int[2 * (first + count)];
+    if (first == 1) {
+      int length = this.firstField.length();
+      this.firstField.getChars(0, length, this.chunk, this.chunkUsed);
+      bounds[0] = this.chunkUsed;
+      bounds[1] = this.chunkUsed + length;
+      this.chunkUsed += length;
+    }
+    for (int k = 0; k < count; k++) {
+      int f = this.columns == null ? k : this.columns[k];
+      int start = f < fieldCount ? this.fields[2 * f] : 0;
+      int length = this.selectedLength(f, fieldCount);
+      System.arraycopy(this.line, start, this.chunk, this.chunkUsed, length);
+      bounds[2 * (first + k)] = this.chunkUsed;
+      bounds[2 * (first + k) + 1] = this.chunkUsed + length;
+      this.chunkUsed += length;
+    }
+    return new Row(this.chunk, bounds);
+  }
+
+  private int selectedLength(int f, int fieldCount) {
+    return f < fieldCount ? this.fields[2 * f + 1] - this.fields[2 * f] : 0;
+  }
+
+  /**
+   * closes the underlying reader
+   *
+   * @throws IOException throws if error in closing reader
+   */
+  @Override
+  public void close() throws IOException {
+    if (this.reader != null) {
+      this.reader.close();
+    }
+  }
+}
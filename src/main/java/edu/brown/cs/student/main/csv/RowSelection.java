@@ -0,0 +1,218 @@
+package edu.brown.cs.student.main.csv;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Predicate;
+
+/**
+ * RowSelection says which columns and rows of a csv to keep when parsing it. Columns are given
+ * as header names or indexes, and the filter keeps rows with a value in one column (or any
+ * column), matched case-insensitive like Searcher does. Names can only be resolved once the
+ * header row has been read, so Parser does that and hands the result to its RowReader.
+ *
+ * <p>A selection can also add a column to the front of every row saying which file it came from,
+ * for when rows from several files end up in one table, and can keep just a sample of the rows:
+ * either the first ones, or a uniform random sample of all of them (see Parser).
+ */
+public class RowSelection {
+
+  // instance variables
+  private final List<String> columns;
+  private final String filterColumn;
+  private final String filterVal;
+  private final String sourceHeader;
+  private final String source;
+  private final int sampleSize; // -1 to keep every row
+  private final boolean reservoir;
+  private final long seed;
+
+  /**
+   * constructor for a selection
+   *
+   * @param columns header names or indexes of the columns to keep, in order, or null to keep all
+   * @param filterColumn header name or index of the column to filter on, or null to keep rows
+   *     with filterVal in any column
+   * @param filterVal value rows have to have to be kept, or null to keep every row
+   */
+  public RowSelection(List<String> columns, String filterColumn, String filterVal) {
+    this(columns, filterColumn, filterVal, null, null, -1, false, 0);
+  }
+
+  private RowSelection(List<String> columns, String filterColumn, String filterVal,
+      String sourceHeader, String source, int sampleSize, boolean reservoir, long seed) {
+    this.columns = columns;
+    this.filterColumn = filterColumn;
+    this.filterVal = filterVal;
+    this.sourceHeader = sourceHeader;
+    this.source = source;
+    this.sampleSize = sampleSize;
+    this.reservoir = reservoir;
+    this.seed = seed;
+  }
+
+  /**
+   * makes a copy of this selection that also adds a column to the front of every row
+   *
+   * @param header name of the added column, used if the csv has headers
+   * @param source value of the added column in every row, like the csv's file name
+   * @return the new selection
+   */
+  public RowSelection withSource(String header, String source) {
+    return new RowSelection(this.columns, this.filterColumn, this.filterVal, header, source,
+        this.sampleSize, this.reservoir, this.seed);
+  }
+
+  /**
+   * makes a copy of this selection that only keeps a sample of the rows that pass the filter
+   *
+   * @param size most rows to keep
+   * @param reservoir true for a uniform random sample of all the rows, false for the first rows
+   * @param seed seed for picking the random sample, so the same seed picks the same rows
+   * @return the new selection
+   * @throws IllegalArgumentException if size is negative
+   */
+  public RowSelection withSample(int size, boolean reservoir, long seed) {
+    if (size < 0) {
+      throw new IllegalArgumentException("sample size can't be negative");
+    }
+    return new RowSelection(this.columns, this.filterColumn, this.filterVal, this.sourceHeader,
+        this.source, size, reservoir, seed);
+  }
+
+  /**
+   * @return most rows to keep, or -1 to keep every row
+   */
+  public int sampleSize() {
+    return this.sampleSize;
+  }
+
+  /**
+   * @return whether the sample is a uniform random one rather than the first rows
+   */
+  public boolean reservoir() {
+    return this.reservoir;
+  }
+
+  /**
+   * @return seed for picking the random sample
+   */
+  public long seed() {
+    return this.seed;
+  }
+
+  /**
+   * @return name of the added first column, or null if there isn't one
+   */
+  public String sourceHeader() {
+    return this.source == null ? null : this.sourceHeader;
+  }
+
+  /**
+   * @return value of the added first column in every row, or null if there isn't one
+   */
+  public String source() {
+    return this.source;
+  }
+
+  /**
+   * works out the indexes of the selected columns
+   *
+   * @param headers header row, or null if csv doesn't have headers
+   * @return indexes of columns to keep, or null to keep all of them
+   * @throws IllegalArgumentException if a column isn't a header or valid index
+   */
+  public int[] columnIndexes(List<String> headers) {
+    if (this.columns == null) {
+      return null;
+    }
+    int[] indexes = new int[this.columns.size()];
+    for (int k = 0; k < indexes.length; k++) {
+      indexes[k] = columnIndex(this.columns.get(k), headers);
+    }
+    return indexes;
+  }
+
+  /**
+   * makes the test for which rows to keep
+   *
+   * @param headers header row, or null if csv doesn't have headers
+   * @return test rows have to pass to be kept, or null to keep every row
+   * @throws IllegalArgumentException if the filter column isn't a header or valid index
+   */
+  public Predicate<Row> filter(List<String> headers) {
+    String value = this.filterVal;
+    if (value == null) {
+      return null;
+    }
+    if (this.filterColumn == null) {
+      return row -> row.anyFieldEqualsIgnoreCase(value);
+    }
+    int index = columnIndex(this.filterColumn, headers);
+    // unlike searching by index, a row too short to have the column just doesn't match
+    return row -> index < row.size() && row.fieldEqualsIgnoreCase(index, value);
+  }
+
+  /**
+   * finds a column by header name (case-insensitive) or index. A header name wins over an index
+   * if a header happens to be a number.
+   *
+   * @param column header name or index of the column
+   * @param headers header row, or null if csv doesn't have headers
+   * @return index of column
+   * @throws IllegalArgumentException if column isn't a header or a non-negative index, or is an
+   *     index past the last header
+   */
+  public static int columnIndex(String column, List<String> headers) {
+    column = column.trim();
+    if (headers != null) {
+      for (int j = 0; j < headers.size(); j++) {
+        if (headers.get(j).equalsIgnoreCase(column)) {
+          return j;
+        }
+      }
+    }
+    int index;
+    try {
+      index = Integer.parseInt(column);
+    } catch (NumberFormatException e) {
+      throw new IllegalArgumentException("no column named " + column);
+    }
+    if (index < 0 || (headers != null && index >= headers.size())) {
+      throw new IllegalArgumentException("no column " + index);
+    }
+    return index;
+  }
+
+  /**
+   * describes everything the selection keeps, so two selections that keep the same rows and
+   * columns of a csv describe themselves the same way
+   *
+   * @return the description
+   */
+  @Override
+  public String toString() {
+    return "columns=" + this.columns + ", filterColumn=" + this.filterColumn + ", filterVal="
+        + this.filterVal + ", sourceHeader=" + this.sourceHeader() + ", source=" + this.source
+        + ", sampleSize=" + this.sampleSize + ", reservoir=" + this.reservoir + ", seed="
+        + this.seed;
+  }
+
+  /**
+   * splits a comma separated list of columns, leaving out blank ones
+   *
+   * @param columns comma separated columns, or null
+   * @return list of columns, or null if there weren't any
+   */
+  public static List<String> splitColumns(String columns) {
+    if (columns == null || columns.isBlank()) {
+      return null;
+    }
+    List<String> split = new ArrayList<>();
+    for (String column : columns.split(",")) {
+      if (!column.isBlank()) {
+        split.add(column.trim());
+      }
+    }
+    return split.isEmpty() ? null : split;
+  }
+}
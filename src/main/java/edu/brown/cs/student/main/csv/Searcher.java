@@ -2,6 +2,7 @@ package edu.brown.cs.student.main.csv;
 
 import java.io.*;
 import java.util.*;
+import java.util.function.Predicate;
 
 public class Searcher<T> {
 
@@ -36,17 +37,7 @@ public class Searcher<T> {
     if (h) {
       List<List<String>> csvParsed = p.parseString();
       List<T> csvObjects = p.parseObjectsWithHeaders();
-      List<String> colIndexList = csvParsed.get(0);
-
-      // get index column name by counting index
-      Integer colIndex = null;
-      for (int j = 0; j < colIndexList.size(); j++) {
-        // case-insensitive for colIdentifier
-        if (colIndexList.get(j).equalsIgnoreCase(colIdentifier)) {
-          colIndex = j;
-          break; // breaks at first instance column name
-        }
-      }
+      Integer colIndex = colIndexOf(csvParsed.get(0), colIdentifier);
 
       //searchByColumnIndex() on colIndex
       List<T> results = this.searchByColIndex(searchVal, colIndex);
@@ -78,9 +69,8 @@ public class Searcher<T> {
         List<T> csvObjects = p.parseObjectsWithHeaders();
         // sees if any row (except for first) has index value that matches searchVal
         for (int i = 1; i < csvParsed.size(); i++) {
-          String str = csvParsed.get(i).get(index);
           // if matches, adds row T object to results
-          if (searchVal.equalsIgnoreCase(str)) {
+          if (fieldMatches(csvParsed.get(i), index, searchVal)) {
             results.add(csvObjects.get(i - 1));
           }
         }
@@ -91,8 +81,7 @@ public class Searcher<T> {
         List<T> csvObjects = p.parseObjectsWithoutHeaders();
         // start for loop search on first row now no headers
         for (int i = 0; i < csvParsed.size(); i++) {
-          String str = csvParsed.get(i).get(index);
-          if (searchVal.equalsIgnoreCase(str)) {
+          if (fieldMatches(csvParsed.get(i), index, searchVal)) {
             results.add(csvObjects.get(i));
           }
         }
@@ -121,11 +110,9 @@ public class Searcher<T> {
 
       // start at first row search
       for (int i = 1; i < csvParsed.size(); i++) {
-        for (String str : csvParsed.get(i)) {
-          if (searchVal.equalsIgnoreCase(str)) {
-            results.add(csvObjects.get(i - 1));
-            break; // stop searching within row at first instance searchVal matches a row feild
-          }
+        // stops searching within row at first instance searchVal matches a row feild
+        if (anyFieldMatches(csvParsed.get(i), searchVal)) {
+          results.add(csvObjects.get(i - 1));
         }
       }
     }
@@ -135,14 +122,88 @@ public class Searcher<T> {
 
       // same as before, just now start search at first row
       for (int i = 0; i < csvParsed.size(); i++) {
-        for (String str : csvParsed.get(i)) {
-          if (searchVal.equalsIgnoreCase(str)) {
-            results.add(csvObjects.get(i));
-            break;
-          }
+        if (anyFieldMatches(csvParsed.get(i), searchVal)) {
+          results.add(csvObjects.get(i));
         }
       }
     }
     return Collections.unmodifiableList(results);
   }
+
+  /**
+   * finds a column by name in the header row, the way searchByColName does
+   *
+   * @param headers header row
+   * @param colIdentifier name of column, case-insensitive
+   * @return index of first column with that name, or null if there isn't one
+   */
+  public static Integer colIndexOf(List<String> headers, String colIdentifier) {
+    // get index column name by counting index
+    for (int j = 0; j < headers.size(); j++) {
+      // case-insensitive for colIdentifier
+      if (headers.get(j).equalsIgnoreCase(colIdentifier)) {
+        return j; // returns at first instance column name
+      }
+    }
+    return null;
+  }
+
+  /**
+   * test for rows matching a search by column index, for searching rows as they're read instead
+   * of from a Parser. Matches the same rows searchByColIndex does, except that a row too short to
+   * have the column just doesn't match instead of failing the whole search.
+   *
+   * @param searchVal value to search for
+   * @param index of column to search in
+   * @return test that is true for matching rows
+   */
+  public static Predicate<List<String>> colIndexMatcher(String searchVal, int index) {
+    return row -> index < row.size() && fieldMatches(row, index, searchVal);
+  }
+
+  /**
+   * test for rows matching a search of all columns, like searchAllCol
+   *
+   * @param searchVal value to search for
+   * @return test that is true for matching rows
+   */
+  public static Predicate<List<String>> allColMatcher(String searchVal) {
+    return row -> anyFieldMatches(row, searchVal);
+  }
+
+  /**
+   * checks one field of a row against searchVal case-insensitive. Rows from Parser are compared in
+   * place so no String is made for the field.
+   *
+   * @param row row to check
+   * @param index index of field to check
+   * @param searchVal value to search for
+   * @return true if field matches
+   * @throws IndexOutOfBoundsException thrown if index not valid in row
+   */
+  private static boolean fieldMatches(List<String> row, int index, String searchVal) {
+    if (row instanceof Row) {
+      return ((Row) row).fieldEqualsIgnoreCase(index, searchVal);
+    }
+    return searchVal.equalsIgnoreCase(row.get(index));
+  }
+
+  /**
+   * checks every field of a row against searchVal case-insensitive
+   *
+   * @param row row to check
+   * @param searchVal value to search for
+   * @return true if any field matches
+   */
+  private static boolean anyFieldMatches(List<String> row, String searchVal) {
+    if (row instanceof Row) {
+      return ((Row) row).anyFieldEqualsIgnoreCase(searchVal);
+    }
+    for (String str : row) {
+      if (searchVal.equalsIgnoreCase(str)) {
+        return true;
+      }
+    }
+    return false;
+  }
 }
@@ -3,7 +3,6 @@ package edu.brown.cs.student.main.server.datasource;
 import com.squareup.moshi.JsonAdapter;
 import com.squareup.moshi.Moshi;
 import java.io.IOException;
-import java.lang.reflect.Type;
 import java.net.HttpURLConnection;
 import java.net.URL;
 import java.net.URLConnection;
@@ -20,6 +19,11 @@ import okio.Buffer;
  */
 public class ACSAPIDatasource implements BroadBandDatasource {
 
+    // every census response is a list of rows, so one adapter is built and shared by all requests
+    private static final JsonAdapter<List<List<String>>> ROWS_ADAPTER = new Moshi.Builder().build()
+            .adapter(Types.newParameterizedType(List.class,
+                    Types.newParameterizedType(List.class, String.class)));
+
     /**
      * Constructor for the datasource.
      */
@@ -36,11 +40,7 @@ public class ACSAPIDatasource implements BroadBandDatasource {
       public String getStateToCode(String stateName) throws IOException, DatasourceException {
           URL requestURL = new URL("https", "api.census.gov", "/data/2010/dec/sf1?get=NAME&for=state:*");
           HttpURLConnection clientConnection = connect(requestURL);
-          Moshi moshi = new Moshi.Builder().build();
-          Type listString = Types.newParameterizedType(List.class, String.class);
-          Type listListString = Types.newParameterizedType(List.class, listString);
-          JsonAdapter<List<List<String>>> adapter = moshi.adapter(listListString);
-          List<List<String>> body = adapter.fromJson(new Buffer().readFrom(clientConnection.getInputStream()));
+          List<List<String>> body = ROWS_ADAPTER.fromJson(new Buffer().readFrom(clientConnection.getInputStream()));
           clientConnection.disconnect();
 
           Map<String, String> statesToCodes = new HashMap<>();
@@ -67,11 +67,7 @@ public class ACSAPIDatasource implements BroadBandDatasource {
                   "/data/2010/dec/sf1?get=NAME&for=county:*&in=state:"+state);
           HttpURLConnection clientConnection = connect(requestURL);
 
-          Moshi moshi = new Moshi.Builder().build();
-          Type listString = Types.newParameterizedType(List.class, String.class);
-          Type listListString = Types.newParameterizedType(List.class, listString);
-          JsonAdapter<List<List<String>>> adapter = moshi.adapter(listListString);
-          List<List<String>> body = adapter.fromJson(new Buffer().readFrom(clientConnection.getInputStream()));
+          List<List<String>> body = ROWS_ADAPTER.fromJson(new Buffer().readFrom(clientConnection.getInputStream()));
           clientConnection.disconnect();
 
           Map<String, String> countiesToCodes = new HashMap<>();
@@ -115,12 +111,8 @@ public class ACSAPIDatasource implements BroadBandDatasource {
           URL requestURL = new URL("https", "api.census.gov", "/data/2021/acs/acs1/subject/variables?get=NAME,S2802_C03_022E&for=county:" + county
                               + "&in=state:" + state);
           HttpURLConnection clientConnection = connect(requestURL);
-          Moshi moshi = new Moshi.Builder().build();
-          Type listString = Types.newParameterizedType(List.class, String.class);
-          Type listListString = Types.newParameterizedType(List.class, listString);
-          JsonAdapter<List<List<String>>> adapter = moshi.adapter(listListString);
 
-          List<List<String>> body = adapter.fromJson(new Buffer().readFrom(clientConnection.getInputStream()));
+          List<List<String>> body = ROWS_ADAPTER.fromJson(new Buffer().readFrom(clientConnection.getInputStream()));
           clientConnection.disconnect();
           return body;
       }
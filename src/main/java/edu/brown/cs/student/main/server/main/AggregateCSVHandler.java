@@ -0,0 +1,181 @@
+package edu.brown.cs.student.main.server.main;
+
+import spark.Request;
+import spark.Response;
+import spark.Route;
+
+/**
+ * AggregateCSVHandler groups the rows of the loaded csv and sends counts, sums, minimums, maximums
+ * and averages of each group, so users don't have to download every row to work them out. This
+ * class is dependency injected with the LoadCSVHandler so that it can access the loaded csv.
+ *
+ * <p>The groupBy query param is a comma separated list of the columns to group by (header names
+ * or indexes, like fields); without it every row is one group. The aggregates query param is a
+ * comma separated list like "count,sum(score),avg(score)", where count on its own counts rows and
+ * count, sum, min, max and avg of a column are of the numbers in it (see Aggregation). It defaults
+ * to count.
+ *
+ * <p>Groups are sent as a table with a row per group, in any ResponseFormat, with the grouped
+ * columns' values followed by the aggregates. Like searchcsv, responses are compressed for clients
+ * that accept it, tagged with an ETag for the loaded csv's version, and kept in a small cache.
+ */
+public class AggregateCSVHandler implements Route {
+
+  private final LoadCSVHandler loader;
+  private final ResponseCompression compression;
+  private final ResponseCache cache = new ResponseCache(256, 32L << 20);
+
+  /**
+   * Constructor for AggregateCSVHandler that compresses with the default settings.
+   *
+   * @param loader - the LoadCSVHandler instantiated in Server
+   */
+  public AggregateCSVHandler(LoadCSVHandler loader) {
+    this(loader, new ResponseCompression());
+  }
+
+  /**
+   * Constructor for AggregateCSVHandler, called in Server.
+   *
+   * @param loader - the LoadCSVHandler instantiated in Server
+   * @param compression - how to compress responses
+   */
+  public AggregateCSVHandler(LoadCSVHandler loader, ResponseCompression compression) {
+    this.loader = loader;
+    this.compression = compression;
+  }
+
+  /**
+   * Handles the user's request, answering with the aggregated groups.
+   *
+   * @param request - the user's request
+   * @param response - allows us to return a response to the user
+   * @return a success or failure response
+   */
+  public Object handle(Request request, Response response) {
+    CSVDataset dataset;
+    try {
+      dataset = this.loader.getDataset(); // the same snapshot is used for the whole aggregation
+    } catch (IllegalStateException e) {
+      return new AggregateFailureResponse().serialize();
+    }
+    ResponseFormat format;
+    try {
+      format = ResponseFormat.of(request);
+    } catch (IllegalArgumentException e) {
+      return new FormatAggregateFailureResponse(request.queryParams("format")).serialize();
+    }
+    String groupBy = request.queryParams("groupBy");
+    String aggregates = request.queryParams("aggregates");
+    ResponseCompression.Encoding encoding = this.compression.negotiate(request);
+    response.header("Vary", "Accept, Accept-Encoding");
+    if (dataset.getSample() != null) { // so every format shows the groups are only of a sample
+      response.header("X-CSV-Sample", dataset.getSample().header());
+    }
+    String etag = ResponseCache.etag(dataset.getVersion(), request, format + "|" + encoding);
+    if (ResponseCache.notModified(request, response, etag)) {
+      return "";
+    }
+    ResponseCache.Body cached = this.cache.get(etag);
+    if (cached != null) {
+      return cached.send(response, format.contentType());
+    }
+
+    Aggregation.Result result;
+    try {
+      result = dataset.aggregate(groupBy, aggregates);
+    } catch (IllegalArgumentException e) {
+      return new ParamsAggregateFailureResponse(groupBy, aggregates).serialize();
+    }
+    byte[] encoded =
+        format.encode(result.headers(), result.rows(), null, 1, dataset.responseFields());
+    ResponseCache.Body body = this.compression.encode(encoded, encoding);
+    this.cache.put(etag, body);
+    return body.send(response, format.contentType());
+  }
+
+  /**
+   * Failure response if the user asks to aggregate before loading a csv.
+   *
+   * @param response_type - in this case, "error_datasource"
+   */
+  public record AggregateFailureResponse(String response_type) {
+
+    /**
+     * Constructor for the failure response.
+     */
+    public AggregateFailureResponse() {
+      this("error_datasource: make sure you loaded your csv properly before aggregating it");
+    }
+
+    /**
+     * Returns the failure response as a json.
+     *
+     * @return this response, serialized as Json
+     */
+    byte[] serialize() {
+      return ResponseSerializer.serialize(this);
+    }
+  }
+
+  /**
+   * Failure response if the user asks for a format that doesn't exist.
+   *
+   * @param response_type - in this case, "error_bad_request"
+   * @param format - the format the user asked for
+   */
+  public record FormatAggregateFailureResponse(String response_type, String format) {
+
+    /**
+     * Constructor for the failure response.
+     *
+     * @param format - the format the user asked for
+     */
+    public FormatAggregateFailureResponse(String format) {
+      this("error_bad_request: format must be 'json', 'columnar', 'ndjson', 'csv', 'binary', "
+          + "'arrow', or 'arrow-stream'",
+          format);
+    }
+
+    /**
+     * Returns the failure response as a json.
+     *
+     * @return this response, serialized as Json
+     */
+    byte[] serialize() {
+      return ResponseSerializer.serialize(this);
+    }
+  }
+
+  /**
+   * Failure response if groupBy or aggregates aren't valid.
+   *
+   * @param response_type - in this case, "error_bad_request"
+   * @param groupBy - what the user sent for groupBy
+   * @param aggregates - what the user sent for aggregates
+   */
+  public record ParamsAggregateFailureResponse(String response_type, String groupBy,
+      String aggregates) {
+
+    /**
+     * Constructor for the failure response.
+     *
+     * @param groupBy - what the user sent for groupBy
+     * @param aggregates - what the user sent for aggregates
+     */
+    public ParamsAggregateFailureResponse(String groupBy, String aggregates) {
+      this("error_bad_request: groupBy must be a comma separated list of header names or column"
+          + " indexes in the loaded csv, and aggregates a comma separated list of count, or count,"
+          + " sum, min, max or avg of a column, like avg(score)", groupBy, aggregates);
+    }
+
+    /**
+     * Returns the failure response as a json.
+     *
+     * @return this response, serialized as Json
+     */
+    byte[] serialize() {
+      return ResponseSerializer.serialize(this);
+    }
+  }
+}
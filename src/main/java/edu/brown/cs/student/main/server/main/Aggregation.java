@@ -0,0 +1,350 @@
+package edu.brown.cs.student.main.server.main;
+
+import edu.brown.cs.student.main.csv.RowSelection;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.stream.IntStream;
+
+/**
+ * Aggregation groups a dataset's rows by the values of some of its columns and works out
+ * aggregates of each group: how many rows it has, and the count, sum, smallest, biggest and
+ * average of the numbers in a column. Values are grouped ignoring case, like searches, and a group
+ * is named by the values as first written. Groups come out in the order they first appear.
+ *
+ * <p>It works on the dataset's ColumnStore rather than its rows. Each row's group is worked out
+ * from the codes of the grouped columns, then every aggregated column is one loop over its array of
+ * numbers adding into arrays of counts, sums, minimums and maximums indexed by group, with nothing
+ * boxed or hashed per row. The rows are split into partitions that are aggregated in parallel and
+ * then merged. Each partition needs its own arrays, so there are only as many partitions as there
+ * are rows per group to make them worth it.
+ *
+ * <p>Values that aren't numbers, like blanks, are left out of everything but the row count, and a
+ * group with no numbers in a column has blank sum, min, max and avg for it.
+ */
+public final class Aggregation {
+
+  private static final int MIN_PARTITION_ROWS = 1 << 16;
+  private static final Pattern AGGREGATE = Pattern.compile(
+      "(count|sum|min|max|avg)\\s*(?:\\(\\s*(.*?)\\s*\\))?", Pattern.CASE_INSENSITIVE);
+
+  /** What an aggregate works out for each group. */
+  public enum Function {
+    COUNT, SUM, MIN, MAX, AVG
+  }
+
+  /**
+   * One aggregate asked for.
+   *
+   * @param function - what to work out
+   * @param column - index of the column of numbers to work it out for, or -1 to count rows
+   * @param label - what to call it in the response, like "avg(score)"
+   */
+  public record Aggregate(Function function, int column, String label) {}
+
+  /**
+   * The aggregated groups, one row each, as a table that can be sent in any ResponseFormat.
+   *
+   * @param headers - the grouped columns' names, then the aggregates' labels
+   * @param rows - each group's values, then its aggregates
+   */
+  public record Result(List<String> headers, List<List<String>> rows) {}
+
+  private Aggregation() {}
+
+  /**
+   * Reads aggregates from a comma separated list like "count,avg(score),max(2)". count on its own
+   * counts rows; every other aggregate, and count of a column, is of the numbers in the column,
+   * which is a header name or index like the fields param of viewcsv.
+   *
+   * @param aggregates - the list, or null for just count
+   * @param headers - the csv's headers, or null if it has none
+   * @return the aggregates, in the order asked for
+   * @throws IllegalArgumentException if one isn't an aggregate of a column of the csv
+   */
+  public static List<Aggregate> parse(String aggregates, List<String> headers) {
+    List<String> split = RowSelection.splitColumns(aggregates);
+    if (split == null) {
+      return List.of(new Aggregate(Function.COUNT, -1, "count"));
+    }
+    List<Aggregate> parsed = new ArrayList<>();
+    for (String aggregate : split) {
+      Matcher matcher = AGGREGATE.matcher(aggregate);
+      if (!matcher.matches()) {
+        throw new IllegalArgumentException("not an aggregate: " + aggregate);
+      }
+      Function function = Function.valueOf(matcher.group(1).toUpperCase(Locale.ROOT));
+      String column = matcher.group(2);
+      if (column == null && function != Function.COUNT) {
+        throw new IllegalArgumentException(aggregate + " needs a column");
+      }
+      String name = function.name().toLowerCase(Locale.ROOT);
+      if (column == null) {
+        parsed.add(new Aggregate(function, -1, name));
+      } else {
+        int index = RowSelection.columnIndex(column, headers);
+        parsed.add(new Aggregate(function, index, name + "(" + label(index, headers) + ")"));
+      }
+    }
+    return parsed;
+  }
+
+  /**
+   * Groups rows and works out aggregates of each group.
+   *
+   * @param store - the dataset's columns
+   * @param rowCount - how many rows the dataset has
+   * @param headers - the csv's headers, or null if it has none
+   * @param groupColumns - indexes of the columns to group by; with none, every row is one group
+   * @param aggregates - the aggregates to work out
+   * @return the groups and their aggregates
+   */
+  static Result run(ColumnStore store, int rowCount, List<String> headers, int[] groupColumns,
+      List<Aggregate> aggregates) {
+    int[] groups = new int[rowCount];
+    int groupCount = groupColumns.length == 0 ? 1 : group(store, groupColumns, groups);
+    int[] firstRows = new int[groupCount];
+    Arrays.fill(firstRows, -1);
+    for (int r = 0; r < rowCount; r++) {
+      if (firstRows[groups[r]] < 0) {
+        firstRows[groups[r]] = r;
+      }
+    }
+
+    int[] columns = aggregates.stream().mapToInt(Aggregate::column).filter(c -> c >= 0).distinct()
+        .toArray();
+    double[][] numbers = new double[columns.length][];
+    for (int k = 0; k < columns.length; k++) {
+      numbers[k] = store.numbers(columns[k]);
+    }
+    int partitions = Math.max(1, Math.min(Runtime.getRuntime().availableProcessors(),
+        Math.min(rowCount / MIN_PARTITION_ROWS, rowCount / Math.max(1, groupCount))));
+    Totals totals = IntStream.range(0, partitions).parallel()
+        .mapToObj(p -> new Totals(groupCount, columns.length)
+            .add(groups, numbers, (int) ((long) rowCount * p / partitions),
+                (int) ((long) rowCount * (p + 1) / partitions)))
+        .reduce(Totals::merge).orElseThrow();
+
+    List<String> resultHeaders = new ArrayList<>();
+    for (int column : groupColumns) {
+      resultHeaders.add(label(column, headers));
+    }
+    for (Aggregate aggregate : aggregates) {
+      resultHeaders.add(aggregate.label());
+    }
+    List<ColumnStore.Codes> codes = new ArrayList<>();
+    for (int column : groupColumns) {
+      codes.add(store.codes(column));
+    }
+    List<List<String>> rows = new ArrayList<>(groupCount);
+    for (int g = 0; g < groupCount; g++) {
+      List<String> row = new ArrayList<>(resultHeaders.size());
+      for (ColumnStore.Codes column : codes) {
+        row.add(column.values().get(column.codes()[firstRows[g]]));
+      }
+      for (Aggregate aggregate : aggregates) {
+        int k = aggregate.column() < 0 ? -1 : indexOf(columns, aggregate.column());
+        row.add(totals.value(aggregate.function(), k, g));
+      }
+      rows.add(List.copyOf(row));
+    }
+    return new Result(List.copyOf(resultHeaders), List.copyOf(rows));
+  }
+
+  /**
+   * Works out each row's group from the codes of the grouped columns. One column's codes already
+   * are groups; each column after that splits the groups so far by its codes, numbering the pairs
+   * in the order they first appear.
+   *
+   * @param groups - filled in with each row's group
+   * @return how many groups there are
+   */
+  private static int group(ColumnStore store, int[] groupColumns, int[] groups) {
+    ColumnStore.Codes first = store.codes(groupColumns[0]);
+    System.arraycopy(first.codes(), 0, groups, 0, groups.length);
+    int groupCount = first.values().size();
+    for (int k = 1; k < groupColumns.length; k++) {
+      ColumnStore.Codes next = store.codes(groupColumns[k]);
+      long width = next.values().size();
+      GroupIds ids = new GroupIds();
+      for (int r = 0; r < groups.length; r++) {
+        groups[r] = ids.id(groups[r] * width + next.codes()[r]);
+      }
+      groupCount = ids.size();
+    }
+    return groupCount;
+  }
+
+  private static String label(int column, List<String> headers) {
+    return headers != null && column < headers.size() ? headers.get(column)
+        : Integer.toString(column);
+  }
+
+  private static int indexOf(int[] columns, int column) {
+    for (int k = 0; k < columns.length; k++) {
+      if (columns[k] == column) {
+        return k;
+      }
+    }
+    throw new IllegalArgumentException("column " + column + " wasn't aggregated");
+  }
+
+  /**
+   * Writes a number the way it would be written in a csv: whole numbers without a decimal point.
+   *
+   * @return the number, or "" for NaN
+   */
+  private static String format(double number) {
+    if (Double.isNaN(number)) {
+      return "";
+    }
+    if (number == Math.rint(number) && Math.abs(number) < 1e15) {
+      return Long.toString((long) number);
+    }
+    return Double.toString(number);
+  }
+
+  /**
+   * Running totals of each group, for the rows of one partition and then, merged, for all of them.
+   * There's one array of each kind per aggregated column, indexed by group.
+   */
+  private static final class Totals {
+    private final long[] rows;
+    private final long[][] counts;
+    private final double[][] sums;
+    private final double[][] mins;
+    private final double[][] maxes;
+
+    Totals(int groupCount, int columnCount) {
+      this.rows = new long[groupCount];
+      this.counts = new long[columnCount][groupCount];
+      this.sums = new double[columnCount][groupCount];
+      this.mins = new double[columnCount][groupCount];
+      this.maxes = new double[columnCount][groupCount];
+      for (int k = 0; k < columnCount; k++) {
+        Arrays.fill(this.mins[k], Double.POSITIVE_INFINITY);
+        Arrays.fill(this.maxes[k], Double.NEGATIVE_INFINITY);
+      }
+    }
+
+    /**
+     * Adds rows start to end, a column at a time.
+     *
+     * @return this
+     */
+    Totals add(int[] groups, double[][] numbers, int start, int end) {
+      for (int r = start; r < end; r++) {
+        this.rows[groups[r]]++;
+      }
+      for (int k = 0; k < numbers.length; k++) {
+        double[] column = numbers[k];
+        long[] counts = this.counts[k];
+        double[] sums = this.sums[k];
+        double[] mins = this.mins[k];
+        double[] maxes = this.maxes[k];
+        for (int r = start; r < end; r++) {
+          double number = column[r];
+          if (number == number) { // not NaN
+            int g = groups[r];
+            counts[g]++;
+            sums[g] += number;
+            mins[g] = Math.min(mins[g], number);
+            maxes[g] = Math.max(maxes[g], number);
+          }
+        }
+      }
+      return this;
+    }
+
+    /**
+     * Adds another partition's totals into these.
+     *
+     * @return this
+     */
+    Totals merge(Totals other) {
+      for (int g = 0; g < this.rows.length; g++) {
+        this.rows[g] += other.rows[g];
+      }
+      for (int k = 0; k < this.counts.length; k++) {
+        for (int g = 0; g < this.rows.length; g++) {
+          this.counts[k][g] += other.counts[k][g];
+          this.sums[k][g] += other.sums[k][g];
+          this.mins[k][g] = Math.min(this.mins[k][g], other.mins[k][g]);
+          this.maxes[k][g] = Math.max(this.maxes[k][g], other.maxes[k][g]);
+        }
+      }
+      return this;
+    }
+
+    /**
+     * @param k - which aggregated column, or -1 for the row count
+     * @return the aggregate of group g, written as a csv value
+     */
+    String value(Function function, int k, int g) {
+      if (k < 0) {
+        return Long.toString(this.rows[g]);
+      }
+      long count = this.counts[k][g];
+      return switch (function) {
+        case COUNT -> Long.toString(count);
+        case SUM -> count == 0 ? "" : format(this.sums[k][g]);
+        case MIN -> count == 0 ? "" : format(this.mins[k][g]);
+        case MAX -> count == 0 ? "" : format(this.maxes[k][g]);
+        case AVG -> count == 0 ? "" : format(this.sums[k][g] / count);
+      };
+    }
+  }
+
+  /**
+   * Numbers keys in the order they're first given, with no boxing. A key is stored plus one, so
+   * 0 can mark an empty slot.
+   */
+  private static final class GroupIds {
+    private long[] keys = new long[16];
+    private int[] ids = new int[16];
+    private int size;
+
+    int id(long key) {
+      int slot = this.find(key + 1);
+      if (this.keys[slot] != 0) {
+        return this.ids[slot];
+      }
+      this.keys[slot] = key + 1;
+      this.ids[slot] = this.size++;
+      if (2 * this.size > this.keys.length) {
+        long[] oldKeys = this.keys;
+        int[] oldIds = this.ids;
+        this.keys = new long[2 * oldKeys.length];
+        this.ids = new int[this.keys.length];
+        for (int k = 0; k < oldKeys.length; k++) {
+          if (oldKeys[k] != 0) {
+            int moved = this.find(oldKeys[k]);
+            this.keys[moved] = oldKeys[k];
+            this.ids[moved] = oldIds[k];
+          }
+        }
+      }
+      return this.size - 1;
+    }
+
+    int size() {
+      return this.size;
+    }
+
+    /**
+     * @return the slot the stored key is in, or the empty slot it would go in
+     */
+    private int find(long stored) {
+      int mask = this.keys.length - 1;
+      long mixed = stored * 0x9e3779b97f4a7c15L; // keys that only differ in high bits spread out
+      int slot = (int) (mixed >>> 32) & mask;
+      while (this.keys[slot] != 0 && this.keys[slot] != stored) {
+        slot = (slot + 1) & mask;
+      }
+      return slot;
+    }
+  }
+}
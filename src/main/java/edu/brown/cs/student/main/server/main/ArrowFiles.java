@@ -0,0 +1,689 @@
+package edu.brown.cs.student.main.server.main;
+
+import edu.brown.cs.student.main.csv.RowReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.CharBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import org.apache.arrow.flatbuf.Block;
+import org.apache.arrow.flatbuf.Buffer;
+import org.apache.arrow.flatbuf.DateUnit;
+import org.apache.arrow.flatbuf.Decimal;
+import org.apache.arrow.flatbuf.DictionaryBatch;
+import org.apache.arrow.flatbuf.DictionaryEncoding;
+import org.apache.arrow.flatbuf.Endianness;
+import org.apache.arrow.flatbuf.Field;
+import org.apache.arrow.flatbuf.FieldNode;
+import org.apache.arrow.flatbuf.FloatingPoint;
+import org.apache.arrow.flatbuf.Footer;
+import org.apache.arrow.flatbuf.Int;
+import org.apache.arrow.flatbuf.Message;
+import org.apache.arrow.flatbuf.MessageHeader;
+import org.apache.arrow.flatbuf.Precision;
+import org.apache.arrow.flatbuf.RecordBatch;
+import org.apache.arrow.flatbuf.Schema;
+import org.apache.arrow.flatbuf.TimeUnit;
+import org.apache.arrow.flatbuf.Timestamp;
+import org.apache.arrow.flatbuf.Type;
+
+/**
+ * ArrowFiles reads Arrow IPC files, so a csv can be loaded straight from the columns another
+ * program wrote rather than from csv text. Both of Arrow's IPC formats can be loaded: the file
+ * format (.arrow, or Feather version 2) and the stream format (.arrows). Which one a file is in is
+ * told by how it starts, not its name.
+ *
+ * <p>Each record batch's body is memory mapped and its buffers are read in place: strings are
+ * decoded from the batch's UTF-8 data straight into the rows' shared buffers, and other values are
+ * written out as text, with no csv splitting or quote handling. Rows come out of a RowReader, so
+ * the columns, filter and sample a csv is loaded with work the same way. The column names are the
+ * header row if the csv is loaded with headers, and nulls are empty fields.
+ *
+ * <p>Columns can be strings, integers, floating point numbers, booleans, decimals, dates,
+ * timestamps, nulls, or dictionary encoded columns of any of those. Files with nested columns,
+ * compressed batches, or big-endian buffers can't be loaded.
+ */
+final class ArrowFiles {
+
+  static final String MAGIC = "ARROW1";
+  static final int CONTINUATION = 0xFFFFFFFF; // starts each message of a stream
+
+  private ArrowFiles() {}
+
+  /**
+   * Checks whether a file is in one of Arrow's IPC formats.
+   *
+   * @param file - the file to check
+   * @return whether the file starts like an Arrow file or stream
+   * @throws IOException if the file can't be read
+   */
+  static boolean isArrow(File file) throws IOException {
+    try (InputStream in = new FileInputStream(file)) {
+      byte[] start = in.readNBytes(MAGIC.length());
+      return start.length >= 4 && (ByteBuffer.wrap(start).getInt() == CONTINUATION
+          || new String(start, StandardCharsets.US_ASCII).equals(MAGIC));
+    }
+  }
+
+  /**
+   * Opens the first size bytes of an Arrow file to be read a row at a time.
+   *
+   * @param file - the file to read
+   * @param size - how many bytes of the file to read
+   * @param hasHeaders - whether to send the column names as the first row
+   * @return reader for the file's rows
+   * @throws ArrowFormatException if the file isn't an Arrow file, or has columns that can't be
+   *     loaded
+   * @throws IOException if the file can't be read
+   */
+  static RowReader open(File file, long size, boolean hasHeaders) throws IOException {
+    FileChannel channel = new FileInputStream(file).getChannel(); // closing it closes the stream
+    try {
+      return new ArrowRowReader(channel, size, hasHeaders);
+    } catch (IOException | RuntimeException e) {
+      channel.close();
+      throw e;
+    }
+  }
+
+  /**
+   * What a column's values are, as read from its Arrow field.
+   *
+   * @param id - the Arrow Type the values are, like Type.Utf8
+   * @param bitWidth - bits per value, for types that have a width
+   * @param signed - whether integers are signed
+   * @param unit - the DateUnit or TimeUnit of dates and timestamps
+   * @param zoned - whether timestamps are of an instant rather than a local time
+   * @param scale - digits after the point, for decimals
+   */
+  private record ValueType(byte id, int bitWidth, boolean signed, short unit, boolean zoned,
+      int scale) {
+
+    /**
+     * @return how many buffers each batch has for a column of this type
+     */
+    int buffers() {
+      return switch (this.id) {
+        case Type.Null -> 0;
+        case Type.Utf8, Type.LargeUtf8 -> 3;
+        default -> 2;
+      };
+    }
+  }
+
+  /**
+   * One column of a file.
+   *
+   * @param name - the column's name
+   * @param type - what its values are
+   * @param dictionary - id of the dictionary its values are in if it's dictionary encoded, so
+   *     batches only hold indexes into the dictionary, or -1 if it isn't
+   * @param indexType - what the indexes into the dictionary are, if it's dictionary encoded
+   */
+  private record Column(String name, ValueType type, long dictionary, ValueType indexType) {
+
+    /**
+     * @return what a batch's buffers for this column hold
+     */
+    ValueType stored() {
+      return this.dictionary < 0 ? this.type : this.indexType;
+    }
+  }
+
+  /**
+   * One column of one record batch, with its buffers sliced out of the batch's mapped body.
+   *
+   * @param type - what the buffers hold
+   * @param validity - a bit per value, set if it isn't null, or null if no value is
+   * @param offsets - where each string starts in data, and where the last one ends
+   * @param data - the values
+   */
+  private record Values(ValueType type, ByteBuffer validity, ByteBuffer offsets,
+      ByteBuffer data) {
+
+    boolean isNull(int row) {
+      return this.type.id() == Type.Null
+          || (this.validity != null && (this.validity.get(row >> 3) & (1 << (row & 7))) == 0);
+    }
+  }
+
+  /**
+   * RowReader over the record batches of an Arrow file.
+   */
+  private static final class ArrowRowReader extends RowReader {
+
+    private final FileChannel channel;
+    private final long size;
+    private final Column[] columns;
+    private final Map<Long, String[]> dictionaries = new HashMap<>();
+    private final long[] batchOffsets; // where the file format's batches are, or null for a stream
+    private final CharsetDecoder decoder = StandardCharsets.UTF_8.newDecoder()
+        .onMalformedInput(CodingErrorAction.REPLACE)
+        .onUnmappableCharacter(CodingErrorAction.REPLACE);
+    private List<String> headers; // the header row until it's been read, or null
+    private long position; // where a stream's next message is
+    private int nextBatch; // which of the file format's batches is next
+    private long bodyStart; // where the body of the message read last starts
+    private Values[] batch;
+    private int batchRows;
+    private int row;
+    private char[] scratch = new char[256];
+
+    ArrowRowReader(FileChannel channel, long size, boolean hasHeaders) throws IOException {
+      this.channel = channel;
+      this.size = size;
+      Schema schema;
+      ByteBuffer start = this.read(0, (int) Math.min(8, size));
+      if (start.limit() >= MAGIC.length() && MAGIC.equals(ascii(start, 0, MAGIC.length()))) {
+        // the file format: a footer at the end says where the schema and batches are
+        ByteBuffer end = size < 18 ? null : this.read(size - 10, 10);
+        if (end == null || !MAGIC.equals(ascii(end, 4, 6)) || end.getInt(0) <= 0
+            || end.getInt(0) > size - 18) {
+          throw new ArrowFormatException("the file's footer is missing, so it's cut short");
+        }
+        int footerLength = end.getInt(0);
+        Footer footer = Footer.getRootAsFooter(this.read(size - 10 - footerLength, footerLength));
+        schema = footer.schema();
+        this.columns = columns(schema);
+        for (int k = 0; k < footer.dictionariesLength(); k++) {
+          Message message = this.message(footer.dictionaries(k).offset());
+          if (message == null || message.headerType() != MessageHeader.DictionaryBatch) {
+            throw new ArrowFormatException("a dictionary block isn't a dictionary batch");
+          }
+          this.addDictionary(message);
+        }
+        this.batchOffsets = new long[footer.recordBatchesLength()];
+        Block block = new Block();
+        for (int k = 0; k < this.batchOffsets.length; k++) {
+          this.batchOffsets[k] = footer.recordBatches(block, k).offset();
+        }
+      } else {
+        // the stream format: the schema's the first message, then dictionaries and batches
+        Message message = this.message(0);
+        if (message == null || message.headerType() != MessageHeader.Schema) {
+          throw new ArrowFormatException("the stream doesn't start with a schema");
+        }
+        schema = (Schema) message.header(new Schema());
+        this.columns = columns(schema);
+        this.batchOffsets = null;
+        this.position = this.bodyStart + message.bodyLength();
+      }
+      if (schema.endianness() == Endianness.Big) {
+        throw new ArrowFormatException("big-endian files can't be loaded");
+      }
+      if (hasHeaders) {
+        this.headers = Arrays.stream(this.columns).map(Column::name).toList();
+      }
+    }
+
+    @Override
+    protected int readFields() throws IOException {
+      this.startLine();
+      if (this.headers != null) {
+        for (int k = 0; k < this.headers.size(); k++) {
+          String name = this.headers.get(k);
+          this.addLineField(k, this.copy(name), 0, name.length());
+        }
+        int count = this.headers.size();
+        this.headers = null;
+        return count;
+      }
+      while (this.batch == null || this.row >= this.batchRows) {
+        if (!this.nextBatch()) {
+          return -1;
+        }
+      }
+      int count = 0;
+      for (int k = 0; k < this.columns.length; k++) {
+        int length = this.value(k, this.row);
+        this.addLineField(k, this.scratch, 0, length);
+        if (length > 0) {
+          count = k + 1; // like a csv line, a row doesn't have empty fields at its end
+        }
+      }
+      this.row++;
+      return count;
+    }
+
+    @Override
+    public void close() throws IOException {
+      this.channel.close(); // batches already mapped stay readable
+    }
+
+    /**
+     * Moves on to the next record batch, adding any dictionaries that come before it.
+     *
+     * @return whether there was another batch
+     */
+    private boolean nextBatch() throws IOException {
+      while (true) {
+        Message message;
+        if (this.batchOffsets != null) {
+          if (this.nextBatch >= this.batchOffsets.length) {
+            return false;
+          }
+          message = this.message(this.batchOffsets[this.nextBatch++]);
+          if (message == null || message.headerType() != MessageHeader.RecordBatch) {
+            throw new ArrowFormatException("a record batch block isn't a record batch");
+          }
+        } else {
+          message = this.position < this.size ? this.message(this.position) : null;
+          if (message == null) {
+            return false; // the end of the stream
+          }
+          this.position = this.bodyStart + message.bodyLength();
+        }
+        if (message.headerType() == MessageHeader.DictionaryBatch) {
+          this.addDictionary(message);
+        } else if (message.headerType() == MessageHeader.RecordBatch) {
+          RecordBatch batch = (RecordBatch) message.header(new RecordBatch());
+          this.batch = this.values(batch, this.body(message), this.stored());
+          this.batchRows = (int) batch.length();
+          this.row = 0;
+          return true;
+        }
+      }
+    }
+
+    /**
+     * @return what each column's buffers hold
+     */
+    private ValueType[] stored() {
+      ValueType[] types = new ValueType[this.columns.length];
+      for (int k = 0; k < types.length; k++) {
+        types[k] = this.columns[k].stored();
+      }
+      return types;
+    }
+
+    /**
+     * Adds the values of a dictionary batch to its dictionary.
+     */
+    private void addDictionary(Message message) throws IOException {
+      DictionaryBatch dictionary = (DictionaryBatch) message.header(new DictionaryBatch());
+      ValueType type = null;
+      for (Column column : this.columns) {
+        if (column.dictionary() == dictionary.id()) {
+          type = column.type();
+        }
+      }
+      if (type == null) {
+        return; // a dictionary no column uses
+      }
+      RecordBatch data = dictionary.data();
+      Values values = this.values(data, this.body(message), new ValueType[] {type})[0];
+      String[] entries = new String[(int) data.length()];
+      for (int k = 0; k < entries.length; k++) {
+        entries[k] = values.isNull(k) ? "" : this.string(values, k);
+      }
+      String[] earlier = this.dictionaries.get(dictionary.id());
+      if (dictionary.isDelta() && earlier != null) {
+        String[] joined = Arrays.copyOf(earlier, earlier.length + entries.length);
+        System.arraycopy(entries, 0, joined, earlier.length, entries.length);
+        entries = joined;
+      }
+      this.dictionaries.put(dictionary.id(), entries);
+    }
+
+    /**
+     * Slices each column's buffers out of a batch's body.
+     */
+    private Values[] values(RecordBatch batch, ByteBuffer body, ValueType[] types)
+        throws ArrowFormatException {
+      if (batch.compression() != null) {
+        throw new ArrowFormatException("compressed batches can't be loaded");
+      }
+      if (batch.nodesLength() != types.length || batch.length() > Integer.MAX_VALUE) {
+        throw new ArrowFormatException("a batch doesn't match the schema");
+      }
+      Values[] values = new Values[types.length];
+      Buffer buffer = new Buffer();
+      FieldNode node = new FieldNode();
+      int next = 0;
+      for (int k = 0; k < types.length; k++) {
+        int count = types[k].buffers();
+        if (next + count > batch.buffersLength()) {
+          throw new ArrowFormatException("a batch doesn't match the schema");
+        }
+        ByteBuffer[] slices = new ByteBuffer[3];
+        for (int b = 0; b < count; b++) {
+          slices[b] = slice(body, batch.buffers(buffer, next++));
+        }
+        boolean nulls = count > 0 && batch.nodes(node, k).nullCount() > 0
+            && slices[0].limit() > 0;
+        values[k] = count == 3 ? new Values(types[k], nulls ? slices[0] : null, slices[1],
+            slices[2]) : new Values(types[k], nulls ? slices[0] : null, null, slices[1]);
+      }
+      return values;
+    }
+
+    /**
+     * Puts one value of the current batch in the scratch buffer.
+     *
+     * @return how many chars the value is
+     */
+    private int value(int column, int row) {
+      Values values = this.batch[column];
+      if (values.isNull(row)) {
+        return 0;
+      }
+      long dictionary = this.columns[column].dictionary();
+      if (dictionary >= 0) {
+        String[] entries = this.dictionaries.get(dictionary);
+        long index = integer(values, row);
+        String entry = entries != null && index >= 0 && index < entries.length
+            ? entries[(int) index] : "";
+        this.copy(entry);
+        return entry.length();
+      }
+      byte id = values.type().id();
+      if (id == Type.Utf8 || id == Type.LargeUtf8) {
+        return this.decode(values, row);
+      }
+      String text = text(values, row);
+      this.copy(text);
+      return text.length();
+    }
+
+    /**
+     * @return a value of a string column, or any other column as text
+     */
+    private String string(Values values, int row) {
+      byte id = values.type().id();
+      if (id == Type.Utf8 || id == Type.LargeUtf8) {
+        return new String(this.scratch, 0, this.decode(values, row));
+      }
+      return text(values, row);
+    }
+
+    /**
+     * Decodes a string's UTF-8 bytes into the scratch buffer, a char per byte while they're
+     * ASCII.
+     *
+     * @return how many chars the string is
+     */
+    private int decode(Values values, int row) {
+      ByteBuffer data = values.data();
+      int start;
+      int end;
+      if (values.type().id() == Type.Utf8) {
+        start = values.offsets().getInt(4 * row);
+        end = values.offsets().getInt(4 * row + 4);
+      } else {
+        start = (int) values.offsets().getLong(8 * row);
+        end = (int) values.offsets().getLong(8 * row + 8);
+      }
+      if (this.scratch.length < end - start) { // never more chars than bytes
+        this.scratch = new char[Math.max(2 * this.scratch.length, end - start)];
+      }
+      int length = 0;
+      int i = start;
+      for (; i < end; i++) {
+        byte b = data.get(i);
+        if (b < 0) {
+          break;
+        }
+        this.scratch[length++] = (char) b;
+      }
+      if (i < end) {
+        CharBuffer out = CharBuffer.wrap(this.scratch, length, this.scratch.length - length);
+        this.decoder.reset();
+        this.decoder.decode(data.slice(i, end - i), out, true);
+        this.decoder.flush(out);
+        length = out.position();
+      }
+      return length;
+    }
+
+    /**
+     * Puts text in the scratch buffer.
+     *
+     * @return the scratch buffer
+     */
+    private char[] copy(String text) {
+      if (this.scratch.length < text.length()) {
+        this.scratch = new char[Math.max(2 * this.scratch.length, text.length())];
+      }
+      text.getChars(0, text.length(), this.scratch, 0);
+      return this.scratch;
+    }
+
+    /**
+     * Reads the message at a position, remembering where its body starts.
+     *
+     * @return the message, or null if it's the end of a stream
+     */
+    private Message message(long position) throws IOException {
+      ByteBuffer prefix = this.read(position, (int) Math.min(8, this.size - position));
+      if (prefix.limit() < 4) {
+        return null; // a stream that ends without saying so
+      }
+      long metadata = position + 4;
+      int length = prefix.getInt(0);
+      if (length == CONTINUATION) {
+        length = prefix.limit() < 8 ? 0 : prefix.getInt(4);
+        metadata += 4;
+      }
+      if (length == 0) {
+        return null;
+      }
+      if (length < 0 || metadata + length > this.size) {
+        throw new ArrowFormatException("a message is cut short");
+      }
+      this.bodyStart = metadata + length;
+      return Message.getRootAsMessage(this.read(metadata, length));
+    }
+
+    /**
+     * Maps the body of the message read last.
+     */
+    private ByteBuffer body(Message message) throws IOException {
+      long length = message.bodyLength();
+      if (length < 0 || length > Integer.MAX_VALUE || this.bodyStart + length > this.size) {
+        throw new ArrowFormatException("a batch is cut short, or too big to load");
+      }
+      return this.channel.map(FileChannel.MapMode.READ_ONLY, this.bodyStart, length)
+          .order(ByteOrder.LITTLE_ENDIAN);
+    }
+
+    /**
+     * Reads bytes of the file into a little-endian buffer.
+     */
+    private ByteBuffer read(long position, int length) throws IOException {
+      if (position < 0 || length < 0) {
+        throw new ArrowFormatException("the file is cut short");
+      }
+      ByteBuffer bytes = ByteBuffer.allocate(length).order(ByteOrder.LITTLE_ENDIAN);
+      while (bytes.hasRemaining()) {
+        if (this.channel.read(bytes, position + bytes.position()) < 0) {
+          throw new ArrowFormatException("the file is cut short");
+        }
+      }
+      return bytes.flip();
+    }
+  }
+
+  /**
+   * Reads the columns of a schema.
+   */
+  private static Column[] columns(Schema schema) throws ArrowFormatException {
+    if (schema == null) {
+      throw new ArrowFormatException("the file has no schema");
+    }
+    Column[] columns = new Column[schema.fieldsLength()];
+    for (int k = 0; k < columns.length; k++) {
+      Field field = schema.fields(k);
+      String name = field.name() == null ? "" : field.name();
+      ValueType type = type(name, field);
+      DictionaryEncoding encoding = field.dictionary();
+      if (encoding == null) {
+        columns[k] = new Column(name, type, -1, null);
+      } else {
+        Int index = encoding.indexType();
+        columns[k] = new Column(name, type, encoding.id(), index == null
+            ? new ValueType(Type.Int, 32, true, (short) 0, false, 0)
+            : new ValueType(Type.Int, index.bitWidth(), index.isSigned(), (short) 0, false, 0));
+      }
+    }
+    return columns;
+  }
+
+  /**
+   * Reads what a field's values are.
+   *
+   * @throws ArrowFormatException if they're a type that can't be loaded
+   */
+  private static ValueType type(String name, Field field) throws ArrowFormatException {
+    byte id = field.typeType();
+    switch (id) {
+      case Type.Null, Type.Utf8, Type.LargeUtf8, Type.Bool -> {
+        return new ValueType(id, 0, false, (short) 0, false, 0);
+      }
+      case Type.Int -> {
+        Int type = (Int) field.type(new Int());
+        if (type.bitWidth() == 8 || type.bitWidth() == 16 || type.bitWidth() == 32
+            || type.bitWidth() == 64) {
+          return new ValueType(id, type.bitWidth(), type.isSigned(), (short) 0, false, 0);
+        }
+      }
+      case Type.FloatingPoint -> {
+        short precision = ((FloatingPoint) field.type(new FloatingPoint())).precision();
+        if (precision != Precision.HALF) {
+          return new ValueType(id, precision == Precision.SINGLE ? 32 : 64, true, (short) 0,
+              false, 0);
+        }
+      }
+      case Type.Decimal -> {
+        Decimal type = (Decimal) field.type(new Decimal());
+        return new ValueType(id, type.bitWidth(), true, (short) 0, false, type.scale());
+      }
+      case Type.Date -> {
+        short unit = ((org.apache.arrow.flatbuf.Date) field.type(
+            new org.apache.arrow.flatbuf.Date())).unit();
+        return new ValueType(id, unit == DateUnit.DAY ? 32 : 64, true, unit, false, 0);
+      }
+      case Type.Timestamp -> {
+        Timestamp type = (Timestamp) field.type(new Timestamp());
+        return new ValueType(id, 64, true, type.unit(),
+            type.timezone() != null && !type.timezone().isEmpty(), 0);
+      }
+      default -> {
+        // can't be loaded
+      }
+    }
+    String typeName = id >= 0 && id < Type.names.length ? Type.names[id] : Byte.toString(id);
+    throw new ArrowFormatException("column " + name + " is " + typeName
+        + ", which can't be loaded");
+  }
+
+  /**
+   * Slices a buffer out of a batch's body.
+   */
+  private static ByteBuffer slice(ByteBuffer body, Buffer buffer) throws ArrowFormatException {
+    long offset = buffer.offset();
+    long length = buffer.length();
+    if (offset < 0 || length < 0 || offset + length > body.limit()) {
+      throw new ArrowFormatException("a buffer is outside its batch");
+    }
+    return body.slice((int) offset, (int) length).order(ByteOrder.LITTLE_ENDIAN);
+  }
+
+  /**
+   * @return an integer value, which can also be an index into a dictionary
+   */
+  private static long integer(Values values, int row) {
+    ByteBuffer data = values.data();
+    boolean signed = values.type().signed();
+    return switch (values.type().bitWidth()) {
+      case 8 -> signed ? data.get(row) : data.get(row) & 0xFFL;
+      case 16 -> signed ? data.getShort(2 * row) : data.getShort(2 * row) & 0xFFFFL;
+      case 32 -> signed ? data.getInt(4 * row) : data.getInt(4 * row) & 0xFFFFFFFFL;
+      default -> data.getLong(8 * row);
+    };
+  }
+
+  /**
+   * @return a value that isn't a string, written the way it would be in a csv
+   */
+  private static String text(Values values, int row) {
+    ValueType type = values.type();
+    ByteBuffer data = values.data();
+    switch (type.id()) {
+      case Type.Int -> {
+        long value = integer(values, row);
+        return type.bitWidth() == 64 && !type.signed() ? Long.toUnsignedString(value)
+            : Long.toString(value);
+      }
+      case Type.FloatingPoint -> {
+        if (type.bitWidth() == 32) {
+          float value = data.getFloat(4 * row);
+          return Float.isFinite(value) ? plain(new BigDecimal(Float.toString(value)))
+              : Float.toString(value);
+        }
+        double value = data.getDouble(8 * row);
+        return Double.isFinite(value) ? plain(BigDecimal.valueOf(value)) : Double.toString(value);
+      }
+      case Type.Bool -> {
+        return (data.get(row >> 3) & (1 << (row & 7))) != 0 ? "true" : "false";
+      }
+      case Type.Decimal -> {
+        int width = type.bitWidth() / 8;
+        byte[] bigEndian = new byte[width];
+        for (int b = 0; b < width; b++) {
+          bigEndian[width - 1 - b] = data.get(width * row + b);
+        }
+        return new BigDecimal(new BigInteger(bigEndian), type.scale()).toPlainString();
+      }
+      case Type.Date -> {
+        long days = type.unit() == DateUnit.DAY ? data.getInt(4 * row)
+            : Math.floorDiv(data.getLong(8 * row), 86_400_000L);
+        return LocalDate.ofEpochDay(days).toString();
+      }
+      case Type.Timestamp -> {
+        long value = data.getLong(8 * row);
+        Instant instant = switch (type.unit()) {
+          case TimeUnit.SECOND -> Instant.ofEpochSecond(value);
+          case TimeUnit.MILLISECOND -> Instant.ofEpochMilli(value);
+          case TimeUnit.MICROSECOND -> Instant.ofEpochSecond(Math.floorDiv(value, 1_000_000L),
+              1000 * Math.floorMod(value, 1_000_000L));
+          default -> Instant.ofEpochSecond(Math.floorDiv(value, 1_000_000_000L),
+              Math.floorMod(value, 1_000_000_000L));
+        };
+        return type.zoned() ? instant.toString()
+            : LocalDateTime.ofInstant(instant, ZoneOffset.UTC).toString();
+      }
+      default -> {
+        return "";
+      }
+    }
+  }
+
+  /**
+   * @return a number without an exponent or trailing zeros, so 85413.0 is 85413
+   */
+  private static String plain(BigDecimal number) {
+    return number.signum() == 0 ? "0" : number.stripTrailingZeros().toPlainString();
+  }
+
+  private static String ascii(ByteBuffer bytes, int start, int length) {
+    byte[] chars = new byte[length];
+    bytes.get(start, chars);
+    return new String(chars, StandardCharsets.US_ASCII);
+  }
+}
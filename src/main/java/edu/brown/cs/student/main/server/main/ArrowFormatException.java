@@ -0,0 +1,19 @@
+package edu.brown.cs.student.main.server.main;
+
+import java.io.IOException;
+
+/**
+ * Exception thrown when an Arrow file can't be loaded, because it isn't laid out the way Arrow's
+ * IPC formats say, or has columns or features ArrowFiles can't read.
+ */
+public class ArrowFormatException extends IOException {
+
+  /**
+   * Constructor for the exception.
+   *
+   * @param reason - what's wrong with the file
+   */
+  public ArrowFormatException(String reason) {
+    super(reason);
+  }
+}
@@ -0,0 +1,246 @@
+package edu.brown.cs.student.main.server.main;
+
+import com.google.flatbuffers.FlatBufferBuilder;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import okio.Buffer;
+import okio.BufferedSink;
+import org.apache.arrow.flatbuf.Block;
+import org.apache.arrow.flatbuf.Endianness;
+import org.apache.arrow.flatbuf.Field;
+import org.apache.arrow.flatbuf.FieldNode;
+import org.apache.arrow.flatbuf.Footer;
+import org.apache.arrow.flatbuf.Message;
+import org.apache.arrow.flatbuf.MessageHeader;
+import org.apache.arrow.flatbuf.MetadataVersion;
+import org.apache.arrow.flatbuf.RecordBatch;
+import org.apache.arrow.flatbuf.Schema;
+import org.apache.arrow.flatbuf.Type;
+import org.apache.arrow.flatbuf.Utf8;
+
+/**
+ * ArrowWriter writes rows in one of Arrow's IPC formats, which tools like pyarrow, pandas, Polars
+ * and DuckDB read straight into columns without parsing any text. ResponseFormat's arrow formats
+ * use it. Every column is a nullable utf8 column, since that's what a csv's values are, and a
+ * column a row is too short to have is null.
+ *
+ * <p>Rows are gathered into record batches of BATCH_ROWS rows, and each batch is written as soon
+ * as it's full, so a response is written as it goes and never holds more than one batch. The
+ * stream format is the batches one after another; the file format adds a footer saying where each
+ * of them is, so readers can jump to any batch (or memory map the whole file).
+ */
+final class ArrowWriter {
+
+  static final int BATCH_ROWS = 1 << 14;
+
+  private final BufferedSink sink;
+  private final List<String> names;
+  private final boolean file;
+  private final int[][] offsets;
+  private final byte[][] validity;
+  private final Buffer[] data;
+  private final int[] nulls;
+  private final List<long[]> blocks = new ArrayList<>(); // the file format's batches
+  private long position; // bytes written so far
+  private int rows; // rows in the batch being gathered
+
+  /**
+   * Constructor for ArrowWriter, which writes the start of the response straight away.
+   *
+   * @param sink - where to write the rows
+   * @param names - the name of each column
+   * @param file - true for Arrow's file format, false for its stream format
+   * @throws IOException if the sink can't be written to
+   */
+  ArrowWriter(BufferedSink sink, List<String> names, boolean file) throws IOException {
+    this.sink = sink;
+    this.names = names;
+    this.file = file;
+    this.offsets = new int[names.size()][BATCH_ROWS + 1];
+    this.validity = new byte[names.size()][(BATCH_ROWS + 7) / 8];
+    this.data = new Buffer[names.size()];
+    this.nulls = new int[names.size()];
+    for (int j = 0; j < this.data.length; j++) {
+      this.data[j] = new Buffer();
+    }
+    if (file) {
+      sink.writeUtf8(ArrowFiles.MAGIC).writeShort(0); // padded to 8 bytes
+      this.position = 8;
+    }
+    FlatBufferBuilder builder = new FlatBufferBuilder();
+    int schema = this.schema(builder);
+    this.writeMessage(builder, MessageHeader.Schema, schema, 0);
+  }
+
+  /**
+   * Adds a row to the batch being gathered, writing the batch once it's full.
+   *
+   * @param row - the value of each column, or null for a null
+   * @throws IOException if the sink can't be written to
+   */
+  void row(List<String> row) throws IOException {
+    int r = this.rows++;
+    for (int j = 0; j < this.data.length; j++) {
+      String value = j < row.size() ? row.get(j) : null;
+      if (value == null) {
+        this.nulls[j]++;
+      } else {
+        this.validity[j][r >> 3] |= (byte) (1 << (r & 7));
+        this.data[j].writeUtf8(value);
+      }
+      this.offsets[j][r + 1] = (int) this.data[j].size();
+    }
+    if (this.rows == BATCH_ROWS) {
+      this.writeBatch();
+    }
+  }
+
+  /**
+   * Writes the last batch and the end of the response.
+   *
+   * @throws IOException if the sink can't be written to
+   */
+  void finish() throws IOException {
+    if (this.rows > 0) {
+      this.writeBatch();
+    }
+    this.sink.writeIntLe(ArrowFiles.CONTINUATION).writeIntLe(0); // the end of the stream
+    this.position += 8;
+    if (!this.file) {
+      return;
+    }
+    FlatBufferBuilder builder = new FlatBufferBuilder();
+    int schema = this.schema(builder);
+    Footer.startDictionariesVector(builder, 0);
+    int dictionaries = builder.endVector();
+    Footer.startRecordBatchesVector(builder, this.blocks.size());
+    for (int k = this.blocks.size() - 1; k >= 0; k--) { // flatbuffers are built back to front
+      long[] block = this.blocks.get(k);
+      Block.createBlock(builder, block[0], (int) block[1], block[2]);
+    }
+    int recordBatches = builder.endVector();
+    Footer.startFooter(builder);
+    Footer.addVersion(builder, MetadataVersion.V5);
+    Footer.addSchema(builder, schema);
+    Footer.addDictionaries(builder, dictionaries);
+    Footer.addRecordBatches(builder, recordBatches);
+    builder.finish(Footer.endFooter(builder));
+    byte[] footer = builder.sizedByteArray();
+    this.sink.write(footer).writeIntLe(footer.length).writeUtf8(ArrowFiles.MAGIC);
+  }
+
+  /**
+   * Writes the gathered rows as a record batch: for each column, its validity bitmap (left out if
+   * nothing's null), the offset of each value, then the values' UTF-8 bytes, each padded to a
+   * multiple of 8 bytes.
+   */
+  private void writeBatch() throws IOException {
+    int columns = this.data.length;
+    long[] lengths = new long[3 * columns];
+    for (int j = 0; j < columns; j++) {
+      lengths[3 * j] = this.nulls[j] > 0 ? (this.rows + 7) / 8 : 0;
+      lengths[3 * j + 1] = 4L * (this.rows + 1);
+      lengths[3 * j + 2] = this.data[j].size();
+    }
+    FlatBufferBuilder builder = new FlatBufferBuilder();
+    RecordBatch.startNodesVector(builder, columns);
+    for (int j = columns - 1; j >= 0; j--) {
+      FieldNode.createFieldNode(builder, this.rows, this.nulls[j]);
+    }
+    int nodes = builder.endVector();
+    long bodyLength = 0;
+    for (long length : lengths) {
+      bodyLength += padded(length);
+    }
+    RecordBatch.startBuffersVector(builder, lengths.length);
+    long offset = bodyLength;
+    for (int b = lengths.length - 1; b >= 0; b--) {
+      offset -= padded(lengths[b]);
+      org.apache.arrow.flatbuf.Buffer.createBuffer(builder, offset, lengths[b]);
+    }
+    int buffers = builder.endVector();
+    RecordBatch.startRecordBatch(builder);
+    RecordBatch.addLength(builder, this.rows);
+    RecordBatch.addNodes(builder, nodes);
+    RecordBatch.addBuffers(builder, buffers);
+    int batch = RecordBatch.endRecordBatch(builder);
+    long start = this.position;
+    long metadata = this.writeMessage(builder, MessageHeader.RecordBatch, batch, bodyLength);
+
+    for (int j = 0; j < columns; j++) {
+      if (lengths[3 * j] > 0) {
+        this.sink.write(this.validity[j], 0, (int) lengths[3 * j]);
+        this.pad(lengths[3 * j]);
+      }
+      for (int r = 0; r <= this.rows; r++) {
+        this.sink.writeIntLe(this.offsets[j][r]);
+      }
+      this.pad(lengths[3 * j + 1]);
+      this.sink.writeAll(this.data[j]); // empties it for the next batch
+      this.pad(lengths[3 * j + 2]);
+      Arrays.fill(this.validity[j], (byte) 0);
+      this.nulls[j] = 0;
+    }
+    this.position += bodyLength;
+    this.blocks.add(new long[] {start, metadata, bodyLength});
+    this.rows = 0;
+  }
+
+  /**
+   * Builds the schema: a nullable utf8 field for each column.
+   *
+   * @return the schema's offset in the builder
+   */
+  private int schema(FlatBufferBuilder builder) {
+    int[] fields = new int[this.names.size()];
+    for (int j = 0; j < fields.length; j++) {
+      int name = builder.createString(this.names.get(j));
+      Utf8.startUtf8(builder);
+      int type = Utf8.endUtf8(builder);
+      int children = Field.createChildrenVector(builder, new int[0]);
+      Field.startField(builder);
+      Field.addName(builder, name);
+      Field.addNullable(builder, true);
+      Field.addTypeType(builder, Type.Utf8);
+      Field.addType(builder, type);
+      Field.addChildren(builder, children);
+      fields[j] = Field.endField(builder);
+    }
+    int vector = Schema.createFieldsVector(builder, fields);
+    Schema.startSchema(builder);
+    Schema.addEndianness(builder, Endianness.Little);
+    Schema.addFields(builder, vector);
+    return Schema.endSchema(builder);
+  }
+
+  /**
+   * Writes a message's metadata, framed the way both formats frame it: the continuation marker,
+   * the metadata's length, then the metadata padded so the body after it starts on a multiple of
+   * 8 bytes.
+   *
+   * @return how many bytes were written
+   */
+  private long writeMessage(FlatBufferBuilder builder, byte headerType, int header,
+      long bodyLength) throws IOException {
+    builder.finish(Message.createMessage(builder, MetadataVersion.V5, headerType, header,
+        bodyLength, 0));
+    byte[] metadata = builder.sizedByteArray();
+    int length = (int) padded(metadata.length);
+    this.sink.writeIntLe(ArrowFiles.CONTINUATION).writeIntLe(length).write(metadata);
+    this.pad(metadata.length);
+    this.position += 8 + length;
+    return 8 + length;
+  }
+
+  private void pad(long length) throws IOException {
+    for (long k = length; k < padded(length); k++) {
+      this.sink.writeByte(0);
+    }
+  }
+
+  private static long padded(long length) {
+    return (length + 7) & ~7L;
+  }
+}
@@ -1,8 +1,5 @@
 package edu.brown.cs.student.main.server.main;
 
-import com.squareup.moshi.JsonAdapter;
-import com.squareup.moshi.Moshi;
-import com.squareup.moshi.Types;
 import edu.brown.cs.student.main.server.datasource.*;
 import java.time.LocalDateTime;
 import java.time.format.DateTimeFormatter;
@@ -10,7 +7,6 @@ import spark.Request;
 import spark.Response;
 import spark.Route;
 
-import java.lang.reflect.Type;
 import java.util.ArrayList;
 import java.util.List;
 
@@ -21,6 +17,9 @@ import java.util.List;
  */
 public class BroadBandHandler implements Route {
 
+  private static final DateTimeFormatter DATE_TIME_FORMAT =
+      DateTimeFormatter.ofPattern("dd-MM-yyyy HH:mm:ss");
+
   private String stateName;
   private String countyName;
 
@@ -38,14 +37,12 @@ public class BroadBandHandler implements Route {
    *
    * @param request  - the user's request.
    * @param response - allows us to respond to the user's request.
-   * @return a success or failure response as a json string.
+   * @return a success or failure response as json.
    */
   public Object handle(Request request, Response response) {
     try {
       LocalDateTime myDateObj = LocalDateTime.now();
-      DateTimeFormatter myFormatObj = DateTimeFormatter.ofPattern("dd-MM-yyyy HH:mm:ss");
-
-      String dateTime = myDateObj.format(myFormatObj);
+      String dateTime = myDateObj.format(DATE_TIME_FORMAT);
 
       this.stateName = request.queryParams("state");
       String stateCode = this.datasource.getStateToCode(this.stateName); // getStatesToCodes returns a
@@ -56,18 +53,10 @@ public class BroadBandHandler implements Route {
       List<List<String>> data = this.datasource.getCurrentBroadband(stateCode, countyCode);
 
       if (data.isEmpty()) { // if there are no results for the given county, return empty list
-        return new BroadbandSuccessResponse("success", new ArrayList<>(), dateTime);
+        return new BroadbandSuccessResponse(new ArrayList<>(), dateTime).serialize();
       }
-      Moshi moshi = new Moshi.Builder().build();
-      Type listOfStrings = Types.newParameterizedType(List.class, String.class);
-      Type listListString = Types.newParameterizedType(List.class, listOfStrings);
-      JsonAdapter<List<List<String>>> jsonAdapter = moshi.adapter(listListString);
-      String jsonString = jsonAdapter.toJson(
-          data); // preps json for a list of list of strings, then
-      List<List<String>> jsonObject = jsonAdapter.fromJson(
-          jsonString); // converts data to a json string,
-      // and then finally to a json object
-      return new BroadbandSuccessResponse(jsonObject, dateTime).serialize();
+      // the datasource already hands back a list of list of strings, so it's serialized as is
+      return new BroadbandSuccessResponse(data, dateTime).serialize();
     } catch (Exception e) {
       return new BroadbandFailureResponse(this.stateName, this.countyName,
           new ArrayList<>()).serialize();
@@ -97,13 +86,10 @@ public class BroadBandHandler implements Route {
     /**
      * Returns the success response as a json string.
      *
-     * @return the response as a json.
+     * @return the response as json, as UTF-8 bytes.
      */
-    public String serialize() {
-      Moshi moshi = new Moshi.Builder().build();
-      JsonAdapter<BroadbandSuccessResponse> adapter = moshi.adapter(
-          BroadbandSuccessResponse.class);
-      return adapter.toJson(this);
+    public byte[] serialize() {
+      return ResponseSerializer.serialize(this);
     }
   }
 
@@ -131,9 +117,8 @@ public class BroadBandHandler implements Route {
      *
      * @return this response, serialized as Json
      */
-    String serialize() {
-      Moshi moshi = new Moshi.Builder().build();
-      return moshi.adapter(BroadbandFailureResponse.class).toJson(this);
+    byte[] serialize() {
+      return ResponseSerializer.serialize(this);
     }
   }
 
@@ -0,0 +1,464 @@
+package edu.brown.cs.student.main.server.main;
+
+import edu.brown.cs.student.main.csv.FactoryFailureException;
+import edu.brown.cs.student.main.csv.Parser;
+import edu.brown.cs.student.main.csv.RowReader;
+import edu.brown.cs.student.main.csv.RowSelection;
+import edu.brown.cs.student.main.csv.Searcher;
+import java.io.IOException;
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * CSVDataset is one loaded csv: its parsed rows, its headers, and the version it was loaded as.
+ * LoadCSVHandler makes a new CSVDataset every time a csv is loaded and never changes it after, so
+ * a handler that grabs the current dataset keeps working on one consistent snapshot even if
+ * another load happens meanwhile. When the file changes, CSVReloader makes a new dataset the same
+ * way. Every dataset gets a new version number, which is what the handlers use to tell whether a
+ * response they cached is still up to date.
+ *
+ * <p>Each dataset also has a ZoneMap of statistics about blocks of its rows, so searches can skip
+ * the blocks that can't have a match instead of looking at every row. Columns that are aggregated
+ * are also kept as arrays (see ColumnStore), made the first time they're needed, and searches that
+ * happen at the same time share one pass over the rows (see SharedScan). Each search is planned
+ * by a SearchPlanner, which picks whether to scan, scan in parallel, or use an index. Indexes are
+ * kept in files (see IndexFiles), so loading the same csv again gets them back without building
+ * them. A csv can also be loaded with another SearchBackend, like Lucene, which then runs all of
+ * its searches. One loaded with the sql backend has its rows kept in the backend's database
+ * instead of in memory, and read back from there as they're needed (see SqlBackend).
+ */
+public class CSVDataset {
+
+  private static final AtomicLong VERSIONS = new AtomicLong();
+
+  private final String filePath;
+  private final boolean hasHeaders;
+  private final RowSelection selection;
+  private final String sourceColumn;
+  private final Parser<List<String>> parser;
+  private final List<List<String>> rows;
+  private final List<String> headers;
+  private final Sample sample;
+  private final ZoneMap zones;
+  private final ColumnStore columnStore;
+  private final SharedScan sharedScan;
+  private final SearchBackend backend;
+  private final long version;
+
+  /**
+   * How the rows of a dataset that's only a sample of its csv were picked. Sent with view and
+   * search responses so clients know they're not seeing every row.
+   *
+   * @param mode - "head" for the first rows, or "reservoir" for a uniform random sample
+   * @param rows - how many rows are in the sample
+   * @param rowsRead - how many rows of the csv the sample was picked from
+   */
+  public record Sample(String mode, int rows, long rowsRead) {
+
+    /**
+     * @return the sample as a response header value
+     */
+    public String header() {
+      return this.mode + "; rows=" + this.rows + "; rowsRead=" + this.rowsRead;
+    }
+  }
+
+  /**
+   * Constructor for CSVDataset. Called in LoadCSVHandler once the csv has been parsed.
+   *
+   * @param filePath - the file path, directory, or glob the csv was loaded from, within data/
+   * @param hasHeaders - whether the first row of the csv is headers
+   * @param selection - the columns and rows of the csv that were kept
+   * @param sourceColumn - name of the column saying which file each row came from, or null
+   * @param backend - name of the SearchBackend to run searches with, one of SearchBackend.NAMES
+   * @param parser - the parser that parsed the csv
+   * @param files - the state of the files the csv was parsed from, which its index files are
+   *     checked against (see IndexFiles)
+   * @throws FactoryFailureException if the parsed rows can't be turned into objects
+   * @throws IOException if the backend can't index the rows
+   */
+  CSVDataset(String filePath, boolean hasHeaders, RowSelection selection, String sourceColumn,
+      String backend, Parser<List<String>> parser, List<CSVReloader.FileState> files)
+      throws FactoryFailureException, IOException {
+    this(filePath, hasHeaders, selection, sourceColumn, backend, parser, files, null);
+  }
+
+  private CSVDataset(String filePath, boolean hasHeaders, RowSelection selection,
+      String sourceColumn, String backend, Parser<List<String>> parser,
+      List<CSVReloader.FileState> files, CSVDataset earlier)
+      throws FactoryFailureException, IOException {
+    this.filePath = filePath;
+    this.hasHeaders = hasHeaders;
+    this.selection = selection;
+    this.sourceColumn = sourceColumn;
+    // a sql dataset's rows are read back from its table, so it doesn't keep them, or its parser
+    boolean stored = "sql".equals(backend);
+    this.parser = stored ? parser.withoutRows(hasHeaders) : parser;
+    List<List<String>> objects = new ArrayList<>(parser.parseObjectsWithoutHeaders());
+    if (hasHeaders) {
+      this.headers = stored ? this.parser.parseString().get(0) : objects.get(0);
+      objects.remove(0); // gets rid of the first row (headers) to return just the data to the user
+    } else {
+      this.headers = null;
+    }
+    SqlBackend earlierSql =
+        earlier != null && earlier.backend instanceof SqlBackend before ? before : null;
+    // the parser of a sql dataset that was appended to only parsed the new rows
+    List<List<String>> parsed = earlierSql == null ? Collections.unmodifiableList(objects)
+        : followedBy(earlier.rows, objects);
+    this.sample = selection == null || selection.sampleSize() < 0 ? null
+        : new Sample(selection.reservoir() ? "reservoir" : "head", objects.size(),
+            parser.rowsRead());
+    this.zones = ZoneMap.build(parsed,
+        Integer.getInteger("zonemap.blockRows", ZoneMap.DEFAULT_BLOCK_ROWS),
+        earlier == null ? null : earlier.zones);
+    IndexFiles indexFiles =
+        IndexFiles.of(filePath, hasHeaders, selection, sourceColumn, files, parsed.size());
+    SqlBackend sql =
+        stored ? new SqlBackend(parsed, this.headers, this.zones, indexFiles, earlierSql) : null;
+    this.rows = stored ? sql.rows() : parsed;
+    this.columnStore = new ColumnStore(this.rows, indexFiles);
+    this.sharedScan = new SharedScan(this.rows, this.zones);
+    SearchPlanner planner = new SearchPlanner(this.rows, this.headers, this.zones,
+        this.columnStore, this.sharedScan);
+    this.backend = switch (backend) {
+      case "lucene" -> new LuceneBackend(this.rows, this.headers, this.zones, indexFiles,
+          earlier != null && earlier.backend instanceof LuceneBackend lucene ? lucene : null);
+      case "sql" -> sql;
+      default -> planner;
+    };
+    this.version = VERSIONS.incrementAndGet();
+  }
+
+  /**
+   * @return a view of one list of rows followed by another
+   */
+  private static List<List<String>> followedBy(List<List<String>> first,
+      List<List<String>> then) {
+    return new AbstractList<>() {
+      @Override
+      public List<String> get(int index) {
+        return index < first.size() ? first.get(index) : then.get(index - first.size());
+      }
+
+      @Override
+      public int size() {
+        return first.size() + then.size();
+      }
+    };
+  }
+
+  /**
+   * @return the file path the csv was loaded from, within data/
+   */
+  public String getFilePath() {
+    return this.filePath;
+  }
+
+  /**
+   * @return whether the first row of the csv is headers
+   */
+  public boolean hasHeaders() {
+    return this.hasHeaders;
+  }
+
+  /**
+   * @return the columns and rows of the csv that were kept when it was loaded
+   */
+  public RowSelection getSelection() {
+    return this.selection;
+  }
+
+  /**
+   * @return name of the column saying which file each row came from, or null if there isn't one
+   */
+  public String getSourceColumn() {
+    return this.sourceColumn;
+  }
+
+  /**
+   * @return name of the SearchBackend this dataset's searches are run with
+   */
+  public String getBackend() {
+    return this.backend.name();
+  }
+
+  /**
+   * @return how the rows were sampled, or null if this dataset has every row of its csv
+   */
+  public Sample getSample() {
+    return this.sample;
+  }
+
+  /**
+   * @return statistics about blocks of this dataset's rows
+   */
+  public ZoneMap getZoneMap() {
+    return this.zones;
+  }
+
+  /**
+   * responseFields are the extra fields json view and search responses of this dataset carry.
+   *
+   * @return the sample, if this dataset is one, keyed by "sample"
+   */
+  public Map<String, Object> responseFields() {
+    return this.sample == null ? Map.of() : Map.of("sample", this.sample);
+  }
+
+  /**
+   * release lets go of what this dataset's backend keeps open once the dataset has been replaced
+   * by another one, and isn't loaded anymore. Called in LoadCSVHandler.
+   */
+  void release() {
+    this.backend.release();
+  }
+
+  /**
+   * appended makes the next version of this dataset after rows were added to the end of its
+   * file. The rows this dataset already has are shared with the new one rather than parsed again,
+   * and this dataset stays as it is for anyone still using it. So are the statistics of the
+   * blocks of rows that were already full, and a backend's index only has the new rows added.
+   *
+   * @param more - reader for just the part of the file added since this dataset was loaded
+   * @param files - the state of the file up to the end of the new part
+   * @return a new dataset with this one's rows followed by the new ones
+   * @throws IOException if the new part of the file can't be read
+   * @throws FactoryFailureException if the parsed rows can't be turned into objects
+   */
+  CSVDataset appended(RowReader more, List<CSVReloader.FileState> files)
+      throws IOException, FactoryFailureException {
+    return new CSVDataset(this.filePath, this.hasHeaders, this.selection, this.sourceColumn,
+        this.backend.name(), this.parser.append(more), files, this);
+  }
+
+  /**
+   * @return the version this dataset was loaded as; a later load always has a bigger version
+   */
+  public long getVersion() {
+    return this.version;
+  }
+
+  /**
+   * @return the csv's headers, or null if it was loaded without headers
+   */
+  public List<String> getHeaders() {
+    return this.headers;
+  }
+
+  /**
+   * @return the csv's data rows, not counting headers, in file order
+   */
+  public List<List<String>> getRows() {
+    return this.rows;
+  }
+
+  /**
+   * columns works out which columns the user wants from the fields query param of viewcsv or
+   * searchcsv, a comma separated list of header names or column indexes (starting at 0, like
+   * searching by index). A header name is matched ignoring case, the same way searching by name
+   * is, and wins over an index if a header happens to be a number.
+   *
+   * @param fields - the fields query param, or null
+   * @return the indexes of the columns to send, in the order asked for, or null to send them all
+   * @throws IllegalArgumentException if a field isn't a header or a non-negative index, or is an
+   *     index past the last header
+   */
+  public int[] columns(String fields) {
+    List<String> columns = RowSelection.splitColumns(fields);
+    if (columns == null) {
+      return null;
+    }
+    return new RowSelection(columns, null, null).columnIndexes(this.headers);
+  }
+
+  /**
+   * rowCount returns how many data rows (not counting headers) the loaded csv has. Called in
+   * the viewcsv handler to work out which rows are on the requested page.
+   *
+   * @return number of loaded rows
+   */
+  public int rowCount() {
+    return this.rows.size();
+  }
+
+  /**
+   * searchByIndex searches through loaded csv data and returns the rows whose value in the
+   * column at the given index matches the user's search value. This method is called in the SearchCSVHandler
+   * class on the dataset it is searching.
+   *
+   * @param searchVal - the String value that the user is requesting a search for
+   * @param columnIdentifier - the number of the column they want to search
+   *
+   * @return the data containing the searchVal, as a list of the matching rows in file order.
+   * @throws IOException
+   * @throws IndexOutOfBoundsException
+   * @throws FactoryFailureException
+   */
+  public List<List<String>> searchByIndex(String searchVal, int columnIdentifier)
+      throws IOException, IndexOutOfBoundsException, FactoryFailureException {
+    return this.planByIndex(searchVal, columnIdentifier).run();
+  }
+
+  /**
+   * Plans a search by column index without running it, for explain=true.
+   *
+   * @param searchVal - the String value that the user is requesting a search for
+   * @param columnIdentifier - the number of the column they want to search
+   * @return the plan, which searches the way searchByIndex does when it's run
+   * @throws IndexOutOfBoundsException if the column index isn't one every row has
+   */
+  public SearchPlanner.Plan planByIndex(String searchVal, int columnIdentifier) {
+    if (!this.rows.isEmpty()
+        && (columnIdentifier < 0 || columnIdentifier >= this.zones.minRowSize())) {
+      // like Searcher, a column that any row is too short to have fails the whole search
+      throw new IndexOutOfBoundsException("Column index input is not a valid csv row index!");
+    }
+    return this.backend.plan(
+        SearchBackend.Query.of(SearchBackend.Kind.EQUALS, columnIdentifier, searchVal));
+  }
+
+  /**
+   * searchByName searches through loaded csv data and returns the rows whose value in the
+   * column with the given header matches the user's search value. This method is called in the SearchCSVHandler
+   * class on the dataset it is searching.
+   *
+   * @param searchVal - the String value that the user is requesting a search for
+   * @param columnIdentifier - the name of the column they want to search
+   *
+   * @return the data containing the searchVal, as a list of the matching rows in file order.
+   * @throws IOException
+   * @throws IndexOutOfBoundsException
+   * @throws FactoryFailureException
+   */
+  public List<List<String>> searchByName(String searchVal, String columnIdentifier)
+      throws IOException, IndexOutOfBoundsException, FactoryFailureException {
+    return this.planByName(searchVal, columnIdentifier).run();
+  }
+
+  /**
+   * Plans a search by column name without running it, for explain=true.
+   *
+   * @param searchVal - the String value that the user is requesting a search for
+   * @param columnIdentifier - the name of the column they want to search
+   * @return the plan, which searches the way searchByName does when it's run
+   * @throws IOException
+   * @throws IndexOutOfBoundsException
+   * @throws FactoryFailureException
+   * @throws IllegalArgumentException if the csv has no headers, or none of them is the name
+   */
+  public SearchPlanner.Plan planByName(String searchVal, String columnIdentifier)
+      throws IOException, IndexOutOfBoundsException, FactoryFailureException {
+    Integer index = this.headers == null || columnIdentifier == null ? null
+        : Searcher.colIndexOf(this.headers, columnIdentifier);
+    if (index == null) {
+      throw new IllegalArgumentException("no column named " + columnIdentifier);
+    }
+    return this.planByIndex(searchVal, index);
+  }
+
+  /**
+   * searchAll searches through loaded csv data and returns the rows with a value in any
+   * column that matches the user's search value. This method is called in the SearchCSVHandler
+   * class on the dataset it is searching.
+   *
+   * @param searchVal - the String value that the user is requesting a search for
+   *
+   * @return the data containing the searchVal, as a list of the matching rows in file order.
+   * @throws IOException if there's an error in the searcher's search methods
+   * @throws FactoryFailureException if there's an error parsing the data within the searcher
+   */
+  public List<List<String>> searchAll(String searchVal)
+      throws IOException, FactoryFailureException {
+    return this.planAll(searchVal).run();
+  }
+
+  /**
+   * Plans a search of all columns without running it, for explain=true.
+   *
+   * @param searchVal - the String value that the user is requesting a search for
+   * @return the plan, which searches the way searchAll does when it's run
+   */
+  public SearchPlanner.Plan planAll(String searchVal) {
+    return this.backend.plan(SearchBackend.Query.of(SearchBackend.Kind.EQUALS, -1, searchVal));
+  }
+
+  /**
+   * searchByRange returns the rows whose value in a column is a number between min and max
+   * (including both). Values that aren't numbers, like blanks, never match. This method is called
+   * in the SearchCSVHandler class on the dataset it is searching.
+   *
+   * @param columnIdentifier - the name or index of the column to search, like the fields param
+   * @param min - the smallest number to match
+   * @param max - the biggest number to match
+   *
+   * @return the matching rows in file order.
+   * @throws IllegalArgumentException if the column isn't a header or a valid index
+   */
+  public List<List<String>> searchByRange(String columnIdentifier, double min, double max) {
+    return this.planByRange(columnIdentifier, min, max).run();
+  }
+
+  /**
+   * Plans a range search without running it, for explain=true.
+   *
+   * @param columnIdentifier - the name or index of the column to search, like the fields param
+   * @param min - the smallest number to match
+   * @param max - the biggest number to match
+   * @return the plan, which searches the way searchByRange does when it's run
+   * @throws IllegalArgumentException if the column isn't a header or a valid index
+   */
+  public SearchPlanner.Plan planByRange(String columnIdentifier, double min, double max) {
+    int index = RowSelection.columnIndex(columnIdentifier, this.headers);
+    if (this.headers == null && index >= this.zones.maxRowSize()) { // no row has the column
+      throw new IllegalArgumentException("no column " + index);
+    }
+    return this.backend.plan(SearchBackend.Query.range(index, min, max));
+  }
+
+  /**
+   * Plans a text, prefix or fuzzy search, which only some backends can run (see SearchBackend).
+   *
+   * @param kind - TEXT, PREFIX or FUZZY
+   * @param searchVal - the words, prefix or word to look for
+   * @param columnIdentifier - the name or index of the column to search, like the fields param,
+   *     or null to search every column
+   * @param edits - how many letters a fuzzy search's word can be off by, from 0 to 2
+   * @return the plan
+   * @throws IllegalArgumentException if the column isn't a header or a valid index
+   * @throws UnsupportedOperationException if this dataset's backend can't run the search
+   */
+  public SearchPlanner.Plan planText(SearchBackend.Kind kind, String searchVal,
+      String columnIdentifier, int edits) {
+    int index =
+        columnIdentifier == null ? -1 : RowSelection.columnIndex(columnIdentifier, this.headers);
+    return this.backend.plan(kind == SearchBackend.Kind.FUZZY
+        ? SearchBackend.Query.fuzzy(index, searchVal, edits)
+        : SearchBackend.Query.of(kind, index, searchVal));
+  }
+
+  /**
+   * aggregate groups the rows by the values of some columns and works out counts, sums, minimums,
+   * maximums and averages of each group (see Aggregation). This method is called in the
+   * AggregateCSVHandler class on the dataset it is aggregating.
+   *
+   * @param groupBy - the columns to group by, as a comma separated list of header names or
+   *     indexes like the fields param, or null to aggregate every row as one group
+   * @param aggregates - the aggregates to work out, like "count,avg(score)", or null for count
+   *
+   * @return one row per group, in the order the groups first appear, with its headers
+   * @throws IllegalArgumentException if a column isn't a header or valid index, or an aggregate
+   *     can't be read
+   */
+  public Aggregation.Result aggregate(String groupBy, String aggregates) {
+    int[] groupColumns = this.columns(groupBy);
+    List<Aggregation.Aggregate> parsed = Aggregation.parse(aggregates, this.headers);
+    return Aggregation.run(this.columnStore, this.rows.size(), this.headers,
+        groupColumns == null ? new int[0] : groupColumns, parsed);
+  }
+
+}
@@ -0,0 +1,218 @@
+package edu.brown.cs.student.main.server.main;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.InterruptedIOException;
+import java.io.Reader;
+import java.util.Arrays;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * CSVFiles opens csv files for reading, whether they're plain text or gzipped. Gzipped files are
+ * recognized by the gzip magic number at the start of the file, not the file name, and are
+ * decompressed as they're read, so they never have to be unzipped to disk first.
+ *
+ * <p>If there's more than one core, a gzipped file is decompressed and decoded into chars on a
+ * thread of its own, a block ahead of the thread splitting it into rows, so the two run at the
+ * same time instead of taking turns. Start the server with -Dgzip.readAhead=[true/false] to
+ * decide this yourself.
+ */
+public final class CSVFiles {
+
+  private static final int BLOCK_CHARS = 1 << 16;
+  private static final int BLOCKS_AHEAD = 4;
+  private static final char[] END = new char[0]; // marks the end of the decompressed blocks
+
+  private CSVFiles() {}
+
+  /**
+   * Checks whether a file is gzipped.
+   *
+   * @param file - the file to check
+   * @return whether the file starts with the gzip magic number
+   * @throws IOException if the file can't be read
+   */
+  public static boolean isGzip(File file) throws IOException {
+    try (InputStream in = new FileInputStream(file)) {
+      return in.read() == 0x1f && in.read() == 0x8b;
+    }
+  }
+
+  /**
+   * Opens a whole file to be read as text.
+   *
+   * @param file - the file to read
+   * @return reader for the file, decompressing it if it's gzipped
+   * @throws java.io.FileNotFoundException if there's no such file
+   * @throws IOException if the file can't be read
+   */
+  public static Reader open(File file) throws IOException {
+    return open(file, 0, file.length());
+  }
+
+  /**
+   * Opens part of a file to be read as text. Only a plain file can be read from the middle; for a
+   * gzipped file, end is how many of its compressed bytes to read.
+   *
+   * @param file - the file to read
+   * @param start - offset of the first byte to read
+   * @param end - offset just past the last byte to read
+   * @return reader for just those bytes, decompressing them if the file is gzipped
+   * @throws java.io.FileNotFoundException if there's no such file
+   * @throws IOException if the file can't be read
+   * @throws IllegalArgumentException if the file is gzipped and start isn't 0
+   */
+  public static Reader open(File file, long start, long end) throws IOException {
+    boolean gzip = isGzip(file);
+    if (gzip && start != 0) {
+      throw new IllegalArgumentException("a gzipped file can only be read from the start");
+    }
+    FileInputStream in = new FileInputStream(file);
+    try {
+      in.getChannel().position(start);
+      InputStream bytes = new LimitedInputStream(in, end - start);
+      if (!gzip) {
+        return new BufferedReader(new InputStreamReader(bytes));
+      }
+      Reader text = new InputStreamReader(new GZIPInputStream(bytes, BLOCK_CHARS));
+      boolean readAhead = Boolean.parseBoolean(System.getProperty("gzip.readAhead",
+          String.valueOf(Runtime.getRuntime().availableProcessors() > 1)));
+      return readAhead ? new ReadAheadReader(text) : text;
+    } catch (IOException e) {
+      in.close();
+      throw e;
+    }
+  }
+
+  /**
+   * Reader that reads blocks of another reader on its own thread, ahead of whoever is reading it.
+   */
+  private static class ReadAheadReader extends Reader {
+    private final BlockingQueue<char[]> blocks = new ArrayBlockingQueue<>(BLOCKS_AHEAD);
+    private final Thread producer;
+    private volatile IOException failure;
+    private char[] block;
+    private int blockPos;
+    private int blockLength;
+
+    ReadAheadReader(Reader in) {
+      this.producer = new Thread(() -> this.produce(in), "csv-gunzip");
+      this.producer.setDaemon(true);
+      this.producer.start();
+    }
+
+    private void produce(Reader in) {
+      try (in) {
+        while (true) {
+          char[] next = new char[BLOCK_CHARS];
+          int length = in.read(next, 0, next.length);
+          if (length < 0) {
+            break;
+          }
+          // a short block keeps its length in a copy, so an array's length is always what's in it
+          this.blocks.put(length == next.length ? next : Arrays.copyOf(next, length));
+        }
+      } catch (IOException e) {
+        this.failure = e;
+      } catch (InterruptedException e) {
+        return; // closed before the end, so nobody is waiting for the rest
+      }
+      try {
+        this.blocks.put(END);
+      } catch (InterruptedException e) {
+        // closed while finishing up
+      }
+    }
+
+    @Override
+    public int read(char[] cbuf, int off, int len) throws IOException {
+      if (len == 0) {
+        return 0;
+      }
+      if (this.block == null || this.blockPos == this.blockLength) {
+        if (this.block == END) {
+          return -1;
+        }
+        try {
+          this.block = this.blocks.take();
+        } catch (InterruptedException e) {
+          Thread.currentThread().interrupt();
+          throw new InterruptedIOException("interrupted while decompressing");
+        }
+        this.blockPos = 0;
+        this.blockLength = this.block.length;
+        if (this.block == END) {
+          if (this.failure != null) {
+            throw this.failure;
+          }
+          return -1;
+        }
+      }
+      int count = Math.min(len, this.blockLength - this.blockPos);
+      System.arraycopy(this.block, this.blockPos, cbuf, off, count);
+      this.blockPos += count;
+      return count;
+    }
+
+    @Override
+    public void close() {
+      this.producer.interrupt(); // stops it if it's still waiting to hand over a block
+      this.blocks.clear();
+    }
+  }
+
+  /**
+   * InputStream that stops after a set number of bytes.
+   */
+  private static class LimitedInputStream extends FilterInputStream {
+    private long remaining;
+
+    LimitedInputStream(InputStream in, long limit) {
+      super(in);
+      this.remaining = limit;
+    }
+
+    @Override
+    public int read() throws IOException {
+      if (this.remaining <= 0) {
+        return -1;
+      }
+      int b = super.read();
+      if (b >= 0) {
+        this.remaining--;
+      }
+      return b;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+      if (this.remaining <= 0) {
+        return -1;
+      }
+      int read = super.read(b, off, (int) Math.min(len, this.remaining));
+      if (read > 0) {
+        this.remaining -= read;
+      }
+      return read;
+    }
+
+    @Override
+    public long skip(long n) throws IOException {
+      long skipped = super.skip(Math.min(n, this.remaining));
+      this.remaining -= skipped;
+      return skipped;
+    }
+
+    @Override
+    public int available() throws IOException {
+      return (int) Math.min(super.available(), this.remaining);
+    }
+  }
+}
@@ -0,0 +1,437 @@
+package edu.brown.cs.student.main.server.main;
+
+import edu.brown.cs.student.main.csv.FactoryFailureException;
+import edu.brown.cs.student.main.csv.Parser;
+import edu.brown.cs.student.main.csv.RawCreator;
+import edu.brown.cs.student.main.csv.RowReader;
+import edu.brown.cs.student.main.csv.RowSelection;
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.PathMatcher;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+import java.util.zip.CRC32;
+
+/**
+ * CSVReloader loads csvs for LoadCSVHandler and keeps the loaded one up to date with its files.
+ *
+ * <p>A load can be one csv, a directory (every .csv or .csv.gz directly in it), or a glob like
+ * census/20*.csv, all within the data/ folder. A file can also be an Arrow IPC file or stream
+ * instead of a csv (see ArrowFiles). The files of a directory or glob are parsed at the
+ * same time, one per thread on a pool sized to the number of cores, so loading many files takes
+ * about as long as loading the biggest of them on a machine with enough cores. They all have to
+ * have the same headers, and their rows are joined into one dataset in file name order, optionally
+ * with a column in front saying which file each row came from.
+ *
+ * <p>Every so often the loaded files' sizes and last modified times are checked, and if they've
+ * changed:
+ *
+ * <ul>
+ *   <li>if a single loaded plain text file only grew, and the end of what was loaded is still
+ *       there, just the new lines are parsed and added onto the loaded rows, so a log-style csv
+ *       that's appended to all day never gets parsed twice
+ *   <li>otherwise (a file was rewritten, a gzipped file changed, or files of a directory or glob
+ *       changed) everything is loaded again from scratch
+ * </ul>
+ *
+ * Either way the new rows go in as a new CSVDataset, with a new version, once they're all parsed,
+ * and requests keep getting the old rows until then. The work happens on a background thread, so
+ * requests never wait for it. If the files are gone or can't be parsed any more, the csv that was
+ * loaded stays loaded.
+ *
+ * <p>Polling is used rather than a WatchService since it also works for files on network drives,
+ * which don't send change events, and it notices a file that keeps changing no matter how fast it
+ * changes without piling up events.
+ */
+public class CSVReloader {
+
+  /** Default time between checks of the loaded file. */
+  public static final long DEFAULT_POLL_MILLIS = 1000;
+
+  // how much of the end of the loaded part of the file is checked to tell appends from rewrites
+  private static final int TAIL_BYTES = 4096;
+
+  // parses the files of a directory or glob; shared so that loads at the same time can't use up
+  // more threads than there are cores
+  private static final ExecutorService PARSERS = Executors.newFixedThreadPool(
+      Runtime.getRuntime().availableProcessors(), runnable -> {
+        Thread thread = new Thread(runnable, "csv-parser");
+        thread.setDaemon(true);
+        return thread;
+      });
+
+  private final LoadCSVHandler loader;
+  private final long pollMillis;
+  private ScheduledExecutorService poller; // started with the first watch
+  private volatile Loaded watched;
+
+  /**
+   * The size and last modified time of a file when it was loaded, and a checksum of the end of it
+   * to check that a bigger file still starts with what was loaded.
+   *
+   * @param path - the file's path within data/
+   * @param size - how many bytes of the file were loaded
+   * @param modified - the file's last modified time
+   * @param gzip - whether the file is gzipped, so can only be loaded from the start
+   * @param endsWithLine - whether the loaded bytes end with a line break
+   * @param tailChecksum - CRC32 of the last TAIL_BYTES bytes that were loaded
+   */
+  record FileState(String path, long size, long modified, boolean gzip, boolean endsWithLine,
+      long tailChecksum) {}
+
+  /**
+   * A loaded csv and the state its files were in when they were read.
+   *
+   * @param dataset - the loaded csv
+   * @param files - the parts of the files it was loaded from, in the order they were joined
+   */
+  record Loaded(CSVDataset dataset, List<FileState> files) {
+
+    /**
+     * @return whether the csv was loaded from one file named by its path, rather than a directory
+     *     or glob
+     */
+    boolean singleFile() {
+      return this.files.size() == 1 && this.files.get(0).path().equals(this.dataset.getFilePath());
+    }
+  }
+
+  /**
+   * One parsed file of a load.
+   */
+  private record Part(Parser<List<String>> parser, FileState state) {}
+
+  /**
+   * Constructor for the CSVReloader.
+   *
+   * @param loader - the handler whose loaded csv is kept up to date
+   * @param pollMillis - time between checks of the loaded file, or 0 to never check
+   */
+  CSVReloader(LoadCSVHandler loader, long pollMillis) {
+    this.loader = loader;
+    this.pollMillis = pollMillis;
+  }
+
+  /**
+   * Loads a csv, directory, or glob from the data/ folder. Only the bytes in each file when
+   * loading starts are read, so a line being written at the same time is picked up by the next
+   * check instead of being cut in half.
+   *
+   * @param filePath - path of the csv, directory, or glob within the data/ folder
+   * @param hasHeaders - whether the first row of each csv is headers
+   * @param selection - the columns and rows of the csvs to keep
+   * @param sourceColumn - name of a column to add in front saying which file each row came from,
+   *     or null to not add one
+   * @param backend - name of the SearchBackend to search the csv with
+   * @return the loaded csv and the state of the files it was read from
+   * @throws java.io.FileNotFoundException if there's no such file, or no files match
+   * @throws IOException if a file can't be read
+   * @throws FactoryFailureException if the rows can't be turned into objects
+   * @throws HeaderMismatchException if the files don't all have the same headers
+   * @throws IllegalArgumentException if selection has a column the csvs don't have
+   */
+  static Loaded load(String filePath, boolean hasHeaders, RowSelection selection,
+      String sourceColumn, String backend)
+      throws IOException, FactoryFailureException, HeaderMismatchException {
+    List<String> paths = matches(filePath);
+    if (paths == null) { // just one file, parsed on this thread
+      Part part = parse(filePath, hasHeaders, sourceColumn == null
+          ? selection : selection.withSource(sourceColumn, filePath));
+      List<FileState> states = List.of(part.state());
+      return new Loaded(
+          new CSVDataset(filePath, hasHeaders, selection, sourceColumn, backend, part.parser(),
+              states),
+          states);
+    }
+
+    List<Future<Part>> futures = new ArrayList<>(paths.size());
+    List<Part> parts = new ArrayList<>(paths.size());
+    try {
+      for (String path : paths) {
+        RowSelection fileSelection =
+            sourceColumn == null ? selection : selection.withSource(sourceColumn, path);
+        futures.add(PARSERS.submit(() -> parse(path, hasHeaders, fileSelection)));
+      }
+      for (Future<Part> future : futures) {
+        parts.add(result(future));
+      }
+    } finally {
+      for (Future<Part> future : futures) {
+        future.cancel(true); // no point finishing the rest once one file has failed
+      }
+    }
+
+    List<Parser<List<String>>> parsers = new ArrayList<>(parts.size());
+    List<FileState> states = new ArrayList<>(parts.size());
+    Part first = null;
+    for (Part part : parts) {
+      List<List<String>> rows = part.parser().parseString();
+      if (hasHeaders && !rows.isEmpty()) {
+        if (first == null) {
+          first = part;
+        } else if (!rows.get(0).equals(first.parser().parseString().get(0))) {
+          throw new HeaderMismatchException(first.state().path(),
+              first.parser().parseString().get(0), part.state().path(), rows.get(0));
+        }
+      }
+      parsers.add(part.parser());
+      states.add(part.state());
+    }
+    return new Loaded(new CSVDataset(filePath, hasHeaders, selection, sourceColumn, backend,
+        Parser.concat(parsers, hasHeaders), states), states);
+  }
+
+  /**
+   * Parses the bytes a file has right now.
+   */
+  private static Part parse(String path, boolean hasHeaders, RowSelection selection)
+      throws IOException {
+    File file = new File("data/" + path); // allows us to stay within our data folder
+    long modified = file.lastModified();
+    long size = file.length();
+    RowReader rows = ArrowFiles.isArrow(file) ? ArrowFiles.open(file, size, hasHeaders)
+        : new RowReader(CSVFiles.open(file, 0, size));
+    Parser<List<String>> parser = new Parser<>(new RawCreator(), rows, hasHeaders, selection);
+    return new Part(parser, state(path, size, modified));
+  }
+
+  /**
+   * Waits for a file to be parsed, passing on whatever went wrong parsing it.
+   */
+  private static Part result(Future<Part> future) throws IOException {
+    try {
+      return future.get();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new InterruptedIOException("interrupted while loading");
+    } catch (ExecutionException e) {
+      Throwable cause = e.getCause();
+      if (cause instanceof IOException io) {
+        throw io;
+      } else if (cause instanceof RuntimeException runtime) {
+        throw runtime;
+      } else if (cause instanceof Error error) {
+        throw error;
+      }
+      throw new IllegalStateException(cause);
+    }
+  }
+
+  /**
+   * Finds the files a filepath loads.
+   *
+   * @param filePath - path of a csv, directory, or glob within the data/ folder
+   * @return paths within data/ of the matching files, sorted, or null if filePath is just a file
+   * @throws java.io.FileNotFoundException if it's a directory or glob that nothing matches
+   * @throws IOException if a directory can't be read
+   */
+  static List<String> matches(String filePath) throws IOException {
+    Path data = Path.of("data");
+    Path path = Path.of("data/" + filePath);
+    List<Path> found = new ArrayList<>();
+    if (Files.isDirectory(path)) {
+      try (Stream<Path> files = Files.list(path)) {
+        files.filter(file -> Files.isRegularFile(file)
+            && isCsv(file.getFileName().toString())).forEach(found::add);
+      }
+    } else if (filePath != null && isGlob(filePath)) {
+      PathMatcher matcher = data.getFileSystem().getPathMatcher("glob:" + filePath);
+      Path base = data; // walk from the last directory before the glob starts
+      for (String segment : filePath.split("/")) {
+        if (isGlob(segment)) {
+          break;
+        }
+        base = base.resolve(segment);
+      }
+      if (Files.isDirectory(base)) {
+        try (Stream<Path> files = Files.walk(base)) {
+          files.filter(file -> Files.isRegularFile(file) && matcher.matches(data.relativize(file)))
+              .forEach(found::add);
+        }
+      }
+    } else {
+      return null;
+    }
+    if (found.isEmpty()) {
+      throw new FileNotFoundException("no csvs match " + filePath);
+    }
+    List<String> paths = new ArrayList<>(found.size());
+    for (Path file : found) {
+      paths.add(data.relativize(file).toString().replace(File.separatorChar, '/'));
+    }
+    Collections.sort(paths);
+    return paths;
+  }
+
+  private static boolean isCsv(String fileName) {
+    String name = fileName.toLowerCase();
+    return name.endsWith(".csv") || name.endsWith(".csv.gz");
+  }
+
+  private static boolean isGlob(String filePath) {
+    for (char ch : filePath.toCharArray()) {
+      if (ch == '*' || ch == '?' || ch == '[' || ch == '{') {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  /**
+   * Starts keeping a newly loaded csv up to date, and stops keeping the one before it up to date.
+   *
+   * @param loaded - the csv that was just loaded
+   */
+  void watch(Loaded loaded) {
+    this.watched = loaded;
+    if (this.pollMillis <= 0) {
+      return;
+    }
+    synchronized (this) {
+      if (this.poller == null) {
+        this.poller = Executors.newSingleThreadScheduledExecutor(runnable -> {
+          Thread thread = new Thread(runnable, "csv-reloader");
+          thread.setDaemon(true); // shouldn't keep the server running by itself
+          return thread;
+        });
+        this.poller.scheduleWithFixedDelay(this::poll, this.pollMillis, this.pollMillis,
+            TimeUnit.MILLISECONDS);
+      }
+    }
+  }
+
+  /**
+   * Checks the loaded csv's files once, and loads whatever changed in them.
+   */
+  void poll() {
+    Loaded watched = this.watched;
+    if (watched == null) {
+      return;
+    }
+    try {
+      CSVDataset dataset = watched.dataset();
+      Loaded next = watched.singleFile() ? this.pollFile(watched) : this.pollFiles(watched);
+      if (next != null) {
+        // a csv loaded with loadcsv meanwhile wins over this one
+        if (!this.loader.replace(dataset, next)) {
+          next.dataset().release();
+        }
+      }
+    } catch (Exception e) {
+      // the files couldn't be read or parsed (maybe halfway through being rewritten), so keep the
+      // csv that was loaded and try again next time
+    }
+  }
+
+  /**
+   * Checks a csv loaded from one file, adding on any new lines if it was only appended to.
+   *
+   * @return the new version of the csv, or null if there isn't one yet
+   */
+  private Loaded pollFile(Loaded watched) throws Exception {
+    CSVDataset dataset = watched.dataset();
+    FileState before = watched.files().get(0);
+    File file = new File("data/" + before.path());
+    if (!file.isFile()) {
+      return null; // keep what was loaded until the file is back
+    }
+    long modified = file.lastModified();
+    long size = file.length();
+    if (size == before.size() && modified == before.modified()) {
+      return null;
+    }
+    // a sample can't just have rows added on; it has to be picked again, and neither can an
+    // Arrow file, which isn't lines
+    if (size > before.size() && !before.gzip() && before.endsWithLine() && before.size() > 0
+        && dataset.getSample() == null && !ArrowFiles.isArrow(file)
+        && state(before.path(), before.size(), modified).tailChecksum() == before.tailChecksum()) {
+      long end = lineEnd(file, before.size(), size);
+      if (end < 0) {
+        return null; // nothing new until the line being written is finished
+      }
+      List<FileState> states = List.of(state(before.path(), end, modified));
+      return new Loaded(
+          dataset.appended(new RowReader(CSVFiles.open(file, before.size(), end)), states), states);
+    }
+    return load(dataset.getFilePath(), dataset.hasHeaders(), dataset.getSelection(),
+        dataset.getSourceColumn(), dataset.getBackend());
+  }
+
+  /**
+   * Checks a csv loaded from a directory or glob, loading it all again if any of its files
+   * changed or files were added or removed.
+   *
+   * @return the new version of the csv, or null if nothing changed
+   */
+  private Loaded pollFiles(Loaded watched) throws Exception {
+    CSVDataset dataset = watched.dataset();
+    List<String> paths;
+    try {
+      paths = matches(dataset.getFilePath());
+    } catch (FileNotFoundException e) {
+      return null; // keep what was loaded until the files are back
+    }
+    boolean changed = paths.size() != watched.files().size();
+    for (int i = 0; !changed && i < paths.size(); i++) {
+      FileState before = watched.files().get(i);
+      File file = new File("data/" + paths.get(i));
+      changed = !paths.get(i).equals(before.path()) || file.length() != before.size()
+          || file.lastModified() != before.modified();
+    }
+    return changed ? load(dataset.getFilePath(), dataset.hasHeaders(), dataset.getSelection(),
+        dataset.getSourceColumn(), dataset.getBackend()) : null;
+  }
+
+  /**
+   * Works out the state of the first size bytes of a file.
+   */
+  private static FileState state(String path, long size, long modified) throws IOException {
+    File file = new File("data/" + path);
+    int count = (int) Math.min(TAIL_BYTES, size);
+    byte[] tail = new byte[count];
+    try (RandomAccessFile in = new RandomAccessFile(file, "r")) {
+      in.seek(size - count);
+      in.readFully(tail);
+    }
+    CRC32 checksum = new CRC32();
+    checksum.update(tail);
+    return new FileState(path, size, modified, CSVFiles.isGzip(file), count > 0 && tail[count - 1] == '\n',
+        checksum.getValue());
+  }
+
+  /**
+   * Finds the end of the last whole line between two offsets of a file.
+   *
+   * @return offset just past the last line break, or -1 if there isn't one
+   */
+  private static long lineEnd(File file, long start, long end) throws IOException {
+    byte[] chunk = new byte[8192];
+    try (RandomAccessFile in = new RandomAccessFile(file, "r")) {
+      while (end > start) {
+        int count = (int) Math.min(chunk.length, end - start);
+        in.seek(end - count);
+        in.readFully(chunk, 0, count);
+        for (int i = count - 1; i >= 0; i--) {
+          if (chunk[i] == '\n') {
+            return end - count + i + 1;
+          }
+        }
+        end -= count;
+      }
+    }
+    return -1;
+  }
+}
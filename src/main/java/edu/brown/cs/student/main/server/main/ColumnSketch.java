@@ -0,0 +1,36 @@
+package edu.brown.cs.student.main.server.main;
+
+/**
+ * ColumnSketch is the approximate profile of one column's values: a HyperLogLog of how many
+ * distinct values it has, the TopValues seen most often, and a QuantileSketch of its numbers.
+ * ZoneMap makes one for each column of each block of rows as it works out the block's statistics,
+ * from the keys and numbers it reads there anyway, and merges them into one for the dataset.
+ */
+final class ColumnSketch {
+
+  final HyperLogLog distinct = new HyperLogLog();
+  TopValues top = new TopValues();
+  final QuantileSketch numbers = new QuantileSketch();
+
+  /**
+   * Adds everything another sketch has seen.
+   *
+   * @param other - the other sketch, which isn't changed
+   */
+  void merge(ColumnSketch other) {
+    this.distinct.merge(other.distinct);
+    this.top.merge(other.top);
+    this.numbers.merge(other.numbers);
+  }
+
+  /**
+   * @return a copy of this sketch, which can be merged into without changing this one
+   */
+  ColumnSketch copy() {
+    ColumnSketch copy = new ColumnSketch();
+    copy.distinct.merge(this.distinct);
+    copy.top = this.top.copy();
+    copy.numbers.merge(this.numbers);
+    return copy;
+  }
+}
@@ -0,0 +1,399 @@
+package edu.brown.cs.student.main.server.main;
+
+import edu.brown.cs.student.main.csv.Row;
+import java.nio.ByteBuffer;
+import java.nio.DoubleBuffer;
+import java.nio.IntBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.stream.IntStream;
+
+/**
+ * ColumnStore keeps columns of a dataset's rows as arrays, for work that reads a few columns of
+ * every row, like aggregating. A column can be read as numbers, one double per row, or as codes,
+ * where every distinct value (ignoring case, like searches) gets a small number and each row holds
+ * its value's number. Loops over these arrays don't look at the rows or make a String per cell.
+ *
+ * <p>Columns can also be indexed for searching: postings find the rows with a value without
+ * looking at any others, and sorted numbers find the rows with a number in a range. SearchPlanner
+ * decides when a column is searched often enough to be worth indexing.
+ *
+ * <p>Columns are only made the first time they're asked for, and then kept as long as the dataset
+ * is, so each costs 8 (numbers) or 4 (codes) bytes a row once it's been used, and an index about
+ * 8 (postings) or 12 (sorted numbers) more. A dataset never changes, so neither do its columns.
+ * Indexes are also written to index files (see IndexFiles) as they're built, and a column whose
+ * index is in a file for the same csv reads it from there instead of building it.
+ */
+final class ColumnStore {
+
+  private static final int CHUNK_ROWS = 4096; // rows each thread reads numbers for at a time
+
+  private final List<List<String>> rows;
+  private final ConcurrentHashMap<Integer, double[]> numbers = new ConcurrentHashMap<>();
+  private final ConcurrentHashMap<Integer, Codes> codes = new ConcurrentHashMap<>();
+  private final ConcurrentHashMap<Integer, Postings> postings = new ConcurrentHashMap<>();
+  private final ConcurrentHashMap<Integer, SortedNumbers> sorted = new ConcurrentHashMap<>();
+  private final IndexFiles files;
+  private final Set<String> opened = ConcurrentHashMap.newKeySet(); // index files looked for
+
+  /**
+   * A column as codes.
+   *
+   * @param codes - code of each row's value
+   * @param values - the value each code stands for, as it was first written; blanks, and rows too
+   *     short to have the column, are ""
+   */
+  record Codes(int[] codes, List<String> values) {}
+
+  /**
+   * A column's index of which rows have each value. It's kept in buffers rather than arrays so it
+   * can be read straight out of an index file (see IndexFiles) as well as made in memory.
+   *
+   * @param text - the column's distinct values, sorted with String.CASE_INSENSITIVE_ORDER, in UTF-8
+   * @param starts - where each value starts in text, and then text's length
+   * @param offsets - where each value's rows start in rows, and then rows' length
+   * @param rows - the indexes of the rows with each value, in file order
+   */
+  record Postings(ByteBuffer text, IntBuffer starts, IntBuffer offsets, IntBuffer rows) {
+
+    /**
+     * @param value - the value to look up, ignoring case
+     * @return the indexes of the rows with the value, in file order
+     */
+    int[] find(String value) {
+      int low = 0;
+      int high = this.starts.limit() - 2;
+      while (low <= high) { // only the values compared along the way are decoded
+        int middle = (low + high) >>> 1;
+        int compared = String.CASE_INSENSITIVE_ORDER.compare(this.value(middle), value);
+        if (compared < 0) {
+          low = middle + 1;
+        } else if (compared > 0) {
+          high = middle - 1;
+        } else {
+          int[] found = new int[this.offsets.get(middle + 1) - this.offsets.get(middle)];
+          this.rows.get(this.offsets.get(middle), found);
+          return found;
+        }
+      }
+      return new int[0];
+    }
+
+    /**
+     * @return the value at an index of the sorted values
+     */
+    private String value(int index) {
+      byte[] bytes = new byte[this.starts.get(index + 1) - this.starts.get(index)];
+      this.text.get(this.starts.get(index), bytes);
+      return new String(bytes, StandardCharsets.UTF_8);
+    }
+  }
+
+  /**
+   * A column's numbers in order, for finding the rows with a number in a range. Values that
+   * aren't numbers are left out. Like postings, it can be read straight out of an index file.
+   *
+   * @param numbers - the numbers, smallest first
+   * @param rows - the index of the row each number is from
+   */
+  record SortedNumbers(DoubleBuffer numbers, IntBuffer rows) {
+
+    /**
+     * @param min - the smallest number wanted
+     * @param max - the biggest number wanted
+     * @return the indexes of the rows with a number between min and max (including both), in
+     *     file order
+     */
+    int[] between(double min, double max) {
+      int start = this.firstAbove(min, false);
+      int end = Math.max(start, this.firstAbove(max, true));
+      int[] found = new int[end - start];
+      this.rows.get(start, found);
+      Arrays.sort(found);
+      return found;
+    }
+
+    /**
+     * @return index of the first number bigger than bound, or at least as big if inclusive is
+     *     false
+     */
+    private int firstAbove(double bound, boolean inclusive) {
+      int low = 0;
+      int high = this.numbers.limit();
+      while (low < high) {
+        int middle = (low + high) >>> 1;
+        double number = this.numbers.get(middle);
+        if (inclusive ? number <= bound : number < bound) {
+          low = middle + 1;
+        } else {
+          high = middle;
+        }
+      }
+      return low;
+    }
+  }
+
+  /**
+   * Constructor for ColumnStore, called in CSVDataset.
+   *
+   * @param rows - the dataset's rows
+   * @param files - where to keep the indexes it builds, or null to only keep them in memory
+   */
+  ColumnStore(List<List<String>> rows, IndexFiles files) {
+    this.rows = rows;
+    this.files = files;
+  }
+
+  /**
+   * @param column - index of the column
+   * @return each row's value in the column as a number, or NaN if it isn't one (see ZoneMap.number)
+   */
+  double[] numbers(int column) {
+    double[] cached = this.numbers.get(column);
+    if (cached != null) {
+      return cached;
+    }
+    // made outside the map so reading other columns doesn't wait for this one
+    double[] made = new double[this.rows.size()];
+    IntStream.range(0, (made.length + CHUNK_ROWS - 1) / CHUNK_ROWS).parallel().forEach(chunk -> {
+      char[] scratch = new char[ZoneMap.MAX_NUMBER_CHARS];
+      int end = Math.min(made.length, (chunk + 1) * CHUNK_ROWS);
+      for (int r = chunk * CHUNK_ROWS; r < end; r++) {
+        List<String> row = this.rows.get(r);
+        made[r] = column < row.size() ? ZoneMap.number(row, column, scratch) : Double.NaN;
+      }
+    });
+    cached = this.numbers.putIfAbsent(column, made);
+    return cached == null ? made : cached;
+  }
+
+  /**
+   * @param column - index of the column
+   * @return the column as codes, numbered in the order values first appear
+   */
+  Codes codes(int column) {
+    Codes cached = this.codes.get(column);
+    if (cached != null) {
+      return cached;
+    }
+    int[] codes = new int[this.rows.size()];
+    List<String> values = new ArrayList<>();
+    // open addressing from ZoneMap keys to codes; 0 marks an empty slot, which key() never returns
+    long[] keys = new long[16];
+    int[] slotCodes = new int[16];
+    char[] scratch = new char[ZoneMap.MAX_NUMBER_CHARS];
+    long blankKey = ZoneMap.key("");
+    for (int r = 0; r < codes.length; r++) {
+      List<String> row = this.rows.get(r);
+      boolean blank = column >= row.size() || isEmpty(row, column);
+      long key = blank ? blankKey : ZoneMap.key(row, column, scratch);
+      int mask = keys.length - 1;
+      int slot = (int) key & mask;
+      // two values with the same key are told apart by comparing them
+      while (keys[slot] != 0 && (keys[slot] != key
+          || !(blank ? values.get(slotCodes[slot]).isEmpty()
+              : equalsIgnoreCase(row, column, values.get(slotCodes[slot]))))) {
+        slot = (slot + 1) & mask;
+      }
+      if (keys[slot] == 0) {
+        keys[slot] = key;
+        slotCodes[slot] = values.size();
+        values.add(blank ? "" : row.get(column));
+        if (2 * values.size() > keys.length) { // keeps probes short
+          long[] oldKeys = keys;
+          int[] oldCodes = slotCodes;
+          keys = new long[2 * oldKeys.length];
+          slotCodes = new int[keys.length];
+          for (int k = 0; k < oldKeys.length; k++) {
+            if (oldKeys[k] != 0) {
+              int moved = (int) oldKeys[k] & (keys.length - 1);
+              while (keys[moved] != 0) {
+                moved = (moved + 1) & (keys.length - 1);
+              }
+              keys[moved] = oldKeys[k];
+              slotCodes[moved] = oldCodes[k];
+            }
+          }
+        }
+        codes[r] = values.size() - 1;
+      } else {
+        codes[r] = slotCodes[slot];
+      }
+    }
+    Codes made = new Codes(codes, List.copyOf(values));
+    cached = this.codes.putIfAbsent(column, made);
+    return cached == null ? made : cached;
+  }
+
+  /**
+   * @param column - index of the column
+   * @return whether the column has been read as codes yet
+   */
+  boolean hasCodes(int column) {
+    return this.codes.containsKey(column);
+  }
+
+  /**
+   * @param column - index of the column
+   * @return whether the column has been read as numbers yet
+   */
+  boolean hasNumbers(int column) {
+    return this.numbers.containsKey(column);
+  }
+
+  /**
+   * @param column - index of the column
+   * @return whether the column's postings have been made yet
+   */
+  boolean hasPostings(int column) {
+    return this.savedPostings(column) != null;
+  }
+
+  /**
+   * @param column - index of the column
+   * @return whether the column's sorted numbers have been made yet
+   */
+  boolean hasSortedNumbers(int column) {
+    return this.savedSortedNumbers(column) != null;
+  }
+
+  /**
+   * @param column - index of the column
+   * @return the column's postings, from its index file if it has one, or else made from its
+   *     codes with a counting sort
+   */
+  Postings postings(int column) {
+    Postings cached = this.savedPostings(column);
+    if (cached != null) {
+      return cached;
+    }
+    Codes codes = this.codes(column);
+    int distinct = codes.values().size();
+    Integer[] byValue = new Integer[distinct];
+    for (int code = 0; code < distinct; code++) {
+      byValue[code] = code;
+    }
+    List<String> distinctValues = codes.values();
+    Arrays.sort(byValue, (a, b) ->
+        String.CASE_INSENSITIVE_ORDER.compare(distinctValues.get(a), distinctValues.get(b)));
+    int[] rank = new int[distinct];
+    String[] values = new String[distinct];
+    for (int k = 0; k < distinct; k++) {
+      rank[byValue[k]] = k;
+      values[k] = distinctValues.get(byValue[k]);
+    }
+    int[] offsets = new int[distinct + 1];
+    for (int code : codes.codes()) {
+      offsets[rank[code] + 1]++;
+    }
+    for (int k = 0; k < distinct; k++) {
+      offsets[k + 1] += offsets[k];
+    }
+    int[] next = Arrays.copyOf(offsets, distinct);
+    int[] rows = new int[codes.codes().length];
+    for (int r = 0; r < rows.length; r++) { // in row order, so each value's rows stay in order
+      rows[next[rank[codes.codes()[r]]]++] = r;
+    }
+    byte[][] encoded = new byte[distinct][];
+    int[] starts = new int[distinct + 1];
+    for (int k = 0; k < distinct; k++) {
+      encoded[k] = values[k].getBytes(StandardCharsets.UTF_8);
+      starts[k + 1] = starts[k] + encoded[k].length;
+    }
+    byte[] text = new byte[starts[distinct]];
+    for (int k = 0; k < distinct; k++) {
+      System.arraycopy(encoded[k], 0, text, starts[k], encoded[k].length);
+    }
+    Postings made = new Postings(ByteBuffer.wrap(text), IntBuffer.wrap(starts),
+        IntBuffer.wrap(offsets), IntBuffer.wrap(rows));
+    cached = this.postings.putIfAbsent(column, made);
+    if (cached == null && this.files != null) {
+      this.files.save(column, made);
+    }
+    return cached == null ? made : cached;
+  }
+
+  /**
+   * @param column - index of the column
+   * @return the column's numbers in order, from its index file if it has one, or else made from
+   *     its numbers
+   */
+  SortedNumbers sortedNumbers(int column) {
+    SortedNumbers cached = this.savedSortedNumbers(column);
+    if (cached != null) {
+      return cached;
+    }
+    double[] numbers = this.numbers(column);
+    int count = 0;
+    for (double number : numbers) {
+      if (!Double.isNaN(number)) {
+        count++;
+      }
+    }
+    Integer[] order = new Integer[count];
+    for (int r = 0, k = 0; r < numbers.length; r++) {
+      if (!Double.isNaN(numbers[r])) {
+        order[k++] = r;
+      }
+    }
+    // a stable sort, so rows with the same number stay in order
+    Arrays.sort(order, (a, b) -> Double.compare(numbers[a], numbers[b]));
+    double[] sortedNumbers = new double[count];
+    int[] rows = new int[count];
+    for (int k = 0; k < count; k++) {
+      rows[k] = order[k];
+      sortedNumbers[k] = numbers[rows[k]];
+    }
+    SortedNumbers made = new SortedNumbers(DoubleBuffer.wrap(sortedNumbers), IntBuffer.wrap(rows));
+    cached = this.sorted.putIfAbsent(column, made);
+    if (cached == null && this.files != null) {
+      this.files.save(column, made);
+    }
+    return cached == null ? made : cached;
+  }
+
+  /**
+   * @return the column's postings if they've been made, or can be read from its index file the
+   *     first time they're asked for, or null if neither
+   */
+  private Postings savedPostings(int column) {
+    Postings cached = this.postings.get(column);
+    if (cached == null && this.files != null && this.opened.add("postings " + column)) {
+      Postings saved = this.files.postings(column);
+      if (saved != null) {
+        this.postings.putIfAbsent(column, saved);
+      }
+      cached = this.postings.get(column);
+    }
+    return cached;
+  }
+
+  /**
+   * @return the column's sorted numbers if they've been made, or can be read from its index file
+   *     the first time they're asked for, or null if neither
+   */
+  private SortedNumbers savedSortedNumbers(int column) {
+    SortedNumbers cached = this.sorted.get(column);
+    if (cached == null && this.files != null && this.opened.add("sorted " + column)) {
+      SortedNumbers saved = this.files.sortedNumbers(column);
+      if (saved != null) {
+        this.sorted.putIfAbsent(column, saved);
+      }
+      cached = this.sorted.get(column);
+    }
+    return cached;
+  }
+
+  private static boolean isEmpty(List<String> row, int column) {
+    return row instanceof Row ? ((Row) row).fieldLength(column) == 0 : row.get(column).isEmpty();
+  }
+
+  private static boolean equalsIgnoreCase(List<String> row, int column, String value) {
+    return row instanceof Row ? ((Row) row).fieldEqualsIgnoreCase(column, value)
+        : row.get(column).equalsIgnoreCase(value);
+  }
+}
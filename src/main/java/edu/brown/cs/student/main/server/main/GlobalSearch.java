@@ -0,0 +1,157 @@
+package edu.brown.cs.student.main.server.main;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Predicate;
+import java.util.stream.IntStream;
+
+/**
+ * GlobalSearch looks for a value in any column of every loaded csv at once, for searchcsv's
+ * searchType=global. Each csv is split into partitions, the blocks of its ZoneMap that might have
+ * the value, and the partitions of every csv are searched in parallel on a pool with a thread per
+ * core. The pool is shared by every global search, so however many csvs are loaded, global
+ * searches can't use up more threads than that.
+ *
+ * <p>Every partition's matches count toward one limit. Once it's reached, the partitions that
+ * haven't started are cancelled and the ones running stop at their next row, keeping the matches
+ * they found before it, so a value that's all over the csvs isn't looked for in every row of
+ * every one of them. Matches come back tagged with the csv they're from, in the order the csvs
+ * were given and in file order within each; when the limit is reached, which matches are kept
+ * depends on which partitions got to them first.
+ */
+public final class GlobalSearch {
+
+  /** The limit of a global search that doesn't ask for one. */
+  public static final int DEFAULT_LIMIT = 1000;
+
+  // searches the partitions; shared so that searches at the same time can't use up more threads
+  // than there are cores
+  private static final ExecutorService SEARCHERS = Executors.newFixedThreadPool(
+      Runtime.getRuntime().availableProcessors(), runnable -> {
+        Thread thread = new Thread(runnable, "global-search");
+        thread.setDaemon(true);
+        return thread;
+      });
+
+  /**
+   * A matching row.
+   *
+   * @param dataset - the name of the csv the row is from
+   * @param row - the row
+   */
+  public record Match(String dataset, List<String> row) {}
+
+  /**
+   * What a global search found.
+   *
+   * @param matches - the matching rows, at most the limit of them
+   * @param limitReached - whether the limit was reached, so there may be more matches
+   * @param partitions - how many partitions might have had a match
+   * @param cancelled - how many of them were cancelled, or stopped, before they were done
+   */
+  public record Result(List<Match> matches, boolean limitReached, int partitions,
+      int cancelled) {}
+
+  // the matches of one partition, and whether every one of its rows was tested
+  private record Partition(List<List<String>> matches, boolean finished) {}
+
+  private GlobalSearch() {}
+
+  /**
+   * Searches every column of some csvs for a value, ignoring case.
+   *
+   * @param datasets - the csvs to search, by the name their matches are tagged with
+   * @param value - the value
+   * @param limit - the most matches to find, which must be positive
+   * @return the matches, tagged by csv
+   * @throws InterruptedException if the thread is interrupted while waiting on the partitions
+   * @throws ExecutionException if searching a partition threw something
+   */
+  public static Result search(Map<String, CSVDataset> datasets, String value, int limit)
+      throws InterruptedException, ExecutionException {
+    long key = ZoneMap.key(value);
+    AtomicInteger found = new AtomicInteger(); // counts matches over the limit too
+    CompletionService<Partition> done = new ExecutorCompletionService<>(SEARCHERS);
+    List<String> tags = new ArrayList<>();
+    List<Future<Partition>> partitions = new ArrayList<>();
+    // set by a partition when it starts, or by cancelling it first, so a partition that's started
+    // is never cancelled and its matches, already counted toward the limit, are never lost
+    List<AtomicBoolean> started = new ArrayList<>();
+    for (Map.Entry<String, CSVDataset> entry : datasets.entrySet()) {
+      List<List<String>> rows = entry.getValue().getRows();
+      ZoneMap zones = entry.getValue().getZoneMap();
+      for (int block = 0; block < zones.blockCount(); block++) {
+        if (zones.mightContainAnywhere(block, key)) {
+          int partition = block;
+          AtomicBoolean start = new AtomicBoolean();
+          tags.add(entry.getKey());
+          started.add(start);
+          partitions.add(done.submit(() -> start.compareAndSet(false, true)
+              ? search(rows, zones, partition, value, key, found, limit) : null));
+        }
+      }
+    }
+
+    try {
+      for (int k = 0; k < partitions.size() && found.get() < limit; k++) {
+        done.take();
+      }
+    } finally {
+      for (int k = 0; k < partitions.size(); k++) {
+        if (started.get(k).compareAndSet(false, true)) {
+          partitions.get(k).cancel(false);
+        }
+      }
+    }
+    List<Match> matches = new ArrayList<>();
+    int cancelled = 0;
+    for (int k = 0; k < partitions.size(); k++) {
+      if (partitions.get(k).isCancelled()) {
+        cancelled++;
+        continue;
+      }
+      Partition partition = partitions.get(k).get(); // a running one stops at its next row
+      if (partition == null) { // cancelled after it was taken off the queue, before it started
+        cancelled++;
+        continue;
+      }
+      if (!partition.finished()) {
+        cancelled++;
+      }
+      for (List<String> row : partition.matches()) {
+        matches.add(new Match(tags.get(k), row));
+      }
+    }
+    return new Result(matches, found.get() >= limit, partitions.size(), cancelled);
+  }
+
+  /**
+   * Tests the rows of one block, until they've all been tested or the limit's been reached.
+   */
+  private static Partition search(List<List<String>> rows, ZoneMap zones, int block,
+      String value, long key, AtomicInteger found, int limit) {
+    int[] columns = IntStream.range(0, zones.maxRowSize())
+        .filter(column -> zones.mightContain(block, column, key)).toArray();
+    Predicate<List<String>> matcher = SearchPlanner.anyMatcher(columns, value);
+    List<List<String>> matches = new ArrayList<>();
+    for (int r = zones.blockStart(block); r < zones.blockEnd(block); r++) {
+      if (found.get() >= limit) {
+        return new Partition(matches, false);
+      }
+      // only the matches that get in under the limit are kept
+      if (matcher.test(rows.get(r)) && found.getAndIncrement() < limit) {
+        matches.add(rows.get(r));
+      }
+    }
+    return new Partition(matches, true);
+  }
+}
@@ -0,0 +1,243 @@
+package edu.brown.cs.student.main.server.main;
+
+import edu.brown.cs.student.main.csv.Row;
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.Objects;
+import java.util.RandomAccess;
+
+/**
+ * HashJoin joins the rows of two datasets whose values in a key column match, ignoring case like
+ * searches. Blank keys never match. An inner join only has the pairs of rows that match; a left
+ * join also has every left row that matches nothing, with blanks for the right columns.
+ *
+ * <p>A hash table of the key column is built on whichever dataset has fewer rows, and the other
+ * one's rows probe it one at a time. Joined rows are made as they're iterated over, as views of
+ * the two rows they join, so neither the whole join nor anything bigger than the smaller
+ * dataset's key table is ever in memory, and a page of the join only probes up to the end of the
+ * page.
+ *
+ * <p>Joined rows come out in the order of the bigger dataset's rows, and each row's matches in
+ * the order of the smaller one's. When the table is built on the left dataset, a left join's rows
+ * that matched nothing come last.
+ */
+public final class HashJoin implements Iterable<List<String>> {
+
+  /** Which rows a join keeps. */
+  public enum Type {
+    INNER, LEFT
+  }
+
+  private final List<List<String>> left;
+  private final List<List<String>> right;
+  private final int leftColumn;
+  private final int rightColumn;
+  private final int leftWidth;
+  private final int rightWidth;
+  private final Type type;
+  private final boolean buildLeft;
+  // the table: each slot's first build row, and each build row's next one in its slot, or -1
+  private final int[] heads;
+  private final int[] nextInSlot;
+  private final long[] keys;
+
+  /**
+   * Constructor for HashJoin, which builds the hash table.
+   *
+   * @param left - the left dataset
+   * @param leftColumn - index of the left dataset's key column
+   * @param right - the right dataset
+   * @param rightColumn - index of the right dataset's key column
+   * @param type - which rows to keep
+   */
+  public HashJoin(CSVDataset left, int leftColumn, CSVDataset right, int rightColumn, Type type) {
+    this.left = left.getRows();
+    this.right = right.getRows();
+    this.leftColumn = leftColumn;
+    this.rightColumn = rightColumn;
+    this.leftWidth = width(left);
+    this.rightWidth = width(right);
+    this.type = type;
+    this.buildLeft = this.left.size() < this.right.size();
+    List<List<String>> build = this.buildLeft ? this.left : this.right;
+    int column = this.buildLeft ? leftColumn : rightColumn;
+    this.heads = new int[Integer.highestOneBit(Math.max(build.size(), 2) * 2 - 1) << 1];
+    Arrays.fill(this.heads, -1);
+    this.nextInSlot = new int[build.size()];
+    this.keys = new long[build.size()];
+    char[] scratch = new char[ZoneMap.MAX_NUMBER_CHARS];
+    // built backwards so each slot's rows are in order
+    for (int r = build.size() - 1; r >= 0; r--) {
+      List<String> row = build.get(r);
+      if (isBlank(row, column)) {
+        continue;
+      }
+      this.keys[r] = ZoneMap.key(row, column, scratch);
+      int slot = (int) this.keys[r] & (this.heads.length - 1);
+      this.nextInSlot[r] = this.heads[slot];
+      this.heads[slot] = r;
+    }
+  }
+
+  /**
+   * Names the joined columns: the left dataset's, then the right one's. A right column with the
+   * same name as a left one is prefixed with the right dataset's name and a dot, and columns of
+   * a dataset without headers are named by their index.
+   *
+   * @param leftHeaders - the left dataset's headers, or null if it has none
+   * @param rightHeaders - the right dataset's headers, or null if it has none
+   * @param rightName - the name the right dataset was loaded with
+   * @return the joined headers
+   */
+  public List<String> headers(List<String> leftHeaders, List<String> rightHeaders,
+      String rightName) {
+    List<String> headers = new ArrayList<>(this.leftWidth + this.rightWidth);
+    for (int k = 0; k < this.leftWidth; k++) {
+      headers.add(label(leftHeaders, k));
+    }
+    for (int k = 0; k < this.rightWidth; k++) {
+      String label = label(rightHeaders, k);
+      boolean taken = headers.subList(0, this.leftWidth).stream().anyMatch(label::equalsIgnoreCase);
+      headers.add(taken ? rightName + "." + label : label);
+    }
+    return List.copyOf(headers);
+  }
+
+  /**
+   * @return the joined rows, made as they're iterated over
+   */
+  @Override
+  public Iterator<List<String>> iterator() {
+    return new Probe();
+  }
+
+  /**
+   * Goes through the bigger dataset's rows, following each one's slot of the table to the rows
+   * that match it. When the table is built on the left dataset, a left join keeps track of the
+   * left rows that matched, and sends the rest once every right row has been probed.
+   */
+  private final class Probe implements Iterator<List<String>> {
+    private final List<List<String>> build = buildLeft ? left : right;
+    private final int buildColumn = buildLeft ? leftColumn : rightColumn;
+    private final List<List<String>> probes = buildLeft ? right : left;
+    private final int probeColumn = buildLeft ? rightColumn : leftColumn;
+    private final BitSet used = buildLeft && type == Type.LEFT ? new BitSet() : null;
+    private final char[] scratch = new char[ZoneMap.MAX_NUMBER_CHARS];
+    private int row = -1; // the probe row being joined
+    private List<String> probe;
+    private long key;
+    private int chain = -1; // the next build row in its slot to check, or -1
+    private boolean found; // whether it's matched anything yet
+    private int unmatched = -1; // the left row the unmatched ones have got to
+    private List<String> pending;
+
+    @Override
+    public boolean hasNext() {
+      while (this.pending == null) {
+        if (this.chain >= 0) {
+          int r = this.chain;
+          this.chain = nextInSlot[r];
+          // the key only says they might match; the values say whether they do
+          if (keys[r] == this.key && equalsIgnoreCase(this.build.get(r), this.buildColumn,
+              this.probe, this.probeColumn)) {
+            this.found = true;
+            if (this.used != null) {
+              this.used.set(r);
+            }
+            this.pending = buildLeft ? new Joined(left.get(r), this.probe)
+                : new Joined(this.probe, right.get(r));
+          }
+        } else if (this.probe != null && !this.found && !buildLeft && type == Type.LEFT) {
+          this.found = true; // so it's only sent once
+          this.pending = new Joined(this.probe, null);
+        } else if (this.row + 1 < this.probes.size()) {
+          this.probe = this.probes.get(++this.row);
+          this.found = false;
+          if (isBlank(this.probe, this.probeColumn)) {
+            this.chain = -1;
+          } else {
+            this.key = ZoneMap.key(this.probe, this.probeColumn, this.scratch);
+            this.chain = heads[(int) this.key & (heads.length - 1)];
+          }
+        } else if (this.used != null) {
+          this.unmatched = this.used.nextClearBit(this.unmatched + 1);
+          if (this.unmatched >= left.size()) {
+            return false;
+          }
+          this.pending = new Joined(left.get(this.unmatched), null);
+        } else {
+          return false;
+        }
+      }
+      return true;
+    }
+
+    @Override
+    public List<String> next() {
+      if (!this.hasNext()) {
+        throw new NoSuchElementException();
+      }
+      List<String> joined = this.pending;
+      this.pending = null;
+      return joined;
+    }
+  }
+
+  /**
+   * A left row followed by a right one, each padded with blanks to its dataset's width, without
+   * copying either.
+   */
+  private final class Joined extends AbstractList<String> implements RandomAccess {
+    private final List<String> leftRow;
+    private final List<String> rightRow; // null for a left row that matched nothing
+
+    Joined(List<String> leftRow, List<String> rightRow) {
+      this.leftRow = leftRow;
+      this.rightRow = rightRow;
+    }
+
+    @Override
+    public String get(int index) {
+      Objects.checkIndex(index, this.size());
+      if (index < HashJoin.this.leftWidth) {
+        return index < this.leftRow.size() ? this.leftRow.get(index) : "";
+      }
+      index -= HashJoin.this.leftWidth;
+      return this.rightRow != null && index < this.rightRow.size() ? this.rightRow.get(index) : "";
+    }
+
+    @Override
+    public int size() {
+      return HashJoin.this.leftWidth + HashJoin.this.rightWidth;
+    }
+  }
+
+  private static int width(CSVDataset dataset) {
+    int headers = dataset.getHeaders() == null ? 0 : dataset.getHeaders().size();
+    return Math.max(headers, dataset.getZoneMap().maxRowSize());
+  }
+
+  private static String label(List<String> headers, int column) {
+    return headers != null && column < headers.size() ? headers.get(column)
+        : Integer.toString(column);
+  }
+
+  private static boolean isBlank(List<String> row, int column) {
+    if (column >= row.size()) {
+      return true;
+    }
+    return row instanceof Row ? ((Row) row).fieldLength(column) == 0 : row.get(column).isEmpty();
+  }
+
+  private static boolean equalsIgnoreCase(List<String> a, int aColumn, List<String> b,
+      int bColumn) {
+    String value = b.get(bColumn);
+    return a instanceof Row ? ((Row) a).fieldEqualsIgnoreCase(aColumn, value)
+        : a.get(aColumn).equalsIgnoreCase(value);
+  }
+}
@@ -0,0 +1,32 @@
+package edu.brown.cs.student.main.server.main;
+
+import java.util.List;
+
+/**
+ * Exception thrown when csvs loaded together as one don't all have the same header row, so their
+ * rows can't go in one table.
+ */
+public class HeaderMismatchException extends Exception {
+  private final String file;
+
+  /**
+   * Constructor for the exception.
+   *
+   * @param expectedFile - the first file loaded, whose headers the others should have
+   * @param expected - the headers of the first file
+   * @param file - the file with different headers
+   * @param found - the headers of that file
+   */
+  public HeaderMismatchException(String expectedFile, List<String> expected, String file,
+      List<String> found) {
+    super(file + " has headers " + found + " but " + expectedFile + " has " + expected);
+    this.file = file;
+  }
+
+  /**
+   * @return the file whose headers didn't match, within data/
+   */
+  public String getFile() {
+    return this.file;
+  }
+}
@@ -0,0 +1,63 @@
+package edu.brown.cs.student.main.server.main;
+
+/**
+ * HyperLogLog estimates how many distinct values it has been given in a fixed 16 KB, to within
+ * about 0.8%, however many values that is. Values are given as the 64 bit keys ZoneMap hashes them
+ * to, so a value only has to be hashed once for both. Two sketches can be merged into one for all
+ * the values either has seen, which is how the sketches of blocks of rows become one for the whole
+ * dataset.
+ */
+final class HyperLogLog {
+
+  private static final int PRECISION = 14;
+  private static final int REGISTERS = 1 << PRECISION;
+
+  private final byte[] registers = new byte[REGISTERS];
+
+  /**
+   * Adds a value. Adding one that's already been added changes nothing.
+   *
+   * @param key - the value's key, from ZoneMap.key
+   */
+  void add(long key) {
+    int register = (int) (key >>> (Long.SIZE - PRECISION));
+    // one more than the zeros the rest of the key starts with; the 1 stops it counting past 52
+    int rank = Long.numberOfLeadingZeros(key << PRECISION | 1L << (PRECISION - 1)) + 1;
+    if (rank > this.registers[register]) {
+      this.registers[register] = (byte) rank;
+    }
+  }
+
+  /**
+   * Adds every value another sketch has seen.
+   *
+   * @param other - the other sketch, which isn't changed
+   */
+  void merge(HyperLogLog other) {
+    for (int k = 0; k < REGISTERS; k++) {
+      if (other.registers[k] > this.registers[k]) {
+        this.registers[k] = other.registers[k];
+      }
+    }
+  }
+
+  /**
+   * @return about how many distinct values have been added
+   */
+  long estimate() {
+    double sum = 0;
+    int empty = 0;
+    for (byte rank : this.registers) {
+      sum += Math.scalb(1.0, -rank);
+      if (rank == 0) {
+        empty++;
+      }
+    }
+    double alpha = 0.7213 / (1 + 1.079 / REGISTERS);
+    double estimate = alpha * REGISTERS * REGISTERS / sum;
+    if (estimate <= 2.5 * REGISTERS && empty > 0) { // few values, so count empty registers instead
+      estimate = REGISTERS * Math.log((double) REGISTERS / empty);
+    }
+    return Math.round(estimate);
+  }
+}
@@ -0,0 +1,285 @@
+package edu.brown.cs.student.main.server.main;
+
+import edu.brown.cs.student.main.csv.RowSelection;
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HexFormat;
+import java.util.List;
+
+/**
+ * IndexFiles keeps the indexes a dataset's ColumnStore builds in files, so the next time the same
+ * csv is loaded, even by a server that was restarted, searches can use them straight away instead
+ * of building them again. Files go in the directory named by the index.dir system property
+ * (default data/.index), or nowhere if it's blank.
+ *
+ * <p>Each file is laid out the way the index is in memory: arrays of big-endian ints and doubles,
+ * and the values of postings as UTF-8 text. A file is memory mapped when its index is first asked
+ * for, and searches read the mapped buffers directly, so opening one doesn't read or copy it, and
+ * only the pages a search looks at are ever read from disk.
+ *
+ * <p>Every file starts with what it was built from: the params the csv was loaded with, how many
+ * rows it had, and the size, last modified time and tail checksum of each of its files (see
+ * CSVReloader.FileState). A file that doesn't match the csv loaded now is ignored, and replaced
+ * once the index is built again. Datasets that are a random sample of their csv are never kept,
+ * since loading the csv again picks different rows.
+ */
+final class IndexFiles {
+
+  static final String DEFAULT_DIR = "data/.index";
+  private static final int MAGIC = 0x43535649; // "CSVI"
+  private static final int FORMAT = 1;
+  private static final int POSTINGS = 0;
+  private static final int SORTED_NUMBERS = 1;
+  private static final int HEADER_BYTES = 16;
+
+  private final Path dir;
+  private final String name; // the start of the names of this load's files
+  private final byte[] identity;
+
+  /**
+   * Something written to the body of an index file.
+   */
+  private interface Body {
+    void write(DataOutputStream out) throws IOException;
+  }
+
+  private IndexFiles(Path dir, String name, byte[] identity) {
+    this.dir = dir;
+    this.name = name;
+    this.identity = identity;
+  }
+
+  /**
+   * Works out where a load's indexes are kept. Called in CSVDataset.
+   *
+   * @param filePath - the file path, directory, or glob the csv was loaded from, within data/
+   * @param hasHeaders - whether the first row of the csv is headers
+   * @param selection - the columns and rows of the csv that were kept
+   * @param sourceColumn - name of the column saying which file each row came from, or null
+   * @param files - the state of the files the csv was loaded from, or null if it's not known
+   * @param rows - how many rows the dataset has
+   * @return the load's index files, or null if its indexes are only kept in memory
+   */
+  static IndexFiles of(String filePath, boolean hasHeaders, RowSelection selection,
+      String sourceColumn, List<CSVReloader.FileState> files, int rows) {
+    String dir = System.getProperty("index.dir", DEFAULT_DIR);
+    if (dir.isBlank() || files == null || files.isEmpty()
+        || (selection != null && selection.sampleSize() >= 0 && selection.reservoir())) {
+      return null;
+    }
+    String load = filePath + "|" + hasHeaders + "|" + selection + "|" + sourceColumn;
+    StringBuilder identity = new StringBuilder(load).append('|').append(rows);
+    for (CSVReloader.FileState file : files) {
+      identity.append('|').append(file.path()).append(':').append(file.size()).append(':')
+          .append(file.modified()).append(':').append(file.tailChecksum());
+    }
+    return new IndexFiles(Path.of(dir), hash(load),
+        identity.toString().getBytes(StandardCharsets.UTF_8));
+  }
+
+  /**
+   * @return what the load's indexes are built from: its params, row count, and files' states
+   */
+  String identity() {
+    return new String(this.identity, StandardCharsets.UTF_8);
+  }
+
+  /**
+   * @param backend - the name of a SearchBackend that keeps its own files, like "lucene"
+   * @return where the backend keeps the load's files
+   */
+  Path backendPath(String backend) {
+    return this.dir.resolve(this.name + "." + backend);
+  }
+
+  /**
+   * @param column - index of the column
+   * @return the column's postings, mapped from its file, or null if there isn't a file for this
+   *     csv
+   */
+  ColumnStore.Postings postings(int column) {
+    ByteBuffer body = this.open(column, POSTINGS);
+    if (body == null || body.limit() < 16) {
+      return null;
+    }
+    long values = body.getInt(0);
+    long text = body.getInt(4);
+    long rows = body.getInt(8);
+    if (values < 0 || text < 0 || rows < 0 || body.limit() != 16 + 8 * (values + 1) + 4 * rows
+        + text) {
+      return null; // cut short, or not written by this version
+    }
+    int starts = 16;
+    int offsets = starts + 4 * (int) (values + 1);
+    int postings = offsets + 4 * (int) (values + 1);
+    int chars = postings + 4 * (int) rows;
+    return new ColumnStore.Postings(body.slice(chars, (int) text),
+        body.slice(starts, offsets - starts).asIntBuffer(),
+        body.slice(offsets, postings - offsets).asIntBuffer(),
+        body.slice(postings, chars - postings).asIntBuffer());
+  }
+
+  /**
+   * @param column - index of the column
+   * @return the column's sorted numbers, mapped from its file, or null if there isn't a file for
+   *     this csv
+   */
+  ColumnStore.SortedNumbers sortedNumbers(int column) {
+    ByteBuffer body = this.open(column, SORTED_NUMBERS);
+    if (body == null || body.limit() < 8) {
+      return null;
+    }
+    long count = body.getInt(0);
+    if (count < 0 || body.limit() != 8 + 12 * count) {
+      return null;
+    }
+    int rows = 8 + 8 * (int) count;
+    return new ColumnStore.SortedNumbers(body.slice(8, rows - 8).asDoubleBuffer(),
+        body.slice(rows, 4 * (int) count).asIntBuffer());
+  }
+
+  /**
+   * Writes a column's postings to its file. If that fails, they're just built again next time.
+   *
+   * @param column - index of the column
+   * @param postings - the column's postings
+   */
+  void save(int column, ColumnStore.Postings postings) {
+    this.write(column, POSTINGS, out -> {
+      out.writeInt(postings.starts().limit() - 1);
+      out.writeInt(postings.text().limit());
+      out.writeInt(postings.rows().limit());
+      out.writeInt(0); // padding
+      for (int k = 0; k < postings.starts().limit(); k++) {
+        out.writeInt(postings.starts().get(k));
+      }
+      for (int k = 0; k < postings.offsets().limit(); k++) {
+        out.writeInt(postings.offsets().get(k));
+      }
+      for (int k = 0; k < postings.rows().limit(); k++) {
+        out.writeInt(postings.rows().get(k));
+      }
+      byte[] text = new byte[postings.text().limit()];
+      postings.text().get(0, text);
+      out.write(text);
+    });
+  }
+
+  /**
+   * Writes a column's sorted numbers to its file. If that fails, they're just built again next
+   * time.
+   *
+   * @param column - index of the column
+   * @param sorted - the column's sorted numbers
+   */
+  void save(int column, ColumnStore.SortedNumbers sorted) {
+    this.write(column, SORTED_NUMBERS, out -> {
+      out.writeInt(sorted.numbers().limit());
+      out.writeInt(0); // padding, so the numbers start on a multiple of 8
+      for (int k = 0; k < sorted.numbers().limit(); k++) {
+        out.writeDouble(sorted.numbers().get(k));
+      }
+      for (int k = 0; k < sorted.rows().limit(); k++) {
+        out.writeInt(sorted.rows().get(k));
+      }
+    });
+  }
+
+  /**
+   * Maps a column's file, if it was built from the csv loaded now.
+   *
+   * @return the file after its header, or null if there's no such file or it's for another csv
+   */
+  private ByteBuffer open(int column, int kind) {
+    try (FileChannel channel = FileChannel.open(this.path(column, kind), StandardOpenOption.READ)) {
+      long size = channel.size();
+      int bodyStart = bodyStart(this.identity.length);
+      if (size < bodyStart || size > Integer.MAX_VALUE) {
+        return null;
+      }
+      // the mapping stays valid once the channel is closed
+      MappedByteBuffer mapped = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+      if (mapped.getInt(0) != MAGIC || mapped.getInt(4) != FORMAT || mapped.getInt(8) != kind
+          || mapped.getInt(12) != this.identity.length || !mapped.slice(HEADER_BYTES,
+              this.identity.length).equals(ByteBuffer.wrap(this.identity))) {
+        return null;
+      }
+      return mapped.slice(bodyStart, (int) size - bodyStart);
+    } catch (IOException e) { // including there not being a file
+      return null;
+    }
+  }
+
+  /**
+   * Writes a column's file next to where it goes, then moves it there, so a file that's there is
+   * always whole.
+   */
+  private void write(int column, int kind, Body body) {
+    Path path = this.path(column, kind);
+    Path temp = null;
+    try {
+      Files.createDirectories(this.dir);
+      temp = Files.createTempFile(this.dir, path.getFileName().toString(), ".tmp");
+      try (DataOutputStream out = new DataOutputStream(
+          new BufferedOutputStream(Files.newOutputStream(temp), 1 << 16))) {
+        out.writeInt(MAGIC);
+        out.writeInt(FORMAT);
+        out.writeInt(kind);
+        out.writeInt(this.identity.length);
+        out.write(this.identity);
+        out.write(new byte[bodyStart(this.identity.length) - HEADER_BYTES
+            - this.identity.length]);
+        body.write(out);
+      }
+      Files.move(temp, path, StandardCopyOption.REPLACE_EXISTING,
+          StandardCopyOption.ATOMIC_MOVE);
+    } catch (IOException e) {
+      // the index still works from memory, it just isn't kept
+      if (temp != null) {
+        try {
+          Files.deleteIfExists(temp);
+        } catch (IOException ignored) {
+          // nothing more to do
+        }
+      }
+    }
+  }
+
+  private Path path(int column, int kind) {
+    return this.dir.resolve(this.name + "-" + column
+        + (kind == POSTINGS ? ".postings" : ".sorted"));
+  }
+
+  /**
+   * @return where the body of a file starts, after its header and identity, rounded up to a
+   *     multiple of 8 so doubles in it line up
+   */
+  private static int bodyStart(int identityLength) {
+    return (HEADER_BYTES + identityLength + 7) & ~7;
+  }
+
+  /**
+   * @param text - anything
+   * @return the first 16 bytes of the text's SHA-256, in hex, for naming files after it
+   */
+  static String hash(String text) {
+    try {
+      byte[] digest = MessageDigest.getInstance("SHA-256")
+          .digest(text.getBytes(StandardCharsets.UTF_8));
+      return HexFormat.of().formatHex(digest, 0, 16);
+    } catch (NoSuchAlgorithmException e) {
+      throw new IllegalStateException(e); // every JVM has SHA-256
+    }
+  }
+}
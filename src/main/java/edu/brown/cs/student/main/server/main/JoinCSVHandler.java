@@ -0,0 +1,300 @@
+package edu.brown.cs.student.main.server.main;
+
+import edu.brown.cs.student.main.csv.RowSelection;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Locale;
+import javax.servlet.http.HttpServletResponse;
+import okio.BufferedSink;
+import okio.Okio;
+import spark.Request;
+import spark.Response;
+import spark.Route;
+
+/**
+ * JoinCSVHandler joins the loaded csv with another csv that was loaded with a name (see
+ * LoadCSVHandler), matching rows on a key column of each (see HashJoin). This class is dependency
+ * injected with the LoadCSVHandler so that it can access both csvs.
+ *
+ * <p>The with query param is the name of the csv to join with. leftOn and rightOn are the key
+ * columns of the loaded csv and of that one (header names or indexes), or on names both when
+ * they're called the same. type is inner (the default) or left.
+ *
+ * <p>Joined rows are streamed to the response as they're made, like viewcsv, in any ResponseFormat
+ * and compressed for clients that accept it. The optional page and pageSize query params only send
+ * one page of them, and the join stops as soon as the page is done. Responses are tagged with an
+ * ETag for the versions of both csvs, and pages small enough to cache are kept.
+ */
+public class JoinCSVHandler implements Route {
+
+  private final LoadCSVHandler loader;
+  private final ResponseCompression compression;
+  private final ResponseCache cache = new ResponseCache(64, 32L << 20);
+
+  /**
+   * Constructor for JoinCSVHandler that compresses with the default settings.
+   *
+   * @param loader - the LoadCSVHandler instantiated in Server
+   */
+  public JoinCSVHandler(LoadCSVHandler loader) {
+    this(loader, new ResponseCompression());
+  }
+
+  /**
+   * Constructor for JoinCSVHandler, called in Server.
+   *
+   * @param loader - the LoadCSVHandler instantiated in Server
+   * @param compression - how to compress responses
+   */
+  public JoinCSVHandler(LoadCSVHandler loader, ResponseCompression compression) {
+    this.loader = loader;
+    this.compression = compression;
+  }
+
+  /**
+   * Handles the user's request, streaming the joined rows.
+   *
+   * @param request - the user's request
+   * @param response - allows us to return a response to the user
+   * @return a failure response, or "" once the joined rows have been streamed
+   */
+  public Object handle(Request request, Response response) {
+    String with = request.queryParams("with");
+    CSVDataset left;
+    CSVDataset right;
+    try {
+      left = this.loader.getDataset();
+      right = this.loader.getDataset(with);
+    } catch (IllegalStateException e) {
+      return new JoinFailureResponse(with).serialize();
+    }
+    String on = request.queryParams("on");
+    String leftOn = request.queryParams("leftOn") == null ? on : request.queryParams("leftOn");
+    String rightOn = request.queryParams("rightOn") == null ? on : request.queryParams("rightOn");
+    String type = request.queryParams("type");
+    int leftColumn;
+    int rightColumn;
+    HashJoin.Type joinType;
+    try {
+      leftColumn = RowSelection.columnIndex(leftOn, left.getHeaders());
+      rightColumn = RowSelection.columnIndex(rightOn, right.getHeaders());
+      joinType = type == null ? HashJoin.Type.INNER
+          : HashJoin.Type.valueOf(type.trim().toUpperCase(Locale.ROOT));
+    } catch (IllegalArgumentException | NullPointerException e) { // a column or type left out too
+      return new ParamsJoinFailureResponse(with, leftOn, rightOn, type).serialize();
+    }
+    long start = 0;
+    long end = Long.MAX_VALUE;
+    String page = request.queryParams("page");
+    String pageSize = request.queryParams("pageSize");
+    if (page != null || pageSize != null) {
+      try {
+        int pageNum = Integer.parseInt(page);
+        int size = Integer.parseInt(pageSize);
+        if (pageNum < 1 || size < 1) {
+          return new PageJoinFailureResponse(page, pageSize).serialize();
+        }
+        start = (long) (pageNum - 1) * size;
+        end = start + size;
+      } catch (NumberFormatException e) { // if the user leaves one out or doesn't enter a number
+        return new PageJoinFailureResponse(page, pageSize).serialize();
+      }
+    }
+    ResponseFormat format;
+    try {
+      format = ResponseFormat.of(request);
+    } catch (IllegalArgumentException e) {
+      return new FormatJoinFailureResponse(request.queryParams("format")).serialize();
+    }
+
+    ResponseCompression.Encoding encoding = this.compression.negotiate(request);
+    response.header("Vary", "Accept, Accept-Encoding");
+    String etag = ResponseCache.etag(left.getVersion(), request,
+        right.getVersion() + "|" + format + "|" + encoding);
+    if (ResponseCache.notModified(request, response, etag)) {
+      return "";
+    }
+    ResponseCache.Body cached = this.cache.get(etag);
+    if (cached != null) {
+      return cached.send(response, format.contentType());
+    }
+
+    HashJoin join = new HashJoin(left, leftColumn, right, rightColumn, joinType);
+    List<String> headers = join.headers(left.getHeaders(), right.getHeaders(), with.trim());
+    try {
+      this.streamJoin(response.raw(), join, headers, format, encoding, start, end, etag);
+    } catch (IOException e) {
+      // the response is already committed at this point, so all we can do is stop writing
+    }
+    return "";
+  }
+
+  /**
+   * Writes joined rows start to end directly to the servlet output stream, the way viewcsv does.
+   *
+   * @param raw - the underlying servlet response
+   * @param join - the join to write rows from
+   * @param headers - the joined columns' names
+   * @param format - the format to write the rows in
+   * @param encoding - the compression the client accepts
+   * @param start - index of the first joined row to send
+   * @param end - index after the last joined row to send
+   * @param etag - the tag to cache the body under
+   * @throws IOException if the client disconnects while rows are being written
+   */
+  private void streamJoin(HttpServletResponse raw, HashJoin join, List<String> headers,
+      ResponseFormat format, ResponseCompression.Encoding encoding, long start, long end,
+      String etag) throws IOException {
+    raw.setStatus(200);
+    raw.setContentType(format.contentType());
+    ResponseCache.CapturingOutputStream sent = this.cache.capture(etag, raw.getOutputStream());
+    ResponseCompression.CompressingOutputStream out = this.compression.wrap(raw, encoding, sent);
+    try (BufferedSink sink = Okio.buffer(Okio.sink(out))) {
+      Iterator<List<String>> rows = join.iterator();
+      for (long skipped = 0; skipped < start && rows.hasNext(); skipped++) {
+        rows.next();
+      }
+      int firstNumber = (int) Math.min(Integer.MAX_VALUE, start + 1);
+      if (format.streams()) {
+        ResponseFormat.RowWriter writer = format.open(sink, headers, null, firstNumber);
+        for (long k = start; k < end && rows.hasNext(); k++) {
+          writer.row(rows.next());
+        }
+        writer.finish();
+      } else { // only the page has to be held to write it all at once
+        List<List<String>> pageRows = new ArrayList<>();
+        for (long k = start; k < end && rows.hasNext(); k++) {
+          pageRows.add(rows.next());
+        }
+        format.write(sink, headers, pageRows, null, firstNumber);
+      }
+      sink.flush();
+      out.finish();
+      sent.commit(out.contentEncoding());
+    }
+  }
+
+  /**
+   * Failure response if either csv isn't loaded.
+   *
+   * @param response_type - in this case, "error_datasource"
+   * @param with - the name of the csv the user asked to join with
+   */
+  public record JoinFailureResponse(String response_type, String with) {
+
+    /**
+     * Constructor for the failure response.
+     *
+     * @param with - the name of the csv the user asked to join with
+     */
+    public JoinFailureResponse(String with) {
+      this("error_datasource: make sure you loaded your csv, and the csv to join it with using"
+          + " loadcsv's name query param, before joining them", with);
+    }
+
+    /**
+     * Returns the failure response as a json.
+     *
+     * @return this response, serialized as Json
+     */
+    byte[] serialize() {
+      return ResponseSerializer.serialize(this);
+    }
+  }
+
+  /**
+   * Failure response if the key columns or join type aren't valid.
+   *
+   * @param response_type - in this case, "error_bad_request"
+   * @param with - the name of the csv the user asked to join with
+   * @param leftOn - the loaded csv's key column the user asked for
+   * @param rightOn - the other csv's key column the user asked for
+   * @param type - the join type the user asked for
+   */
+  public record ParamsJoinFailureResponse(String response_type, String with, String leftOn,
+      String rightOn, String type) {
+
+    /**
+     * Constructor for the failure response.
+     *
+     * @param with - the name of the csv the user asked to join with
+     * @param leftOn - the loaded csv's key column the user asked for
+     * @param rightOn - the other csv's key column the user asked for
+     * @param type - the join type the user asked for
+     */
+    public ParamsJoinFailureResponse(String with, String leftOn, String rightOn, String type) {
+      this("error_bad_request: leftOn and rightOn (or on, for both) must be a header name or column"
+          + " index of each csv, and type 'inner' or 'left'", with, leftOn, rightOn, type);
+    }
+
+    /**
+     * Returns the failure response as a json.
+     *
+     * @return this response, serialized as Json
+     */
+    byte[] serialize() {
+      return ResponseSerializer.serialize(this);
+    }
+  }
+
+  /**
+   * Failure response if page or pageSize isn't a positive number.
+   *
+   * @param response_type - in this case, "error_bad_request"
+   * @param page - the page the user asked for
+   * @param pageSize - the page size the user asked for
+   */
+  public record PageJoinFailureResponse(String response_type, String page, String pageSize) {
+
+    /**
+     * Constructor for the failure response.
+     *
+     * @param page - the page the user asked for
+     * @param pageSize - the page size the user asked for
+     */
+    public PageJoinFailureResponse(String page, String pageSize) {
+      this("error_bad_request: enter positive numbers for both page and pageSize, or leave both"
+          + " out to get every joined row", page, pageSize);
+    }
+
+    /**
+     * Returns the failure response as a json.
+     *
+     * @return this response, serialized as Json
+     */
+    byte[] serialize() {
+      return ResponseSerializer.serialize(this);
+    }
+  }
+
+  /**
+   * Failure response if the user asks for a format that doesn't exist.
+   *
+   * @param response_type - in this case, "error_bad_request"
+   * @param format - the format the user asked for
+   */
+  public record FormatJoinFailureResponse(String response_type, String format) {
+
+    /**
+     * Constructor for the failure response.
+     *
+     * @param format - the format the user asked for
+     */
+    public FormatJoinFailureResponse(String format) {
+      this("error_bad_request: format must be 'json', 'columnar', 'ndjson', 'csv', 'binary', "
+          + "'arrow', or 'arrow-stream'",
+          format);
+    }
+
+    /**
+     * Returns the failure response as a json.
+     *
+     * @return this response, serialized as Json
+     */
+    byte[] serialize() {
+      return ResponseSerializer.serialize(this);
+    }
+  }
+}
@@ -1,50 +1,81 @@
 package edu.brown.cs.student.main.server.main;
 
 
-import com.squareup.moshi.JsonAdapter;
 import com.squareup.moshi.JsonDataException;
-import com.squareup.moshi.Moshi;
 import edu.brown.cs.student.main.csv.FactoryFailureException;
-import edu.brown.cs.student.main.csv.RawCreator;
-import java.util.ArrayList;
-import java.util.Collections;
-import java.util.LinkedHashMap;
-import java.util.Map;
+import edu.brown.cs.student.main.csv.RowSelection;
 
-import edu.brown.cs.student.main.csv.Searcher;
 import spark.Request;
 import spark.Response;
 import spark.Route;
-import edu.brown.cs.student.main.csv.Parser;
 
-import java.io.BufferedReader;
 import java.io.FileNotFoundException;
-import java.io.FileReader;
-import java.io.IOException;
-import java.util.List;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
 
 /**
  * LoadCSVHandler is in charge of loading CSV files passed into the loadcsv endpoint by the user as a request.
- * The class stores the data in the CSV as parsed Strings. Since the data is stored in this class, LoadCSVHandler
- * also has control of calling Searcher depending on requests to searchcsv, and control over the map returned
- * if the user wants to view the CSV.
+ * The class stores the data in the CSV as a CSVDataset, which also has control of calling Searcher depending
+ * on requests to searchcsv, and control over the map returned if the user wants to view the CSV. Each load
+ * swaps in a whole new CSVDataset, so other handlers never see a half loaded csv.
+ *
+ * <p>The optional columns query param only loads some of the csv's columns, and filterVal (with an
+ * optional filterColumn) only loads the rows with that value. Both are applied while the file is
+ * read, so the rest of the file never takes up any memory.
+ *
+ * <p>The filepath can also be a directory or a glob (like census/*.csv), to load every matching csv
+ * as one table. The files are parsed in parallel and have to have the same headers. The optional
+ * sourceColumn query param adds a first column, with that name, saying which file each row came
+ * from. Gzipped csvs (.csv.gz) are decompressed as they're read, and Arrow IPC files and streams
+ * are read straight from their columns (see ArrowFiles).
+ *
+ * <p>The optional sample query param only loads that many rows, for a quick look at a huge csv:
+ * the first ones with sampleMode=head, which stops reading once it has them, or by default a
+ * uniform random sample of every row (sampleSeed picks which). View and search responses then say
+ * they're only a sample.
+ *
+ * <p>Once loaded, the csv is kept up to date with its file by a CSVReloader: lines appended to the
+ * file are added to the loaded rows, and a rewritten file is loaded again, in the background.
+ *
+ * <p>The optional name query param also keeps the csv loaded under that name after other csvs are
+ * loaded, so endpoints that work on more than one csv (like joincsv) can refer to it. Loading
+ * another csv with the same name replaces it. Only the csv loaded last is kept up to date with
+ * its file.
+ *
+ * <p>The optional backend query param picks the SearchBackend that runs the csv's searches: scan
+ * (the default), lucene, which indexes the rows with Lucene as they're loaded and can also run
+ * text, prefix and fuzzy searches, or sql, which puts them in a table of an embedded database and
+ * searches it with SQL.
  */
 public class LoadCSVHandler implements Route {
-  private Boolean hasHeaders;
-  private String filePath;
-  private List<List<String>> objects;
-  private Parser<List<String>> parser;
-  private List<String> headers;
+  private volatile CSVDataset dataset;
+  private String name; // what the loaded csv was named, or null
+  private final Map<String, CSVDataset> named = new ConcurrentHashMap<>();
+  private final CSVReloader reloader;
 
   /**
-   * Constructor for LoadCSVHandler. Called in Server class and has no parameters.
+   * Constructor for LoadCSVHandler that checks the loaded file for changes every second.
    */
-  public LoadCSVHandler() {}
+  public LoadCSVHandler() {
+    this(CSVReloader.DEFAULT_POLL_MILLIS);
+  }
+
+  /**
+   * Constructor for LoadCSVHandler. Called in Server class.
+   *
+   * @param pollMillis - time between checks of the loaded file for changes, or 0 to never check
+   */
+  public LoadCSVHandler(long pollMillis) {
+    this.reloader = new CSVReloader(this, pollMillis);
+  }
 
   /**
    * This method is called when a user accesses our server's loadcsv endpoint. If formatted correctly,
    * the method should successfully load a csv file, which means the file will be parsed as a
-   * list of list of Strings.
+   * list of list of Strings. Only the selected columns and matching rows are kept, if the user
+   * asked for that.
    *
    * @param request - the request made by the user.
    * @param response - allows the response returned to the user to be modified
@@ -53,171 +84,166 @@ public class LoadCSVHandler implements Route {
    */
   @Override
   public Object handle(Request request, Response response) {
+    String filePath = request.queryParams("filepath");
     try {
-      this.filePath = request.queryParams("filepath");
       String h = request.queryParams("hasHeaders");
-
+      boolean hasHeaders;
       if (h.equalsIgnoreCase("true")) { // setting boolean value based on user's request
-        this.hasHeaders = true;
+        hasHeaders = true;
       } else if (h.equalsIgnoreCase("false")) {
-        this.hasHeaders = false;
+        hasHeaders = false;
       } else {
-        return new HeaderLoadFailureResponse(this.filePath, h).serialize();
+        return new HeaderLoadFailureResponse(filePath, h).serialize();
+      }
+
+      RowSelection selection = new RowSelection(
+          RowSelection.splitColumns(request.queryParams("columns")),
+          blankToNull(request.queryParams("filterColumn")),
+          blankToNull(request.queryParams("filterVal")));
+
+      String sample = request.queryParams("sample");
+      if (sample != null) {
+        String mode = request.queryParams("sampleMode");
+        String seed = request.queryParams("sampleSeed");
+        try {
+          if (mode != null && !mode.equalsIgnoreCase("head")
+              && !mode.equalsIgnoreCase("reservoir")) {
+            throw new IllegalArgumentException("unknown sample mode " + mode);
+          }
+          selection = selection.withSample(Integer.parseInt(sample.trim()),
+              !"head".equalsIgnoreCase(mode),
+              seed == null ? System.nanoTime() : Long.parseLong(seed.trim()));
+        } catch (IllegalArgumentException e) { // NumberFormatException is one too
+          return new SampleLoadFailureResponse(filePath, sample, mode, seed).serialize();
+        }
+      }
+
+      String backend = blankToNull(request.queryParams("backend"));
+      backend = backend == null ? SearchBackend.NAMES.get(0) : backend.trim().toLowerCase();
+      if (!SearchBackend.NAMES.contains(backend)) {
+        return new BackendLoadFailureResponse(filePath, request.queryParams("backend")).serialize();
+      }
+
+      CSVReloader.Loaded loaded;
+      try {
+        loaded = CSVReloader.load(filePath, hasHeaders, selection,
+            blankToNull(request.queryParams("sourceColumn")), backend);
+      } catch (IllegalArgumentException e) { // a column or filterColumn the csv doesn't have
+        return new ColumnsLoadFailureResponse(filePath, request.queryParams("columns"),
+            request.queryParams("filterColumn")).serialize();
       }
 
-      BufferedReader reader = new BufferedReader(new FileReader(
-              "data/" + this.filePath)); // allows us to stay within our data folder, not our whole
-      RawCreator creator = new RawCreator();      // directory
-      this.parser = new Parser<>(creator, reader);
-
-      this.objects = new ArrayList<>(parser.parseObjectsWithoutHeaders());
-      if (this.hasHeaders) {
-        this.headers = this.objects.get(0);
-        this.objects.remove(0); // gets rid of the first row (headers) to return just the data
-      }                               // to the user
-      return new LoadSuccessResponse(this.filePath).serialize();
+      // only replaces the loaded csv once the new one is fully parsed
+      String name = blankToNull(request.queryParams("name"));
+      synchronized (this) {
+        CSVDataset replaced = this.dataset;
+        this.dataset = loaded.dataset();
+        this.name = name == null ? null : name.trim();
+        CSVDataset replacedNamed =
+            this.name == null ? null : this.named.put(this.name, loaded.dataset());
+        this.reloader.watch(loaded);
+        this.release(replaced);
+        this.release(replacedNamed);
+      }
+      return new LoadSuccessResponse(filePath).serialize();
     } catch (FileNotFoundException e) {
-      return new FileNotFoundLoadFailureResponse(this.filePath).serialize();
+      return new FileNotFoundLoadFailureResponse(filePath).serialize();
     } catch (FactoryFailureException e) {
-      return new FactoryFailureLoadFailureResponse(this.filePath).serialize();
+      return new FactoryFailureLoadFailureResponse(filePath).serialize();
+    } catch (HeaderMismatchException e) {
+      return new HeaderMismatchLoadFailureResponse(filePath, e.getFile()).serialize();
     } catch (JsonDataException e) {
-      return new JsonDataLoadFailureResponse(this.filePath).serialize();
+      return new JsonDataLoadFailureResponse(filePath).serialize();
+    } catch (ArrowFormatException e) {
+      return new ArrowLoadFailureResponse(filePath, e.getMessage()).serialize();
     } catch (Exception e) {
-      return new IOLoadFailureResponse(this.filePath).serialize();
+      return new IOLoadFailureResponse(filePath).serialize();
     }
   }
 
 
   /**
-   * getMapWithHeaders is a private helper method that returns a list of lists of data as a hashmap.
-   * This method is called when searching or viewing a csv with headers, so objects' elements will
-   * align with their field names from the headers.
+   * replace swaps in a newer version of the loaded csv from the CSVReloader, unless another csv
+   * was loaded while it was being read.
    *
-   * @param data - a List<List<String>> of parsed data.
-   * @return the data as a HashMap, with column headers matched with their values for each respective object
+   * @param current - the dataset the new version was made from
+   * @param next - the new version and the state of the file it was read from
+   * @return whether the new version was swapped in
    */
-  private Map<String, Map<String, String>> getMapWithHeaders(List<List<String>> data) {
-    Map<String, Map<String, String>> map = new LinkedHashMap<>();
-    if (data.isEmpty()) {
-      return map;
+  synchronized boolean replace(CSVDataset current, CSVReloader.Loaded next) {
+    if (this.dataset != current) {
+      return false;
     }
-    int rowNum = data.size();
-    int colNum = data.get(0).size();
-    for (int i = 1; i <= rowNum; i++) { // start at 1 because field 1 is at index 0 but we want
-      LinkedHashMap<String, String> rowObject = new LinkedHashMap<>();  // it to say "field 1"
-      for (int j = 1; j <= colNum; j++) {                               // for the object
-        rowObject.put(this.headers.get(j - 1), data.get(i - 1).get(j - 1)); // subtracting 1 accounts
-      }                                                                   // for index discrepencies
-      map.put("object" + i, rowObject);
+    this.dataset = next.dataset();
+    if (this.name != null) {
+      this.named.put(this.name, next.dataset());
     }
-    return map;
+    this.reloader.watch(next);
+    this.release(current);
+    return true;
   }
 
   /**
-   * getMapWithHeaders is a private helper method that returns a list of lists of data as a hashmap.
-   * This method is called when searching or viewing a csv without headers, so objects' elements will
-   * align with its number field, starting with 1.
-   *
-   * @param data - a List<List<String>> of parsed data.
-   * @return the data as a HashMap, with column indices/field numbers matched with their values for each respective object
+   * Releases a dataset that was replaced, unless it's still loaded under a name.
    */
-  private Map<String, Map<String, String>> getMapWithoutHeaders(List<List<String>> data) {
-    Map<String, Map<String, String>> map = new LinkedHashMap<>();
-    if (data.isEmpty()) {
-      return map;
+  private void release(CSVDataset replaced) {
+    if (replaced != null && replaced != this.dataset && !this.named.containsValue(replaced)) {
+      replaced.release();
     }
-    int rowNum = data.size();
-    int colNum = data.get(0).size();
-    for (int i = 1; i <= rowNum; i++) {
-      LinkedHashMap<String, String> rowObject = new LinkedHashMap<>();
-      for (int j = 1; j <= colNum; j++) {
-        rowObject.put("field" + j, data.get(i - 1).get(j - 1)); // we use "field" + number because we
-      }                                                         // don't have a header name
-      map.put("object" + i, rowObject);
-    }
-    return map;
   }
 
-  /**
-   * viewMap returns the parsed list of data as an unmodifiable map. It is called in
-   * the viewcsv handler.
-   *
-   * @return the CSV data as an unmodifiable map from headers/field number to header/field vaule.
-   */
-  public Map<String, Map<String, String>> viewMap() {
-    if(this.hasHeaders) {
-      return Collections.unmodifiableMap(this.getMapWithHeaders(this.objects));
-    }
-    return Collections.unmodifiableMap(this.getMapWithoutHeaders(this.objects));
+  private static String blankToNull(String param) {
+    return param == null || param.isBlank() ? null : param;
   }
 
   /**
-   * searchByIndex searches through loaded csv data and returns a Map with the user's search value as
-   * the key and the number index they used as the value. This method is called in the SearchCSVHandler
-   * class since this class has access to the parser, boolean, and objects.
-   *
-   * @param searchVal - the String value that the user is requesting a search for
-   * @param columnIdentifier - the number of the column they want to search
+   * getDataset returns the csv that is currently loaded. Called in the viewcsv and searchcsv
+   * handlers, which should hold on to the dataset they get for the whole request.
    *
-   * @return the data containing the searchVal, as a Map of the object(s) and its values.
-   * @throws IOException
-   * @throws IndexOutOfBoundsException
-   * @throws FactoryFailureException
+   * @return the currently loaded csv
+   * @throws IllegalStateException if no csv has been loaded yet
    */
-  public Map<String, Map<String, String>> searchByIndex(String searchVal, int columnIdentifier)
-      throws IOException, IndexOutOfBoundsException, FactoryFailureException {
-    Searcher<List<String>> searcher = new Searcher<>(this.parser, this.hasHeaders);
-    List<List<String>> data = searcher.searchByColIndex(searchVal, columnIdentifier);
-    if (this.hasHeaders){
-      return Collections.unmodifiableMap(this.getMapWithHeaders(data));
+  public CSVDataset getDataset() {
+    CSVDataset dataset = this.dataset;
+    if (dataset == null) {
+      throw new IllegalStateException("no csv loaded");
     }
-    return Collections.unmodifiableMap(this.getMapWithoutHeaders(data));
+    return dataset;
   }
 
   /**
-   * searchByName searches through loaded csv data and returns a Map with the user's search value as
-   * the key and the column name they used as the value. This method is called in the SearchCSVHandler
-   * class since this class has access to the parser, boolean, and objects.
+   * getDataset returns a csv that was loaded with a name. Like getDataset(), the dataset should be
+   * held on to for the whole request.
    *
-   * @param searchVal - the String value that the user is requesting a search for
-   * @param columnIdentifier - the name of the column they want to search
-   *
-   * @return the data containing the searchVal, as a Map of the object(S) and its values.
-   * @throws IOException
-   * @throws IndexOutOfBoundsException
-   * @throws FactoryFailureException
+   * @param name - the name the csv was loaded with
+   * @return the csv loaded last with that name
+   * @throws IllegalStateException if no csv has been loaded with that name
    */
-  public Map<String, Map<String, String>> searchByName(String searchVal, String columnIdentifier)
-      throws IOException, IndexOutOfBoundsException, FactoryFailureException {
-    Searcher<List<String>> searcher = new Searcher<>(this.parser, this.hasHeaders);
-    List<List<String>> data = searcher.searchByColName(searchVal, columnIdentifier);
-    if (this.hasHeaders){
-      return Collections.unmodifiableMap(this.getMapWithHeaders(data));
+  public CSVDataset getDataset(String name) {
+    CSVDataset dataset = name == null ? null : this.named.get(name.trim());
+    if (dataset == null) {
+      throw new IllegalStateException("no csv loaded as " + name);
     }
-    return Collections.unmodifiableMap(this.getMapWithoutHeaders(data));
-
+    return dataset;
   }
 
   /**
-   * searchAll searches through loaded csv data and returns a Map with the user's search value as
-   * the key and the object's properties as a value. This method is called in the SearchCSVHandler
-   * class since this class has access to the parser, boolean, and objects.
+   * getDatasets returns every csv that's loaded, for searches of all of them: the csv loaded last,
+   * under its name or its file path if it wasn't given one, then the other csvs loaded with a
+   * name, in order by name. Like getDataset(), the datasets should be held on to for the whole
+   * request.
    *
-   * @param searchVal - the String value that the user is requesting a search for
-   *
-   * @return the data containing the searchVal, as a Map of the object(S) and its values.
-   * @throws IOException if there's an error in the searcher's search methods
-   * @throws FactoryFailureException if there's an error parsing the data within the searcher
+   * @return the loaded csvs by name, or an empty map if no csv has been loaded yet
    */
-  public Map<String, Map<String, String>> searchAll(String searchVal)
-      throws IOException, FactoryFailureException {
-    Searcher<List<String>> searcher = new Searcher<>(this.parser, this.hasHeaders);
-    List<List<String>> data = searcher.searchAllCol(searchVal);
-
-    if (this.hasHeaders){
-      return Collections.unmodifiableMap(this.getMapWithHeaders(data));
+  public Map<String, CSVDataset> getDatasets() {
+    Map<String, CSVDataset> datasets = new LinkedHashMap<>();
+    synchronized (this) {
+      if (this.dataset != null) {
+        datasets.put(this.name == null ? this.dataset.getFilePath() : this.name, this.dataset);
+      }
     }
-    return Collections.unmodifiableMap(this.getMapWithoutHeaders(data));
+    new TreeMap<>(this.named).forEach(datasets::putIfAbsent);
+    return datasets;
   }
 
   /**
@@ -240,12 +266,10 @@ public class LoadCSVHandler implements Route {
     /**
      * Converts the object to a json.
      *
-     * @return - the success message as a json.
+     * @return - the success message as json, as UTF-8 bytes.
      */
-    public String serialize() {
-      Moshi moshi = new Moshi.Builder().build();
-      JsonAdapter<LoadSuccessResponse> adapter = moshi.adapter(LoadSuccessResponse.class);
-      return adapter.toJson(this);
+    public byte[] serialize() {
+      return ResponseSerializer.serialize(this);
     }
   }
 
@@ -274,9 +298,8 @@ public class LoadCSVHandler implements Route {
      *
      * @return this response, serialized as Json
      */
-    String serialize() {
-      Moshi moshi = new Moshi.Builder().build();
-      return moshi.adapter(HeaderLoadFailureResponse.class).toJson(this);
+    byte[] serialize() {
+      return ResponseSerializer.serialize(this);
     }
   }
 
@@ -303,9 +326,8 @@ public class LoadCSVHandler implements Route {
      *
      * @return this response, serialized as Json
      */
-    String serialize() {
-      Moshi moshi = new Moshi.Builder().build();
-      return moshi.adapter(FileNotFoundLoadFailureResponse.class).toJson(this);
+    byte[] serialize() {
+      return ResponseSerializer.serialize(this);
     }
   }
 
@@ -332,9 +354,8 @@ public class LoadCSVHandler implements Route {
      *
      * @return this response, serialized as Json
      */
-    String serialize() {
-      Moshi moshi = new Moshi.Builder().build();
-      return moshi.adapter(FactoryFailureLoadFailureResponse.class).toJson(this);
+    byte[] serialize() {
+      return ResponseSerializer.serialize(this);
     }
   }
 
@@ -361,9 +382,170 @@ public class LoadCSVHandler implements Route {
      *
      * @return this response, serialized as Json
      */
-    String serialize() {
-      Moshi moshi = new Moshi.Builder().build();
-      return moshi.adapter(JsonDataLoadFailureResponse.class).toJson(this);
+    byte[] serialize() {
+      return ResponseSerializer.serialize(this);
+    }
+  }
+
+  /**
+   * Failure response called in the handler if the columns or filterColumn query params name a
+   * column the csv doesn't have
+   *
+   * @param response_type - in this case, "error_bad_request"
+   * @param filepath - the filepath of the csv
+   * @param columns - the columns the user asked for
+   * @param filterColumn - the column the user asked to filter on
+   */
+  public record ColumnsLoadFailureResponse(String response_type, String filepath, String columns,
+      String filterColumn) {
+
+    /**
+     * Constructor for the failure response record
+     *
+     * @param filepath - the filepath of the csv
+     * @param columns - the columns the user asked for
+     * @param filterColumn - the column the user asked to filter on
+     */
+    public ColumnsLoadFailureResponse(String filepath, String columns, String filterColumn) {
+      this("error_bad_request: columns and filterColumn must be header names or column indexes in"
+          + " your csv", filepath, columns, filterColumn);
+    }
+
+    /**
+     * Converts the failure response to a Json, called when the failure response is
+     *
+     * @return this response, serialized as Json
+     */
+    byte[] serialize() {
+      return ResponseSerializer.serialize(this);
+    }
+  }
+
+  /**
+   * Failure response called in the handler if the sample, sampleMode, or sampleSeed query params
+   * aren't valid
+   *
+   * @param response_type - in this case, "error_bad_request"
+   * @param filepath - the filepath of the csv
+   * @param sample - the sample size the user asked for
+   * @param sampleMode - the sample mode the user asked for
+   * @param sampleSeed - the seed the user asked for
+   */
+  public record SampleLoadFailureResponse(String response_type, String filepath, String sample,
+      String sampleMode, String sampleSeed) {
+
+    /**
+     * Constructor for the failure response record
+     *
+     * @param filepath - the filepath of the csv
+     * @param sample - the sample size the user asked for
+     * @param sampleMode - the sample mode the user asked for
+     * @param sampleSeed - the seed the user asked for
+     */
+    public SampleLoadFailureResponse(String filepath, String sample, String sampleMode,
+        String sampleSeed) {
+      this("error_bad_request: sample must be a number of rows, sampleMode 'head' or 'reservoir',"
+          + " and sampleSeed a number", filepath, sample, sampleMode, sampleSeed);
+    }
+
+    /**
+     * Converts the failure response to a Json, called when the failure response is
+     *
+     * @return this response, serialized as Json
+     */
+    byte[] serialize() {
+      return ResponseSerializer.serialize(this);
+    }
+  }
+
+  /**
+   * Failure response called in the handler if the user asks for a backend that doesn't exist
+   *
+   * @param response_type - in this case, "error_bad_request"
+   * @param filepath - the filepath of the csv
+   * @param backend - the backend the user asked for
+   */
+  public record BackendLoadFailureResponse(String response_type, String filepath, String backend) {
+
+    /**
+     * Constructor for the failure response record
+     *
+     * @param filepath - the filepath of the csv
+     * @param backend - the backend the user asked for
+     */
+    public BackendLoadFailureResponse(String filepath, String backend) {
+      this("error_bad_request: backend must be 'scan', 'lucene', or 'sql'", filepath, backend);
+    }
+
+    /**
+     * Converts the failure response to a Json, called when the failure response is
+     *
+     * @return this response, serialized as Json
+     */
+    byte[] serialize() {
+      return ResponseSerializer.serialize(this);
+    }
+  }
+
+  /**
+   * Failure response called in the handler if the csvs matching a directory or glob don't all
+   * have the same headers
+   *
+   * @param response_type - in this case, "error_bad_request"
+   * @param filepath - the directory or glob the user requested
+   * @param mismatched - the first file whose headers are different from the first file's
+   */
+  public record HeaderMismatchLoadFailureResponse(String response_type, String filepath,
+      String mismatched) {
+
+    /**
+     * Constructor for the failure response record
+     *
+     * @param filepath - the directory or glob the user requested
+     * @param mismatched - the file whose headers are different
+     */
+    public HeaderMismatchLoadFailureResponse(String filepath, String mismatched) {
+      this("error_bad_request: every csv loaded together must have the same headers", filepath,
+          mismatched);
+    }
+
+    /**
+     * Converts the failure response to a Json, called when the failure response is
+     *
+     * @return this response, serialized as Json
+     */
+    byte[] serialize() {
+      return ResponseSerializer.serialize(this);
+    }
+  }
+
+  /**
+   * Failure response called in the handler if the file is in an Arrow format, but isn't laid out
+   * the way it should be or has columns that can't be loaded
+   *
+   * @param response_type - in this case, "error_bad_request"
+   * @param filepath - the filepath of the arrow file
+   * @param reason - what about the file couldn't be loaded
+   */
+  public record ArrowLoadFailureResponse(String response_type, String filepath, String reason) {
+
+    /**
+     * Constructor for the failure response record
+     *
+     * @param filepath - the filepath of the arrow file
+     * @param reason - what about the file couldn't be loaded
+     */
+    public ArrowLoadFailureResponse(String filepath, String reason) {
+      this("error_bad_request: the arrow file can't be loaded", filepath, reason);
+    }
+
+    /**
+     * Converts the failure response to a Json, called when the failure response is
+     *
+     * @return this response, serialized as Json
+     */
+    byte[] serialize() {
+      return ResponseSerializer.serialize(this);
     }
   }
 
@@ -390,9 +572,8 @@ public class LoadCSVHandler implements Route {
      *
      * @return this response, serialized as Json
      */
-    String serialize() {
-      Moshi moshi = new Moshi.Builder().build();
-      return moshi.adapter(IOLoadFailureResponse.class).toJson(this);
+    byte[] serialize() {
+      return ResponseSerializer.serialize(this);
     }
   }
 
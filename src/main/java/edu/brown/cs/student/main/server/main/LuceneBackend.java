@@ -0,0 +1,406 @@
+package edu.brown.cs.student.main.server.main;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.lang.ref.Cleaner;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.function.Predicate;
+import java.util.function.Supplier;
+import java.util.stream.IntStream;
+import org.apache.lucene.analysis.Analyzer;
+import org.apache.lucene.analysis.TokenStream;
+import org.apache.lucene.analysis.standard.StandardAnalyzer;
+import org.apache.lucene.analysis.tokenattributes.CharTermAttribute;
+import org.apache.lucene.document.Document;
+import org.apache.lucene.document.DoublePoint;
+import org.apache.lucene.document.Field;
+import org.apache.lucene.document.NumericDocValuesField;
+import org.apache.lucene.document.StringField;
+import org.apache.lucene.document.TextField;
+import org.apache.lucene.index.DirectoryReader;
+import org.apache.lucene.index.DocValues;
+import org.apache.lucene.index.IndexWriter;
+import org.apache.lucene.index.IndexWriterConfig;
+import org.apache.lucene.index.LeafReaderContext;
+import org.apache.lucene.index.NumericDocValues;
+import org.apache.lucene.index.Term;
+import org.apache.lucene.search.BooleanClause;
+import org.apache.lucene.search.BooleanQuery;
+import org.apache.lucene.search.FuzzyQuery;
+import org.apache.lucene.search.IndexSearcher;
+import org.apache.lucene.search.MatchAllDocsQuery;
+import org.apache.lucene.search.MatchNoDocsQuery;
+import org.apache.lucene.search.PrefixQuery;
+import org.apache.lucene.search.ScoreMode;
+import org.apache.lucene.search.SimpleCollector;
+import org.apache.lucene.search.TermQuery;
+import org.apache.lucene.store.ByteBuffersDirectory;
+import org.apache.lucene.store.Directory;
+import org.apache.lucene.store.MMapDirectory;
+
+/**
+ * LuceneBackend runs the searches of a csv loaded with backend=lucene against an embedded Lucene
+ * index of its rows. Each row is a document with, for each of its columns, the whole value
+ * (folded to one case, for equals searches), its words (for text, prefix and fuzzy searches, with
+ * Lucene's StandardAnalyzer), and its number if it's one (for range searches). The row's index is
+ * kept as a doc value, so matches come back as the dataset's own rows, in file order.
+ *
+ * <p>A value longer than Lucene's biggest term (IndexWriter.MAX_TERM_LENGTH bytes) isn't indexed
+ * whole, only as words, so an equals search for one looks up the rows with its words and checks
+ * each of them for the whole value.
+ *
+ * <p>Equals and range searches match exactly the rows the scan backend would. Text searches match
+ * the rows with every word of the value, prefix searches the rows with a word starting with it,
+ * and fuzzy searches the rows with a word at most edits letters away from it, in one column or
+ * any of them.
+ *
+ * <p>The index is kept in a local MMapDirectory next to the dataset's index files (see
+ * IndexFiles), so loading the same csv again opens it instead of indexing the rows again, and only
+ * in memory when index files aren't kept, or can't be written. When lines are added to the end of
+ * the csv's file, just the new rows are added to the index the version before it used, and when
+ * the file's rewritten its documents are replaced, both with an IndexWriter appending to the same
+ * directory. Readers are point in time, so the older versions still being searched keep searching
+ * the index as it was when they opened it, and each version's reader is closed once the version
+ * is garbage collected.
+ */
+final class LuceneBackend implements SearchBackend {
+
+  private static final String ROW = "row";
+  private static final String ANY = "any"; // every column's folded value
+  private static final String ALL = "all"; // every column's words
+  private static final String IDENTITY = "identity";
+  private static final Cleaner CLEANER = Cleaner.create();
+  // how many of the words of a value too long to be a term its rows are looked up by
+  private static final int WHOLE_WORDS = 64;
+
+  private final List<List<String>> rows;
+  private final List<String> headers;
+  private final int blocks;
+  private final int width;
+  private final Analyzer analyzer = new StandardAnalyzer();
+  private final Directory directory;
+  private final DirectoryReader reader;
+  private final IndexSearcher searcher;
+
+  /**
+   * Constructor for LuceneBackend, which indexes the rows unless they're indexed already. Called
+   * in CSVDataset.
+   *
+   * @param rows - the dataset's rows
+   * @param headers - the dataset's headers, or null if it has none
+   * @param zones - the dataset's statistics
+   * @param files - where the dataset's index files are kept, or null if they're only in memory
+   * @param earlier - the backend of the version of the dataset these rows were appended to, or
+   *     null if they weren't
+   * @throws IOException if the rows can't be indexed
+   */
+  LuceneBackend(List<List<String>> rows, List<String> headers, ZoneMap zones, IndexFiles files,
+      LuceneBackend earlier) throws IOException {
+    this.rows = rows;
+    this.headers = headers;
+    this.blocks = zones.blockCount();
+    this.width = zones.maxRowSize();
+    String identity = files == null ? null : files.identity();
+    Directory directory = null;
+    DirectoryReader reader = null;
+    if (earlier != null) {
+      try {
+        reader = this.append(earlier, identity);
+        directory = earlier.directory;
+      } catch (IOException e) {
+        reader = null; // like another load indexing the csv right now; indexed from scratch
+      }
+    }
+    if (reader == null && files != null) {
+      try {
+        directory = new MMapDirectory(files.backendPath("lucene"));
+        reader = this.open(directory, identity);
+      } catch (IOException e) {
+        // like another load of the same csv indexing it right now; this one is kept in memory
+        reader = null;
+      }
+    }
+    if (reader == null) {
+      directory = new ByteBuffersDirectory();
+      reader = this.open(directory, null);
+    }
+    this.directory = directory;
+    this.reader = reader;
+    this.searcher = new IndexSearcher(reader);
+    // the reader, and the files it maps, stay open as long as the dataset is around
+    CLEANER.register(this, new Close(reader));
+  }
+
+  /**
+   * Closes a backend's reader once the backend is garbage collected.
+   */
+  private record Close(DirectoryReader reader) implements Runnable {
+    @Override
+    public void run() {
+      try {
+        this.reader.close();
+      } catch (IOException e) {
+        // it's closed as much as it's going to be
+      }
+    }
+  }
+
+  /**
+   * Opens the index in a directory if it's of these rows, or else replaces whatever's in it with
+   * them.
+   *
+   * @param directory - where the index is
+   * @param identity - what the rows were loaded from, or null if the directory is new
+   * @return a reader of the index
+   * @throws IOException if the directory can't be read or written
+   */
+  private DirectoryReader open(Directory directory, String identity) throws IOException {
+    if (identity != null && DirectoryReader.indexExists(directory)) {
+      DirectoryReader reader = DirectoryReader.open(directory);
+      if (identity.equals(reader.getIndexCommit().getUserData().get(IDENTITY))) {
+        return reader;
+      }
+      reader.close(); // for a csv that's changed since
+    }
+    try (IndexWriter writer = this.writer(directory)) {
+      writer.deleteAll(); // the rows of a version of the csv from before it changed
+      this.add(writer, 0, identity);
+    }
+    return DirectoryReader.open(directory);
+  }
+
+  /**
+   * Adds the rows that were appended to an earlier version's rows to its index.
+   *
+   * @param earlier - the backend of the version these rows were appended to
+   * @param identity - what the rows were loaded from, or null if the index is only in memory
+   * @return a reader of the index with every row, or null if the earlier version's index isn't
+   *     the latest one in its directory anymore, so the rows have to be indexed from scratch
+   * @throws IOException if the directory can't be read or written
+   */
+  private DirectoryReader append(LuceneBackend earlier, String identity) throws IOException {
+    if (!earlier.reader.isCurrent()) {
+      return null;
+    }
+    try (IndexWriter writer = this.writer(earlier.directory)) {
+      this.add(writer, earlier.rows.size(), identity);
+    }
+    DirectoryReader reader = DirectoryReader.openIfChanged(earlier.reader);
+    return reader != null ? reader : DirectoryReader.open(earlier.directory);
+  }
+
+  /**
+   * @return a writer adding to the index in a directory, or making one if there isn't one
+   */
+  private IndexWriter writer(Directory directory) throws IOException {
+    return new IndexWriter(directory, new IndexWriterConfig(this.analyzer)
+        .setOpenMode(IndexWriterConfig.OpenMode.CREATE_OR_APPEND)
+        .setRAMBufferSizeMB(64));
+  }
+
+  /**
+   * Adds a document for each row from one on, then commits them.
+   *
+   * @param writer - the writer of the index
+   * @param from - index of the first row to add
+   * @param identity - what the rows were loaded from, saved with the commit, or null
+   */
+  private void add(IndexWriter writer, int from, String identity) throws IOException {
+    char[] scratch = new char[ZoneMap.MAX_NUMBER_CHARS];
+    for (int r = from; r < this.rows.size(); r++) {
+      List<String> row = this.rows.get(r);
+      Document document = new Document();
+      document.add(new NumericDocValuesField(ROW, r));
+      for (int column = 0; column < row.size(); column++) {
+        String value = row.get(column);
+        String folded = SearchPlanner.fold(value);
+        if (indexable(folded)) { // or else adding the row fails, for an immense term
+          document.add(new StringField("c" + column, folded, Field.Store.NO));
+          document.add(new StringField(ANY, folded, Field.Store.NO));
+        }
+        if (!value.isEmpty()) {
+          document.add(new TextField("t" + column, value, Field.Store.NO));
+          document.add(new TextField(ALL, value, Field.Store.NO));
+        }
+        double number = ZoneMap.number(row, column, scratch);
+        if (!Double.isNaN(number)) {
+          document.add(new DoublePoint("n" + column, number + 0.0)); // so -0.0 is 0.0
+        }
+      }
+      writer.addDocument(document);
+    }
+    if (identity != null) {
+      writer.setLiveCommitData(Map.of(IDENTITY, identity).entrySet());
+    }
+    writer.commit();
+  }
+
+  @Override
+  public String name() {
+    return "lucene";
+  }
+
+  @Override
+  public SearchPlanner.Plan plan(Query query) {
+    // a value too long to be a term is looked up by its words, then checked whole
+    boolean whole =
+        query.kind() == Kind.EQUALS && !indexable(SearchPlanner.fold(query.value()));
+    org.apache.lucene.search.Query lucene =
+        whole ? this.words(query.column(), query.value(), WHOLE_WORDS) : this.translate(query);
+    long estimated;
+    try {
+      estimated = this.searcher.count(lucene);
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+    List<String> columns = new ArrayList<>();
+    if (query.column() >= 0) {
+      columns.add(this.label(query.column()));
+    } else {
+      for (int column = 0; this.headers != null && column < this.headers.size(); column++) {
+        columns.add(this.label(column));
+      }
+    }
+    Supplier<List<List<String>>> run = () -> SearchPlanner.rowsAt(this.rows, this.search(lucene));
+    if (whole) {
+      Predicate<List<String>> matcher = SearchPlanner.anyMatcher(query.column() >= 0
+          ? new int[] {query.column()} : IntStream.range(0, this.width).toArray(), query.value());
+      Supplier<List<List<String>>> candidates = run;
+      run = () -> candidates.get().stream().filter(matcher).toList();
+    }
+    return new SearchPlanner.Plan(this.describe(query), "lucene", columns, estimated, this.blocks,
+        Map.of("lucene", estimated), false, run);
+  }
+
+  /**
+   * @param most - how many of the value's words to look for, at most
+   * @return a query for the rows with every word of a value (or the first most of them) in a
+   *     column, or any column, or for every row if the value has no words
+   */
+  private org.apache.lucene.search.Query words(int column, String value, int most) {
+    String field = column < 0 ? ALL : "t" + column;
+    List<String> terms = this.analyze(field, value).stream().distinct().limit(most).toList();
+    if (terms.isEmpty()) {
+      return new MatchAllDocsQuery();
+    }
+    BooleanQuery.Builder every = new BooleanQuery.Builder();
+    for (String term : terms) {
+      every.add(new TermQuery(new Term(field, term)), BooleanClause.Occur.MUST);
+    }
+    return every.build();
+  }
+
+  /**
+   * @return whether a folded value fits in one term, which Lucene caps at
+   *     IndexWriter.MAX_TERM_LENGTH bytes of UTF-8
+   */
+  private static boolean indexable(String folded) {
+    return folded.length() <= IndexWriter.MAX_TERM_LENGTH / 3 // at most 3 bytes per char
+        || folded.getBytes(StandardCharsets.UTF_8).length <= IndexWriter.MAX_TERM_LENGTH;
+  }
+
+  /**
+   * @return the Lucene query for a search
+   */
+  private org.apache.lucene.search.Query translate(Query query) {
+    int column = query.column();
+    String words = column < 0 ? ALL : "t" + column;
+    return switch (query.kind()) {
+      case EQUALS -> new TermQuery(
+          new Term(column < 0 ? ANY : "c" + column, SearchPlanner.fold(query.value())));
+      // -0.0 is 0.0 here too, the way it's indexed
+      case RANGE -> DoublePoint.newRangeQuery("n" + column, query.min() + 0.0, query.max() + 0.0);
+      case TEXT -> this.analyze(words, query.value()).isEmpty()
+          ? new MatchNoDocsQuery("no words to search for")
+          : this.words(column, query.value(), Integer.MAX_VALUE);
+      case PREFIX -> new PrefixQuery(new Term(words, word(query.value())));
+      case FUZZY -> new FuzzyQuery(new Term(words, word(query.value())), query.edits());
+    };
+  }
+
+  /**
+   * Runs a query.
+   *
+   * @return the indexes of the matching rows, in file order
+   */
+  private int[] search(org.apache.lucene.search.Query query) {
+    int[][] found = {new int[16]};
+    int[] count = {0};
+    try {
+      this.searcher.search(query, new SimpleCollector() {
+        private NumericDocValues rowIndexes;
+
+        @Override
+        protected void doSetNextReader(LeafReaderContext context) throws IOException {
+          this.rowIndexes = DocValues.getNumeric(context.reader(), ROW);
+        }
+
+        @Override
+        public void collect(int doc) throws IOException {
+          this.rowIndexes.advanceExact(doc);
+          if (count[0] == found[0].length) {
+            found[0] = Arrays.copyOf(found[0], 2 * count[0]);
+          }
+          found[0][count[0]++] = (int) this.rowIndexes.longValue();
+        }
+
+        @Override
+        public ScoreMode scoreMode() {
+          return ScoreMode.COMPLETE_NO_SCORES;
+        }
+      });
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+    int[] indexes = Arrays.copyOf(found[0], count[0]);
+    Arrays.sort(indexes);
+    return indexes;
+  }
+
+  /**
+   * @return the words of a value, the way they're indexed
+   */
+  private List<String> analyze(String field, String value) {
+    List<String> terms = new ArrayList<>();
+    try (TokenStream tokens = this.analyzer.tokenStream(field, value)) {
+      CharTermAttribute term = tokens.addAttribute(CharTermAttribute.class);
+      tokens.reset();
+      while (tokens.incrementToken()) {
+        terms.add(term.toString());
+      }
+      tokens.end();
+    } catch (IOException e) { // can't happen reading a String
+      throw new UncheckedIOException(e);
+    }
+    return terms;
+  }
+
+  private String describe(Query query) {
+    String column = query.column() < 0 ? "any column" : this.label(query.column());
+    return switch (query.kind()) {
+      case EQUALS -> column + " = '" + query.value() + "'";
+      case RANGE -> column + " between " + query.min() + " and " + query.max();
+      case TEXT -> column + " has '" + query.value() + "'";
+      case PREFIX -> column + " has a word starting with '" + query.value() + "'";
+      case FUZZY -> column + " has a word within " + query.edits() + " edits of '"
+          + query.value() + "'";
+    };
+  }
+
+  private String label(int column) {
+    return this.headers != null && column < this.headers.size() ? this.headers.get(column)
+        : Integer.toString(column);
+  }
+
+  /**
+   * @return a search word the way the StandardAnalyzer indexes words
+   */
+  private static String word(String value) {
+    return value.trim().toLowerCase(Locale.ROOT);
+  }
+}
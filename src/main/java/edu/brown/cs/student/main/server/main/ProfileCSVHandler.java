@@ -0,0 +1,176 @@
+package edu.brown.cs.student.main.server.main;
+
+import java.util.List;
+import spark.Request;
+import spark.Response;
+import spark.Route;
+
+/**
+ * ProfileCSVHandler sends an approximate profile of each column of the loaded csv: about how many
+ * distinct values it has, its most common values, and quantiles of its numbers. The sketches these
+ * come from are built while the csv is loaded (see ZoneMap and ColumnSketch), so answering doesn't
+ * look at the rows at all, however big the csv is. This class is dependency injected with the
+ * LoadCSVHandler so that it can access the loaded csv.
+ *
+ * <p>The optional top query param says how many of the most common values to send (default 10,
+ * at most 64), and quantiles is a comma separated list of the quantiles to send, each from 0 to 1
+ * (default 0.05,0.25,0.5,0.75,0.95). Responses come with an ETag for the loaded csv's version, like
+ * viewcsv and searchcsv.
+ */
+public class ProfileCSVHandler implements Route {
+
+  private static final int DEFAULT_TOP = 10;
+  private static final double[] DEFAULT_QUANTILES = {0.05, 0.25, 0.5, 0.75, 0.95};
+
+  private final LoadCSVHandler loader;
+
+  /**
+   * Constructor for ProfileCSVHandler, called in Server.
+   *
+   * @param loader - the LoadCSVHandler instantiated in Server
+   */
+  public ProfileCSVHandler(LoadCSVHandler loader) {
+    this.loader = loader;
+  }
+
+  /**
+   * Handles the user's request, answering with the loaded csv's profile.
+   *
+   * @param request - the user's request
+   * @param response - allows us to return a response to the user
+   * @return a success or failure response as json
+   */
+  public Object handle(Request request, Response response) {
+    CSVDataset dataset;
+    try {
+      dataset = this.loader.getDataset();
+    } catch (IllegalStateException e) {
+      return new ProfileFailureResponse().serialize();
+    }
+    String topParam = request.queryParams("top");
+    String quantilesParam = request.queryParams("quantiles");
+    int top;
+    double[] quantiles;
+    try {
+      top = topParam == null ? DEFAULT_TOP : Integer.parseInt(topParam.trim());
+      quantiles = quantilesParam == null ? DEFAULT_QUANTILES : this.quantiles(quantilesParam);
+    } catch (NumberFormatException e) {
+      return new ParamsProfileFailureResponse(topParam, quantilesParam).serialize();
+    }
+    if (top < 0 || top > TopValues.CAPACITY || quantiles == null) {
+      return new ParamsProfileFailureResponse(topParam, quantilesParam).serialize();
+    }
+    String etag = ResponseCache.etag(dataset.getVersion(), request, "");
+    if (ResponseCache.notModified(request, response, etag)) {
+      return "";
+    }
+    return new ProfileSuccessResponse(dataset.getFilePath(), dataset.rowCount(),
+        dataset.getZoneMap().profile(dataset.getHeaders(), top, quantiles)).serialize();
+  }
+
+  /**
+   * Reads the quantiles query param.
+   *
+   * @return the quantiles, or null if one isn't between 0 and 1 or there aren't any
+   * @throws NumberFormatException if one isn't a number
+   */
+  private double[] quantiles(String param) {
+    String[] parts = param.split(",");
+    double[] quantiles = new double[parts.length];
+    for (int k = 0; k < parts.length; k++) {
+      quantiles[k] = Double.parseDouble(parts[k].trim());
+      if (!(quantiles[k] >= 0 && quantiles[k] <= 1)) {
+        return null;
+      }
+    }
+    return quantiles.length == 0 ? null : quantiles;
+  }
+
+  /**
+   * Success response with the loaded csv's profile.
+   *
+   * @param response_type - in this case, "success"
+   * @param filepath - the file path the csv was loaded from
+   * @param rows - how many data rows the csv has
+   * @param columns - the profile of each column
+   */
+  public record ProfileSuccessResponse(String response_type, String filepath, int rows,
+      List<ZoneMap.ColumnProfile> columns) {
+
+    /**
+     * Constructor for the success response.
+     *
+     * @param filepath - the file path the csv was loaded from
+     * @param rows - how many data rows the csv has
+     * @param columns - the profile of each column
+     */
+    public ProfileSuccessResponse(String filepath, int rows, List<ZoneMap.ColumnProfile> columns) {
+      this("success", filepath, rows, columns);
+    }
+
+    /**
+     * Returns the success response as a json.
+     *
+     * @return this response, serialized as Json
+     */
+    byte[] serialize() {
+      return ResponseSerializer.serialize(this);
+    }
+  }
+
+  /**
+   * Failure response if the user asks for a profile before loading a csv.
+   *
+   * @param response_type - in this case, "error_datasource"
+   */
+  public record ProfileFailureResponse(String response_type) {
+
+    /**
+     * Constructor for the failure response.
+     */
+    public ProfileFailureResponse() {
+      this("error_datasource: make sure you loaded your csv properly before asking for its"
+          + " profile");
+    }
+
+    /**
+     * Returns the failure response as a json.
+     *
+     * @return this response, serialized as Json
+     */
+    byte[] serialize() {
+      return ResponseSerializer.serialize(this);
+    }
+  }
+
+  /**
+   * Failure response if top or quantiles aren't valid.
+   *
+   * @param response_type - in this case, "error_bad_request"
+   * @param top - what the user sent for top
+   * @param quantiles - what the user sent for quantiles
+   */
+  public record ParamsProfileFailureResponse(String response_type, String top,
+      String quantiles) {
+
+    /**
+     * Constructor for the failure response.
+     *
+     * @param top - what the user sent for top
+     * @param quantiles - what the user sent for quantiles
+     */
+    public ParamsProfileFailureResponse(String top, String quantiles) {
+      this("error_bad_request: top must be a number from 0 to " + TopValues.CAPACITY
+          + ", and quantiles a comma separated list of numbers from 0 to 1", top, quantiles);
+    }
+
+    /**
+     * Returns the failure response as a json.
+     *
+     * @return this response, serialized as Json
+     */
+    byte[] serialize() {
+      return ResponseSerializer.serialize(this);
+    }
+  }
+}
@@ -0,0 +1,203 @@
+package edu.brown.cs.student.main.server.main;
+
+import java.util.Arrays;
+import java.util.SplittableRandom;
+
+/**
+ * QuantileSketch estimates quantiles (like the median) of the numbers it has been given, keeping
+ * only a few hundred of them however many there are, the way a KLL sketch does. Numbers are kept
+ * in levels: once a level is full it's sorted and every other number moves up a level, where each
+ * one stands for twice as many numbers, and the rest are dropped. With K = 200 a quantile is off
+ * by about 1.3% of the numbers at most. Sketches can be merged, which is how the sketches of blocks
+ * of rows become one for the whole dataset.
+ *
+ * <p>Which half of a level moves up is picked at random from a fixed seed, so the same rows always
+ * give the same estimates.
+ */
+final class QuantileSketch {
+
+  private static final int K = 200;
+  private static final int MIN_WIDTH = 8;
+
+  private double[][] levels = {new double[K]};
+  private int[] sizes = new int[1];
+  private int size; // numbers held, over every level
+  private int capacity = K;
+  private long count; // numbers given
+  private double min = Double.POSITIVE_INFINITY; // kept exactly, since compacting can drop them
+  private double max = Double.NEGATIVE_INFINITY;
+  private final SplittableRandom random = new SplittableRandom(0x5eed);
+
+  /**
+   * Adds a number.
+   *
+   * @param number - the number
+   */
+  void add(double number) {
+    this.put(0, number);
+    this.count++;
+    this.min = Math.min(this.min, number);
+    this.max = Math.max(this.max, number);
+    if (this.size > this.capacity) {
+      this.compact();
+    }
+  }
+
+  /**
+   * Adds the numbers another sketch has been given.
+   *
+   * @param other - the other sketch, which isn't changed
+   */
+  void merge(QuantileSketch other) {
+    for (int level = 0; level < other.levels.length; level++) {
+      for (int k = 0; k < other.sizes[level]; k++) {
+        this.put(level, other.levels[level][k]);
+      }
+    }
+    this.count += other.count;
+    this.min = Math.min(this.min, other.min);
+    this.max = Math.max(this.max, other.max);
+    while (this.size > this.capacity) {
+      this.compact();
+    }
+  }
+
+  /**
+   * @return how many numbers have been added
+   */
+  long count() {
+    return this.count;
+  }
+
+  /**
+   * Estimates quantiles.
+   *
+   * @param fractions - the quantiles wanted, each from 0 (the smallest number) to 1 (the biggest)
+   * @return a number about that far through the numbers for each fraction, or null if no numbers
+   *     have been added. The smallest and biggest are exact.
+   */
+  double[] quantiles(double[] fractions) {
+    if (this.size == 0) {
+      return null;
+    }
+    double[] values = new double[this.size];
+    long[] weights = new long[this.size];
+    Integer[] order = new Integer[this.size];
+    int n = 0;
+    for (int level = 0; level < this.levels.length; level++) {
+      for (int k = 0; k < this.sizes[level]; k++) {
+        values[n] = this.levels[level][k];
+        weights[n] = 1L << level;
+        order[n] = n;
+        n++;
+      }
+    }
+    Arrays.sort(order, (a, b) -> Double.compare(values[a], values[b]));
+    long total = 0;
+    for (long weight : weights) {
+      total += weight;
+    }
+    double[] quantiles = new double[fractions.length];
+    for (int q = 0; q < fractions.length; q++) {
+      if (fractions[q] <= 0 || fractions[q] >= 1) {
+        quantiles[q] = fractions[q] <= 0 ? this.min : this.max;
+        continue;
+      }
+      long target = Math.max(1, (long) Math.ceil(fractions[q] * total));
+      long seen = 0;
+      for (int index : order) {
+        seen += weights[index];
+        quantiles[q] = values[index];
+        if (seen >= target) {
+          break;
+        }
+      }
+    }
+    return quantiles;
+  }
+
+  /**
+   * Estimates how many of the numbers are between min and max (including both), from the numbers
+   * held and how many each stands for.
+   *
+   * @param min - the smallest number to count
+   * @param max - the biggest number to count
+   * @return about how many numbers given are in the range
+   */
+  long countBetween(double min, double max) {
+    if (this.count == 0 || min > this.max || max < this.min) {
+      return 0;
+    }
+    if (min <= this.min && max >= this.max) {
+      return this.count;
+    }
+    long held = 0;
+    long inRange = 0;
+    for (int level = 0; level < this.levels.length; level++) {
+      for (int k = 0; k < this.sizes[level]; k++) {
+        long weight = 1L << level;
+        held += weight;
+        double number = this.levels[level][k];
+        if (number >= min && number <= max) {
+          inRange += weight;
+        }
+      }
+    }
+    // the weights held add up to about the count; scaled so they add up to it exactly
+    return Math.round((double) inRange * this.count / Math.max(1, held));
+  }
+
+  private void put(int level, double number) {
+    while (level >= this.levels.length) {
+      this.addLevel();
+    }
+    if (this.sizes[level] == this.levels[level].length) {
+      this.levels[level] = Arrays.copyOf(this.levels[level], 2 * this.levels[level].length);
+    }
+    this.levels[level][this.sizes[level]++] = number;
+    this.size++;
+  }
+
+  private void addLevel() {
+    this.levels = Arrays.copyOf(this.levels, this.levels.length + 1);
+    this.levels[this.levels.length - 1] = new double[MIN_WIDTH];
+    this.sizes = Arrays.copyOf(this.sizes, this.sizes.length + 1);
+    this.capacity = 0;
+    for (int level = 0; level < this.levels.length; level++) {
+      this.capacity += this.capacity(level);
+    }
+  }
+
+  /**
+   * How many numbers a level holds before it's compacted. The top level holds K, and each one
+   * below it two thirds as many as the one above.
+   */
+  private int capacity(int level) {
+    int depth = this.levels.length - 1 - level;
+    return Math.max(MIN_WIDTH, (int) Math.ceil(K * Math.pow(2.0 / 3.0, depth)));
+  }
+
+  /**
+   * Compacts the lowest level that's over its capacity: sorts it and moves every other number up
+   * a level. If it has an odd count, one number stays behind so no weight is lost.
+   */
+  private void compact() {
+    int level = 0;
+    while (this.sizes[level] < this.capacity(level)) { // one is over, since they all are together
+      level++;
+    }
+    double[] numbers = this.levels[level];
+    int count = this.sizes[level];
+    Arrays.sort(numbers, 0, count);
+    int kept = count % 2;
+    int start = kept + (this.random.nextBoolean() ? 1 : 0);
+    this.sizes[level] = 0;
+    this.size -= count;
+    if (kept == 1) {
+      this.put(level, numbers[0]);
+    }
+    for (int k = start; k < count; k += 2) {
+      this.put(level + 1, numbers[k]);
+    }
+  }
+}
@@ -0,0 +1,229 @@
+package edu.brown.cs.student.main.server.main;
+
+import java.io.ByteArrayOutputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.security.SecureRandom;
+import java.util.HexFormat;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.TreeMap;
+import spark.Request;
+import spark.Response;
+
+/**
+ * ResponseCache lets viewcsv and searchcsv skip work for requests they have already answered.
+ * Every response gets a strong ETag made from the version of the dataset it was built from plus
+ * the request's query params, so the tag changes as soon as a different csv is loaded. A request
+ * whose If-None-Match has the current tag gets a 304 with no body, and the encoded bodies of
+ * recent responses are kept in a small least-recently-used cache so repeating a request doesn't
+ * search, serialize, or compress anything again.
+ */
+public class ResponseCache {
+
+  // versions start over when the server restarts, so tags also include a random per-run value
+  private static final String SERVER_RUN = Long.toHexString(new SecureRandom().nextLong());
+
+  private final int maxEntries;
+  private final long maxBytes;
+  private final LinkedHashMap<String, Body> bodies = new LinkedHashMap<>(16, 0.75f, true);
+  private long bytes;
+
+  /**
+   * Constructor for the cache.
+   *
+   * @param maxEntries - the most response bodies to keep
+   * @param maxBytes - the most bytes of response bodies to keep
+   */
+  public ResponseCache(int maxEntries, long maxBytes) {
+    this.maxEntries = maxEntries;
+    this.maxBytes = maxBytes;
+  }
+
+  /**
+   * Makes the ETag for a request against one version of a dataset. Query params are sorted by name
+   * so the same request always gets the same tag however its params are ordered.
+   *
+   * @param version - the version of the dataset the response is built from
+   * @param request - the user's request
+   * @param variant - anything else the response depends on that isn't a query param, like the
+   *     format picked from the Accept header
+   * @return a quoted strong ETag
+   */
+  public static String etag(long version, Request request, String variant) {
+    StringBuilder key = new StringBuilder(SERVER_RUN).append('|').append(version);
+    key.append('|').append(request.pathInfo()).append('|').append(variant);
+    Map<String, String[]> params = new TreeMap<>(request.queryMap().toMap());
+    for (Map.Entry<String, String[]> param : params.entrySet()) {
+      for (String value : param.getValue()) {
+        if (value != null && !value.isBlank()) {
+          key.append('|').append(param.getKey()).append('=').append(value.trim());
+        }
+      }
+    }
+    try {
+      byte[] hash = MessageDigest.getInstance("SHA-256")
+          .digest(key.toString().getBytes(StandardCharsets.UTF_8));
+      return '"' + HexFormat.of().formatHex(hash, 0, 16) + '"';
+    } catch (NoSuchAlgorithmException e) { // every Java platform has to support SHA-256
+      throw new IllegalStateException(e);
+    }
+  }
+
+  /**
+   * Sets the ETag on the response and checks it against the request's If-None-Match header. If
+   * they match, the response is turned into a 304 and the caller has nothing else to do.
+   *
+   * @param request - the user's request
+   * @param response - the response to tag
+   * @param etag - the tag of the response the request would get
+   * @return true if the user already has this response and a 304 was set
+   */
+  public static boolean notModified(Request request, Response response, String etag) {
+    response.header("ETag", etag);
+    response.header("Cache-Control", "no-cache"); // clients can keep it but should check back
+    String ifNoneMatch = request.headers("If-None-Match");
+    if (ifNoneMatch == null) {
+      return false;
+    }
+    for (String tag : ifNoneMatch.split(",")) {
+      tag = tag.trim();
+      if (tag.startsWith("W/")) {
+        tag = tag.substring(2);
+      }
+      if (tag.equals("*") || tag.equals(etag)) {
+        response.status(304);
+        return true;
+      }
+    }
+    return false;
+  }
+
+  /**
+   * A response body as it's sent to the client, along with the Content-Encoding it was compressed
+   * with (or null if it wasn't).
+   *
+   * @param bytes - the body
+   * @param contentEncoding - the body's Content-Encoding, or null
+   */
+  public record Body(byte[] bytes, String contentEncoding) {
+
+    /**
+     * Sends this body as a handler's response.
+     *
+     * @param response - the response to send the body in
+     * @param contentType - the body's content type
+     * @return what the handler should return to Spark
+     */
+    public Object send(Response response, String contentType) {
+      response.type(contentType);
+      if (this.contentEncoding == null) {
+        return this.bytes;
+      }
+      // Spark gzips a returned body again if it sees Content-Encoding: gzip, so compressed
+      // bodies are written out here; Spark leaves a response that's already sent alone
+      response.header("Content-Encoding", this.contentEncoding);
+      try (OutputStream out = response.raw().getOutputStream()) {
+        out.write(this.bytes);
+      } catch (IOException e) {
+        // the client went away, there's no one left to answer
+      }
+      return "";
+    }
+  }
+
+  /**
+   * Returns the cached body for a tag, if there is one.
+   *
+   * @param etag - the tag of the response
+   * @return the encoded response body, or null if it isn't cached
+   */
+  public synchronized Body get(String etag) {
+    return this.bodies.get(etag);
+  }
+
+  /**
+   * Caches the encoded body of a response, dropping the least recently used bodies if the cache
+   * gets too big. Bodies bigger than a quarter of the cache aren't kept at all.
+   *
+   * @param etag - the tag of the response
+   * @param body - the encoded response body
+   */
+  public synchronized void put(String etag, Body body) {
+    if (body.bytes().length > this.maxBytes / 4) {
+      return;
+    }
+    Body old = this.bodies.put(etag, body);
+    this.bytes += body.bytes().length - (old == null ? 0 : old.bytes().length);
+    Iterator<Body> eldest = this.bodies.values().iterator();
+    while (this.bodies.size() > this.maxEntries || this.bytes > this.maxBytes) {
+      this.bytes -= eldest.next().bytes().length;
+      eldest.remove();
+    }
+  }
+
+  /**
+   * Wraps a response output stream so whatever is written to it is also kept, so it can be cached
+   * once the whole response has been written. Keeping stops as soon as the body is too big to
+   * cache, so a big streamed response still only uses a bounded amount of memory.
+   *
+   * @param etag - the tag of the response being written
+   * @param out - the stream the response is written to
+   * @return a stream that writes to out and can cache what was written
+   */
+  public CapturingOutputStream capture(String etag, OutputStream out) {
+    return new CapturingOutputStream(etag, out);
+  }
+
+  /**
+   * Output stream returned by capture. Nothing is cached until commit is called, so a response
+   * that fails halfway through is never cached.
+   */
+  public class CapturingOutputStream extends FilterOutputStream {
+    private final String etag;
+    private ByteArrayOutputStream copy = new ByteArrayOutputStream();
+
+    private CapturingOutputStream(String etag, OutputStream out) {
+      super(out);
+      this.etag = etag;
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+      this.out.write(b);
+      this.keep(new byte[] {(byte) b}, 0, 1);
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+      this.out.write(b, off, len);
+      this.keep(b, off, len);
+    }
+
+    private void keep(byte[] b, int off, int len) {
+      if (this.copy != null && this.copy.size() + len > ResponseCache.this.maxBytes / 4) {
+        this.copy = null; // too big to cache, stop copying
+      }
+      if (this.copy != null) {
+        this.copy.write(b, off, len);
+      }
+    }
+
+    /**
+     * Caches everything written so far. Called once the whole response has been written.
+     *
+     * @param contentEncoding - what the written bytes were compressed with, or null
+     */
+    public void commit(String contentEncoding) {
+      if (this.copy != null) {
+        ResponseCache.this.put(this.etag, new Body(this.copy.toByteArray(), contentEncoding));
+        this.copy = null;
+      }
+    }
+  }
+}
@@ -0,0 +1,251 @@
+package edu.brown.cs.student.main.server.main;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.GZIPOutputStream;
+import javax.servlet.http.HttpServletResponse;
+import spark.Request;
+
+/**
+ * ResponseCompression gzips or deflates viewcsv and searchcsv responses for clients that say they
+ * can take it in their Accept-Encoding header. Bodies smaller than a threshold are sent as they
+ * are, since compressing them costs more time than it saves. The compression level and threshold
+ * can be set when the server starts (see Server).
+ */
+public class ResponseCompression {
+
+  /** Default deflate level: the usual zlib trade-off between speed and size. */
+  public static final int DEFAULT_LEVEL = 6;
+  /** Default size, in bytes, a body has to reach before it's compressed. */
+  public static final int DEFAULT_MIN_BYTES = 1024;
+
+  /** The content encodings we can send. */
+  public enum Encoding {
+    IDENTITY(null),
+    GZIP("gzip"),
+    DEFLATE("deflate");
+
+    private final String header;
+
+    Encoding(String header) {
+      this.header = header;
+    }
+
+    /**
+     * @return the Content-Encoding header value, or null for an uncompressed body
+     */
+    public String header() {
+      return this.header;
+    }
+  }
+
+  private final int level;
+  private final int minBytes;
+
+  /**
+   * Constructor with the default level and threshold.
+   */
+  public ResponseCompression() {
+    this(DEFAULT_LEVEL, DEFAULT_MIN_BYTES);
+  }
+
+  /**
+   * Constructor for ResponseCompression.
+   *
+   * @param level - deflate level from 1 (fastest) to 9 (smallest), or 0 to never compress
+   * @param minBytes - smallest body that gets compressed
+   * @throws IllegalArgumentException if level isn't between 0 and 9 or minBytes is negative
+   */
+  public ResponseCompression(int level, int minBytes) {
+    if (level < 0 || level > 9 || minBytes < 0) {
+      throw new IllegalArgumentException("compression level must be 0-9 and minBytes at least 0");
+    }
+    this.level = level;
+    this.minBytes = minBytes;
+  }
+
+  /**
+   * Picks the encoding to use for a request from its Accept-Encoding header. gzip is preferred
+   * over deflate if the client likes them equally.
+   *
+   * @param request - the user's request
+   * @return the encoding to compress with, or IDENTITY if the client can't take either
+   */
+  public Encoding negotiate(Request request) {
+    String acceptEncoding = request.headers("Accept-Encoding");
+    if (this.level == 0 || acceptEncoding == null) {
+      return Encoding.IDENTITY;
+    }
+    Encoding best = Encoding.IDENTITY;
+    double bestQ = 0;
+    for (String coding : acceptEncoding.split(",")) {
+      String[] parts = coding.split(";");
+      String name = parts[0].trim().toLowerCase();
+      double q = 1;
+      for (int i = 1; i < parts.length; i++) {
+        String part = parts[i].trim();
+        if (part.startsWith("q=")) {
+          try {
+            q = Double.parseDouble(part.substring(2));
+          } catch (NumberFormatException e) {
+            q = 0;
+          }
+        }
+      }
+      Encoding encoding = switch (name) {
+        case "gzip", "x-gzip", "*" -> Encoding.GZIP;
+        case "deflate" -> Encoding.DEFLATE;
+        default -> null;
+      };
+      if (encoding != null && q > 0
+          && (q > bestQ || (q == bestQ && encoding == Encoding.GZIP))) {
+        best = encoding;
+        bestQ = q;
+      }
+    }
+    return best;
+  }
+
+  /**
+   * Compresses a whole response body, if it's big enough to be worth it.
+   *
+   * @param body - the uncompressed body
+   * @param encoding - the encoding the client accepts
+   * @return the body to send, with the encoding it ended up in
+   */
+  public ResponseCache.Body encode(byte[] body, Encoding encoding) {
+    if (encoding == Encoding.IDENTITY || body.length < this.minBytes) {
+      return new ResponseCache.Body(body, null);
+    }
+    ByteArrayOutputStream compressed = new ByteArrayOutputStream(body.length / 4 + 64);
+    try (OutputStream out = this.compressor(encoding, compressed)) {
+      out.write(body);
+    } catch (IOException e) { // a ByteArrayOutputStream never fails to write
+      throw new IllegalStateException(e);
+    }
+    return new ResponseCache.Body(compressed.toByteArray(), encoding.header());
+  }
+
+  /**
+   * Wraps a response output stream so what's written to it gets compressed on the way out. The
+   * first bytes are held back until there are enough of them to be worth compressing; a body that
+   * ends before then is sent uncompressed. The Content-Encoding header is only set once that's been
+   * decided, so nothing can be sent before then.
+   *
+   * @param raw - the servlet response, to set Content-Encoding on
+   * @param encoding - the encoding the client accepts
+   * @param out - where the (possibly compressed) body goes
+   * @return a stream to write the uncompressed body to; finish it once the body is written
+   */
+  public CompressingOutputStream wrap(HttpServletResponse raw, Encoding encoding,
+      OutputStream out) {
+    return new CompressingOutputStream(raw, encoding, out);
+  }
+
+  private DeflaterOutputStream compressor(Encoding encoding, OutputStream out) throws IOException {
+    // sync flush so a flush in the middle of a streamed body still gets bytes to the client
+    if (encoding == Encoding.GZIP) {
+      return new GZIPOutputStream(out, 8192, true) {
+        {
+          this.def.setLevel(ResponseCompression.this.level);
+        }
+      };
+    }
+    return new DeflaterOutputStream(out, new Deflater(this.level), 8192, true) {
+      @Override
+      public void close() throws IOException {
+        try {
+          super.close();
+        } finally {
+          this.def.end(); // only the default deflater gets ended by close
+        }
+      }
+    };
+  }
+
+  /**
+   * Output stream returned by wrap.
+   */
+  public class CompressingOutputStream extends OutputStream {
+    private final HttpServletResponse raw;
+    private final Encoding accepted;
+    private final OutputStream out;
+    private ByteArrayOutputStream pending = new ByteArrayOutputStream();
+    private OutputStream target; // null until we know whether to compress
+    private Encoding used = Encoding.IDENTITY;
+
+    private CompressingOutputStream(HttpServletResponse raw, Encoding accepted, OutputStream out) {
+      this.raw = raw;
+      this.accepted = accepted;
+      this.out = out;
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+      this.write(new byte[] {(byte) b}, 0, 1);
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+      if (this.target != null) {
+        this.target.write(b, off, len);
+        return;
+      }
+      this.pending.write(b, off, len);
+      if (this.pending.size() >= ResponseCompression.this.minBytes) {
+        this.start(this.accepted);
+      }
+    }
+
+    private void start(Encoding encoding) throws IOException {
+      this.used = encoding;
+      if (encoding == Encoding.IDENTITY) {
+        this.target = this.out;
+      } else {
+        this.raw.setHeader("Content-Encoding", encoding.header());
+        this.target = ResponseCompression.this.compressor(encoding, this.out);
+      }
+      this.pending.writeTo(this.target);
+      this.pending = null;
+    }
+
+    @Override
+    public void flush() throws IOException {
+      if (this.target != null) { // held back bytes stay held back until we know what to send
+        this.target.flush();
+      }
+    }
+
+    /**
+     * Writes out anything held back and the end of the compressed stream, without closing the
+     * stream underneath.
+     *
+     * @throws IOException if the client disconnected
+     */
+    public void finish() throws IOException {
+      if (this.target == null) {
+        this.start(Encoding.IDENTITY); // too small to bother compressing
+      }
+      if (this.target instanceof DeflaterOutputStream compressor) {
+        compressor.finish();
+      }
+      this.target.flush();
+    }
+
+    /**
+     * @return the Content-Encoding the body was sent with, or null if it wasn't compressed
+     */
+    public String contentEncoding() {
+      return this.used.header();
+    }
+
+    @Override
+    public void close() throws IOException {
+      this.finish();
+      this.target.close();
+    }
+  }
+}
@@ -0,0 +1,614 @@
+package edu.brown.cs.student.main.server.main;
+
+import com.squareup.moshi.JsonWriter;
+import java.io.IOException;
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import okio.Buffer;
+import okio.BufferedSink;
+import okio.Utf8;
+import spark.Request;
+
+/**
+ * ResponseFormat is the encoding viewcsv and searchcsv send rows back in. The user picks one with
+ * the format query param, or with an Accept header if they leave format out. Without either,
+ * responses are the same nested json as always, where every row is an object keyed by its headers.
+ * The other formats only send the headers once:
+ *
+ * <ul>
+ *   <li>columnar - {"response_type": "success", "headers": [...], "columns": [[...], ...]}, with
+ *       one array of values per column
+ *   <li>ndjson - one json array per line, the headers first and then each row
+ *   <li>csv - the rows as csv, with the header row first if the csv was loaded with headers
+ *   <li>binary - see BINARY below
+ *   <li>arrow and arrow-stream - Arrow's IPC file and stream formats (see ArrowWriter), for tools
+ *       that read columns straight into memory
+ * </ul>
+ *
+ * <p>Every format can send just some of the columns (see CSVDataset.columns), in which case the
+ * others are skipped before anything is written for a row.
+ *
+ * <p>Responses can carry extra fields about the rows, like whether they're a sample. The json
+ * formats send them as top-level fields after response_type; the others have nowhere to put them,
+ * so handlers send them as headers too.
+ *
+ * <p>Errors are still sent as json whatever format was asked for.
+ */
+public enum ResponseFormat {
+
+  /** The default nested json: {"response_type": "success", "data": {"object1": {...}, ...}}. */
+  JSON("json", "application/json", "application/json") {
+    @Override
+    public RowWriter open(BufferedSink sink, List<String> headers, int[] columns, int firstNumber,
+        Map<String, ?> fields) throws IOException {
+      JsonWriter writer = JsonWriter.of(sink);
+      writer.beginObject();
+      writer.name("response_type").value("success");
+      writeFields(writer, fields);
+      writer.name("data");
+      writer.flush(); // gets the first bytes out before any rows are written
+      writer.beginObject();
+      return new RowWriter(sink, headers, columns) {
+        private int number = firstNumber;
+
+        @Override
+        void writeRow(List<String> names, List<String> row) throws IOException {
+          writer.name("object" + this.number++);
+          writer.beginObject();
+          for (int j = 0; j < Math.min(names.size(), row.size()); j++) {
+            String value = row.get(j);
+            if (value != null) { // a short row doesn't have every column
+              writer.name(names.get(j)).value(value);
+            }
+          }
+          writer.endObject();
+        }
+
+        @Override
+        void end(List<String> names) throws IOException {
+          writer.endObject();
+          writer.endObject();
+          writer.flush(); // the JsonWriter has its own buffer on top of the sink's
+        }
+      };
+    }
+  },
+
+  /**
+   * Headers once, then one array of values per column. Short rows are padded with nulls. Every
+   * row has to be there before the first column can be finished, so this is the one format that
+   * can't be written a row at a time.
+   */
+  COLUMNAR("columnar", "application/vnd.csv-columnar+json", "application/vnd.csv-columnar+json") {
+    @Override
+    public void write(BufferedSink sink, List<String> headers, List<? extends List<String>> rows,
+        int[] columns, int firstNumber, Map<String, ?> fields) throws IOException {
+      List<String> names = fieldNames(headers, rows.isEmpty() ? null : rows.get(0), columns);
+      JsonWriter writer = JsonWriter.of(sink);
+      writer.setSerializeNulls(true);
+      writer.beginObject();
+      writer.name("response_type").value("success");
+      writeFields(writer, fields);
+      writer.name("headers").beginArray();
+      for (String name : names) {
+        writer.value(name);
+      }
+      writer.endArray();
+      writer.name("columns").beginArray();
+      for (int j = 0; j < names.size(); j++) {
+        writer.beginArray();
+        int column = columns == null ? j : columns[j];
+        for (List<String> row : rows) {
+          writer.value(column < row.size() ? row.get(column) : null);
+        }
+        writer.endArray();
+      }
+      writer.endArray();
+      writer.endObject();
+      writer.flush();
+    }
+
+    @Override
+    public boolean streams() {
+      return false;
+    }
+
+    @Override
+    public RowWriter open(BufferedSink sink, List<String> headers, int[] columns, int firstNumber,
+        Map<String, ?> fields) {
+      throw new UnsupportedOperationException("columnar responses can't be written a row at a time");
+    }
+  },
+
+  /** One json array per line: the headers, then every row. */
+  NDJSON("ndjson", "application/x-ndjson", "application/x-ndjson") {
+    @Override
+    public RowWriter open(BufferedSink sink, List<String> headers, int[] columns, int firstNumber,
+        Map<String, ?> fields) {
+      return new RowWriter(sink, headers, columns) {
+        @Override
+        void start(List<String> names) throws IOException {
+          writeJsonLine(sink, names);
+          sink.flush();
+        }
+
+        @Override
+        void writeRow(List<String> names, List<String> row) throws IOException {
+          writeJsonLine(sink, row);
+        }
+      };
+    }
+  },
+
+  /**
+   * The rows as csv. Fields come out exactly as they were parsed, so fields that were quoted in
+   * the file are still quoted.
+   */
+  CSV("csv", "text/csv", "text/csv; charset=utf-8") {
+    @Override
+    public RowWriter open(BufferedSink sink, List<String> headers, int[] columns, int firstNumber,
+        Map<String, ?> fields) {
+      return new RowWriter(sink, headers, columns) {
+        @Override
+        void start(List<String> names) throws IOException {
+          if (headers != null) {
+            writeCsvLine(sink, names);
+          }
+        }
+
+        @Override
+        void writeRow(List<String> names, List<String> row) throws IOException {
+          writeCsvLine(sink, row);
+        }
+      };
+    }
+  },
+
+  /**
+   * A compact binary row format. Numbers are unsigned LEB128 varints and strings are a varint byte
+   * length followed by that many bytes of UTF-8.
+   *
+   * <pre>
+   *   "CSVR" then a version byte (1)
+   *   column count, then each header (or field number name) as a string
+   *   for each row: field count + 1, then each field as a string (empty if the row is too short
+   *   to have a projected column)
+   *   0 once there are no more rows
+   * </pre>
+   */
+  BINARY("binary", "application/x-csv-rows", "application/x-csv-rows") {
+    @Override
+    public RowWriter open(BufferedSink sink, List<String> headers, int[] columns, int firstNumber,
+        Map<String, ?> fields) {
+      return new RowWriter(sink, headers, columns) {
+        @Override
+        void start(List<String> names) throws IOException {
+          sink.writeUtf8("CSVR").writeByte(1);
+          writeVarint(sink, names.size());
+          for (String name : names) {
+            writeBinaryString(sink, name);
+          }
+        }
+
+        @Override
+        void writeRow(List<String> names, List<String> row) throws IOException {
+          writeVarint(sink, row.size() + 1L);
+          for (String field : row) {
+            writeBinaryString(sink, field == null ? "" : field);
+          }
+        }
+
+        @Override
+        void end(List<String> names) throws IOException {
+          writeVarint(sink, 0);
+        }
+      };
+    }
+  },
+
+  /** Arrow's IPC file format, with a footer saying where each record batch is. */
+  ARROW("arrow", "application/vnd.apache.arrow.file", "application/vnd.apache.arrow.file") {
+    @Override
+    public RowWriter open(BufferedSink sink, List<String> headers, int[] columns, int firstNumber,
+        Map<String, ?> fields) {
+      return arrow(sink, headers, columns, true);
+    }
+  },
+
+  /** Arrow's IPC stream format, which readers can read a record batch at a time as it arrives. */
+  ARROW_STREAM("arrow-stream", "application/vnd.apache.arrow.stream",
+      "application/vnd.apache.arrow.stream") {
+    @Override
+    public RowWriter open(BufferedSink sink, List<String> headers, int[] columns, int firstNumber,
+        Map<String, ?> fields) {
+      return arrow(sink, headers, columns, false);
+    }
+  };
+
+  private final String param;
+  private final String mediaType;
+  private final String contentType;
+
+  ResponseFormat(String param, String mediaType, String contentType) {
+    this.param = param;
+    this.mediaType = mediaType;
+    this.contentType = contentType;
+  }
+
+  /**
+   * @return the content type to send responses in this format with
+   */
+  public String contentType() {
+    return this.contentType;
+  }
+
+  /**
+   * Writes a success response with the given rows to a sink.
+   *
+   * @param sink - where to write the response
+   * @param headers - the csv's headers, or null if it has none
+   * @param rows - the rows to send
+   * @param columns - the indexes of the columns to send, in order, or null to send every column
+   * @param firstNumber - the object number of the first row, for the formats that number rows
+   * @throws IOException if the sink can't be written to, e.g. the client disconnected
+   */
+  public final void write(BufferedSink sink, List<String> headers,
+      List<? extends List<String>> rows, int[] columns, int firstNumber) throws IOException {
+    this.write(sink, headers, rows, columns, firstNumber, Map.of());
+  }
+
+  /**
+   * Writes a success response with the given rows and extra fields to a sink.
+   *
+   * @param sink - where to write the response
+   * @param headers - the csv's headers, or null if it has none
+   * @param rows - the rows to send
+   * @param columns - the indexes of the columns to send, in order, or null to send every column
+   * @param firstNumber - the object number of the first row, for the formats that number rows
+   * @param fields - extra top-level fields for the json formats, in order
+   * @throws IOException if the sink can't be written to, e.g. the client disconnected
+   */
+  public void write(BufferedSink sink, List<String> headers, List<? extends List<String>> rows,
+      int[] columns, int firstNumber, Map<String, ?> fields) throws IOException {
+    RowWriter writer = this.open(sink, headers, columns, firstNumber, fields);
+    for (List<String> row : rows) {
+      writer.row(row);
+    }
+    writer.finish();
+  }
+
+  /**
+   * Starts a success response that rows are written to one at a time, for responses whose rows
+   * aren't all known up front. Check streams() first.
+   *
+   * @param sink - where to write the response
+   * @param headers - the csv's headers, or null if it has none
+   * @param columns - the indexes of the columns to send, in order, or null to send every column
+   * @param firstNumber - the object number of the first row, for the formats that number rows
+   * @return the writer to send the rows to
+   * @throws IOException if the sink can't be written to, e.g. the client disconnected
+   * @throws UnsupportedOperationException if this format can't be written a row at a time
+   */
+  public final RowWriter open(BufferedSink sink, List<String> headers, int[] columns,
+      int firstNumber) throws IOException {
+    return this.open(sink, headers, columns, firstNumber, Map.of());
+  }
+
+  /**
+   * Starts a success response with extra fields that rows are written to one at a time.
+   *
+   * @param sink - where to write the response
+   * @param headers - the csv's headers, or null if it has none
+   * @param columns - the indexes of the columns to send, in order, or null to send every column
+   * @param firstNumber - the object number of the first row, for the formats that number rows
+   * @param fields - extra top-level fields for the json formats, in order
+   * @return the writer to send the rows to
+   * @throws IOException if the sink can't be written to, e.g. the client disconnected
+   * @throws UnsupportedOperationException if this format can't be written a row at a time
+   */
+  public abstract RowWriter open(BufferedSink sink, List<String> headers, int[] columns,
+      int firstNumber, Map<String, ?> fields) throws IOException;
+
+  /**
+   * @return whether responses in this format can be written a row at a time with open
+   */
+  public boolean streams() {
+    return true;
+  }
+
+  /**
+   * RowWriter writes the rows of one response as they come. Formats that send the column names
+   * before any rows work them out from the first row if the csv has no headers, so nothing that
+   * depends on them is written until then.
+   */
+  public abstract static class RowWriter {
+    private final BufferedSink sink;
+    private final List<String> headers;
+    private final int[] columns;
+    private List<String> names; // null until the first row, or finish, is written
+
+    private RowWriter(BufferedSink sink, List<String> headers, int[] columns) {
+      this.sink = sink;
+      this.headers = headers;
+      this.columns = columns;
+    }
+
+    /**
+     * Writes one row of the response.
+     *
+     * @param row - the row, with every column; only the ones being sent are read
+     * @throws IOException if the client disconnected
+     */
+    public final void row(List<String> row) throws IOException {
+      if (this.names == null) {
+        this.names = fieldNames(this.headers, row, this.columns);
+        this.start(this.names);
+      }
+      this.writeRow(this.names, cells(row, this.columns));
+    }
+
+    /**
+     * Ends the response once every row has been written.
+     *
+     * @throws IOException if the client disconnected
+     */
+    public final void finish() throws IOException {
+      if (this.names == null) {
+        this.names = fieldNames(this.headers, null, this.columns);
+        this.start(this.names);
+      }
+      this.end(this.names);
+      this.sink.flush();
+    }
+
+    void start(List<String> names) throws IOException {}
+
+    abstract void writeRow(List<String> names, List<String> row) throws IOException;
+
+    void end(List<String> names) throws IOException {}
+  }
+
+  /**
+   * Writes a success response into a byte array, for responses that are cached or sent whole.
+   *
+   * @param headers - the csv's headers, or null if it has none
+   * @param rows - the rows to send
+   * @param columns - the indexes of the columns to send, in order, or null to send every column
+   * @param firstNumber - the object number of the first row, for the formats that number rows
+   * @return the encoded response
+   */
+  public byte[] encode(List<String> headers, List<? extends List<String>> rows, int[] columns,
+      int firstNumber) {
+    return this.encode(headers, rows, columns, firstNumber, Map.of());
+  }
+
+  /**
+   * Writes a success response with extra fields into a byte array.
+   *
+   * @param headers - the csv's headers, or null if it has none
+   * @param rows - the rows to send
+   * @param columns - the indexes of the columns to send, in order, or null to send every column
+   * @param firstNumber - the object number of the first row, for the formats that number rows
+   * @param fields - extra top-level fields for the json formats, in order
+   * @return the encoded response
+   */
+  public byte[] encode(List<String> headers, List<? extends List<String>> rows, int[] columns,
+      int firstNumber, Map<String, ?> fields) {
+    Buffer buffer = new Buffer();
+    try {
+      this.write(buffer, headers, rows, columns, firstNumber, fields);
+    } catch (IOException e) { // a Buffer never fails to write
+      throw new IllegalStateException(e);
+    }
+    return buffer.readByteArray();
+  }
+
+  /**
+   * Picks the format for a request. The format query param wins if there is one; otherwise the
+   * Accept header's most preferred media type we support is used, and json if it has none.
+   *
+   * @param request - the user's request
+   * @return the format to respond in
+   * @throws IllegalArgumentException if the format param isn't one of the format names
+   */
+  public static ResponseFormat of(Request request) {
+    String param = request.queryParams("format");
+    if (param != null && !param.isBlank()) {
+      for (ResponseFormat format : values()) {
+        if (format.param.equalsIgnoreCase(param.trim())) {
+          return format;
+        }
+      }
+      throw new IllegalArgumentException("unknown format " + param);
+    }
+    String accept = request.headers("Accept");
+    if (accept == null) {
+      return JSON;
+    }
+    ResponseFormat best = null;
+    double bestQ = 0;
+    boolean bestExact = false;
+    for (String range : accept.split(",")) {
+      String[] parts = range.split(";");
+      String type = parts[0].trim().toLowerCase();
+      double q = 1;
+      for (int i = 1; i < parts.length; i++) {
+        String part = parts[i].trim();
+        if (part.startsWith("q=")) {
+          try {
+            q = Double.parseDouble(part.substring(2));
+          } catch (NumberFormatException e) {
+            q = 0;
+          }
+        }
+      }
+      ResponseFormat match = null;
+      boolean exact = false;
+      for (ResponseFormat format : values()) {
+        if (format.mediaType.equals(type)) {
+          match = format;
+          exact = true;
+        }
+      }
+      if (match == null && (type.equals("*/*") || type.equals("application/*"))) {
+        match = JSON;
+      }
+      // a more specific type beats a wildcard the user likes just as much
+      if (match != null && q > 0 && (q > bestQ || (q == bestQ && exact && !bestExact))) {
+        best = match;
+        bestQ = q;
+        bestExact = exact;
+      }
+    }
+    return best == null ? JSON : best;
+  }
+
+  /**
+   * Starts an Arrow response once the column names are known.
+   */
+  private static RowWriter arrow(BufferedSink sink, List<String> headers, int[] columns,
+      boolean file) {
+    return new RowWriter(sink, headers, columns) {
+      private ArrowWriter writer;
+
+      @Override
+      void start(List<String> names) throws IOException {
+        this.writer = new ArrowWriter(sink, names, file);
+        sink.flush();
+      }
+
+      @Override
+      void writeRow(List<String> names, List<String> row) throws IOException {
+        this.writer.row(row);
+      }
+
+      @Override
+      void end(List<String> names) throws IOException {
+        this.writer.finish();
+      }
+    };
+  }
+
+  /**
+   * Writes extra top-level fields into a json response, each value the way ResponseSerializer
+   * would write it.
+   */
+  private static void writeFields(JsonWriter writer, Map<String, ?> fields) throws IOException {
+    for (Map.Entry<String, ?> field : fields.entrySet()) {
+      writer.name(field.getKey());
+      ResponseSerializer.adapter(Object.class).toJson(writer, field.getValue());
+    }
+  }
+
+  /**
+   * The name of each column sent: the headers, or field1, field2, ... for as many fields as the
+   * first row has if there are no headers. With a projection, only the projected columns are
+   * named, and a column without a header keeps its number in the file.
+   */
+  private static List<String> fieldNames(List<String> headers, List<String> firstRow,
+      int[] columns) {
+    if (columns == null) {
+      if (headers != null) {
+        return headers;
+      }
+      int colNum = firstRow == null ? 0 : firstRow.size();
+      List<String> names = new ArrayList<>(colNum);
+      for (int j = 1; j <= colNum; j++) {
+        names.add("field" + j); // we use "field" + number because we don't have a header name
+      }
+      return names;
+    }
+    List<String> names = new ArrayList<>(columns.length);
+    for (int column : columns) {
+      names.add(headers != null ? headers.get(column) : "field" + (column + 1));
+    }
+    return names;
+  }
+
+  /**
+   * The cells of a row that get sent. With a projection this is a view that only reads the
+   * projected cells from the row when asked for them, so the others are never copied out of the
+   * row at all. A projected column the row is too short to have is null.
+   */
+  private static List<String> cells(List<String> row, int[] columns) {
+    if (columns == null) {
+      return row;
+    }
+    return new AbstractList<>() {
+      @Override
+      public String get(int j) {
+        return columns[j] < row.size() ? row.get(columns[j]) : null;
+      }
+
+      @Override
+      public int size() {
+        return columns.length;
+      }
+    };
+  }
+
+  private static void writeJsonLine(BufferedSink sink, List<String> values) throws IOException {
+    sink.writeByte('[');
+    for (int j = 0; j < values.size(); j++) {
+      if (j > 0) {
+        sink.writeByte(',');
+      }
+      writeJsonString(sink, values.get(j));
+    }
+    sink.writeUtf8("]\n");
+  }
+
+  private static void writeJsonString(BufferedSink sink, String value) throws IOException {
+    if (value == null) {
+      sink.writeUtf8("null");
+      return;
+    }
+    sink.writeByte('"');
+    int last = 0;
+    for (int k = 0; k < value.length(); k++) {
+      char c = value.charAt(k);
+      if (c == '"' || c == '\\' || c < 0x20) {
+        sink.writeUtf8(value, last, k);
+        switch (c) {
+          case '"' -> sink.writeUtf8("\\\"");
+          case '\\' -> sink.writeUtf8("\\\\");
+          case '\n' -> sink.writeUtf8("\\n");
+          case '\r' -> sink.writeUtf8("\\r");
+          case '\t' -> sink.writeUtf8("\\t");
+          default -> sink.writeUtf8(String.format("\\u%04x", (int) c));
+        }
+        last = k + 1;
+      }
+    }
+    sink.writeUtf8(value, last, value.length());
+    sink.writeByte('"');
+  }
+
+  private static void writeCsvLine(BufferedSink sink, List<String> values) throws IOException {
+    for (int j = 0; j < values.size(); j++) {
+      if (j > 0) {
+        sink.writeByte(',');
+      }
+      String value = values.get(j);
+      if (value != null) {
+        sink.writeUtf8(value);
+      }
+    }
+    sink.writeByte('\n');
+  }
+
+  private static void writeBinaryString(BufferedSink sink, String value) throws IOException {
+    writeVarint(sink, Utf8.size(value));
+    sink.writeUtf8(value);
+  }
+
+  private static void writeVarint(BufferedSink sink, long value) throws IOException {
+    while ((value & ~0x7FL) != 0) {
+      sink.writeByte((int) ((value & 0x7F) | 0x80));
+      value >>>= 7;
+    }
+    sink.writeByte((int) value);
+  }
+}
@@ -0,0 +1,54 @@
+package edu.brown.cs.student.main.server.main;
+
+import com.squareup.moshi.JsonAdapter;
+import com.squareup.moshi.Moshi;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import okio.Buffer;
+
+/**
+ * ResponseSerializer is the one place our handlers turn their success and failure response
+ * records into json. Moshi and the adapter for each record type are only built once and shared by
+ * every request, and each thread encodes into its own reused buffer. Responses come out as UTF-8
+ * bytes, which Spark writes to the client as is instead of encoding a String again.
+ */
+final class ResponseSerializer {
+
+  private static final Moshi MOSHI = new Moshi.Builder().build();
+  private static final Map<Class<?>, JsonAdapter<?>> ADAPTERS = new ConcurrentHashMap<>();
+  private static final ThreadLocal<Buffer> BUFFERS = ThreadLocal.withInitial(Buffer::new);
+
+  private ResponseSerializer() {}
+
+  /**
+   * Returns the cached adapter for a response type, building it the first time it's asked for.
+   *
+   * @param type - the response record's class
+   * @return the shared adapter for that class
+   */
+  @SuppressWarnings("unchecked")
+  static <T> JsonAdapter<T> adapter(Class<T> type) {
+    return (JsonAdapter<T>) ADAPTERS.computeIfAbsent(type, MOSHI::adapter);
+  }
+
+  /**
+   * Converts a response record to json.
+   *
+   * @param response - the response record to serialize
+   * @return the response as UTF-8 encoded json
+   */
+  @SuppressWarnings("unchecked")
+  static <T> byte[] serialize(T response) {
+    Buffer buffer = BUFFERS.get();
+    try {
+      adapter((Class<T>) response.getClass()).toJson(buffer, response);
+      return buffer.readByteArray();
+    } catch (IOException e) { // a Buffer never fails to write, but the signature says it can
+      throw new UncheckedIOException(e);
+    } finally {
+      buffer.clear();
+    }
+  }
+}
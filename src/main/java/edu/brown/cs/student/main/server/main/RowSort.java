@@ -0,0 +1,367 @@
+package edu.brown.cs.student.main.server.main;
+
+import edu.brown.cs.student.main.csv.RowSelection;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Locale;
+import java.util.Objects;
+import java.util.PriorityQueue;
+import java.util.RandomAccess;
+
+/**
+ * RowSort puts rows in order by one or more columns, for viewcsv and searchcsv. Each column is
+ * compared as numbers or as strings (ignoring case, like searches), ascending or descending, and
+ * blanks and values that aren't numbers always go last. Rows that compare equal stay in the order
+ * they were in.
+ *
+ * <p>Each row's sort keys are read out once into an Entry before sorting, so a comparison doesn't
+ * parse anything. How the entries are sorted depends on how many rows are wanted:
+ *
+ * <ul>
+ *   <li>only the first few (a page of a view, or a search limit) - a bounded heap of that many
+ *       entries, so the rest are never kept
+ *   <li>at most sort.memoryRows rows (a system property, default 1048576) - sorted in memory
+ *   <li>more than that - an external merge sort: runs of sort.memoryRows entries are sorted and
+ *       written to temp files, then merged, so only one run's keys are in memory at a time
+ * </ul>
+ *
+ * <p>The rows themselves are already in memory, so the result is just a list of them in sorted
+ * order, backed by an array of where each came from.
+ */
+public final class RowSort {
+
+  static final int DEFAULT_MEMORY_ROWS = 1 << 20;
+
+  /**
+   * One column to sort by.
+   *
+   * @param column - index of the column
+   * @param descending - whether biggest comes first
+   * @param numeric - whether values are compared as numbers rather than strings
+   */
+  public record Key(int column, boolean descending, boolean numeric) {}
+
+  private RowSort() {}
+
+  /**
+   * Reads the sort query param, a comma separated list of columns (header names or indexes, like
+   * fields), each optionally followed by :asc or :desc and by :number or :string, like
+   * "score:desc,name". A column is compared as numbers by default if every value in it that isn't
+   * blank is one.
+   *
+   * @param sort - the sort query param, or null
+   * @param headers - the csv's headers, or null if it has none
+   * @param zones - the dataset's statistics, for which columns are numbers
+   * @return the columns to sort by, in order, or null if there's nothing to sort by
+   * @throws IllegalArgumentException if a column isn't a header or a valid index
+   */
+  public static List<Key> parse(String sort, List<String> headers, ZoneMap zones) {
+    List<String> split = RowSelection.splitColumns(sort);
+    if (split == null) {
+      return null;
+    }
+    List<ZoneMap.ColumnStats> stats = zones.columnStats(headers);
+    List<Key> keys = new ArrayList<>();
+    for (String key : split) {
+      Boolean descending = null;
+      Boolean numeric = null;
+      while (key.lastIndexOf(':') >= 0) { // options are taken off the end, so names can have ':'
+        int colon = key.lastIndexOf(':');
+        String option = key.substring(colon + 1).trim().toLowerCase(Locale.ROOT);
+        if (descending == null && (option.equals("asc") || option.equals("desc"))) {
+          descending = option.equals("desc");
+        } else if (numeric == null && (option.equals("number") || option.equals("string"))) {
+          numeric = option.equals("number");
+        } else {
+          break;
+        }
+        key = key.substring(0, colon);
+      }
+      int column = RowSelection.columnIndex(key, headers);
+      if (numeric == null) {
+        numeric = column < stats.size() && stats.get(column).numeric();
+      }
+      keys.add(new Key(column, descending != null && descending, numeric));
+    }
+    return keys;
+  }
+
+  /**
+   * Sorts rows.
+   *
+   * @param rows - the rows to sort, which aren't changed
+   * @param keys - the columns to sort by
+   * @param limit - how many of the first rows in order are wanted; the rest are left out
+   * @return the first limit rows in order
+   * @throws IOException if a run can't be written to or read back from its temp file
+   */
+  public static List<List<String>> sort(List<? extends List<String>> rows, List<Key> keys,
+      int limit) throws IOException {
+    int wanted = Math.min(limit, rows.size());
+    int memoryRows = Math.max(2, Integer.getInteger("sort.memoryRows", DEFAULT_MEMORY_ROWS));
+    int[] order;
+    if (wanted < rows.size() && wanted <= memoryRows) {
+      order = top(rows, keys, wanted);
+    } else if (rows.size() <= memoryRows) {
+      order = inMemory(rows, keys);
+    } else {
+      order = external(rows, keys, memoryRows);
+    }
+    return new Sorted(rows, order, wanted);
+  }
+
+  /**
+   * Keeps the first count entries in a heap with the last of them on top, so each row is only
+   * compared to that one unless it belongs in the heap.
+   */
+  private static int[] top(List<? extends List<String>> rows, List<Key> keys, int count) {
+    if (count == 0) {
+      return new int[0];
+    }
+    Comparator<Entry> comparator = comparator(keys);
+    PriorityQueue<Entry> heap = new PriorityQueue<>(count, comparator.reversed());
+    char[] scratch = new char[ZoneMap.MAX_NUMBER_CHARS];
+    Entry next = new Entry(keys.size());
+    for (int r = 0; r < rows.size(); r++) {
+      next.read(rows.get(r), r, keys, scratch);
+      if (heap.size() < count) {
+        heap.add(next);
+        next = new Entry(keys.size());
+      } else if (comparator.compare(next, heap.peek()) < 0) {
+        Entry dropped = heap.poll();
+        heap.add(next);
+        next = dropped; // reused for the next row
+      }
+    }
+    Entry[] kept = heap.toArray(new Entry[0]);
+    Arrays.sort(kept, comparator);
+    return orders(kept);
+  }
+
+  private static int[] inMemory(List<? extends List<String>> rows, List<Key> keys) {
+    Entry[] entries = entries(rows, keys, 0, rows.size());
+    Arrays.sort(entries, comparator(keys));
+    return orders(entries);
+  }
+
+  /**
+   * Sorts runs of memoryRows entries, writes each to a temp file, and merges them, taking the
+   * smallest of the runs' next entries each time.
+   */
+  private static int[] external(List<? extends List<String>> rows, List<Key> keys, int memoryRows)
+      throws IOException {
+    Comparator<Entry> comparator = comparator(keys);
+    List<Path> files = new ArrayList<>();
+    List<Run> runs = new ArrayList<>();
+    try {
+      for (int start = 0; start < rows.size(); start += memoryRows) {
+        Entry[] entries =
+            entries(rows, keys, start, (int) Math.min(rows.size(), (long) start + memoryRows));
+        Arrays.sort(entries, comparator);
+        Path file = Files.createTempFile("csv-sort", ".run");
+        files.add(file);
+        try (DataOutputStream out =
+            new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(file)))) {
+          for (Entry entry : entries) {
+            entry.write(out, keys);
+          }
+        }
+      }
+      PriorityQueue<Run> merge =
+          new PriorityQueue<>(files.size(), (a, b) -> comparator.compare(a.next, b.next));
+      for (Path file : files) {
+        Run run = new Run(file, keys);
+        runs.add(run);
+        if (run.advance()) {
+          merge.add(run);
+        }
+      }
+      int[] order = new int[rows.size()];
+      for (int k = 0; k < order.length; k++) {
+        Run run = merge.poll();
+        order[k] = run.next.order;
+        if (run.advance()) {
+          merge.add(run);
+        }
+      }
+      return order;
+    } finally {
+      for (Run run : runs) {
+        run.in.close();
+      }
+      for (Path file : files) {
+        Files.deleteIfExists(file);
+      }
+    }
+  }
+
+  private static Entry[] entries(List<? extends List<String>> rows, List<Key> keys, int start,
+      int end) {
+    Entry[] entries = new Entry[end - start];
+    char[] scratch = new char[ZoneMap.MAX_NUMBER_CHARS];
+    for (int r = start; r < end; r++) {
+      entries[r - start] = new Entry(keys.size());
+      entries[r - start].read(rows.get(r), r, keys, scratch);
+    }
+    return entries;
+  }
+
+  private static int[] orders(Entry[] entries) {
+    int[] order = new int[entries.length];
+    for (int k = 0; k < entries.length; k++) {
+      order[k] = entries[k].order;
+    }
+    return order;
+  }
+
+  private static Comparator<Entry> comparator(List<Key> keys) {
+    Key[] sortKeys = keys.toArray(new Key[0]);
+    return (a, b) -> {
+      for (int k = 0; k < sortKeys.length; k++) {
+        int compared;
+        if (sortKeys[k].numeric()) {
+          double x = a.numbers[k];
+          double y = b.numbers[k];
+          if (Double.isNaN(x) || Double.isNaN(y)) { // last whichever way it's sorted
+            compared = Boolean.compare(Double.isNaN(x), Double.isNaN(y));
+            if (compared != 0) {
+              return compared;
+            }
+            continue;
+          }
+          compared = Double.compare(x, y);
+        } else {
+          String x = a.strings[k];
+          String y = b.strings[k];
+          if (x.isEmpty() || y.isEmpty()) {
+            compared = Boolean.compare(x.isEmpty(), y.isEmpty());
+            if (compared != 0) {
+              return compared;
+            }
+            continue;
+          }
+          compared = String.CASE_INSENSITIVE_ORDER.compare(x, y);
+        }
+        if (compared != 0) {
+          return sortKeys[k].descending() ? -compared : compared;
+        }
+      }
+      return Integer.compare(a.order, b.order);
+    };
+  }
+
+  /**
+   * A row's sort keys, and where the row is in the rows being sorted. Only the array for each key's
+   * kind is used.
+   */
+  private static final class Entry {
+    private int order;
+    private final double[] numbers;
+    private final String[] strings;
+
+    Entry(int keyCount) {
+      this.numbers = new double[keyCount];
+      this.strings = new String[keyCount];
+    }
+
+    void read(List<String> row, int order, List<Key> keys, char[] scratch) {
+      this.order = order;
+      for (int k = 0; k < keys.size(); k++) {
+        int column = keys.get(k).column();
+        if (keys.get(k).numeric()) {
+          this.numbers[k] = column < row.size() ? ZoneMap.number(row, column, scratch) : Double.NaN;
+        } else {
+          this.strings[k] = column < row.size() ? row.get(column) : "";
+        }
+      }
+    }
+
+    void write(DataOutputStream out, List<Key> keys) throws IOException {
+      out.writeInt(this.order);
+      for (int k = 0; k < keys.size(); k++) {
+        if (keys.get(k).numeric()) {
+          out.writeDouble(this.numbers[k]);
+        } else {
+          byte[] bytes = this.strings[k].getBytes(StandardCharsets.UTF_8);
+          out.writeInt(bytes.length);
+          out.write(bytes);
+        }
+      }
+    }
+  }
+
+  /**
+   * A sorted run being read back from its temp file, one entry at a time.
+   */
+  private static final class Run {
+    private final DataInputStream in;
+    private final List<Key> keys;
+    private final Entry next;
+
+    Run(Path file, List<Key> keys) throws IOException {
+      this.in = new DataInputStream(new BufferedInputStream(Files.newInputStream(file)));
+      this.keys = keys;
+      this.next = new Entry(keys.size());
+    }
+
+    /**
+     * Reads the run's next entry into next.
+     *
+     * @return false if the run has no entries left
+     */
+    boolean advance() throws IOException {
+      try {
+        this.next.order = this.in.readInt();
+      } catch (EOFException e) {
+        return false;
+      }
+      for (int k = 0; k < this.keys.size(); k++) {
+        if (this.keys.get(k).numeric()) {
+          this.next.numbers[k] = this.in.readDouble();
+        } else {
+          this.next.strings[k] = new String(this.in.readNBytes(this.in.readInt()),
+              StandardCharsets.UTF_8);
+        }
+      }
+      return true;
+    }
+  }
+
+  /**
+   * The rows in sorted order, without copying them.
+   */
+  private static final class Sorted extends AbstractList<List<String>> implements RandomAccess {
+    private final List<? extends List<String>> rows;
+    private final int[] order;
+    private final int size;
+
+    Sorted(List<? extends List<String>> rows, int[] order, int size) {
+      this.rows = rows;
+      this.order = order;
+      this.size = size;
+    }
+
+    @Override
+    public List<String> get(int index) {
+      Objects.checkIndex(index, this.size);
+      return this.rows.get(this.order[index]);
+    }
+
+    @Override
+    public int size() {
+      return this.size;
+    }
+  }
+}
@@ -0,0 +1,372 @@
+package edu.brown.cs.student.main.server.main;
+
+import edu.brown.cs.student.main.csv.Row;
+import edu.brown.cs.student.main.csv.RowReader;
+import edu.brown.cs.student.main.csv.RowSelection;
+import edu.brown.cs.student.main.csv.Searcher;
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Predicate;
+import javax.servlet.http.HttpServletResponse;
+import okio.BufferedSink;
+import okio.Okio;
+import spark.Request;
+import spark.Response;
+import spark.Route;
+
+/**
+ * ScanCSVHandler searches a csv in the data/ folder without loading it. It takes the same search
+ * query params as searchcsv, plus the filepath and hasHeaders of the file to search, and reads the
+ * file one row at a time, sending each matching row back as soon as it's found. Only one row is
+ * held at a time, so any size of file can be scanned, and the csv loaded with loadcsv is left
+ * alone. Gzipped files are decompressed as they're read.
+ *
+ * <p>Results can be sent in any ResponseFormat that can be written a row at a time (everything but
+ * columnar), with only the columns in the fields query param if there is one.
+ */
+public class ScanCSVHandler implements Route {
+
+  // matches found close together go out together, but none waits longer than this to be sent
+  private static final long FLUSH_NANOS = TimeUnit.MILLISECONDS.toNanos(200);
+
+  private final ResponseCompression compression;
+
+  /**
+   * Constructor for the ScanCSVHandler that compresses with the default settings.
+   */
+  public ScanCSVHandler() {
+    this(new ResponseCompression());
+  }
+
+  /**
+   * Constructor for the ScanCSVHandler, called in Server.
+   *
+   * @param compression - how to compress responses
+   */
+  public ScanCSVHandler(ResponseCompression compression) {
+    this.compression = compression;
+  }
+
+  /**
+   * Handles the user's request. Checks the query params and opens the file, answering with a
+   * failure response if anything is wrong, and otherwise streams the matching rows back.
+   *
+   * @param request - the user's request
+   * @param response - allows us to return a response to the user
+   * @return a failure response as json, or nothing once the matching rows have been streamed
+   */
+  public Object handle(Request request, Response response) {
+    String filePath = request.queryParams("filepath");
+    String h = request.queryParams("hasHeaders");
+    if (h == null || !(h.equalsIgnoreCase("true") || h.equalsIgnoreCase("false"))) {
+      return new HeaderScanFailureResponse(filePath, h).serialize();
+    }
+    boolean hasHeaders = h.equalsIgnoreCase("true");
+    String searchType = request.queryParams("searchType");
+    String searchVal = request.queryParams("searchVal");
+    if (filePath == null || searchType == null || searchVal == null) {
+      return new ParamsScanFailureResponse().serialize();
+    }
+    ResponseFormat format;
+    try {
+      format = ResponseFormat.of(request);
+    } catch (IllegalArgumentException e) {
+      return new FormatScanFailureResponse(request.queryParams("format")).serialize();
+    }
+    if (!format.streams()) {
+      return new FormatScanFailureResponse(request.queryParams("format")).serialize();
+    }
+
+    try (RowReader rows = new RowReader(CSVFiles.open(new File("data/" + filePath)))) {
+      Row headers = hasHeaders ? rows.next() : null;
+      Predicate<List<String>> matcher = this.matcher(headers, hasHeaders, searchType,
+          searchVal, request.queryParams("columnIdentifier"));
+      if (matcher == null) {
+        return new ColIDScanFailureResponse(searchType).serialize();
+      }
+      int[] columns;
+      try {
+        columns = new RowSelection(RowSelection.splitColumns(request.queryParams("fields")), null,
+            null).columnIndexes(headers);
+      } catch (IllegalArgumentException e) {
+        return new FieldsScanFailureResponse(request.queryParams("fields")).serialize();
+      }
+      rows.filterRows(matcher); // rows that don't match are never copied out of the file's lines
+
+      try {
+        this.stream(response.raw(), rows, headers, format, this.compression.negotiate(request),
+            columns);
+      } catch (IOException e) {
+        // the response is already committed at this point, so all we can do is stop writing
+      }
+      return "";
+    } catch (FileNotFoundException e) {
+      return new FileNotFoundScanFailureResponse(filePath).serialize();
+    } catch (IOException e) {
+      return new IOScanFailureResponse(filePath).serialize();
+    }
+  }
+
+  /**
+   * Makes the test for matching rows, the same way Searcher searches.
+   *
+   * @return the test, or null if searchType or columnIdentifier aren't valid for the file
+   */
+  private Predicate<List<String>> matcher(List<String> headers, boolean hasHeaders,
+      String searchType, String searchVal, String columnIdentifier) {
+    if (searchType.equalsIgnoreCase("index")) { // if the user wants to search by col index
+      try {
+        int index = Integer.parseInt(columnIdentifier);
+        if (index < 0 || (headers != null && index >= headers.size())) {
+          return null;
+        }
+        return Searcher.colIndexMatcher(searchVal, index);
+      } catch (NumberFormatException e) { // if the user doesn't enter a number
+        return null;
+      }
+    } else if (searchType.equalsIgnoreCase("name")) { // if the user wants to search by col name
+      if (!hasHeaders || headers == null || columnIdentifier == null) {
+        return null;
+      }
+      Integer index = Searcher.colIndexOf(headers, columnIdentifier);
+      return index == null ? null : Searcher.colIndexMatcher(searchVal, index);
+    } else if (searchType.equalsIgnoreCase("all")) { // if the user wants to search all cols
+      return Searcher.allColMatcher(searchVal);
+    }
+    return null;
+  }
+
+  /**
+   * Writes every matching row to the servlet output stream as it's read. No content length is
+   * set, so the server sends the body with chunked transfer encoding.
+   *
+   * @param raw - the underlying servlet response
+   * @param rows - the file's rows, already filtered to the matching ones
+   * @param headers - the file's headers, or null if it has none
+   * @param format - the format to write the rows in
+   * @param encoding - the compression the client accepts
+   * @param columns - the columns to send, or null for all of them
+   * @throws IOException if the file can't be read or the client disconnects
+   */
+  private void stream(HttpServletResponse raw, RowReader rows, List<String> headers,
+      ResponseFormat format, ResponseCompression.Encoding encoding, int[] columns)
+      throws IOException {
+    raw.setStatus(200);
+    raw.setContentType(format.contentType());
+    ResponseCompression.CompressingOutputStream out =
+        this.compression.wrap(raw, encoding, raw.getOutputStream());
+    try (BufferedSink sink = Okio.buffer(Okio.sink(out))) {
+      ResponseFormat.RowWriter writer = format.open(sink, headers, columns, 1);
+      long lastFlush = System.nanoTime();
+      for (Row row = rows.next(); row != null; row = rows.next()) {
+        writer.row(row);
+        if (System.nanoTime() - lastFlush > FLUSH_NANOS) {
+          sink.flush();
+          lastFlush = System.nanoTime();
+        }
+      }
+      writer.finish();
+      out.finish();
+    }
+  }
+
+  /**
+   * Failure response if the user leaves out filepath, searchType, or searchVal.
+   *
+   * @param response_type - in this case, "error_bad_request"
+   */
+  public record ParamsScanFailureResponse(String response_type) {
+
+    /**
+     * Constructor for the failure response.
+     */
+    public ParamsScanFailureResponse() {
+      this("error_bad_request: include filepath, hasHeaders, searchType, and searchVal query params,"
+          + " and columnIdentifier if searching by column name or index");
+    }
+
+    /**
+     * Returns the failure response as a json.
+     *
+     * @return this response, serialized as Json
+     */
+    byte[] serialize() {
+      return ResponseSerializer.serialize(this);
+    }
+  }
+
+  /**
+   * Failure response if hasHeaders isn't "true" or "false".
+   *
+   * @param response_type - in this case, "error_bad_request"
+   * @param filepath - the filepath the user asked to scan
+   * @param hasHeaders - what the user sent for hasHeaders
+   */
+  public record HeaderScanFailureResponse(String response_type, String filepath,
+      String hasHeaders) {
+
+    /**
+     * Constructor for the failure response.
+     *
+     * @param filepath - the filepath the user asked to scan
+     * @param hasHeaders - what the user sent for hasHeaders
+     */
+    public HeaderScanFailureResponse(String filepath, String hasHeaders) {
+      this("error_bad_request: enter true or false for hasHeaders query param", filepath,
+          hasHeaders);
+    }
+
+    /**
+     * Returns the failure response as a json.
+     *
+     * @return this response, serialized as Json
+     */
+    byte[] serialize() {
+      return ResponseSerializer.serialize(this);
+    }
+  }
+
+  /**
+   * Failure response if searchType isn't "index", "name", or "all", or columnIdentifier isn't a
+   * column of the file.
+   *
+   * @param response_type - in this case, "error_bad_request"
+   * @param searchType - the search type the user asked for
+   */
+  public record ColIDScanFailureResponse(String response_type, String searchType) {
+
+    /**
+     * Constructor for the failure response.
+     *
+     * @param searchType - the search type the user asked for
+     */
+    public ColIDScanFailureResponse(String searchType) {
+      this("error_bad_request: enter 'index', 'all', or 'name' for your searchType, and a column"
+          + " index or header name in the file for columnIdentifier", searchType);
+    }
+
+    /**
+     * Returns the failure response as a json.
+     *
+     * @return this response, serialized as Json
+     */
+    byte[] serialize() {
+      return ResponseSerializer.serialize(this);
+    }
+  }
+
+  /**
+   * Failure response if the user asks for a format that doesn't exist or can't be streamed.
+   *
+   * @param response_type - in this case, "error_bad_request"
+   * @param format - the format the user asked for
+   */
+  public record FormatScanFailureResponse(String response_type, String format) {
+
+    /**
+     * Constructor for the failure response.
+     *
+     * @param format - the format the user asked for
+     */
+    public FormatScanFailureResponse(String format) {
+      this("error_bad_request: format must be 'json', 'ndjson', 'csv', 'binary', 'arrow', or "
+          + "'arrow-stream' when scanning",
+          format);
+    }
+
+    /**
+     * Returns the failure response as a json.
+     *
+     * @return this response, serialized as Json
+     */
+    byte[] serialize() {
+      return ResponseSerializer.serialize(this);
+    }
+  }
+
+  /**
+   * Failure response if the user asks for a field the file doesn't have.
+   *
+   * @param response_type - in this case, "error_bad_request"
+   * @param fields - the fields the user asked for
+   */
+  public record FieldsScanFailureResponse(String response_type, String fields) {
+
+    /**
+     * Constructor for the failure response.
+     *
+     * @param fields - the fields the user asked for
+     */
+    public FieldsScanFailureResponse(String fields) {
+      this("error_bad_request: fields must be a comma separated list of header names or column"
+          + " indexes in the file", fields);
+    }
+
+    /**
+     * Returns the failure response as a json.
+     *
+     * @return this response, serialized as Json
+     */
+    byte[] serialize() {
+      return ResponseSerializer.serialize(this);
+    }
+  }
+
+  /**
+   * Failure response if the file to scan can't be found in the data/ folder.
+   *
+   * @param response_type - in this case, "error_datasource"
+   * @param filepath - the filepath the user asked to scan
+   */
+  public record FileNotFoundScanFailureResponse(String response_type, String filepath) {
+
+    /**
+     * Constructor for the failure response.
+     *
+     * @param filepath - the filepath the user asked to scan
+     */
+    public FileNotFoundScanFailureResponse(String filepath) {
+      this("error_datasource: make sure your csv's filepath is correct and within the data/ folder",
+          filepath);
+    }
+
+    /**
+     * Returns the failure response as a json.
+     *
+     * @return this response, serialized as Json
+     */
+    byte[] serialize() {
+      return ResponseSerializer.serialize(this);
+    }
+  }
+
+  /**
+   * Failure response if the file can't be read before any results have been sent.
+   *
+   * @param response_type - in this case, "error_datasource"
+   * @param filepath - the filepath the user asked to scan
+   */
+  public record IOScanFailureResponse(String response_type, String filepath) {
+
+    /**
+     * Constructor for the failure response.
+     *
+     * @param filepath - the filepath the user asked to scan
+     */
+    public IOScanFailureResponse(String filepath) {
+      this("error_datasource: the csv couldn't be read", filepath);
+    }
+
+    /**
+     * Returns the failure response as a json.
+     *
+     * @return this response, serialized as Json
+     */
+    byte[] serialize() {
+      return ResponseSerializer.serialize(this);
+    }
+  }
+}
@@ -0,0 +1,104 @@
+package edu.brown.cs.student.main.server.main;
+
+import java.util.List;
+
+/**
+ * SearchBackend is what runs the searches of a loaded csv. Each load picks one with loadcsv's
+ * backend query param, and CSVDataset hands every search to it:
+ *
+ * <ul>
+ *   <li>scan (the default) - the dataset's SearchPlanner, which scans the rows or uses the column
+ *       indexes of its ColumnStore
+ *   <li>lucene - an embedded Lucene index of the rows (see LuceneBackend), which can also run
+ *       full-text, prefix and fuzzy searches
+ *   <li>sql - a table of the rows in an embedded H2 database (see SqlBackend), searched with SQL
+ *       queries on columns it indexes as they're searched, which the dataset reads its rows back
+ *       from instead of keeping them in memory
+ * </ul>
+ *
+ * <p>A backend that can't run a kind of search throws UnsupportedOperationException when asked to
+ * plan one.
+ */
+public interface SearchBackend {
+
+  /** The names loadcsv's backend query param takes, the default first. */
+  List<String> NAMES = List.of("scan", "lucene", "sql");
+
+  /** The kinds of search a backend can be asked for. */
+  enum Kind {
+    /** Rows with a value, ignoring case, in a column or any column. */
+    EQUALS,
+    /** Rows with a number between min and max (including both) in a column. */
+    RANGE,
+    /** Rows with every word of the value in a column, or in any column. */
+    TEXT,
+    /** Rows with a word starting with the value in a column, or in any column. */
+    PREFIX,
+    /** Rows with a word at most edits changes away from the value in a column, or any column. */
+    FUZZY
+  }
+
+  /**
+   * One search.
+   *
+   * @param kind - the kind of search
+   * @param column - index of the column to search, or -1 for every column
+   * @param value - the value, words, prefix or word to look for; unused by range searches
+   * @param min - the smallest number to match, for range searches
+   * @param max - the biggest number to match, for range searches
+   * @param edits - how many letters can be added, removed or changed, for fuzzy searches
+   */
+  record Query(Kind kind, int column, String value, double min, double max, int edits) {
+
+    /**
+     * @param kind - EQUALS, TEXT or PREFIX
+     * @param column - index of the column to search, or -1 for every column
+     * @param value - what to look for
+     * @return the search
+     */
+    public static Query of(Kind kind, int column, String value) {
+      return new Query(kind, column, value, Double.NaN, Double.NaN, 0);
+    }
+
+    /**
+     * @param column - index of the column to search
+     * @param min - the smallest number to match
+     * @param max - the biggest number to match
+     * @return the range search
+     */
+    public static Query range(int column, double min, double max) {
+      return new Query(Kind.RANGE, column, null, min, max, 0);
+    }
+
+    /**
+     * @param column - index of the column to search, or -1 for every column
+     * @param value - the word to look for
+     * @param edits - how many letters can be added, removed or changed, from 0 to 2
+     * @return the fuzzy search
+     */
+    public static Query fuzzy(int column, String value, int edits) {
+      return new Query(Kind.FUZZY, column, value, Double.NaN, Double.NaN, edits);
+    }
+  }
+
+  /**
+   * @return the backend's name, one of NAMES
+   */
+  String name();
+
+  /**
+   * Plans a search without running it.
+   *
+   * @param query - the search
+   * @return the plan, which finds the matching rows in file order when it's run
+   * @throws UnsupportedOperationException if this backend can't run that kind of search
+   */
+  SearchPlanner.Plan plan(Query query);
+
+  /**
+   * Lets go of what the backend keeps open, like a connection to a database, once its dataset has
+   * been replaced. Searches of it still work after that, if more slowly. Backends with nothing to
+   * let go of do nothing.
+   */
+  default void release() {}
+}
@@ -1,7 +1,5 @@
 package edu.brown.cs.student.main.server.main;
 
-import com.squareup.moshi.JsonAdapter;
-import com.squareup.moshi.Moshi;
 import edu.brown.cs.student.main.csv.FactoryFailureException;
 
 import spark.Request;
@@ -10,65 +8,193 @@ import spark.Route;
 
 import java.io.FileNotFoundException;
 import java.io.IOException;
-import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ExecutionException;
 
 /**
  * SearchCSVHandler allows the user to search for a value in a pre-loaded csv file. This is through the handle method,
  * which handles the user's request, including query params for the search type, value to search for, and
  * column identifier (if applicable). This class is dependency injected with the LoadCSVHandler so that
  * our searcher can access the loaded csv data.
+ *
+ * <p>Matching rows are sent as nested json unless the user asks for another ResponseFormat with
+ * the format query param or an Accept header, with only the columns in the fields query param if
+ * there is one, and compressed for clients that accept it (see
+ * ResponseCompression).
+ *
+ * <p>searchType range finds the rows whose value in a column is a number between the min and max
+ * query params. Every search skips the blocks of rows the dataset's ZoneMap says can't match.
+ *
+ * <p>The optional sort query param sends the matching rows in order by some of the columns (see
+ * RowSort), and the optional limit query param only sends that many of them. With both, only the
+ * first limit rows in order are kept while sorting, in a bounded heap.
+ *
+ * <p>Each search is run the way the dataset's SearchPlanner thinks is cheapest: a scan, a
+ * parallel scan, or an index of the column. explain=true sends the plan instead of the rows, with
+ * the costs it weighed and how many rows it estimated and found.
+ *
+ * <p>searchType text, prefix and fuzzy find the rows with every word of searchVal, a word starting
+ * with it, or a word at most edits (0 to 2, default 2) letters off from it, in the column named
+ * by columnIdentifier or in any column if there isn't one. Only csvs loaded with backend=lucene
+ * can be searched these ways (see SearchBackend), and their other searches are run by Lucene too.
+ *
+ * <p>searchType global searches every column of every loaded csv for searchVal, not just the csv
+ * loaded last, with their partitions searched in parallel (see GlobalSearch). Matches are sent as
+ * json tagged with the name of the csv they're from, and at most limit (default 1000) of them
+ * are found; once that many are, the rest of the search is cancelled.
  */
 public class SearchCSVHandler implements Route {
 
   private final LoadCSVHandler loader;
+  private final ResponseCompression compression;
+  private final ResponseCache cache = new ResponseCache(256, 32L << 20);
 
   /**
-   * Constructor for the SearchCSVHandler.
+   * Constructor for the SearchCSVHandler that compresses with the default settings.
    *
    * @param loader - the LoadCSVHandler instantiated in Server.
    */
   public SearchCSVHandler(LoadCSVHandler loader){
+    this(loader, new ResponseCompression());
+  }
+
+  /**
+   * Constructor for the SearchCSVHandler.
+   *
+   * @param loader - the LoadCSVHandler instantiated in Server.
+   * @param compression - how to compress responses
+   */
+  public SearchCSVHandler(LoadCSVHandler loader, ResponseCompression compression){
     this.loader = loader;
+    this.compression = compression;
   }
 
   /**
    * Handles the user's request. Uses query params entered into the browser to call methods on the loader's
    * search methods, and then returns the results of the query as a success or failure response.
+   * Repeated searches against the same loaded csv are answered with a 304 if the user sends the
+   * ETag they got, or from the cache of recent results, without searching again.
    *
    * @param request - the user's request
    * @param response - allows us to return a response to the user
-   * @return a success or failure response as a json object, with the search results (if there are any).
+   * @return a success or failure response as json, with the search results (if there are any).
    */
   public Object handle(Request request, Response response){
     try {
+      if ("global".equalsIgnoreCase(request.queryParams("searchType"))) { // every csv, not one
+        return this.global(request);
+      }
+      CSVDataset dataset = this.loader.getDataset(); // the same snapshot is used for the whole search
+      ResponseFormat format;
+      try {
+        format = ResponseFormat.of(request);
+      } catch (IllegalArgumentException e) {
+        return new FormatSearchFailureResponse(request.queryParams("format")).serialize();
+      }
+      int[] columns;
+      try {
+        columns = dataset.columns(request.queryParams("fields"));
+      } catch (IllegalArgumentException e) {
+        return new FieldsSearchFailureResponse(request.queryParams("fields")).serialize();
+      }
+      List<RowSort.Key> sort;
+      int limit = Integer.MAX_VALUE;
+      try {
+        sort = RowSort.parse(request.queryParams("sort"), dataset.getHeaders(),
+            dataset.getZoneMap());
+        String limitParam = request.queryParams("limit");
+        if (limitParam != null) {
+          limit = Integer.parseInt(limitParam.trim());
+          if (limit < 1) {
+            throw new IllegalArgumentException("limit has to be positive");
+          }
+        }
+      } catch (IllegalArgumentException e) { // including a limit that isn't a number
+        return new SortSearchFailureResponse(request.queryParams("sort"),
+            request.queryParams("limit")).serialize();
+      }
+      ResponseCompression.Encoding encoding = this.compression.negotiate(request);
+      response.header("Vary", "Accept, Accept-Encoding");
+      if (dataset.getSample() != null) { // so every format shows the rows are only a sample
+        response.header("X-CSV-Sample", dataset.getSample().header());
+      }
+      // a plan can change as the csv is searched more, so explaining one is never cached
+      boolean explain = "true".equalsIgnoreCase(request.queryParams("explain"));
+      String etag = ResponseCache.etag(dataset.getVersion(), request, format + "|" + encoding);
+      if (!explain && ResponseCache.notModified(request, response, etag)) {
+        return "";
+      }
+      ResponseCache.Body cached = explain ? null : this.cache.get(etag);
+      if (cached != null) {
+        return cached.send(response, format.contentType());
+      }
+
       String searchType = request.queryParams("searchType");
       String searchVal = request.queryParams("searchVal");
-      Map<String, Map<String, String>> data;
+      SearchPlanner.Plan plan;
       if (searchType.equalsIgnoreCase("index")) { // if the user wants to search by col index
         try {
           int columnIdentifier = Integer.parseInt(request.queryParams("columnIdentifier"));
-          data = this.loader.searchByIndex(searchVal, columnIdentifier);
+          plan = dataset.planByIndex(searchVal, columnIdentifier);
         } catch (NumberFormatException e) { // if the user doesn't enter a number
           return new ColIDSearchFailureResponse(searchType).serialize();
         }
       } else if (searchType.equalsIgnoreCase("name")) { // if the user wants to search by col name
           String columnIdentifier = request.queryParams("columnIdentifier");
-          data = this.loader.searchByName(searchVal, columnIdentifier);
+          plan = dataset.planByName(searchVal, columnIdentifier);
+      } else if (searchType.equalsIgnoreCase("range")) { // if the user wants a range of numbers
+        String columnIdentifier = request.queryParams("columnIdentifier");
+        String min = request.queryParams("min");
+        String max = request.queryParams("max");
+        try {
+          double low = min == null ? Double.NEGATIVE_INFINITY : Double.parseDouble(min);
+          double high = max == null ? Double.POSITIVE_INFINITY : Double.parseDouble(max);
+          if (columnIdentifier == null || (min == null && max == null) || Double.isNaN(low)
+              || Double.isNaN(high)) {
+            return new RangeSearchFailureResponse(columnIdentifier, min, max).serialize();
+          }
+          plan = dataset.planByRange(columnIdentifier, low, high);
+        } catch (IllegalArgumentException e) { // not a number, or not a column of the csv
+          return new RangeSearchFailureResponse(columnIdentifier, min, max).serialize();
+        }
       } else if (searchType.equalsIgnoreCase("all")) { // if the user wants to search all cols
-          data = this.loader.searchAll(searchVal);
+          plan = dataset.planAll(searchVal);
+      } else if (searchType.equalsIgnoreCase("text") || searchType.equalsIgnoreCase("prefix")
+          || searchType.equalsIgnoreCase("fuzzy")) { // words, which only some backends can search
+        String columnIdentifier = request.queryParams("columnIdentifier");
+        String edits = request.queryParams("edits");
+        try {
+          int maxEdits = edits == null ? 2 : Integer.parseInt(edits.trim());
+          if (searchVal == null || maxEdits < 0 || maxEdits > 2) {
+            return new TextSearchFailureResponse(searchType, columnIdentifier, edits).serialize();
+          }
+          plan = dataset.planText(SearchBackend.Kind.valueOf(searchType.toUpperCase()), searchVal,
+              columnIdentifier == null || columnIdentifier.isBlank() ? null : columnIdentifier,
+              maxEdits);
+        } catch (UnsupportedOperationException e) {
+          return new BackendSearchFailureResponse(searchType, dataset.getBackend()).serialize();
+        } catch (IllegalArgumentException e) { // not a number, or not a column of the csv
+          return new TextSearchFailureResponse(searchType, columnIdentifier, edits).serialize();
+        }
       } else {
           return new ColIDSearchFailureResponse(searchType).serialize();
       }
-      if (data.isEmpty()) { // if there are no search results but no error, return empty results
-        return new SearchSuccessResponse(new HashMap<>()).serialize();
+      List<List<String>> data = plan.run();
+      if (explain) {
+        return new ExplainSearchResponse(plan.explain(data.size())).serialize();
       }
-      Moshi moshi = new Moshi.Builder().build();
-      JsonAdapter<Map> jsonAdapter = moshi.adapter(Map.class);
-      String jsonString = jsonAdapter.toJson(data); // converts search results to a json,
-      Map<String, Object> jsonObject = jsonAdapter.fromJson(jsonString); // then to a map
-
-      return new SearchSuccessResponse(jsonObject).serialize();
+      if (sort != null) {
+        data = RowSort.sort(data, sort, limit);
+      } else if (limit < data.size()) {
+        data = data.subList(0, limit);
+      }
+      // matching rows are encoded straight into the response, without building a map of them first
+      byte[] encoded =
+          format.encode(dataset.getHeaders(), data, columns, 1, dataset.responseFields());
+      ResponseCache.Body body = this.compression.encode(encoded, encoding);
+      this.cache.put(etag, body);
+      return body.send(response, format.contentType());
     } catch (FileNotFoundException e) {
       return new FileNotFoundSearchFailureResponse().serialize();
     } catch (FactoryFailureException e) {
@@ -79,33 +205,102 @@ public class SearchCSVHandler implements Route {
   }
 
   /**
-   * Success response that gets returned if the user successfully receives search results
-   * for their query.
+   * Searches every loaded csv for searchVal, for searchType=global.
+   *
+   * @param request - the user's request
+   * @return the matches, or a failure response
+   * @throws InterruptedException if the thread is interrupted while the csvs are searched
+   * @throws ExecutionException if searching one of the csvs threw something
+   */
+  private Object global(Request request) throws InterruptedException, ExecutionException {
+    String searchVal = request.queryParams("searchVal");
+    String limitParam = request.queryParams("limit");
+    int limit = GlobalSearch.DEFAULT_LIMIT;
+    try {
+      if (limitParam != null) {
+        limit = Integer.parseInt(limitParam.trim());
+      }
+    } catch (NumberFormatException e) {
+      limit = 0;
+    }
+    if (searchVal == null || limit < 1) {
+      return new GlobalSearchFailureResponse(searchVal, limitParam).serialize();
+    }
+    Map<String, CSVDataset> datasets = this.loader.getDatasets(); // held for the whole search
+    if (datasets.isEmpty()) {
+      return new FileNotFoundSearchFailureResponse().serialize();
+    }
+    GlobalSearch.Result result = GlobalSearch.search(datasets, searchVal, limit);
+    return new GlobalSearchResponse(searchVal, limit, List.copyOf(datasets.keySet()), result)
+        .serialize();
+  }
+
+  /**
+   * Response to searchType=global: the matching rows of every loaded csv, tagged with the csv
+   * they're from.
+   *
+   * @param response_type - in this case, "success"
+   * @param searchVal - the value searched for
+   * @param limit - the most matches the search would find
+   * @param datasets - the names of the csvs searched
+   * @param limit_reached - whether limit matches were found, so there may be more
+   * @param partitions - how many partitions of the csvs might have had a match
+   * @param partitions_cancelled - how many of them weren't searched to the end, once the limit
+   *     was reached
+   * @param data - the matching rows, with the name of the csv each is from
+   */
+  public record GlobalSearchResponse(String response_type, String searchVal, int limit,
+      List<String> datasets, boolean limit_reached, int partitions, int partitions_cancelled,
+      List<GlobalSearch.Match> data) {
+
+    /**
+     * Constructor for the response.
+     *
+     * @param searchVal - the value searched for
+     * @param limit - the most matches the search would find
+     * @param datasets - the names of the csvs searched
+     * @param result - what the search found
+     */
+    public GlobalSearchResponse(String searchVal, int limit, List<String> datasets,
+        GlobalSearch.Result result) {
+      this("success", searchVal, limit, datasets, result.limitReached(), result.partitions(),
+          result.cancelled(), result.matches());
+    }
+
+    /**
+     * Converts the response to a json to be returned.
+     *
+     * @return this response, serialized as Json
+     */
+    byte[] serialize() {
+      return ResponseSerializer.serialize(this);
+    }
+  }
+
+  /**
+   * Response to explain=true: how the search was run, instead of the rows it found.
    *
    * @param response_type - in this case, "success"
-   * @param data - the search results of the user's query
+   * @param plan - the search's plan, with its estimated and actual row counts
    */
-  public record SearchSuccessResponse(String response_type, Map<String, Object> data) {
+  public record ExplainSearchResponse(String response_type, SearchPlanner.Explain plan) {
 
     /**
-     * Constructor for the success response. Called if the user searches without errors.
+     * Constructor for the response.
      *
-     * @param data - the search results of the user's query
+     * @param plan - the search's plan, with its estimated and actual row counts
      */
-    public SearchSuccessResponse(Map<String, Object> data) {
-      this("success", data);
+    public ExplainSearchResponse(SearchPlanner.Explain plan) {
+      this("success", plan);
     }
 
     /**
-     * Converts the success response to a json to be returned.
+     * Converts the response to a json to be returned.
      *
-     * @return the json-formatted success response, as a string
+     * @return this response, serialized as Json
      */
-    public String serialize() {
-      Moshi moshi = new Moshi.Builder().build();
-      JsonAdapter<SearchSuccessResponse> adapter = moshi.adapter(
-              SearchSuccessResponse.class);
-      return adapter.toJson(this);
+    byte[] serialize() {
+      return ResponseSerializer.serialize(this);
     }
   }
 
@@ -127,9 +322,8 @@ public class SearchCSVHandler implements Route {
      * Converts the failure response to a json to be returned as a string
      * @return this response, serialized as Json
      */
-    String serialize() {
-      Moshi moshi = new Moshi.Builder().build();
-      return moshi.adapter(FileNotFoundSearchFailureResponse.class).toJson(this);
+    byte[] serialize() {
+      return ResponseSerializer.serialize(this);
     }
   }
 
@@ -155,9 +349,108 @@ public class SearchCSVHandler implements Route {
      *
      * @return this response, serialized as Json
      */
-    String serialize() {
-      Moshi moshi = new Moshi.Builder().build();
-      return moshi.adapter(ColIDSearchFailureResponse.class).toJson(this);
+    byte[] serialize() {
+      return ResponseSerializer.serialize(this);
+    }
+  }
+
+  /**
+   * Failure response if a range search doesn't have a column of the csv to search, or doesn't have
+   * a number for min or max.
+   *
+   * @param response_type - in this case, "error_bad_request"
+   * @param columnIdentifier - the column the user asked to search
+   * @param min - what the user sent for min
+   * @param max - what the user sent for max
+   */
+  public record RangeSearchFailureResponse(String response_type, String columnIdentifier,
+      String min, String max) {
+
+    /**
+     * Constructor for the failure response.
+     *
+     * @param columnIdentifier - the column the user asked to search
+     * @param min - what the user sent for min
+     * @param max - what the user sent for max
+     */
+    public RangeSearchFailureResponse(String columnIdentifier, String min, String max) {
+      this("error_bad_request: a range search needs a column name or index for columnIdentifier"
+          + " and a number for min, max, or both", columnIdentifier, min, max);
+    }
+
+    /**
+     * Returns the failure response as a json.
+     *
+     * @return this response, serialized as Json
+     */
+    byte[] serialize() {
+      return ResponseSerializer.serialize(this);
+    }
+  }
+
+  /**
+   * Failure response if a text, prefix or fuzzy search doesn't have a value to search for, has a
+   * column the csv doesn't have, or has edits that aren't 0, 1 or 2.
+   *
+   * @param response_type - in this case, "error_bad_request"
+   * @param searchType - the kind of search the user asked for
+   * @param columnIdentifier - the column the user asked to search
+   * @param edits - what the user sent for edits
+   */
+  public record TextSearchFailureResponse(String response_type, String searchType,
+      String columnIdentifier, String edits) {
+
+    /**
+     * Constructor for the failure response.
+     *
+     * @param searchType - the kind of search the user asked for
+     * @param columnIdentifier - the column the user asked to search
+     * @param edits - what the user sent for edits
+     */
+    public TextSearchFailureResponse(String searchType, String columnIdentifier, String edits) {
+      this("error_bad_request: a text, prefix or fuzzy search needs a searchVal, a column name or"
+          + " index for columnIdentifier (or none to search every column), and 0, 1 or 2 for"
+          + " edits", searchType, columnIdentifier, edits);
+    }
+
+    /**
+     * Returns the failure response as a json.
+     *
+     * @return this response, serialized as Json
+     */
+    byte[] serialize() {
+      return ResponseSerializer.serialize(this);
+    }
+  }
+
+  /**
+   * Failure response if the loaded csv's backend can't run the kind of search the user asked for.
+   *
+   * @param response_type - in this case, "error_bad_request"
+   * @param searchType - the kind of search the user asked for
+   * @param backend - the backend the csv was loaded with
+   */
+  public record BackendSearchFailureResponse(String response_type, String searchType,
+      String backend) {
+
+    /**
+     * Constructor for the failure response.
+     *
+     * @param searchType - the kind of search the user asked for
+     * @param backend - the backend the csv was loaded with
+     */
+    public BackendSearchFailureResponse(String searchType, String backend) {
+      this("error_bad_request: text, prefix and fuzzy searches need the csv loaded with"
+          + " backend=lucene", searchType, backend);
+    }
+
+    /**
+     * Returns the failure response as a json.
+     *
+     * @return this response, serialized as Json
+     */
+    byte[] serialize() {
+      return ResponseSerializer.serialize(this);
     }
   }
 
@@ -182,9 +475,122 @@ public class SearchCSVHandler implements Route {
      *
      * @return this response, serialized as Json
      */
-    String serialize() {
-      Moshi moshi = new Moshi.Builder().build();
-      return moshi.adapter(IOSearchFailureResponse.class).toJson(this);
+    byte[] serialize() {
+      return ResponseSerializer.serialize(this);
+    }
+  }
+
+  /**
+   * Failure response if a global search doesn't have a value to search for, or has a limit that
+   * isn't a positive number.
+   *
+   * @param response_type - in this case, "error_bad_request"
+   * @param searchVal - what the user sent for searchVal
+   * @param limit - what the user sent for limit
+   */
+  public record GlobalSearchFailureResponse(String response_type, String searchVal,
+      String limit) {
+
+    /**
+     * Constructor for the failure response.
+     *
+     * @param searchVal - what the user sent for searchVal
+     * @param limit - what the user sent for limit
+     */
+    public GlobalSearchFailureResponse(String searchVal, String limit) {
+      this("error_bad_request: a global search needs a searchVal, and limit a positive number",
+          searchVal, limit);
+    }
+
+    /**
+     * Returns the failure response as a json.
+     *
+     * @return this response, serialized as Json
+     */
+    byte[] serialize() {
+      return ResponseSerializer.serialize(this);
+    }
+  }
+
+  /**
+   * Failure response if the user asks to sort by a column the csv doesn't have, or for a limit
+   * that isn't a positive number.
+   *
+   * @param response_type - in this case, "error_bad_request"
+   * @param sort - the sort the user asked for
+   * @param limit - the limit the user asked for
+   */
+  public record SortSearchFailureResponse(String response_type, String sort, String limit) {
+
+    /**
+     * Constructor for the failure response.
+     */
+    public SortSearchFailureResponse(String sort, String limit) {
+      this("error_bad_request: sort must be a comma separated list of header names or column" +
+              " indexes in the loaded csv, each optionally followed by :asc or :desc and :number" +
+              " or :string, and limit a positive number", sort, limit);
+    }
+
+    /**
+     * Returns the failure response as a json.
+     *
+     * @return this response, serialized as Json
+     */
+    byte[] serialize() {
+      return ResponseSerializer.serialize(this);
+    }
+  }
+
+  /**
+   * Failure response if the user asks for a format that doesn't exist.
+   *
+   * @param response_type - in this case, "error_bad_request"
+   * @param format - the format the user asked for
+   */
+  public record FormatSearchFailureResponse(String response_type, String format) {
+
+    /**
+     * Constructor for the failure response.
+     */
+    public FormatSearchFailureResponse(String format) {
+      this("error_bad_request: format must be 'json', 'columnar', 'ndjson', 'csv', 'binary', "
+          + "'arrow', or 'arrow-stream'",
+          format);
+    }
+
+    /**
+     * Returns the failure response as a json.
+     *
+     * @return this response, serialized as Json
+     */
+    byte[] serialize() {
+      return ResponseSerializer.serialize(this);
+    }
+  }
+
+  /**
+   * Failure response if the user asks for a field the csv doesn't have.
+   *
+   * @param response_type - in this case, "error_bad_request"
+   * @param fields - the fields the user asked for
+   */
+  public record FieldsSearchFailureResponse(String response_type, String fields) {
+
+    /**
+     * Constructor for the failure response.
+     */
+    public FieldsSearchFailureResponse(String fields) {
+      this("error_bad_request: fields must be a comma separated list of header names or column" +
+              " indexes in the loaded csv", fields);
+    }
+
+    /**
+     * Returns the failure response as a json.
+     *
+     * @return this response, serialized as Json
+     */
+    byte[] serialize() {
+      return ResponseSerializer.serialize(this);
     }
   }
 
@@ -207,9 +613,8 @@ public class SearchCSVHandler implements Route {
      *
      * @return this response, serialized as Json
      */
-    String serialize() {
-      Moshi moshi = new Moshi.Builder().build();
-      return moshi.adapter(FactoryFailureSearchFailureResponse.class).toJson(this);
+    byte[] serialize() {
+      return ResponseSerializer.serialize(this);
     }
   }
 
@@ -0,0 +1,526 @@
+package edu.brown.cs.student.main.server.main;
+
+import edu.brown.cs.student.main.csv.Row;
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.RandomAccess;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.IntFunction;
+import java.util.function.IntPredicate;
+import java.util.function.Predicate;
+import java.util.function.Supplier;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+/**
+ * SearchPlanner picks the cheapest way to run each search of a dataset, from how many rows the
+ * search is estimated to match and how much work each way would be:
+ *
+ * <ul>
+ *   <li>scan - tests the rows of every block the ZoneMap says might have a match, sharing the pass
+ *       with any other searches going on (see SharedScan)
+ *   <li>parallel scan - the same blocks split over every core, when there's more than one, the
+ *       blocks have at least search.parallelRows rows (a system property, default 131072), and
+ *       no shared scan is going on already
+ *   <li>index - looks the value or range up in the column's postings or sorted numbers (see
+ *       ColumnStore), which only costs about as much as the rows it finds
+ * </ul>
+ *
+ * <p>How many rows a search matches is estimated from the sketches ZoneMap keeps of each column:
+ * a value's count if it's one of the column's most common values and an even share of the rest if
+ * not, and the share of the column's quantile sketch in a range. Costs are in rows tested. An
+ * index costs a few times the column's rows to build, so it's only built once the cost, spread
+ * over the searches of that column so far, is less than scanning would be; a column searched once
+ * is scanned, and one searched over and over gets indexed.
+ *
+ * <p>A search of every column tests each block's columns in order of how many rows they're
+ * estimated to match, most first, so a matching row is found with as few tests as can be, and
+ * leaves out the columns the block's Bloom filters say don't have the value. If every column has
+ * postings already, it takes the union of their rows instead.
+ *
+ * <p>SearchPlanner is the default SearchBackend, "scan". It only runs equals and range searches.
+ */
+public final class SearchPlanner implements SearchBackend {
+
+  static final int DEFAULT_PARALLEL_ROWS = 1 << 17;
+  // what building an index costs per row, in rows tested: reading the column as codes or
+  // numbers, then putting the postings together (sorting numbers costs log2 of the rows)
+  private static final double READ_COST = 2;
+  private static final double POSTINGS_COST = 1;
+
+  private final List<List<String>> rows;
+  private final List<String> headers;
+  private final ZoneMap zones;
+  private final ColumnStore store;
+  private final SharedScan sharedScan;
+  private final Map<String, AtomicInteger> searches = new ConcurrentHashMap<>();
+
+  /**
+   * What explain=true sends for a search: the plan, with every way that was considered and its
+   * cost, and how many rows it was estimated to and did match.
+   *
+   * @param search - the search, like "Race = 'White'"
+   * @param access - the way it was run: "scan", "parallel scan", "index", or "index union"
+   * @param columns - the columns tested or looked up, in order
+   * @param estimated_rows - how many rows it was estimated to match
+   * @param actual_rows - how many rows it did match
+   * @param blocks - how many blocks of rows the dataset has
+   * @param blocks_to_scan - how many of them the ZoneMap says might have a match
+   * @param rows_to_scan - how many rows those blocks have
+   * @param costs - the cost of each way considered, in rows tested
+   * @param index_built - whether an index was built for this search
+   * @param millis - how long running it took
+   */
+  public record Explain(String search, String access, List<String> columns, long estimated_rows,
+      long actual_rows, int blocks, int blocks_to_scan, long rows_to_scan, Map<String, Long> costs,
+      boolean index_built, double millis) {}
+
+  /**
+   * A planned search, ready to run.
+   */
+  public static final class Plan {
+    private final String search;
+    private final String access;
+    private final List<String> columns;
+    private final long estimated;
+    private final int blocks;
+    private final int blocksToScan;
+    private final long rowsToScan;
+    private final Map<String, Long> costs;
+    private final boolean building;
+    private final Supplier<List<List<String>>> run;
+    private long nanos;
+
+    private Plan(String search, String access, List<String> columns, long estimated, int blocks,
+        int[] candidates, long rowsToScan, Map<String, Long> costs, boolean building,
+        Supplier<List<List<String>>> run) {
+      this.search = search;
+      this.access = access;
+      this.columns = columns;
+      this.estimated = estimated;
+      this.blocks = blocks;
+      this.blocksToScan = candidates.length;
+      this.rowsToScan = rowsToScan;
+      this.costs = costs;
+      this.building = building;
+      this.run = run;
+    }
+
+    /**
+     * Constructor for a plan that doesn't scan any blocks, for other backends.
+     *
+     * @param search - the search, like "Race = 'White'"
+     * @param access - the way it's run
+     * @param columns - the columns looked up
+     * @param estimated - how many rows it's estimated to match
+     * @param blocks - how many blocks of rows the dataset has
+     * @param costs - the cost of each way considered
+     * @param building - whether running it builds an index
+     * @param run - runs the search, returning the matching rows in file order
+     */
+    Plan(String search, String access, List<String> columns, long estimated, int blocks,
+        Map<String, Long> costs, boolean building, Supplier<List<List<String>>> run) {
+      this(search, access, columns, estimated, blocks, new int[0], 0, costs, building, run);
+    }
+
+    /**
+     * Runs the search.
+     *
+     * @return the matching rows in file order
+     */
+    public List<List<String>> run() {
+      long start = System.nanoTime();
+      List<List<String>> matches = this.run.get();
+      this.nanos = System.nanoTime() - start;
+      return matches;
+    }
+
+    /**
+     * @return the way the search is run, like "scan"
+     */
+    public String access() {
+      return this.access;
+    }
+
+    /**
+     * @param actualRows - how many rows the search matched when it was run
+     * @return the plan, for explain=true
+     */
+    public Explain explain(long actualRows) {
+      return new Explain(this.search, this.access, this.columns, this.estimated, actualRows,
+          this.blocks, this.blocksToScan, this.rowsToScan, this.costs, this.building,
+          this.nanos / 1e6);
+    }
+  }
+
+  /**
+   * Constructor for SearchPlanner, called in CSVDataset.
+   *
+   * @param rows - the dataset's rows
+   * @param headers - the dataset's headers, or null if it has none
+   * @param zones - the dataset's statistics
+   * @param store - the dataset's columns and indexes
+   * @param sharedScan - the dataset's shared scan
+   */
+  SearchPlanner(List<List<String>> rows, List<String> headers, ZoneMap zones, ColumnStore store,
+      SharedScan sharedScan) {
+    this.rows = rows;
+    this.headers = headers;
+    this.zones = zones;
+    this.store = store;
+    this.sharedScan = sharedScan;
+  }
+
+  @Override
+  public String name() {
+    return "scan";
+  }
+
+  @Override
+  public Plan plan(Query query) {
+    return switch (query.kind()) {
+      case EQUALS -> query.column() < 0 ? this.any(query.value())
+          : this.equal(query.column(), query.value());
+      case RANGE -> this.between(query.column(), query.min(), query.max());
+      default -> throw new UnsupportedOperationException(
+          "the scan backend can't run " + query.kind() + " searches");
+    };
+  }
+
+  /**
+   * Plans a search for the rows with a value in a column, ignoring case.
+   *
+   * @param column - index of the column, which every row has
+   * @param value - the value
+   * @return the plan
+   */
+  Plan equal(int column, String value) {
+    long key = ZoneMap.key(value);
+    int[] candidates = this.candidates(block -> this.zones.mightContain(block, column, key));
+    long rowsToScan = this.rowsIn(candidates);
+    long estimated = Math.min(rowsToScan, this.zones.estimateEquals(column, value));
+    int searched = this.searched("=" + column);
+
+    Map<String, Long> costs = new LinkedHashMap<>();
+    costs.put("scan", rowsToScan);
+    boolean parallel = this.parallel(rowsToScan);
+    if (parallel) {
+      costs.put("parallel scan", this.parallelCost(rowsToScan, candidates.length));
+    }
+    boolean indexed = this.store.hasPostings(column);
+    double build = indexed ? 0 : this.rows.size()
+        * ((this.store.hasCodes(column) ? 0 : READ_COST) + POSTINGS_COST);
+    costs.put("index", Math.round(build / searched) + estimated + log2(this.rows.size()));
+
+    String access = cheapest(costs);
+    String search = this.label(column) + " = '" + value + "'";
+    List<String> columns = List.of(this.label(column));
+    Supplier<List<List<String>>> run = switch (access) {
+      case "index" -> () -> this.rowsAt(this.store.postings(column).find(value));
+      default -> this.scan(candidates, access.equals("parallel scan"),
+          block -> equalsMatcher(column, value));
+    };
+    return new Plan(search, access, columns, estimated, this.zones.blockCount(), candidates,
+        rowsToScan, costs, access.equals("index") && !indexed, run);
+  }
+
+  /**
+   * Plans a search for the rows with a value in any column, ignoring case.
+   *
+   * @param value - the value
+   * @return the plan
+   */
+  Plan any(String value) {
+    long key = ZoneMap.key(value);
+    int[] candidates = this.candidates(block -> this.zones.mightContainAnywhere(block, key));
+    long rowsToScan = this.rowsIn(candidates);
+    int width = this.zones.maxRowSize();
+    long[] estimates = new long[width];
+    List<Integer> order = new ArrayList<>();
+    long estimated = 0;
+    for (int column = 0; column < width; column++) {
+      estimates[column] = this.zones.estimateEquals(column, value);
+      estimated += estimates[column];
+      if (estimates[column] > 0 || value.isEmpty()) { // blanks from short rows aren't sketched
+        order.add(column);
+      }
+    }
+    // most likely to match first, so a matching row is found with as few tests as can be
+    order.sort((a, b) -> Long.compare(estimates[b], estimates[a]));
+    int[] columnOrder = order.stream().mapToInt(Integer::intValue).toArray();
+    estimated = Math.min(rowsToScan, estimated);
+
+    Map<String, Long> costs = new LinkedHashMap<>();
+    costs.put("scan", rowsToScan * Math.max(1, columnOrder.length));
+    boolean parallel = this.parallel(rowsToScan);
+    if (parallel) {
+      costs.put("parallel scan",
+          this.parallelCost(rowsToScan * Math.max(1, columnOrder.length), candidates.length));
+    }
+    // a short row has no blank for the columns it's missing, but postings say it does
+    boolean union = !value.isEmpty() && IntStream.range(0, width).allMatch(this.store::hasPostings);
+    if (union) {
+      costs.put("index union", estimated + (long) width * log2(this.rows.size()));
+    }
+
+    String access = cheapest(costs);
+    String search = "any column = '" + value + "'";
+    List<String> columns = order.stream().map(this::label).collect(Collectors.toList());
+    Supplier<List<List<String>>> run = switch (access) {
+      case "index union" -> () -> this.union(columnOrder, value);
+      default -> this.scan(candidates, access.equals("parallel scan"), block -> {
+        int[] mightHave = IntStream.of(columnOrder)
+            .filter(column -> this.zones.mightContain(block, column, key)).toArray();
+        return anyMatcher(mightHave, value);
+      });
+    };
+    return new Plan(search, access, columns, estimated, this.zones.blockCount(), candidates,
+        rowsToScan, costs, false, run);
+  }
+
+  /**
+   * Plans a search for the rows with a number between min and max (including both) in a column.
+   *
+   * @param column - index of the column
+   * @param min - the smallest number to match
+   * @param max - the biggest number to match
+   * @return the plan
+   */
+  Plan between(int column, double min, double max) {
+    int[] candidates = this.candidates(block -> this.zones.mightOverlap(block, column, min, max));
+    long rowsToScan = this.rowsIn(candidates);
+    long estimated = Math.min(rowsToScan, this.zones.estimateBetween(column, min, max));
+    int searched = this.searched("range" + column);
+
+    Map<String, Long> costs = new LinkedHashMap<>();
+    costs.put("scan", rowsToScan);
+    boolean parallel = this.parallel(rowsToScan);
+    if (parallel) {
+      costs.put("parallel scan", this.parallelCost(rowsToScan, candidates.length));
+    }
+    boolean indexed = this.store.hasSortedNumbers(column);
+    // a sort, after reading the numbers if they haven't been
+    double build = indexed ? 0 : this.rows.size()
+        * ((this.store.hasNumbers(column) ? 0 : READ_COST) + log2(this.rows.size()));
+    costs.put("index",
+        Math.round(build / searched) + estimated * log2(estimated) + 2L * log2(this.rows.size()));
+
+    String access = cheapest(costs);
+    String search = this.label(column) + " between " + min + " and " + max;
+    Supplier<List<List<String>>> run = switch (access) {
+      case "index" -> () -> this.rowsAt(this.store.sortedNumbers(column).between(min, max));
+      default -> this.scan(candidates, access.equals("parallel scan"), block -> {
+        char[] scratch = new char[ZoneMap.MAX_NUMBER_CHARS]; // one per block, for parallel scans
+        return row -> {
+          if (column >= row.size()) {
+            return false;
+          }
+          double number = ZoneMap.number(row, column, scratch);
+          return number >= min && number <= max; // false for NaN
+        };
+      });
+    };
+    return new Plan(search, access, List.of(this.label(column)), estimated,
+        this.zones.blockCount(), candidates, rowsToScan, costs, access.equals("index") && !indexed,
+        run);
+  }
+
+  /**
+   * @return how many searches of this kind there have been, counting this one
+   */
+  private int searched(String kind) {
+    return this.searches.computeIfAbsent(kind, k -> new AtomicInteger()).incrementAndGet();
+  }
+
+  private int[] candidates(IntPredicate blocks) {
+    return IntStream.range(0, this.zones.blockCount()).filter(blocks).toArray();
+  }
+
+  private long rowsIn(int[] blocks) {
+    long rows = 0;
+    for (int block : blocks) {
+      rows += this.zones.blockEnd(block) - this.zones.blockStart(block);
+    }
+    return rows;
+  }
+
+  private boolean parallel(long rowsToScan) {
+    return Runtime.getRuntime().availableProcessors() > 1
+        && rowsToScan >= Integer.getInteger("search.parallelRows", DEFAULT_PARALLEL_ROWS)
+        && !this.sharedScan.busy();
+  }
+
+  /**
+   * A parallel scan splits the rows over the cores, plus a little for each block handed out.
+   */
+  private long parallelCost(long scanCost, int blocks) {
+    return scanCost / Runtime.getRuntime().availableProcessors() + blocks;
+  }
+
+  /**
+   * Scans the candidate blocks, either shared with other searches or split over the cores.
+   *
+   * @param candidates - the blocks that might have a match, in order
+   * @param parallel - whether to split them over the cores
+   * @param matchers - the test for the rows of each block; a new one for each call
+   * @return the scan, to run later
+   */
+  private Supplier<List<List<String>>> scan(int[] candidates, boolean parallel,
+      IntFunction<Predicate<List<String>>> matchers) {
+    if (!parallel) {
+      boolean[] scanned = new boolean[this.zones.blockCount()];
+      for (int block : candidates) {
+        scanned[block] = true;
+      }
+      return () -> this.sharedScan.scan(block -> scanned[block] ? matchers.apply(block) : null);
+    }
+    return () -> {
+      List<List<List<String>>> found = IntStream.range(0, candidates.length).parallel()
+          .mapToObj(k -> {
+            int block = candidates[k];
+            Predicate<List<String>> matcher = matchers.apply(block);
+            List<List<String>> matches = new ArrayList<>();
+            for (int r = this.zones.blockStart(block); r < this.zones.blockEnd(block); r++) {
+              if (matcher.test(this.rows.get(r))) {
+                matches.add(this.rows.get(r));
+              }
+            }
+            return matches;
+          }).collect(Collectors.toList());
+      List<List<String>> matches = new ArrayList<>();
+      found.forEach(matches::addAll);
+      return Collections.unmodifiableList(matches);
+    };
+  }
+
+  /**
+   * The rows with a value in any of some columns, from their postings, merged into file order.
+   */
+  private List<List<String>> union(int[] columns, String value) {
+    boolean[] found = new boolean[this.rows.size()];
+    int count = 0;
+    for (int column : columns) {
+      for (int r : this.store.postings(column).find(value)) {
+        if (!found[r]) {
+          found[r] = true;
+          count++;
+        }
+      }
+    }
+    int[] matches = new int[count];
+    for (int r = 0, k = 0; k < count; r++) {
+      if (found[r]) {
+        matches[k++] = r;
+      }
+    }
+    return this.rowsAt(matches);
+  }
+
+  /**
+   * @return the rows at some indexes, without copying them
+   */
+  private List<List<String>> rowsAt(int[] indexes) {
+    return rowsAt(this.rows, indexes);
+  }
+
+  /**
+   * @param rows - a dataset's rows
+   * @param indexes - indexes of some of them
+   * @return the rows at the indexes, without copying them
+   */
+  static List<List<String>> rowsAt(List<List<String>> rows, int[] indexes) {
+    return new Rows(rows, indexes);
+  }
+
+  private String label(int column) {
+    return this.headers != null && column < this.headers.size() ? this.headers.get(column)
+        : Integer.toString(column);
+  }
+
+  private static Predicate<List<String>> equalsMatcher(int column, String value) {
+    return row -> column < row.size() && equalsIgnoreCase(row, column, value);
+  }
+
+  /**
+   * @param columns - the columns to test
+   * @param value - the value
+   * @return a test for whether a row has the value in any of the columns, ignoring case
+   */
+  static Predicate<List<String>> anyMatcher(int[] columns, String value) {
+    return row -> {
+      for (int column : columns) {
+        if (column < row.size() && equalsIgnoreCase(row, column, value)) {
+          return true;
+        }
+      }
+      return false;
+    };
+  }
+
+  /**
+   * Folds a value to one case, so two values are the same folded exactly when
+   * String.equalsIgnoreCase says they're equal, for backends that can only look values up exactly.
+   *
+   * @param value - the value
+   * @return the folded value
+   */
+  static String fold(String value) {
+    char[] chars = value.toCharArray();
+    for (int k = 0; k < chars.length; k++) {
+      chars[k] = Character.toLowerCase(Character.toUpperCase(chars[k]));
+    }
+    return new String(chars);
+  }
+
+  private static boolean equalsIgnoreCase(List<String> row, int column, String value) {
+    return row instanceof Row ? ((Row) row).fieldEqualsIgnoreCase(column, value)
+        : value.equalsIgnoreCase(row.get(column));
+  }
+
+  /**
+   * @return the cheapest way, or the first of the cheapest, so ties go to scanning
+   */
+  private static String cheapest(Map<String, Long> costs) {
+    String cheapest = null;
+    for (Map.Entry<String, Long> cost : costs.entrySet()) {
+      if (cheapest == null || cost.getValue() < costs.get(cheapest)) {
+        cheapest = cost.getKey();
+      }
+    }
+    return cheapest;
+  }
+
+  private static long log2(long n) {
+    return 64 - Long.numberOfLeadingZeros(Math.max(1, n));
+  }
+
+  /**
+   * Rows of a dataset at some indexes.
+   */
+  private static final class Rows extends AbstractList<List<String>> implements RandomAccess {
+    private final List<List<String>> rows;
+    private final int[] indexes;
+
+    Rows(List<List<String>> rows, int[] indexes) {
+      this.rows = rows;
+      this.indexes = indexes;
+    }
+
+    @Override
+    public List<String> get(int index) {
+      Objects.checkIndex(index, this.indexes.length);
+      return this.rows.get(this.indexes[index]);
+    }
+
+    @Override
+    public int size() {
+      return this.indexes.length;
+    }
+  }
+}
@@ -1,29 +1,42 @@
 package edu.brown.cs.student.main.server.main;
 
-import static spark.Spark.after;
+import static spark.Spark.before;
 
 import edu.brown.cs.student.main.server.datasource.ACSAPIDatasource;
 import spark.Spark;
 
 /**
- * Top-level class that holds our four handlers that allow the user to access the loadcsv,
- * viewcsv, searchcsv, and broadband endpoints.
+ * Top-level class that holds our handlers that allow the user to access the loadcsv,
+ * viewcsv, searchcsv, scancsv, and broadband endpoints.
  */
 public class Server {
   public static void main(String[] args)  {
     int port = 3434;
     Spark.port(port);
 
-    after((request, response) -> {
+    // set before the handlers run, since viewcsv streams its body and sends the headers early
+    before((request, response) -> {
       response.header("Access-Control-Allow-Origin", "*");
       response.header("Access-Control-Allow-Methods", "*");
     });
 
-    LoadCSVHandler loader = new LoadCSVHandler();
+    // e.g. -Dcompression.level=1 for faster, bigger responses, or 0 to turn compression off
+    ResponseCompression compression = new ResponseCompression(
+        Integer.getInteger("compression.level", ResponseCompression.DEFAULT_LEVEL),
+        Integer.getInteger("compression.minBytes", ResponseCompression.DEFAULT_MIN_BYTES));
+
+    // e.g. -Dreload.pollMillis=0 to stop watching the loaded csv's file for changes
+    LoadCSVHandler loader = new LoadCSVHandler(
+        Long.getLong("reload.pollMillis", CSVReloader.DEFAULT_POLL_MILLIS));
     ACSAPIDatasource acsapi = new ACSAPIDatasource();
     Spark.get("loadcsv", loader);
-    Spark.get("viewcsv", new ViewCSVHandler(loader));
-    Spark.get("searchcsv", new SearchCSVHandler(loader));
+    Spark.get("viewcsv", new ViewCSVHandler(loader, compression));
+    Spark.get("searchcsv", new SearchCSVHandler(loader, compression));
+    Spark.get("scancsv", new ScanCSVHandler(compression));
+    Spark.get("statscsv", new StatsCSVHandler(loader));
+    Spark.get("profilecsv", new ProfileCSVHandler(loader));
+    Spark.get("aggregatecsv", new AggregateCSVHandler(loader, compression));
+    Spark.get("joincsv", new JoinCSVHandler(loader, compression));
     Spark.get("broadband", new BroadBandHandler(acsapi));
 
     Spark.init();
@@ -0,0 +1,221 @@
+package edu.brown.cs.student.main.server.main;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.function.IntFunction;
+import java.util.function.Predicate;
+
+/**
+ * SharedScan runs the searches of one dataset that happen at the same time as one pass over its
+ * rows, instead of a pass each. Each row is read once and tested against every search that's
+ * scanning, and each search gets back its own matches.
+ *
+ * <p>The first search to arrive starts scanning. It waits scan.windowMillis (a system property,
+ * default 1) first, so a burst of searches can start together. A search that arrives while the
+ * scan is going joins it at the next block of rows, goes on to the end, wraps around to the first
+ * block, and is done when it's back to the block it joined at; its matches are put back in file
+ * order. Each search says which test to use for each block, or none for a block it can skip, so a
+ * block no search needs isn't read at all.
+ *
+ * <p>The scanning is done by the threads of the searches themselves, one at a time: the thread
+ * that's scanning keeps going until its own search is done, then hands over to a thread whose
+ * search isn't, so no search waits on a scan after its answer is ready.
+ */
+final class SharedScan {
+
+  static final long DEFAULT_WINDOW_MILLIS = 1;
+
+  private final List<List<String>> rows;
+  private final ZoneMap zones;
+  private final long windowNanos;
+  private final Object lock = new Object();
+  // guarded by lock
+  private final List<Query> joining = new ArrayList<>();
+  private boolean scanning;
+  // only used by the thread that's scanning
+  private final List<Query> active = new ArrayList<>();
+  private int block;
+
+  /**
+   * Constructor for SharedScan, called in CSVDataset.
+   *
+   * @param rows - the dataset's rows
+   * @param zones - the dataset's statistics, for which blocks to skip
+   */
+  SharedScan(List<List<String>> rows, ZoneMap zones) {
+    this.rows = rows;
+    this.zones = zones;
+    this.windowNanos = TimeUnit.MILLISECONDS.toNanos(
+        Math.max(0, Long.getLong("scan.windowMillis", DEFAULT_WINDOW_MILLIS)));
+  }
+
+  /**
+   * @return whether a scan is going on
+   */
+  boolean busy() {
+    synchronized (this.lock) {
+      return this.scanning;
+    }
+  }
+
+  /**
+   * Looks for matching rows, along with any other searches going on.
+   *
+   * @param matchers - the test for whether a row of a block is a match, for each block, or null
+   *     if the block can't have one; only used by one thread at a time
+   * @return the matching rows in file order
+   * @throws RuntimeException whatever a matcher threw, if one did
+   */
+  List<List<String>> scan(IntFunction<Predicate<List<String>>> matchers) {
+    if (this.zones.blockCount() == 0) {
+      return List.of();
+    }
+    Query query = new Query(matchers);
+    boolean interrupted = false;
+    boolean fresh;
+    synchronized (this.lock) {
+      this.joining.add(query);
+      while (!query.done && this.scanning) {
+        try {
+          this.lock.wait();
+        } catch (InterruptedException e) { // the scan has this search, so it still has to wait
+          interrupted = true;
+        }
+      }
+      if (query.done) {
+        if (interrupted) {
+          Thread.currentThread().interrupt();
+        }
+        return query.result();
+      }
+      this.scanning = true;
+      fresh = this.active.isEmpty();
+    }
+    try {
+      if (fresh && this.zones.blockCount() > 1) {
+        // nothing was scanning, so give other searches a moment to start with this one
+        long deadline = System.nanoTime() + this.windowNanos;
+        for (long wait = this.windowNanos; wait > 0; wait = deadline - System.nanoTime()) {
+          try {
+            TimeUnit.NANOSECONDS.sleep(wait);
+          } catch (InterruptedException e) {
+            interrupted = true;
+          }
+        }
+      }
+      while (!query.done) {
+        this.step();
+      }
+    } finally {
+      synchronized (this.lock) {
+        this.scanning = false;
+        this.lock.notifyAll(); // one of the waiting searches takes over, if any aren't done
+      }
+      if (interrupted) {
+        Thread.currentThread().interrupt();
+      }
+    }
+    return query.result();
+  }
+
+  /**
+   * Scans the next block for every search that's scanning, after letting the searches waiting to
+   * join in, and finishes the searches that have been through every block.
+   */
+  private void step() {
+    synchronized (this.lock) {
+      for (Query query : this.joining) {
+        query.start = this.block;
+        this.active.add(query);
+      }
+      this.joining.clear();
+    }
+    List<Query> wanting = new ArrayList<>(this.active.size());
+    for (Query query : this.active) {
+      if (this.block == 0) {
+        query.wrap = query.matches.size(); // the matches before here go after the rest
+      }
+      query.matcher = null;
+      if (query.error == null) {
+        try {
+          query.matcher = query.matchers.apply(this.block);
+        } catch (RuntimeException e) { // only fails the search it came from
+          query.error = e;
+        }
+      }
+      if (query.matcher != null) {
+        wanting.add(query);
+      }
+    }
+    if (!wanting.isEmpty()) {
+      for (int r = this.zones.blockStart(this.block); r < this.zones.blockEnd(this.block); r++) {
+        List<String> row = this.rows.get(r);
+        for (Query query : wanting) {
+          if (query.error != null) {
+            continue;
+          }
+          try {
+            if (query.matcher.test(row)) {
+              query.matches.add(row);
+            }
+          } catch (RuntimeException e) {
+            query.error = e;
+          }
+        }
+      }
+    }
+    this.block = (this.block + 1) % this.zones.blockCount();
+    List<Query> finished = new ArrayList<>();
+    for (Iterator<Query> it = this.active.iterator(); it.hasNext(); ) {
+      Query query = it.next();
+      if (query.start == this.block) {
+        it.remove();
+        finished.add(query);
+      }
+    }
+    if (!finished.isEmpty()) {
+      synchronized (this.lock) {
+        for (Query query : finished) {
+          query.done = true;
+        }
+        this.lock.notifyAll();
+      }
+    }
+  }
+
+  /**
+   * One search, and what it's found so far.
+   */
+  private static final class Query {
+    private final IntFunction<Predicate<List<String>>> matchers;
+    private Predicate<List<String>> matcher; // the current block's
+    private final List<List<String>> matches = new ArrayList<>();
+    private int start; // the block it joined at
+    private int wrap; // how many matches it had when the scan got back to the first block
+    private RuntimeException error;
+    private boolean done; // guarded by lock
+
+    Query(IntFunction<Predicate<List<String>>> matchers) {
+      this.matchers = matchers;
+    }
+
+    /**
+     * @return the matches in file order
+     */
+    List<List<String>> result() {
+      if (this.error != null) {
+        throw this.error;
+      }
+      if (this.wrap == 0) {
+        return Collections.unmodifiableList(this.matches);
+      }
+      List<List<String>> ordered = new ArrayList<>(this.matches.size());
+      ordered.addAll(this.matches.subList(this.wrap, this.matches.size()));
+      ordered.addAll(this.matches.subList(0, this.wrap));
+      return Collections.unmodifiableList(ordered);
+    }
+  }
+}
@@ -0,0 +1,608 @@
+package edu.brown.cs.student.main.server.main;
+
+import java.io.IOException;
+import java.lang.ref.Cleaner;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.sql.Types;
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.RandomAccess;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.stream.Stream;
+
+/**
+ * SqlBackend keeps the rows of a csv loaded with backend=sql in a table of an embedded H2
+ * database, and runs its searches as SQL queries against it. The table has a row for each of the
+ * csv's rows, with its index as the primary key and, for each column, the value, the value folded
+ * to one case (for equals searches) and the number it is, if it's one (for range searches). Rows
+ * are put in with batched prepared statements as the csv is loaded.
+ *
+ * <p>The dataset doesn't keep the rows in memory after that: its rows (see rows) are read back
+ * from the table a page at a time when they're viewed, aggregated or joined, and only the last
+ * few pages read are kept. So a csv loaded this way takes about the same memory however many rows
+ * it has, apart from while it's being parsed.
+ *
+ * <p>A column is indexed the first time it's searched, so each search after that is an index
+ * lookup in the database. Searches of every column are a union of one lookup per column. Matches
+ * come back in order with their values, so the results are exactly the rows the scan backend
+ * would find.
+ *
+ * <p>The database is kept in a file next to the dataset's index files (see IndexFiles), so loading
+ * the same csv again, even after a restart, uses the table and indexes that are there. When lines
+ * are added to the end of the csv's file, just the new rows are put in the table the version
+ * before it used, and each version only reads as many of the table's rows as it has. A table for
+ * an older version of the csv is dropped once nothing is using it. Without index files, or if the
+ * file can't be used, the database is in a temporary file that's deleted once nothing is using it.
+ *
+ * <p>A backend's connection to the database is closed once its dataset is replaced (see release).
+ * Anyone still reading the dataset's rows or searching it after that opens the database again.
+ */
+final class SqlBackend implements SearchBackend {
+
+  private static final int BATCH_ROWS = 1000;
+  private static final int FORMAT = 2; // part of each version, so older tables aren't used
+  private static final String TABLE_PREFIX = "CSV_ROWS_";
+  private static final Cleaner CLEANER = Cleaner.create();
+  // how many lists of rows use each table (as "url|table"), so a table is only dropped once none do
+  private static final Map<String, Integer> USING = new ConcurrentHashMap<>();
+
+  private final Rows rows;
+  private final List<String> headers;
+  private final ZoneMap zones;
+  private final int width;
+  private final Connection keeper; // keeps the database open until the dataset is replaced
+
+  /**
+   * The table a backend's rows are in.
+   *
+   * @param url - the database's url
+   * @param table - the table's name
+   * @param keeper - a connection that keeps the database open
+   * @param indexes - the table's index names, shared by every backend using the table
+   */
+  private record Stored(String url, String table, Connection keeper, Set<String> indexes) {}
+
+  /**
+   * Constructor for SqlBackend, which puts the rows in a table unless they're in one already.
+   * Called in CSVDataset, which reads its rows back from the table after this (see rows).
+   *
+   * @param rows - the dataset's rows, which are only read while they're put in the table
+   * @param headers - the dataset's headers, or null if it has none
+   * @param zones - the dataset's statistics, for estimating how many rows searches match
+   * @param files - where the dataset's index files are kept, or null if they're only in memory
+   * @param earlier - the backend of the version of the dataset these rows were appended to, or
+   *     null if they weren't
+   * @throws IOException if the rows can't be put in a table
+   */
+  SqlBackend(List<List<String>> rows, List<String> headers, ZoneMap zones, IndexFiles files,
+      SqlBackend earlier) throws IOException {
+    this.headers = headers;
+    this.zones = zones;
+    this.width = zones.maxRowSize();
+    String version =
+        files == null ? null : IndexFiles.hash(FORMAT + "|" + files.identity()).toUpperCase();
+    Stored stored = null;
+    if (earlier != null) {
+      try {
+        stored = this.append(rows, earlier, version);
+      } catch (SQLException e) {
+        stored = null; // like the earlier version's table being dropped; the rows go in a new one
+      }
+    }
+    if (stored == null && files != null) {
+      try {
+        Files.createDirectories(files.backendPath("sql"));
+        stored = this.store(rows,
+            "jdbc:h2:file:" + files.backendPath("sql").resolve("rows").toAbsolutePath(), version);
+      } catch (IOException | SQLException e) {
+        stored = null; // like the file being open in another server; the table goes in a temp one
+      }
+    }
+    Path temporary = null;
+    if (stored == null) {
+      try {
+        temporary = Files.createTempDirectory("csv-sql");
+        // in case the server stops first; files are deleted the other way around, after H2 closes
+        temporary.toFile().deleteOnExit();
+        temporary.resolve("rows.mv.db").toFile().deleteOnExit();
+        stored = this.store(rows,
+            "jdbc:h2:file:" + temporary.resolve("rows").toAbsolutePath(), null);
+      } catch (IOException | SQLException e) {
+        if (temporary != null) {
+          delete(temporary);
+        }
+        throw new IOException("the rows couldn't be put in a table", e);
+      }
+    }
+    this.keeper = stored.keeper();
+    this.rows = new Rows(stored.url(), stored.table(), rows.size(), this.width, stored.indexes());
+    // the table is kept until nothing reads the rows, which can be after the dataset's replaced
+    CLEANER.register(this.rows, new Release(stored.url() + "|" + stored.table(), this.keeper,
+        temporary));
+  }
+
+  /**
+   * Lets go of a table once the rows read from it are garbage collected.
+   *
+   * @param key - the table, as "url|table"
+   * @param keeper - the connection that kept the database open
+   * @param temporary - the directory of the database, if it's a temporary one, or null
+   */
+  private record Release(String key, Connection keeper, Path temporary) implements Runnable {
+    @Override
+    public void run() {
+      close(this.keeper);
+      Integer left = USING.computeIfPresent(this.key, (key, count) -> count == 1 ? null : count - 1);
+      if (left == null && this.temporary != null) {
+        delete(this.temporary); // nothing has it open anymore, so the database has closed
+      }
+    }
+  }
+
+  /**
+   * @return the dataset's rows, read from the table as they're asked for
+   */
+  List<List<String>> rows() {
+    return this.rows;
+  }
+
+  /**
+   * Opens a database and puts the rows in a new table of it, unless they're already in one. Only
+   * finding or making the table is done one load at a time, so two loads of the same csv don't
+   * make its table at once and no table is dropped while it's being made; the rows are put in
+   * after that.
+   *
+   * @param rows - the rows
+   * @param url - the database's url
+   * @param version - what identifies the version of the csv the rows are, or null if the database
+   *     is a temporary one
+   * @return the table
+   * @throws SQLException if the database can't be used, or another load is making the table
+   */
+  private Stored store(List<List<String>> rows, String url, String version) throws SQLException {
+    Connection connection = DriverManager.getConnection(url);
+    String table = null;
+    boolean using = false; // whether the table's counted in USING
+    try {
+      synchronized (SqlBackend.class) {
+        try (Statement statement = connection.createStatement()) {
+          statement.execute("CREATE TABLE IF NOT EXISTS CSV_VERSIONS("
+              + "VERSION VARCHAR PRIMARY KEY, TABLE_NAME VARCHAR)");
+          String loaded = version == null ? null : this.tableOf(connection, version);
+          if (loaded != null) {
+            table = loaded;
+            USING.merge(url + "|" + table, 1, Integer::sum);
+            using = true;
+            return new Stored(url, table, connection, this.indexesOf(connection, table));
+          }
+          table = TABLE_PREFIX + (version == null ? "0" : version);
+          if (USING.containsKey(url + "|" + table)) {
+            throw new SQLException("another load is putting the rows in " + table);
+          }
+          // tables nothing is using, like ones from before the csv changed, aren't needed anymore
+          for (String old : this.tables(connection)) {
+            if (!USING.containsKey(url + "|" + old)) {
+              statement.execute("DROP TABLE " + old);
+              statement.execute("DELETE FROM CSV_VERSIONS WHERE TABLE_NAME = '" + old + "'");
+            }
+          }
+          StringBuilder columns = new StringBuilder("ID INT PRIMARY KEY");
+          for (int column = 0; column < this.width; column++) {
+            columns.append(", V").append(column).append(" VARCHAR, F").append(column)
+                .append(" VARCHAR, N").append(column).append(" DOUBLE PRECISION");
+          }
+          statement.execute("CREATE TABLE " + table + "(" + columns + ")");
+          USING.merge(url + "|" + table, 1, Integer::sum);
+          using = true;
+        }
+      }
+      this.insert(connection, table, rows, 0);
+      if (version != null) {
+        this.record(connection, version, table);
+      }
+      return new Stored(url, table, connection, ConcurrentHashMap.newKeySet());
+    } catch (SQLException e) {
+      if (using) {
+        String key = url + "|" + table;
+        USING.computeIfPresent(key, (k, count) -> count == 1 ? null : count - 1);
+      }
+      connection.close();
+      throw e;
+    }
+  }
+
+  /**
+   * Puts the rows appended to an earlier version's rows in its table.
+   *
+   * @param rows - the earlier version's rows followed by the new ones
+   * @param earlier - the backend of the version these rows were appended to
+   * @param version - what identifies this version of the csv, or null if the database is a
+   *     temporary one
+   * @return the table, or null if the earlier version's table can't have rows added to it
+   * @throws SQLException if the table can't be used
+   */
+  private Stored append(List<List<String>> rows, SqlBackend earlier, String version)
+      throws SQLException {
+    if (this.width != earlier.width) {
+      return null; // the table doesn't have the new rows' columns
+    }
+    Connection connection = DriverManager.getConnection(earlier.rows.url);
+    String key = earlier.rows.url + "|" + earlier.rows.table;
+    USING.merge(key, 1, Integer::sum);
+    try {
+      // rows past the earlier version's were put in for a version that was never loaded
+      try (Statement statement = connection.createStatement();
+          ResultSet results =
+              statement.executeQuery("SELECT COUNT(*) FROM " + earlier.rows.table)) {
+        if (!results.next() || results.getLong(1) != earlier.rows.size()) {
+          USING.computeIfPresent(key, (k, count) -> count == 1 ? null : count - 1);
+          connection.close();
+          return null;
+        }
+      }
+      this.insert(connection, earlier.rows.table, rows, earlier.rows.size());
+      if (version != null) {
+        this.record(connection, version, earlier.rows.table);
+      }
+      return new Stored(earlier.rows.url, earlier.rows.table, connection, earlier.rows.indexes);
+    } catch (SQLException e) {
+      USING.computeIfPresent(key, (k, count) -> count == 1 ? null : count - 1);
+      connection.close();
+      throw e;
+    }
+  }
+
+  /**
+   * Puts the rows from one on in the table, a batch at a time.
+   */
+  private void insert(Connection connection, String table, List<List<String>> rows, int from)
+      throws SQLException {
+    connection.setAutoCommit(false);
+    try (PreparedStatement insert = connection.prepareStatement(
+        "INSERT INTO " + table + " VALUES (?" + ", ?, ?, ?".repeat(this.width) + ")")) {
+      char[] scratch = new char[ZoneMap.MAX_NUMBER_CHARS];
+      for (int r = from; r < rows.size(); r++) {
+        List<String> row = rows.get(r);
+        insert.setInt(1, r);
+        for (int column = 0; column < this.width; column++) {
+          double number = column < row.size() ? ZoneMap.number(row, column, scratch) : Double.NaN;
+          if (column < row.size()) {
+            insert.setString(2 + 3 * column, row.get(column));
+            insert.setString(3 + 3 * column, SearchPlanner.fold(row.get(column)));
+          } else { // a short row doesn't have the column, which is different from a blank
+            insert.setNull(2 + 3 * column, Types.VARCHAR);
+            insert.setNull(3 + 3 * column, Types.VARCHAR);
+          }
+          if (Double.isNaN(number)) {
+            insert.setNull(4 + 3 * column, Types.DOUBLE);
+          } else {
+            insert.setDouble(4 + 3 * column, number + 0.0); // so -0.0 is 0.0
+          }
+        }
+        insert.addBatch();
+        if ((r + 1 - from) % BATCH_ROWS == 0) {
+          insert.executeBatch();
+          connection.commit();
+        }
+      }
+      insert.executeBatch();
+      connection.commit();
+    } finally {
+      connection.setAutoCommit(true);
+    }
+  }
+
+  /**
+   * Remembers which table a version of the csv's rows are in, once they've all been put in it.
+   */
+  private void record(Connection connection, String version, String table) throws SQLException {
+    try (PreparedStatement merge = connection.prepareStatement(
+        "MERGE INTO CSV_VERSIONS KEY(VERSION) VALUES (?, ?)")) {
+      merge.setString(1, version);
+      merge.setString(2, table);
+      merge.executeUpdate();
+    }
+  }
+
+  /**
+   * @return the table a version of the csv's rows were all put in, or null if there isn't one
+   */
+  private String tableOf(Connection connection, String version) throws SQLException {
+    try (PreparedStatement select = connection.prepareStatement(
+        "SELECT TABLE_NAME FROM CSV_VERSIONS WHERE VERSION = ?")) {
+      select.setString(1, version);
+      try (ResultSet results = select.executeQuery()) {
+        return results.next() ? results.getString(1) : null;
+      }
+    }
+  }
+
+  /**
+   * @return the names of a table's indexes
+   */
+  private Set<String> indexesOf(Connection connection, String table) throws SQLException {
+    Set<String> indexes = ConcurrentHashMap.newKeySet();
+    try (PreparedStatement select = connection.prepareStatement(
+        "SELECT INDEX_NAME FROM INFORMATION_SCHEMA.INDEXES WHERE TABLE_NAME = ?")) {
+      select.setString(1, table);
+      try (ResultSet results = select.executeQuery()) {
+        while (results.next()) {
+          indexes.add(results.getString(1));
+        }
+      }
+    }
+    return indexes;
+  }
+
+  /**
+   * @return the names of the tables of rows in the database
+   */
+  private List<String> tables(Connection connection) throws SQLException {
+    List<String> tables = new ArrayList<>();
+    try (PreparedStatement select = connection.prepareStatement(
+        "SELECT TABLE_NAME FROM INFORMATION_SCHEMA.TABLES WHERE TABLE_NAME LIKE ?")) {
+      select.setString(1, TABLE_PREFIX + "%");
+      try (ResultSet results = select.executeQuery()) {
+        while (results.next()) {
+          tables.add(results.getString(1));
+        }
+      }
+    }
+    return tables;
+  }
+
+  @Override
+  public String name() {
+    return "sql";
+  }
+
+  @Override
+  public SearchPlanner.Plan plan(Query query) {
+    int column = query.column();
+    List<String> searched = new ArrayList<>(); // the table's columns the search looks up
+    List<Object> params = new ArrayList<>();
+    List<String> labels = new ArrayList<>();
+    String search;
+    long estimated;
+    // a column no row has, which is only a column at all if it's a header, has no table column
+    if (query.kind() == Kind.EQUALS && column >= 0) {
+      if (column < this.width) {
+        searched.add("F" + column);
+        params.add(SearchPlanner.fold(query.value()));
+      }
+      labels.add(this.label(column));
+      search = this.label(column) + " = '" + query.value() + "'";
+      estimated = this.zones.estimateEquals(column, query.value());
+    } else if (query.kind() == Kind.EQUALS) {
+      estimated = 0;
+      for (int k = 0; k < this.width; k++) {
+        searched.add("F" + k);
+        params.add(SearchPlanner.fold(query.value()));
+        labels.add(this.label(k));
+        estimated += this.zones.estimateEquals(k, query.value());
+      }
+      search = "any column = '" + query.value() + "'";
+    } else if (query.kind() == Kind.RANGE) {
+      if (column < this.width) {
+        searched.add("N" + column);
+        params.add(query.min() + 0.0); // -0.0 is 0.0 here too, the way it's stored
+        params.add(query.max() + 0.0);
+      }
+      labels.add(this.label(column));
+      search = this.label(column) + " between " + query.min() + " and " + query.max();
+      estimated = this.zones.estimateBetween(column, query.min(), query.max());
+    } else {
+      throw new UnsupportedOperationException(
+          "the sql backend can't run " + query.kind() + " searches");
+    }
+    // the table can have rows appended after this version's, which it doesn't search
+    String select = "SELECT " + Rows.columns(this.width) + " FROM " + this.rows.table
+        + " WHERE ID < " + this.rows.size();
+    String sql;
+    if (searched.isEmpty()) {
+      sql = select + " AND FALSE";
+    } else {
+      String test = query.kind() == Kind.RANGE ? " BETWEEN ? AND ?" : " = ?";
+      List<String> selects = new ArrayList<>();
+      for (String name : searched) {
+        selects.add(select + " AND " + name + test);
+      }
+      sql = String.join(" UNION ", selects) + " ORDER BY ID";
+    }
+    estimated = Math.min(estimated, this.rows.size());
+    boolean building =
+        searched.stream().anyMatch(name -> !this.rows.indexes.contains(this.index(name)));
+    return new SearchPlanner.Plan(search, "sql", labels, estimated, this.zones.blockCount(),
+        Map.of("sql", estimated), building, () -> this.run(searched, sql, params));
+  }
+
+  /**
+   * Closes the connection that keeps the database open. The table stays until nothing reads the
+   * dataset's rows anymore.
+   */
+  @Override
+  public void release() {
+    close(this.keeper);
+  }
+
+  /**
+   * Runs a search's query, after indexing the columns it looks up if they aren't yet.
+   *
+   * @return the matching rows, in file order
+   */
+  private List<List<String>> run(List<String> searched, String sql, List<Object> params) {
+    try (Connection connection = DriverManager.getConnection(this.rows.url)) {
+      for (String name : searched) {
+        String index = this.index(name);
+        if (!this.rows.indexes.contains(index)) {
+          synchronized (this.rows.indexes) { // so each index is only made once
+            if (!this.rows.indexes.contains(index)) {
+              try (Statement statement = connection.createStatement()) {
+                statement.execute("CREATE INDEX IF NOT EXISTS " + index + " ON "
+                    + this.rows.table + "(" + name + ")");
+              }
+              this.rows.indexes.add(index);
+            }
+          }
+        }
+      }
+      List<List<String>> matches = new ArrayList<>();
+      try (PreparedStatement select = connection.prepareStatement(sql)) {
+        for (int k = 0; k < params.size(); k++) {
+          select.setObject(k + 1, params.get(k));
+        }
+        try (ResultSet results = select.executeQuery()) {
+          while (results.next()) {
+            matches.add(Rows.row(results, this.width));
+          }
+        }
+      }
+      return Collections.unmodifiableList(matches);
+    } catch (SQLException e) {
+      throw new IllegalStateException("the table of rows couldn't be searched", e);
+    }
+  }
+
+  private String index(String column) {
+    return this.rows.table + "_" + column;
+  }
+
+  private String label(int column) {
+    return this.headers != null && column < this.headers.size() ? this.headers.get(column)
+        : Integer.toString(column);
+  }
+
+  private static void close(Connection connection) {
+    try {
+      connection.close();
+    } catch (SQLException e) {
+      // it's closed as much as it's going to be
+    }
+  }
+
+  private static void delete(Path directory) {
+    try (Stream<Path> files = Files.walk(directory)) {
+      for (Path file : files.sorted(Comparator.reverseOrder()).toList()) {
+        Files.deleteIfExists(file);
+      }
+    } catch (IOException e) {
+      // it's in the temporary directory, which gets cleaned up anyway
+    }
+  }
+
+  /**
+   * The rows of a dataset, read from its table a page at a time as they're asked for. The last
+   * pages read are kept, enough that threads each reading a different part of the rows, like a
+   * parallel scan does, don't keep reading each other's pages again.
+   */
+  private static final class Rows extends AbstractList<List<String>> implements RandomAccess {
+    private static final int PAGE_ROWS = 1024;
+    private static final int PAGES = Math.max(16, 4 * Runtime.getRuntime().availableProcessors());
+
+    private final String url;
+    private final String table;
+    private final int size;
+    private final int width;
+    private final Set<String> indexes; // the table's index names
+    private final Map<Integer, List<List<String>>> pages =
+        new LinkedHashMap<>(PAGES, 0.75f, true) {
+          @Override
+          protected boolean removeEldestEntry(Map.Entry<Integer, List<List<String>>> eldest) {
+            return this.size() > PAGES;
+          }
+        };
+
+    Rows(String url, String table, int size, int width, Set<String> indexes) {
+      this.url = url;
+      this.table = table;
+      this.size = size;
+      this.width = width;
+      this.indexes = indexes;
+    }
+
+    @Override
+    public List<String> get(int index) {
+      Objects.checkIndex(index, this.size);
+      int page = index / PAGE_ROWS;
+      List<List<String>> rows;
+      synchronized (this.pages) {
+        rows = this.pages.get(page);
+      }
+      if (rows == null) {
+        rows = this.read(page);
+        synchronized (this.pages) {
+          this.pages.put(page, rows);
+        }
+      }
+      return rows.get(index % PAGE_ROWS);
+    }
+
+    @Override
+    public int size() {
+      return this.size;
+    }
+
+    private List<List<String>> read(int page) {
+      int from = page * PAGE_ROWS;
+      int to = Math.min(this.size, from + PAGE_ROWS);
+      List<List<String>> rows = new ArrayList<>(to - from);
+      try (Connection connection = DriverManager.getConnection(this.url);
+          PreparedStatement select = connection.prepareStatement("SELECT "
+              + columns(this.width) + " FROM " + this.table + " WHERE ID >= ? AND ID < ?"
+              + " ORDER BY ID")) {
+        select.setInt(1, from);
+        select.setInt(2, to);
+        try (ResultSet results = select.executeQuery()) {
+          while (results.next()) {
+            rows.add(row(results, this.width));
+          }
+        }
+      } catch (SQLException e) {
+        throw new IllegalStateException("the rows couldn't be read from their table", e);
+      }
+      if (rows.size() != to - from) {
+        throw new IllegalStateException("the table is missing rows " + from + " to " + to);
+      }
+      return rows;
+    }
+
+    /**
+     * @return the table's columns a row is read from: its index, then its values
+     */
+    static String columns(int width) {
+      StringBuilder columns = new StringBuilder("ID");
+      for (int column = 0; column < width; column++) {
+        columns.append(", V").append(column);
+      }
+      return columns.toString();
+    }
+
+    /**
+     * @return the row the result set is on, selected with columns, ending at the first column
+     *     it doesn't have
+     */
+    static List<String> row(ResultSet results, int width) throws SQLException {
+      String[] values = new String[width];
+      int size = 0;
+      while (size < width && (values[size] = results.getString(2 + size)) != null) {
+        size++;
+      }
+      return List.of(Arrays.copyOf(values, size));
+    }
+  }
+}
@@ -0,0 +1,145 @@
+package edu.brown.cs.student.main.server.main;
+
+import java.util.List;
+import spark.Request;
+import spark.Response;
+import spark.Route;
+
+/**
+ * StatsCSVHandler sends the statistics worked out when the csv was loaded (see ZoneMap): for each
+ * column, how many values are empty and the smallest and biggest number in it, and, if the user
+ * sends blocks=true, the same for every block of rows along with how many distinct values each
+ * block has. This class is dependency injected with the LoadCSVHandler so that it can access the
+ * loaded csv.
+ *
+ * <p>Responses come with an ETag for the loaded csv's version, like viewcsv and searchcsv.
+ */
+public class StatsCSVHandler implements Route {
+
+  private final LoadCSVHandler loader;
+
+  /**
+   * Constructor for StatsCSVHandler, called in Server.
+   *
+   * @param loader - the LoadCSVHandler instantiated in Server
+   */
+  public StatsCSVHandler(LoadCSVHandler loader) {
+    this.loader = loader;
+  }
+
+  /**
+   * Handles the user's request, answering with the loaded csv's statistics.
+   *
+   * @param request - the user's request
+   * @param response - allows us to return a response to the user
+   * @return a success or failure response as json
+   */
+  public Object handle(Request request, Response response) {
+    CSVDataset dataset;
+    try {
+      dataset = this.loader.getDataset();
+    } catch (IllegalStateException e) {
+      return new StatsFailureResponse().serialize();
+    }
+    String blocks = request.queryParams("blocks");
+    if (blocks != null && !(blocks.equalsIgnoreCase("true") || blocks.equalsIgnoreCase("false"))) {
+      return new BlocksStatsFailureResponse(blocks).serialize();
+    }
+    String etag = ResponseCache.etag(dataset.getVersion(), request, "");
+    if (ResponseCache.notModified(request, response, etag)) {
+      return "";
+    }
+    ZoneMap zones = dataset.getZoneMap();
+    return new StatsSuccessResponse(dataset.getFilePath(), dataset.rowCount(), zones.blockRows(),
+        zones.columnStats(dataset.getHeaders()),
+        "true".equalsIgnoreCase(blocks) ? zones.blockStats() : null).serialize();
+  }
+
+  /**
+   * Success response with the loaded csv's statistics.
+   *
+   * @param response_type - in this case, "success"
+   * @param filepath - the file path the csv was loaded from
+   * @param rows - how many data rows the csv has
+   * @param blockRows - how many rows are in each block
+   * @param columns - statistics for each column
+   * @param blocks - statistics for each block, or null if the user didn't ask for them
+   */
+  public record StatsSuccessResponse(String response_type, String filepath, int rows,
+      int blockRows, List<ZoneMap.ColumnStats> columns, List<ZoneMap.BlockStats> blocks) {
+
+    /**
+     * Constructor for the success response.
+     *
+     * @param filepath - the file path the csv was loaded from
+     * @param rows - how many data rows the csv has
+     * @param blockRows - how many rows are in each block
+     * @param columns - statistics for each column
+     * @param blocks - statistics for each block, or null if the user didn't ask for them
+     */
+    public StatsSuccessResponse(String filepath, int rows, int blockRows,
+        List<ZoneMap.ColumnStats> columns, List<ZoneMap.BlockStats> blocks) {
+      this("success", filepath, rows, blockRows, columns, blocks);
+    }
+
+    /**
+     * Returns the success response as a json.
+     *
+     * @return this response, serialized as Json
+     */
+    byte[] serialize() {
+      return ResponseSerializer.serialize(this);
+    }
+  }
+
+  /**
+   * Failure response if the user asks for statistics before loading a csv.
+   *
+   * @param response_type - in this case, "error_datasource"
+   */
+  public record StatsFailureResponse(String response_type) {
+
+    /**
+     * Constructor for the failure response.
+     */
+    public StatsFailureResponse() {
+      this("error_datasource: make sure you loaded your csv properly before asking for its stats");
+    }
+
+    /**
+     * Returns the failure response as a json.
+     *
+     * @return this response, serialized as Json
+     */
+    byte[] serialize() {
+      return ResponseSerializer.serialize(this);
+    }
+  }
+
+  /**
+   * Failure response if blocks isn't "true" or "false".
+   *
+   * @param response_type - in this case, "error_bad_request"
+   * @param blocks - what the user sent for blocks
+   */
+  public record BlocksStatsFailureResponse(String response_type, String blocks) {
+
+    /**
+     * Constructor for the failure response.
+     *
+     * @param blocks - what the user sent for blocks
+     */
+    public BlocksStatsFailureResponse(String blocks) {
+      this("error_bad_request: enter true or false for blocks query param", blocks);
+    }
+
+    /**
+     * Returns the failure response as a json.
+     *
+     * @return this response, serialized as Json
+     */
+    byte[] serialize() {
+      return ResponseSerializer.serialize(this);
+    }
+  }
+}
@@ -0,0 +1,178 @@
+package edu.brown.cs.student.main.server.main;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.IntFunction;
+
+/**
+ * TopValues keeps the values seen most often, with how many times each was seen, in a summary of
+ * at most CAPACITY values, the way the space-saving algorithm does. Each block of rows is counted
+ * exactly and summarized by its most common values; summaries are then merged block by block.
+ * A value a summary dropped could still have been seen up to floor times, so every count is an
+ * upper bound and comes with how far over it could be.
+ *
+ * <p>Values are matched ignoring case, like searches, by the keys ZoneMap hashes them to, and are
+ * reported as they were first written.
+ */
+final class TopValues {
+
+  static final int CAPACITY = 64;
+
+  private final Map<Long, ZoneMap.TopValue> entries = new HashMap<>();
+  private long floor; // most times a value that isn't kept could have been seen
+
+  /**
+   * Summarizes exact counts, keeping the CAPACITY biggest.
+   *
+   * @param keys - key of each value
+   * @param counts - times each value was seen; values with a count of 0 are left out
+   * @param values - each value as it was first written; only looked up for the values kept
+   * @return the summary
+   */
+  static TopValues exact(long[] keys, int[] counts, IntFunction<String> values) {
+    // a min-heap of the biggest counts so far, as indexes; most values never get past its top
+    int[] heap = new int[CAPACITY];
+    int heapSize = 0;
+    long floor = 0;
+    for (int k = 0; k < counts.length; k++) {
+      if (counts[k] == 0) {
+        continue;
+      }
+      if (heapSize < heap.length) {
+        heap[heapSize++] = k;
+        siftUp(heap, heapSize - 1, counts);
+      } else if (counts[k] > counts[heap[0]]) {
+        floor = Math.max(floor, counts[heap[0]]);
+        heap[0] = k;
+        siftDown(heap, heapSize, counts);
+      } else {
+        floor = Math.max(floor, counts[k]);
+      }
+    }
+    TopValues top = new TopValues();
+    top.floor = floor;
+    for (int k = 0; k < heapSize; k++) {
+      int index = heap[k];
+      top.entries.put(keys[index], new ZoneMap.TopValue(values.apply(index), counts[index], 0));
+    }
+    return top;
+  }
+
+  private static void siftUp(int[] heap, int k, int[] counts) {
+    while (k > 0 && counts[heap[(k - 1) / 2]] > counts[heap[k]]) {
+      int parent = (k - 1) / 2;
+      int swap = heap[parent];
+      heap[parent] = heap[k];
+      heap[k] = swap;
+      k = parent;
+    }
+  }
+
+  private static void siftDown(int[] heap, int size, int[] counts) {
+    int k = 0;
+    while (2 * k + 1 < size) {
+      int child = 2 * k + 1;
+      if (child + 1 < size && counts[heap[child + 1]] < counts[heap[child]]) {
+        child++;
+      }
+      if (counts[heap[k]] <= counts[heap[child]]) {
+        return;
+      }
+      int swap = heap[child];
+      heap[child] = heap[k];
+      heap[k] = swap;
+      k = child;
+    }
+  }
+
+  /**
+   * @return a copy of this summary, which can be merged into without changing this one
+   */
+  TopValues copy() {
+    TopValues copy = new TopValues();
+    copy.entries.putAll(this.entries);
+    copy.floor = this.floor;
+    return copy;
+  }
+
+  /**
+   * Adds the values another summary has seen. A value only one of the two kept could have been
+   * seen up to the other's floor times too, so that's added to its count and its error.
+   *
+   * @param other - the other summary, which isn't changed
+   */
+  void merge(TopValues other) {
+    Map<Long, ZoneMap.TopValue> merged = new HashMap<>();
+    for (Map.Entry<Long, ZoneMap.TopValue> mine : this.entries.entrySet()) {
+      ZoneMap.TopValue theirs = other.entries.get(mine.getKey());
+      ZoneMap.TopValue entry = mine.getValue();
+      merged.put(mine.getKey(), theirs == null
+          ? new ZoneMap.TopValue(entry.value(), entry.count() + other.floor, entry.error() + other.floor)
+          : new ZoneMap.TopValue(entry.value(), entry.count() + theirs.count(),
+              entry.error() + theirs.error()));
+    }
+    for (Map.Entry<Long, ZoneMap.TopValue> theirs : other.entries.entrySet()) {
+      ZoneMap.TopValue entry = theirs.getValue();
+      merged.putIfAbsent(theirs.getKey(),
+          new ZoneMap.TopValue(entry.value(), entry.count() + this.floor, entry.error() + this.floor));
+    }
+    this.floor += other.floor;
+    this.entries.clear();
+    List<Map.Entry<Long, ZoneMap.TopValue>> sorted = new ArrayList<>(merged.entrySet());
+    sorted.sort((a, b) -> Long.compare(b.getValue().count(), a.getValue().count()));
+    for (int k = 0; k < sorted.size(); k++) {
+      if (k < CAPACITY) {
+        this.entries.put(sorted.get(k).getKey(), sorted.get(k).getValue());
+      } else {
+        this.floor = Math.max(this.floor, sorted.get(k).getValue().count());
+      }
+    }
+  }
+
+  /**
+   * @param count - most values to return, up to CAPACITY
+   * @return the most common values, most common first
+   */
+  List<ZoneMap.TopValue> top(int count) {
+    List<ZoneMap.TopValue> sorted = new ArrayList<>(this.entries.values());
+    sorted.sort((a, b) -> a.count() != b.count() ? Long.compare(b.count(), a.count())
+        : a.value().compareTo(b.value()));
+    return List.copyOf(sorted.subList(0, Math.min(count, sorted.size())));
+  }
+
+  /**
+   * @param key - a value's key, from ZoneMap.key
+   * @return the value's entry, or null if the summary didn't keep it
+   */
+  ZoneMap.TopValue get(long key) {
+    return this.entries.get(key);
+  }
+
+  /**
+   * @return how many values are kept
+   */
+  int size() {
+    return this.entries.size();
+  }
+
+  /**
+   * @return the most times a value that isn't kept could have been seen; 0 if every value seen
+   *     was kept
+   */
+  long floor() {
+    return this.floor;
+  }
+
+  /**
+   * @return the counts of the values kept, added up
+   */
+  long total() {
+    long total = 0;
+    for (ZoneMap.TopValue entry : this.entries.values()) {
+      total += entry.count();
+    }
+    return total;
+  }
+}
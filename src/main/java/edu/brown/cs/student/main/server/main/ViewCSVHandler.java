@@ -1,8 +1,10 @@
 package edu.brown.cs.student.main.server.main;
 
-import com.squareup.moshi.JsonAdapter;
-import com.squareup.moshi.Moshi;
-import java.util.Map;
+import java.io.IOException;
+import java.util.List;
+import javax.servlet.http.HttpServletResponse;
+import okio.BufferedSink;
+import okio.Okio;
 import spark.Request;
 import spark.Response;
 import spark.Route;
@@ -11,19 +13,49 @@ import spark.Route;
  * ViewCSVHandler allows the user to view a pre-loaded csv file. This is through the handle method,
  * which handles the user's request. This class is dependency injected with the LoadCSVHandler
  * so that viewcsv can access the loaded csv data.
+ *
+ * <p>Rows are streamed straight to the response's output stream as they are written, so the
+ * response is sent in chunks and memory use doesn't grow with the size of the csv. The optional
+ * page and pageSize query params only send one page of rows, and the optional fields query param
+ * only sends some of the columns. The optional sort query param sends the rows in order by some
+ * of the columns (see RowSort); a page of sorted rows only needs the rows up to the end of the
+ * page, so those are picked out with a bounded heap instead of sorting everything.
+ *
+ * <p>Rows are sent as nested json unless the user asks for another ResponseFormat with the format
+ * query param or an Accept header.
+ *
+ * <p>Bodies big enough to be worth it are gzipped or deflated on the way out for clients that send
+ * Accept-Encoding (see ResponseCompression).
+ *
+ * <p>Every response is tagged with an ETag for the loaded csv's version and the page asked for, so
+ * clients polling an unchanged csv get a 304 with no body. Pages small enough to cache are kept
+ * and sent again without rewriting them.
  */
 public class ViewCSVHandler implements Route {
 
   private LoadCSVHandler loader;
+  private final ResponseCompression compression;
+  private final ResponseCache cache = new ResponseCache(64, 32L << 20);
+
+  /**
+   * Constructor for ViewCSVHandler that compresses with the default settings.
+   *
+   * @param loader - the LoadCSVHandler instantiated in Server
+   */
+  public ViewCSVHandler(LoadCSVHandler loader) {
+    this(loader, new ResponseCompression());
+  }
 
   /**
    * Constructor for ViewCSVHandler, called in the server class when setting up
    * the viewcsv endpoint.
    *
    * @param loader - the LoadCSVHandler instantiated in Server
+   * @param compression - how to compress responses
    */
-  public ViewCSVHandler(LoadCSVHandler loader) {
+  public ViewCSVHandler(LoadCSVHandler loader, ResponseCompression compression) {
     this.loader = loader;
+    this.compression = compression;
   }
 
   /**
@@ -35,60 +67,274 @@ public class ViewCSVHandler implements Route {
    * @return - a success response or failure response
    */
   public Object handle(Request request, Response response) {
+    CSVDataset dataset;
+    ResponseFormat format;
+    int[] columns;
+    List<RowSort.Key> sort;
+    int start;
+    int end;
     try {
-      Map<String, Map<String, String>> objects = loader.viewMap(); // returns the data as a map from loader,
-      Moshi moshi = new Moshi.Builder().build();         // since all the parsed data is stored in loader
-      JsonAdapter<Map> jsonAdapter = moshi.adapter(Map.class);
-      String jsonString = jsonAdapter.toJson(objects);
-      Map<String, Object> jsonObject = jsonAdapter.fromJson(jsonString);
-      return new ViewSuccessResponse(jsonObject).serialize();
+      dataset = this.loader.getDataset(); // all the parsed data is stored in loader
+      int rowCount = dataset.rowCount();
+      start = 0;
+      end = rowCount;
+      String page = request.queryParams("page");
+      String pageSize = request.queryParams("pageSize");
+      if (page != null || pageSize != null) {
+        try {
+          int pageNum = Integer.parseInt(page);
+          int size = Integer.parseInt(pageSize);
+          if (pageNum < 1 || size < 1) {
+            return new PageViewFailureResponse(page, pageSize).serialize();
+          }
+          start = (int) Math.min(rowCount, (long) (pageNum - 1) * size);
+          end = (int) Math.min(rowCount, (long) start + size);
+        } catch (NumberFormatException e) { // if the user leaves one out or doesn't enter a number
+          return new PageViewFailureResponse(page, pageSize).serialize();
+        }
+      }
     } catch (Exception e) {
       return new ViewFailureResponse().serialize();
     }
+    try {
+      format = ResponseFormat.of(request);
+    } catch (IllegalArgumentException e) {
+      return new FormatViewFailureResponse(request.queryParams("format")).serialize();
+    }
+    try {
+      columns = dataset.columns(request.queryParams("fields"));
+    } catch (IllegalArgumentException e) {
+      return new FieldsViewFailureResponse(request.queryParams("fields")).serialize();
+    }
+    try {
+      sort = RowSort.parse(request.queryParams("sort"), dataset.getHeaders(), dataset.getZoneMap());
+    } catch (IllegalArgumentException e) {
+      return new SortViewFailureResponse(request.queryParams("sort")).serialize();
+    }
+
+    ResponseCompression.Encoding encoding = this.compression.negotiate(request);
+
+    response.header("Vary", "Accept, Accept-Encoding");
+    if (dataset.getSample() != null) { // so every format shows the rows are only a sample
+      response.header("X-CSV-Sample", dataset.getSample().header());
+    }
+    String etag = ResponseCache.etag(dataset.getVersion(), request, format + "|" + encoding);
+    if (ResponseCache.notModified(request, response, etag)) {
+      return "";
+    }
+    ResponseCache.Body cached = this.cache.get(etag);
+    if (cached != null) {
+      return cached.send(response, format.contentType());
+    }
+
+    List<? extends List<String>> rows = dataset.getRows();
+    if (sort != null) {
+      try {
+        rows = RowSort.sort(rows, sort, end); // only the rows up to the end of the page
+      } catch (IOException e) {
+        return new SortIOViewFailureResponse().serialize();
+      }
+    }
+    try {
+      this.streamView(response.raw(), dataset, rows, format, encoding, columns, start, end, etag);
+    } catch (IOException e) {
+      // the response is already committed at this point, so all we can do is stop writing
+    }
+    return "";
+  }
+
+  /**
+   * Writes the success response for rows start to end directly to the servlet output stream.
+   * No content length is set, so the server sends the body with chunked transfer encoding as the
+   * buffer fills up. The body is compressed as it's written if the client accepts it, and cached
+   * if it turns out small enough.
+   *
+   * @param raw - the underlying servlet response
+   * @param dataset - the loaded csv to write rows from
+   * @param rows - the dataset's rows, in the order to send them
+   * @param format - the format to write the rows in
+   * @param encoding - the compression the client accepts
+   * @param columns - the columns to send, or null for all of them
+   * @param start - index of the first row to send
+   * @param end - index after the last row to send
+   * @param etag - the tag to cache the body under
+   * @throws IOException if the client disconnects while rows are being written
+   */
+  private void streamView(HttpServletResponse raw, CSVDataset dataset,
+      List<? extends List<String>> rows, ResponseFormat format,
+      ResponseCompression.Encoding encoding, int[] columns, int start, int end, String etag)
+      throws IOException {
+    raw.setStatus(200);
+    raw.setContentType(format.contentType());
+    // the cache keeps the bytes as they're sent, so a cached body doesn't get compressed again
+    ResponseCache.CapturingOutputStream sent = this.cache.capture(etag, raw.getOutputStream());
+    ResponseCompression.CompressingOutputStream out = this.compression.wrap(raw, encoding, sent);
+    try (BufferedSink sink = Okio.buffer(Okio.sink(out))) {
+      // objects are numbered by their place in the order, so the numbers stay the same across pages
+      format.write(sink, dataset.getHeaders(), rows.subList(start, end), columns,
+          start + 1, dataset.responseFields());
+      sink.flush();
+      out.finish();
+      sent.commit(out.contentEncoding());
+    }
   }
 
   /**
-   * Success response if the user is able to view the csv.
+   * Failure response if the user is unable to view the csv. This happens because
+   * the file wasn't properly loaded.
    *
-   * @param response_type - in this case, "success"
-   * @param data - the csv data as a Map of String (object number) to its data
+   * @param response_type - in this case, "error_datasource"
    */
-  public record ViewSuccessResponse(String response_type, Map<String, Object> data) {
+  public record ViewFailureResponse(String response_type) {
 
     /**
-     * Constructor for the success response.
+     * Constructor for the failure response.
+     */
+    public ViewFailureResponse() {
+      this("error_datasource: make sure your csv is loaded properly before viewing");
+    }
+
+    /**
+     * Converts the failure response to a json to be returned.
      *
-     * @param data - the csv data as a Map of String (object number) to its data
+     * @return this response, serialized as Json
      */
-    public ViewSuccessResponse(Map<String, Object> data) {
-      this("success", data);
+    byte[] serialize() {
+      return ResponseSerializer.serialize(this);
+    }
+  }
+
+  /**
+   * Failure response if the user asks for a page of the csv but page or pageSize isn't a
+   * positive number.
+   *
+   * @param response_type - in this case, "error_bad_request"
+   * @param page - the page the user asked for
+   * @param pageSize - the page size the user asked for
+   */
+  public record PageViewFailureResponse(String response_type, String page, String pageSize) {
+
+    /**
+     * Constructor for the failure response.
+     *
+     * @param page - the page the user asked for
+     * @param pageSize - the page size the user asked for
+     */
+    public PageViewFailureResponse(String page, String pageSize) {
+      this("error_bad_request: enter positive numbers for both page and pageSize, or leave both"
+          + " out to view every row", page, pageSize);
     }
 
     /**
-     * Converts the success response to a json to be returned.
-     * @return
+     * Converts the failure response to a json to be returned.
+     *
+     * @return this response, serialized as Json
      */
-    public String serialize() {
-      Moshi moshi = new Moshi.Builder().build();
-      JsonAdapter<ViewCSVHandler.ViewSuccessResponse> adapter = moshi.adapter(
-          ViewCSVHandler.ViewSuccessResponse.class);
-      return adapter.toJson(this);
+    byte[] serialize() {
+      return ResponseSerializer.serialize(this);
     }
   }
 
   /**
-   * Failure response if the user is unable to view the csv. This happens because
-   * the file wasn't properly loaded.
+   * Failure response if the user asks for a format that doesn't exist.
+   *
+   * @param response_type - in this case, "error_bad_request"
+   * @param format - the format the user asked for
+   */
+  public record FormatViewFailureResponse(String response_type, String format) {
+
+    /**
+     * Constructor for the failure response.
+     *
+     * @param format - the format the user asked for
+     */
+    public FormatViewFailureResponse(String format) {
+      this("error_bad_request: format must be 'json', 'columnar', 'ndjson', 'csv', 'binary', "
+          + "'arrow', or 'arrow-stream'",
+          format);
+    }
+
+    /**
+     * Converts the failure response to a json to be returned.
+     *
+     * @return this response, serialized as Json
+     */
+    byte[] serialize() {
+      return ResponseSerializer.serialize(this);
+    }
+  }
+
+  /**
+   * Failure response if the user asks for a field the csv doesn't have.
+   *
+   * @param response_type - in this case, "error_bad_request"
+   * @param fields - the fields the user asked for
+   */
+  public record FieldsViewFailureResponse(String response_type, String fields) {
+
+    /**
+     * Constructor for the failure response.
+     *
+     * @param fields - the fields the user asked for
+     */
+    public FieldsViewFailureResponse(String fields) {
+      this("error_bad_request: fields must be a comma separated list of header names or column"
+          + " indexes in the loaded csv", fields);
+    }
+
+    /**
+     * Converts the failure response to a json to be returned.
+     *
+     * @return this response, serialized as Json
+     */
+    byte[] serialize() {
+      return ResponseSerializer.serialize(this);
+    }
+  }
+
+  /**
+   * Failure response if the user asks to sort by a column the csv doesn't have.
+   *
+   * @param response_type - in this case, "error_bad_request"
+   * @param sort - the sort the user asked for
+   */
+  public record SortViewFailureResponse(String response_type, String sort) {
+
+    /**
+     * Constructor for the failure response.
+     *
+     * @param sort - the sort the user asked for
+     */
+    public SortViewFailureResponse(String sort) {
+      this("error_bad_request: sort must be a comma separated list of header names or column"
+          + " indexes in the loaded csv, each optionally followed by :asc or :desc and :number or"
+          + " :string", sort);
+    }
+
+    /**
+     * Converts the failure response to a json to be returned.
+     *
+     * @return this response, serialized as Json
+     */
+    byte[] serialize() {
+      return ResponseSerializer.serialize(this);
+    }
+  }
+
+  /**
+   * Failure response if the rows are too many to sort in memory and the sorted runs can't be
+   * written to or read back from temp files.
    *
    * @param response_type - in this case, "error_datasource"
    */
-  public record ViewFailureResponse(String response_type) {
+  public record SortIOViewFailureResponse(String response_type) {
 
     /**
      * Constructor for the failure response.
      */
-    public ViewFailureResponse() {
-      this("error_datasource: make sure your csv is loaded properly before viewing");
+    public SortIOViewFailureResponse() {
+      this("error_datasource: the rows couldn't be sorted, since a temp file couldn't be written"
+          + " or read");
     }
 
     /**
@@ -96,9 +342,8 @@ public class ViewCSVHandler implements Route {
      *
      * @return this response, serialized as Json
      */
-    String serialize() {
-      Moshi moshi = new Moshi.Builder().build();
-      return moshi.adapter(ViewCSVHandler.ViewFailureResponse.class).toJson(this);
+    byte[] serialize() {
+      return ResponseSerializer.serialize(this);
     }
   }
 
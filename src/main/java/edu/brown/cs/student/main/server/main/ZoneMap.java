@@ -0,0 +1,742 @@
+package edu.brown.cs.student.main.server.main;
+
+import edu.brown.cs.student.main.csv.Row;
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.LongConsumer;
+import java.util.stream.IntStream;
+
+/**
+ * ZoneMap keeps statistics about each block of a dataset's rows, worked out once when the dataset
+ * is loaded: for every column of every block, how many of its values are empty, how many distinct
+ * values it has, the smallest and biggest number in it, and a small Bloom filter of its values.
+ * Searches use them to skip whole blocks that can't have a matching row -- a value the Bloom filter
+ * has never seen, or a range outside a block's smallest and biggest number -- and only look at the
+ * rows of the rest.
+ *
+ * <p>Values are put in the Bloom filters ignoring case, the same way searches compare them, so a
+ * filter never says a value isn't there when a search would have matched it. Start the server with
+ * -Dzonemap.blockRows=[rows] to change how many rows are in a block.
+ *
+ * <p>The same pass over each block also feeds a ColumnSketch of every column, with the keys and
+ * numbers it has already worked out: about how many distinct values the column has, its most
+ * common values, and its quantiles. They're merged into one for the dataset right away, so a
+ * profile of the dataset never has to look at its rows again.
+ */
+public final class ZoneMap {
+
+  static final int DEFAULT_BLOCK_ROWS = 4096;
+  private static final int BLOOM_BITS_PER_VALUE = 10; // about 1% false positives with 7 hashes
+  private static final int BLOOM_HASHES = 7;
+  static final int MAX_NUMBER_CHARS = 64; // longer values aren't read as numbers
+  private static final double[] POWERS_OF_TEN = {1e0, 1e1, 1e2, 1e3, 1e4, 1e5, 1e6, 1e7, 1e8,
+      1e9, 1e10, 1e11, 1e12, 1e13, 1e14, 1e15, 1e16, 1e17, 1e18, 1e19, 1e20, 1e21, 1e22};
+
+  private final int blockRows;
+  private final List<Block> blocks;
+  private final int minRowSize;
+  private final int maxRowSize;
+  private final ColumnSketch[] fullSketches; // merged over just the full blocks
+  private final ColumnSketch[] sketches; // merged over every block
+
+  /**
+   * Statistics for one column of the whole dataset, put together from its blocks.
+   *
+   * @param column - the column's header, or its index if the csv has no headers
+   * @param nulls - how many rows have the column empty or don't have it at all
+   * @param numeric - whether every value in the column is a number
+   * @param min - the smallest number in the column, or null if there are none
+   * @param max - the biggest number in the column, or null if there are none
+   */
+  public record ColumnStats(String column, long nulls, boolean numeric, Double min, Double max) {}
+
+  /**
+   * Statistics for one block of rows.
+   *
+   * @param firstRow - index of the block's first row, starting at 0 like viewcsv's rows
+   * @param rows - how many rows are in the block
+   * @param columns - statistics for each column in the block
+   */
+  public record BlockStats(int firstRow, int rows, List<BlockColumnStats> columns) {}
+
+  /**
+   * Statistics for one column of one block of rows.
+   *
+   * @param nulls - how many rows in the block have the column empty or don't have it at all
+   * @param distinct - how many different non-empty values the column has in the block, ignoring
+   *     case
+   * @param numeric - whether every value in the block's column is a number
+   * @param min - the smallest number in the block's column, or null if there are none
+   * @param max - the biggest number in the block's column, or null if there are none
+   * @param bloomBits - size of the block's Bloom filter for the column
+   */
+  public record BlockColumnStats(int nulls, int distinct, boolean numeric, Double min, Double max,
+      int bloomBits) {}
+
+  /**
+   * Approximate profile of one column of the whole dataset.
+   *
+   * @param column - the column's header, or its index if the csv has no headers
+   * @param distinct - about how many different non-empty values the column has, ignoring case
+   * @param nulls - how many rows have the column empty or don't have it at all
+   * @param top - the values seen most often, most often first
+   * @param quantiles - about the number that far through the column's numbers, for each quantile
+   *     asked for, or null if the column has no numbers
+   */
+  public record ColumnProfile(String column, long distinct, long nulls, List<TopValue> top,
+      Map<String, Double> quantiles) {}
+
+  /**
+   * One of a column's most common values.
+   *
+   * @param value - the value, as it was first written
+   * @param count - most times the value could be in the column
+   * @param error - how much more than the real count count could be; 0 if it's exact
+   */
+  public record TopValue(String value, long count, long error) {}
+
+  private ZoneMap(int blockRows, List<Block> blocks, ColumnSketch[] fullSketches,
+      ColumnSketch[] sketches) {
+    this.blockRows = blockRows;
+    this.blocks = blocks;
+    this.fullSketches = fullSketches;
+    this.sketches = sketches;
+    int min = Integer.MAX_VALUE;
+    int max = 0;
+    for (Block block : blocks) {
+      min = Math.min(min, block.minSize);
+      max = Math.max(max, block.maxSize);
+    }
+    this.minRowSize = min;
+    this.maxRowSize = max;
+  }
+
+  /**
+   * Works out the statistics for every block of rows.
+   *
+   * @param rows - the dataset's rows, not counting headers
+   * @param blockRows - how many rows to put in each block
+   * @return the statistics
+   */
+  static ZoneMap build(List<List<String>> rows, int blockRows) {
+    return build(rows, blockRows, null);
+  }
+
+  /**
+   * Works out the statistics for every block of rows, reusing the full blocks of an earlier
+   * ZoneMap. Used when rows are added to the end of a dataset, so only the new ones (and the
+   * partly full block they're added to) have to be looked at.
+   *
+   * @param rows - the dataset's rows, not counting headers
+   * @param blockRows - how many rows to put in each block
+   * @param earlier - statistics for the rows rows starts with, or null
+   * @return the statistics
+   */
+  static ZoneMap build(List<List<String>> rows, int blockRows, ZoneMap earlier) {
+    if (blockRows <= 0) {
+      throw new IllegalArgumentException("a block has to have at least one row");
+    }
+    List<Block> blocks = new ArrayList<>();
+    ColumnSketch[] full = new ColumnSketch[0];
+    if (earlier != null && earlier.blockRows == blockRows) {
+      for (Block block : earlier.blocks) {
+        if (block.rows == blockRows && block.first + block.rows <= rows.size()) {
+          blocks.add(block);
+        }
+      }
+      if (blocks.size() == earlier.blocks.stream().filter(b -> b.rows == blockRows).count()) {
+        full = merge(new ColumnSketch[0], earlier.fullSketches); // so they only have to be added to
+      } else { // rows doesn't start with all of earlier's, so nothing can be reused
+        blocks.clear();
+      }
+    }
+    int reused = blocks.size();
+    int count = (rows.size() + blockRows - 1) / blockRows;
+    // blocks don't depend on each other, so they're worked out on every core at once
+    List<Block> added = IntStream.range(reused, count).parallel()
+        .mapToObj(block -> new Block(rows, block * blockRows,
+            Math.min((block + 1) * blockRows, rows.size()), new KeyCounts(blockRows)))
+        .toList();
+    ColumnSketch[] partial = null;
+    for (Block block : added) {
+      if (block.rows == blockRows) {
+        full = merge(full, block.sketches);
+      } else {
+        partial = block.sketches;
+      }
+      block.sketches = null; // only the merged ones are kept
+      blocks.add(block);
+    }
+    ColumnSketch[] all = partial == null ? full : merge(merge(new ColumnSketch[0], full), partial);
+    return new ZoneMap(blockRows, Collections.unmodifiableList(blocks), full, all);
+  }
+
+  /**
+   * Merges sketches into others, column by column.
+   *
+   * @param into - sketches to merge into, which are changed
+   * @param from - sketches to merge, which aren't
+   * @return into, or a longer copy of it if from has more columns
+   */
+  private static ColumnSketch[] merge(ColumnSketch[] into, ColumnSketch[] from) {
+    if (from.length > into.length) {
+      into = Arrays.copyOf(into, from.length);
+    }
+    for (int column = 0; column < from.length; column++) {
+      if (into[column] == null) {
+        into[column] = from[column].copy();
+      } else {
+        into[column].merge(from[column]);
+      }
+    }
+    return into;
+  }
+
+  /**
+   * @return how many rows are in each block; the last one can have fewer
+   */
+  public int blockRows() {
+    return this.blockRows;
+  }
+
+  /**
+   * @return how many blocks the rows are split into
+   */
+  public int blockCount() {
+    return this.blocks.size();
+  }
+
+  /**
+   * @param block - index of a block
+   * @return index of the block's first row
+   */
+  public int blockStart(int block) {
+    return this.blocks.get(block).first;
+  }
+
+  /**
+   * @param block - index of a block
+   * @return index just past the block's last row
+   */
+  public int blockEnd(int block) {
+    Block b = this.blocks.get(block);
+    return b.first + b.rows;
+  }
+
+  /**
+   * @return the fewest fields any row has, or Integer.MAX_VALUE if there are no rows
+   */
+  public int minRowSize() {
+    return this.minRowSize;
+  }
+
+  /**
+   * @return the most fields any row has, or 0 if there are no rows
+   */
+  public int maxRowSize() {
+    return this.maxRowSize;
+  }
+
+  /**
+   * Checks whether a block could have a row with a value in one column, ignoring case.
+   *
+   * @param block - index of the block
+   * @param column - index of the column
+   * @param key - the value, from key()
+   * @return false only if no row in the block has the value in the column
+   */
+  public boolean mightContain(int block, int column, long key) {
+    return this.blocks.get(block).mightContain(column, key);
+  }
+
+  /**
+   * Checks whether a block could have a row with a value in any column, ignoring case.
+   *
+   * @param block - index of the block
+   * @param key - the value, from key()
+   * @return false only if no row in the block has the value in any column
+   */
+  public boolean mightContainAnywhere(int block, long key) {
+    Block b = this.blocks.get(block);
+    for (int column = 0; column < b.maxSize; column++) {
+      if (b.mightContain(column, key)) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  /**
+   * Checks whether a block could have a row with a number between min and max in a column.
+   *
+   * @param block - index of the block
+   * @param column - index of the column
+   * @param min - the smallest number wanted
+   * @param max - the biggest number wanted
+   * @return false only if no row in the block has a number in that range in the column
+   */
+  public boolean mightOverlap(int block, int column, double min, double max) {
+    Block b = this.blocks.get(block);
+    return column < b.maxSize && b.numbers[column] > 0 && b.min[column] <= max
+        && b.max[column] >= min;
+  }
+
+  /**
+   * Puts together the statistics of each column over every block.
+   *
+   * @param headers - the csv's headers, or null if it has none
+   * @return statistics for every column any row has
+   */
+  public List<ColumnStats> columnStats(List<String> headers) {
+    int columns = this.maxRowSize;
+    if (headers != null) {
+      columns = Math.max(columns, headers.size());
+    }
+    List<ColumnStats> stats = new ArrayList<>(columns);
+    for (int column = 0; column < columns; column++) {
+      long nulls = 0;
+      long numbers = 0;
+      boolean numeric = true;
+      double min = Double.POSITIVE_INFINITY;
+      double max = Double.NEGATIVE_INFINITY;
+      for (Block b : this.blocks) {
+        if (column >= b.maxSize) {
+          nulls += b.rows;
+          continue;
+        }
+        nulls += b.nulls[column];
+        numbers += b.numbers[column];
+        numeric &= b.numbers[column] == b.rows - b.nulls[column];
+        if (b.numbers[column] > 0) {
+          min = Math.min(min, b.min[column]);
+          max = Math.max(max, b.max[column]);
+        }
+      }
+      String name = headers != null && column < headers.size() ? headers.get(column)
+          : String.valueOf(column);
+      stats.add(new ColumnStats(name, nulls, numeric && numbers > 0,
+          numbers > 0 ? min : null, numbers > 0 ? max : null));
+    }
+    return stats;
+  }
+
+  /**
+   * @return statistics for every block, in row order
+   */
+  public List<BlockStats> blockStats() {
+    List<BlockStats> stats = new ArrayList<>(this.blocks.size());
+    for (Block b : this.blocks) {
+      List<BlockColumnStats> columns = new ArrayList<>(b.maxSize);
+      for (int column = 0; column < b.maxSize; column++) {
+        boolean any = b.numbers[column] > 0;
+        columns.add(new BlockColumnStats(b.nulls[column], b.distinct[column],
+            any && b.numbers[column] == b.rows - b.nulls[column], any ? b.min[column] : null,
+            any ? b.max[column] : null, b.bloom[column].length * Long.SIZE));
+      }
+      stats.add(new BlockStats(b.first, b.rows, columns));
+    }
+    return stats;
+  }
+
+  /**
+   * Puts together the approximate profile of each column.
+   *
+   * @param headers - the csv's headers, or null if it has none
+   * @param top - how many of the most common values to send, up to TopValues.CAPACITY
+   * @param fractions - the quantiles to send, each from 0 to 1
+   * @return a profile of every column any row has
+   */
+  public List<ColumnProfile> profile(List<String> headers, int top, double[] fractions) {
+    List<ColumnStats> stats = this.columnStats(headers);
+    List<ColumnProfile> profiles = new ArrayList<>(stats.size());
+    for (int column = 0; column < stats.size(); column++) {
+      ColumnSketch sketch = column < this.sketches.length ? this.sketches[column] : null;
+      if (sketch == null) {
+        profiles.add(new ColumnProfile(stats.get(column).column(), 0,
+            stats.get(column).nulls(), List.of(), null));
+        continue;
+      }
+      Map<String, Double> quantiles = null;
+      double[] values = sketch.numbers.quantiles(fractions);
+      if (values != null) {
+        quantiles = new LinkedHashMap<>();
+        for (int q = 0; q < fractions.length; q++) {
+          quantiles.put(BigDecimal.valueOf(fractions[q]).stripTrailingZeros().toPlainString(),
+              values[q]);
+        }
+      }
+      profiles.add(new ColumnProfile(stats.get(column).column(), sketch.distinct.estimate(),
+          stats.get(column).nulls(), sketch.top.top(top), quantiles));
+    }
+    return profiles;
+  }
+
+  /**
+   * Estimates how many rows have a value in a column, ignoring case, from the column's sketch: a
+   * value among its most common values is counted as about as often as it was seen, and any other
+   * value as an even share of the rows left over. This is what SearchPlanner uses for how
+   * selective a search is.
+   *
+   * @param column - index of the column
+   * @param value - the value
+   * @return about how many rows have the value in the column
+   */
+  long estimateEquals(int column, String value) {
+    long rows = this.blocks.isEmpty() ? 0 : this.blockEnd(this.blocks.size() - 1);
+    long nulls = 0;
+    for (Block b : this.blocks) {
+      nulls += column < b.maxSize ? b.nulls[column] : b.rows;
+    }
+    if (value.isEmpty()) { // blanks aren't sketched, but they're counted
+      return nulls;
+    }
+    ColumnSketch sketch = column < this.sketches.length ? this.sketches[column] : null;
+    if (sketch == null) {
+      return 0;
+    }
+    TopValue top = sketch.top.get(key(value));
+    if (top != null) {
+      return top.count() - top.error() / 2;
+    }
+    if (sketch.top.floor() == 0) { // every value in the column was kept, and this isn't one
+      return 0;
+    }
+    long rest = Math.max(0, rows - nulls - sketch.top.total());
+    long others = Math.max(1, sketch.distinct.estimate() - sketch.top.size());
+    return Math.min(sketch.top.floor(), (rest + others - 1) / others);
+  }
+
+  /**
+   * Estimates how many rows have a number between min and max (including both) in a column, from
+   * the column's sketch.
+   *
+   * @param column - index of the column
+   * @param min - the smallest number wanted
+   * @param max - the biggest number wanted
+   * @return about how many rows have a number in that range in the column
+   */
+  long estimateBetween(int column, double min, double max) {
+    ColumnSketch sketch = column < this.sketches.length ? this.sketches[column] : null;
+    return sketch == null ? 0 : sketch.numbers.countBetween(min, max);
+  }
+
+  /**
+   * Hashes a value the way the Bloom filters do, ignoring case. Each character is folded the same
+   * way String.CASE_INSENSITIVE_ORDER folds it, so two values equal ignoring case always get the
+   * same key.
+   *
+   * @param value - the value to hash
+   * @return the value's key
+   */
+  public static long key(String value) {
+    return key(value.toCharArray(), value.length());
+  }
+
+  /**
+   * Hashes a field of a row the way key(String) does, without making a String of it if it's a
+   * parsed Row.
+   *
+   * @param row - the row
+   * @param column - index of the field, which the row has to have
+   * @param scratch - array to copy the field into; a bigger one is made if it doesn't fit
+   * @return the field's key
+   */
+  static long key(List<String> row, int column, char[] scratch) {
+    return key(fieldChars(row, column, scratch), fieldLength(row, column));
+  }
+
+  private static long key(char[] chars, int length) {
+    long hash = 0xcbf29ce484222325L; // 64 bit FNV-1a, then mixed so every bit counts
+    for (int k = 0; k < length; k++) {
+      char c = chars[k];
+      if (c >= 'A' && c <= 'Z') {
+        c += 'a' - 'A';
+      } else if (c >= 0x80) {
+        c = Character.toLowerCase(Character.toUpperCase(c));
+      }
+      hash = (hash ^ c) * 0x100000001b3L;
+    }
+    hash ^= hash >>> 33;
+    hash *= 0xff51afd7ed558ccdL;
+    hash ^= hash >>> 33;
+    hash *= 0xc4ceb53ca5d4a5c3L;
+    hash ^= hash >>> 33;
+    return hash == 0 ? 1 : hash; // 0 marks an empty slot in KeyCounts
+  }
+
+  /**
+   * Reads a field of a row as a number. Only plain decimal numbers count, like 12, -3.5 or 1e6,
+   * not things Double.parseDouble also takes like "NaN", "0x1p3" or numbers with spaces around
+   * them.
+   *
+   * @param row - the row
+   * @param column - index of the field, which the row has to have
+   * @param scratch - array of at least MAX_NUMBER_CHARS to copy the field into
+   * @return the number, or NaN if the field isn't one
+   */
+  static double number(List<String> row, int column, char[] scratch) {
+    int length = fieldLength(row, column);
+    if (length > MAX_NUMBER_CHARS) {
+      return Double.NaN;
+    }
+    return number(fieldChars(row, column, scratch), length);
+  }
+
+  private static double number(char[] chars, int length) {
+    if (length == 0 || length > MAX_NUMBER_CHARS) {
+      return Double.NaN;
+    }
+    boolean digit = false;
+    for (int k = 0; k < length; k++) {
+      char c = chars[k];
+      if (c >= '0' && c <= '9') {
+        digit = true;
+      } else if (c != '.' && c != '-' && c != '+' && c != 'e' && c != 'E') {
+        return Double.NaN;
+      }
+    }
+    if (!digit) {
+      return Double.NaN;
+    }
+    double simple = simpleNumber(chars, length);
+    if (!Double.isNaN(simple)) {
+      return simple;
+    }
+    try {
+      double number = Double.parseDouble(new String(chars, 0, length));
+      return Double.isFinite(number) ? number : Double.NaN;
+    } catch (NumberFormatException e) {
+      return Double.NaN;
+    }
+  }
+
+  /**
+   * Reads a number like -12 or 3.25 without making a String of it. Up to 15 digits fit in a
+   * double exactly, and so does dividing by a power of ten up to 10^22, so this gives the same
+   * double Double.parseDouble would.
+   *
+   * @return the number, or NaN if it has an exponent, too many digits, or isn't a number
+   */
+  private static double simpleNumber(char[] chars, int length) {
+    int k = 0;
+    boolean negative = chars[0] == '-';
+    if (negative || chars[0] == '+') {
+      k++;
+    }
+    long digits = 0;
+    int count = 0;
+    int decimals = -1; // digits after the point, or -1 before there is one
+    for (; k < length; k++) {
+      char c = chars[k];
+      if (c == '.' && decimals < 0) {
+        decimals = 0;
+      } else if (c >= '0' && c <= '9' && count < 15) {
+        digits = digits * 10 + (c - '0');
+        count += digits == 0 ? 0 : 1; // leading zeros don't use up any digits
+        decimals += decimals < 0 ? 0 : 1;
+      } else {
+        return Double.NaN;
+      }
+    }
+    if (decimals >= POWERS_OF_TEN.length) {
+      return Double.NaN;
+    }
+    double number = decimals > 0 ? digits / POWERS_OF_TEN[decimals] : digits;
+    return negative ? -number : number;
+  }
+
+  private static int fieldLength(List<String> row, int column) {
+    return row instanceof Row ? ((Row) row).fieldLength(column) : row.get(column).length();
+  }
+
+  /**
+   * Copies a field of a row into scratch, without making a String of it if it's a parsed Row.
+   *
+   * @return scratch, or a bigger array if the field didn't fit
+   */
+  private static char[] fieldChars(List<String> row, int column, char[] scratch) {
+    int length = fieldLength(row, column);
+    if (length > scratch.length) {
+      scratch = new char[Math.max(length, 2 * scratch.length)];
+    }
+    if (row instanceof Row) {
+      ((Row) row).getChars(column, scratch, 0);
+    } else {
+      row.get(column).getChars(0, length, scratch, 0);
+    }
+    return scratch;
+  }
+
+  /**
+   * The statistics of one block, one array entry per column.
+   */
+  private static final class Block {
+    private final int first;
+    private final int rows;
+    private final int minSize;
+    private final int maxSize;
+    private final int[] nulls;
+    private final int[] distinct;
+    private final int[] numbers; // how many values are numbers
+    private final double[] min;
+    private final double[] max;
+    private final long[][] bloom;
+    private ColumnSketch[] sketches; // until they're merged into the ZoneMap's
+
+    Block(List<List<String>> rows, int first, int end, KeyCounts values) {
+      this.first = first;
+      this.rows = end - first;
+      int minSize = Integer.MAX_VALUE;
+      int maxSize = 0;
+      for (int r = first; r < end; r++) {
+        int size = rows.get(r).size();
+        minSize = Math.min(minSize, size);
+        maxSize = Math.max(maxSize, size);
+      }
+      this.minSize = minSize;
+      this.maxSize = maxSize;
+      this.nulls = new int[maxSize];
+      this.distinct = new int[maxSize];
+      this.numbers = new int[maxSize];
+      this.min = new double[maxSize];
+      this.max = new double[maxSize];
+      this.bloom = new long[maxSize][];
+      this.sketches = new ColumnSketch[maxSize];
+      char[] chars = new char[MAX_NUMBER_CHARS];
+      // a column at a time, so the set of values seen only ever holds one column's
+      for (int column = 0; column < maxSize; column++) {
+        values.clear();
+        ColumnSketch sketch = new ColumnSketch();
+        boolean empty = false;
+        double low = Double.POSITIVE_INFINITY;
+        double high = Double.NEGATIVE_INFINITY;
+        for (int r = first; r < end; r++) {
+          List<String> row = rows.get(r);
+          if (column >= row.size()) {
+            this.nulls[column]++;
+            continue;
+          }
+          int length = fieldLength(row, column);
+          if (length == 0) {
+            this.nulls[column]++;
+            empty = true; // searching for "" still matches it
+            continue;
+          }
+          chars = fieldChars(row, column, chars);
+          values.add(key(chars, length), r);
+          double number = number(chars, length); // stops at the first char that isn't numeric
+          if (!Double.isNaN(number)) {
+            this.numbers[column]++;
+            low = Math.min(low, number);
+            high = Math.max(high, number);
+            sketch.numbers.add(number);
+          }
+        }
+        this.min[column] = low;
+        this.max[column] = high;
+        this.distinct[column] = values.size();
+        long[] bits = new long[Math.max(1,
+            ((values.size() + (empty ? 1 : 0)) * BLOOM_BITS_PER_VALUE + Long.SIZE - 1) / Long.SIZE)];
+        values.forEach(key -> {
+          addToBloom(bits, key);
+          sketch.distinct.add(key);
+        });
+        if (empty) {
+          addToBloom(bits, key(chars, 0));
+        }
+        this.bloom[column] = bits;
+        int index = column;
+        sketch.top = TopValues.exact(values.keys, values.counts,
+            slot -> rows.get(values.firsts[slot]).get(index));
+        this.sketches[column] = sketch;
+      }
+    }
+
+    boolean mightContain(int column, long key) {
+      if (column >= this.maxSize) {
+        return false;
+      }
+      long[] bits = this.bloom[column];
+      long size = (long) bits.length * Long.SIZE;
+      int h1 = (int) key;
+      int h2 = (int) (key >>> 32);
+      for (int k = 1; k <= BLOOM_HASHES; k++) {
+        long bit = (((h1 + k * h2) & 0xffffffffL) * size) >>> 32; // in [0, size) without %
+        if ((bits[(int) (bit >>> 6)] & (1L << bit)) == 0) {
+          return false;
+        }
+      }
+      return true;
+    }
+
+    private static void addToBloom(long[] bits, long key) {
+      long size = (long) bits.length * Long.SIZE;
+      int h1 = (int) key;
+      int h2 = (int) (key >>> 32);
+      for (int k = 1; k <= BLOOM_HASHES; k++) {
+        long bit = (((h1 + k * h2) & 0xffffffffL) * size) >>> 32; // in [0, size) without %
+        bits[(int) (bit >>> 6)] |= 1L << bit;
+      }
+    }
+  }
+
+  /**
+   * Counts of keys with no boxing, reused for every column of a block, along with the row each
+   * key was first seen in. 0 marks an empty slot, which key() never returns.
+   */
+  private static final class KeyCounts {
+    private final long[] keys;
+    private final int[] counts;
+    private final int[] firsts;
+    private int size;
+
+    KeyCounts(int capacity) {
+      int slots = Integer.highestOneBit(Math.max(capacity, 4) * 2 - 1) << 1;
+      this.keys = new long[slots];
+      this.counts = new int[slots];
+      this.firsts = new int[slots];
+    }
+
+    void add(long key, int row) {
+      int mask = this.keys.length - 1;
+      for (int slot = (int) key & mask; ; slot = (slot + 1) & mask) {
+        if (this.keys[slot] == key) {
+          this.counts[slot]++;
+          return;
+        }
+        if (this.keys[slot] == 0) {
+          this.keys[slot] = key;
+          this.counts[slot] = 1;
+          this.firsts[slot] = row;
+          this.size++;
+          return;
+        }
+      }
+    }
+
+    int size() {
+      return this.size;
+    }
+
+    void clear() {
+      if (this.size > 0) {
+        Arrays.fill(this.keys, 0);
+        Arrays.fill(this.counts, 0);
+        this.size = 0;
+      }
+    }
+
+    void forEach(LongConsumer action) {
+      for (long key : this.keys) {
+        if (key != 0) {
+          action.accept(key);
+        }
+      }
+    }
+  }
+}
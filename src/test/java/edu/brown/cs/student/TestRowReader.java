@@ -0,0 +1,149 @@
+package edu.brown.cs.student;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertNull;
+import static org.testng.Assert.assertTrue;
+
+import edu.brown.cs.student.main.csv.FactoryFailureException;
+import edu.brown.cs.student.main.csv.Parser;
+import edu.brown.cs.student.main.csv.RawCreator;
+import edu.brown.cs.student.main.csv.Row;
+import edu.brown.cs.student.main.csv.RowReader;
+import edu.brown.cs.student.main.csv.RowSelection;
+import edu.brown.cs.student.main.csv.Searcher;
+import java.io.FileReader;
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import org.junit.jupiter.api.Test;
+
+/** Tests for the Row views handed out by RowReader */
+public class TestRowReader {
+
+  /**
+   * tests that rows split and trim the same way the old regex split did
+   *
+   * @throws IOException from next() method RowReader class
+   */
+  @Test
+  public void testSplitLikeRegex() throws IOException {
+    RowReader rows =
+        new RowReader(new StringReader("a, b ,\"c, d\"\r\n\"x\"\"y\",z,,\n,\nlast"));
+    assertEquals(rows.next(), List.of("a", "b", "\"c, d\""));
+    assertEquals(rows.next(), List.of("\"x\"\"y\"", "z")); // trailing empty fields dropped
+    assertEquals(rows.next(), List.of()); // a lone comma splits into nothing
+    assertEquals(rows.next(), List.of("last")); // last line doesn't need a line break
+    assertNull(rows.next());
+  }
+
+  /**
+   * tests comparing fields in place without copying them
+   *
+   * @throws IOException from next() method RowReader class
+   */
+  @Test
+  public void testFieldViews() throws IOException {
+    Row row = new RowReader(new StringReader("Sol, 282.43485 ,")).next();
+    assertEquals(row.size(), 2);
+    assertTrue(row.fieldEqualsIgnoreCase(0, "sOL"));
+    assertFalse(row.fieldEqualsIgnoreCase(1, "282.4348"));
+    assertTrue(row.anyFieldEqualsIgnoreCase("282.43485"));
+    assertEquals(row.field(1).toString(), "282.43485");
+    assertEquals(row.fieldLength(1), 9);
+  }
+
+  /**
+   * tests that searching over row views gives the same results as before
+   *
+   * @throws IOException from parseString() method parser class
+   * @throws FactoryFailureException from create() method creatorFromRow class
+   */
+  @Test
+  public void testSearchRows() throws IOException, FactoryFailureException {
+    Parser<List<String>> p =
+        new Parser<>(new RawCreator(), new FileReader("data/sample/kindergarten.csv"));
+    Searcher<List<String>> s = new Searcher<>(p, false);
+
+    assertEquals(s.searchByColIndex("BLUE", 0), List.of(List.of("blue", "5", "jeremy")));
+    assertEquals(s.searchAllCol("sam").size(), 2);
+  }
+
+  /**
+   * tests only keeping some columns and rows while reading
+   *
+   * @throws IOException from next() method RowReader class
+   */
+  @Test
+  public void testSelectAndFilter() throws IOException {
+    RowReader rows = new RowReader(new StringReader("a,b,c\nx,y,z\nq\nb,a,"));
+    rows.selectColumns(new int[] {2, 0});
+    rows.filterRows(row -> row.anyFieldEqualsIgnoreCase("A"));
+    assertEquals(rows.next(), List.of("c", "a"));
+    assertEquals(rows.next(), List.of("", "b")); // third field was empty
+    assertNull(rows.next());
+
+    Parser<List<String>> p =
+        new Parser<>(new RawCreator(), new RowReader(new FileReader("data/sample/kindergarten.csv")),
+            true, new RowSelection(List.of("SAM"), "1", "7"));
+    assertEquals(p.parseString(), List.of(List.of("sam"), List.of("sam")));
+  }
+
+  /**
+   * tests tagging rows with the file they came from and joining parsers of several files
+   *
+   * @throws IOException from next() method RowReader class
+   */
+  @Test
+  public void testSourceAndConcat() throws IOException {
+    Parser<List<String>> first =
+        new Parser<>(new RawCreator(), new RowReader(new StringReader("k,v\na,1\n")), true,
+            new RowSelection(List.of("v"), null, null).withSource("file", "one.csv"));
+    Parser<List<String>> second =
+        new Parser<>(new RawCreator(), new RowReader(new StringReader("k,v\nb,2\n")), true,
+            new RowSelection(List.of("v"), "k", "b").withSource("file", "two.csv"));
+    assertEquals(first.parseString().get(1).getClass(), Row.class); // still a view, not copied
+
+    Parser<List<String>> joined = Parser.concat(List.of(first, second), true);
+    assertEquals(joined.parseString(),
+        List.of(List.of("file", "v"), List.of("one.csv", "1"), List.of("two.csv", "2")));
+  }
+
+  /**
+   * tests keeping only the first rows or a random sample of them, alone and joined
+   *
+   * @throws IOException from next() method RowReader class
+   */
+  @Test
+  public void testSample() throws IOException {
+    StringBuilder csv = new StringBuilder("n\n");
+    for (int i = 0; i < 1000; i++) {
+      csv.append(i).append('\n');
+    }
+    Parser<List<String>> head =
+        new Parser<>(new RawCreator(), new RowReader(new StringReader(csv.toString())), true,
+            new RowSelection(null, null, null).withSample(3, false, 0));
+    assertEquals(head.parseString(), List.of(List.of("n"), List.of("0"), List.of("1"), List.of("2")));
+    assertEquals(head.rowsRead(), 3);
+
+    Parser<List<String>> random =
+        new Parser<>(new RawCreator(), new RowReader(new StringReader(csv.toString())), true,
+            new RowSelection(null, null, null).withSample(50, true, 7));
+    assertEquals(random.parseString().size(), 51);
+    assertEquals(random.rowsRead(), 1000);
+    Set<List<String>> picked = new HashSet<>(random.parseString().subList(1, 51));
+    assertEquals(picked.size(), 50); // no row picked twice
+    assertFalse(picked.equals(Set.copyOf(head.parseString().subList(1, 4)))); // not just the start
+    // the same seed picks the same rows
+    assertEquals(new Parser<>(new RawCreator(), new RowReader(new StringReader(csv.toString())),
+        true, new RowSelection(null, null, null).withSample(50, true, 7)).parseString(),
+        random.parseString());
+
+    Parser<List<String>> joined = Parser.concat(List.of(random, random), true);
+    assertEquals(joined.parseString().size(), 51);
+    assertEquals(joined.rowsRead(), 2000);
+    assertEquals(Parser.concat(List.of(head, head), true).parseString().size(), 4);
+  }
+}
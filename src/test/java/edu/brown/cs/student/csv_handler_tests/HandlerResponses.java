@@ -0,0 +1,54 @@
+package edu.brown.cs.student.csv_handler_tests;
+
+import com.squareup.moshi.JsonAdapter;
+import com.squareup.moshi.Moshi;
+import com.squareup.moshi.Types;
+import okio.Buffer;
+
+import java.io.IOException;
+import java.lang.reflect.Type;
+import java.net.HttpURLConnection;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Reads the json responses of the handlers, for the handler tests.
+ */
+final class HandlerResponses {
+
+    /** The type of a json object of rows, like the data of a response, keyed by "object1", ... */
+    static final Type ROWS = Types.newParameterizedType(Map.class, String.class,
+            Types.newParameterizedType(Map.class, String.class, String.class));
+    /** The type of a json list of strings, like the headers of a columnar response. */
+    static final Type STRINGS = Types.newParameterizedType(List.class, String.class);
+    /** The type of a json list of lists of strings, like the columns of a columnar response. */
+    static final Type COLUMNS = Types.newParameterizedType(List.class, STRINGS);
+    /** The type of a json list of objects, like the columns of a stats or profile response. */
+    static final Type OBJECTS = Types.newParameterizedType(List.class,
+            Types.newParameterizedType(Map.class, String.class, Object.class));
+
+    private static final Moshi MOSHI = new Moshi.Builder().build();
+    private static final JsonAdapter<Map<String, Object>> RESPONSE =
+            MOSHI.adapter(Types.newParameterizedType(Map.class, String.class, Object.class));
+
+    private HandlerResponses() {}
+
+    /**
+     * @param clientConnection - the connection the response came back on
+     * @return the response's fields
+     * @throws IOException if the response can't be read
+     */
+    static Map<String, Object> read(HttpURLConnection clientConnection) throws IOException {
+        return RESPONSE.fromJson(new Buffer().readFrom(clientConnection.getInputStream()));
+    }
+
+    /**
+     * @param value - part of a response read with read, like one of its fields
+     * @param type - the type of the part, like ROWS
+     * @return the part as that type
+     */
+    static <T> T as(Object value, Type type) {
+        JsonAdapter<T> adapter = MOSHI.adapter(type);
+        return adapter.fromJsonValue(value);
+    }
+}
@@ -0,0 +1,130 @@
+package edu.brown.cs.student.csv_handler_tests;
+
+import edu.brown.cs.student.main.server.main.LoadCSVHandler;
+import edu.brown.cs.student.main.server.main.AggregateCSVHandler;
+import org.testng.Assert;
+import org.testng.annotations.AfterTest;
+import org.testng.annotations.BeforeSuite;
+import org.testng.annotations.BeforeTest;
+import org.testng.annotations.Test;
+import spark.Spark;
+
+import java.io.IOException;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.util.List;
+import java.util.Map;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import static edu.brown.cs.student.csv_handler_tests.HandlerResponses.COLUMNS;
+import static edu.brown.cs.student.csv_handler_tests.HandlerResponses.ROWS;
+import static edu.brown.cs.student.csv_handler_tests.HandlerResponses.as;
+import static edu.brown.cs.student.csv_handler_tests.HandlerResponses.read;
+import static spark.Spark.after;
+
+public class TestAggregateCSVHandler {
+
+    @BeforeSuite
+    public static void setupOnce() {
+        Spark.port(0);
+        Logger.getLogger("").setLevel(Level.WARNING);
+
+        after((request, response) -> {
+            response.header("Access-Control-Allow-Origin", "*");
+            response.header("Access-Control-Allow-Methods", "*");
+        });
+    }
+
+    @BeforeTest
+    public void setup() {
+        LoadCSVHandler loader = new LoadCSVHandler();
+        Spark.get("loadcsv", loader);
+        Spark.get("aggregatecsv", new AggregateCSVHandler(loader));
+        Spark.awaitInitialization();
+    }
+
+    @AfterTest
+    public void teardown() {
+        Spark.unmap("/aggregatecsv");
+        Spark.unmap("/loadcsv");
+
+        Spark.awaitStop();
+    }
+
+    static private HttpURLConnection tryRequest(String apiCall) throws IOException {
+        URL requestURL = new URL("http://localhost:" + Spark.port() + "/" + apiCall);
+        HttpURLConnection clientConnection = (HttpURLConnection) requestURL.openConnection();
+
+        clientConnection.connect();
+        return clientConnection;
+    }
+
+    /**
+     * Tests AggregateCSVHandler's aggregates of the groups of one column.
+     *
+     * @throws IOException
+     */
+    @Test
+    public void testAggregateCSVHandler() throws IOException {
+        HttpURLConnection clientConnection = tryRequest("loadcsv?filepath=census/income_by_race_edited.csv&hasHeaders=true");
+        Assert.assertEquals(clientConnection.getResponseCode(), 200); // tests success response
+        String income = "Household%20Income%20by%20Race";
+        HttpURLConnection clientConnection2 = tryRequest("aggregatecsv?groupBy=race&aggregates=count,sum("
+                + income + "),min(" + income + "),max(" + income + "),avg(" + income + ")");
+        Assert.assertEquals(clientConnection2.getResponseCode(), 200); // tests success response
+
+        Map<String, Object> test = read(clientConnection2);
+        Assert.assertEquals(test.get("response_type"), "success");
+        Map<String, Map<String, String>> data = as(test.get("data"), ROWS);
+        Assert.assertEquals(data.size(), 10); // groups are matched ignoring case
+        Assert.assertEquals(data.get("object1"), Map.of("Race", "Total", "count", "40",
+                "sum(Household Income by Race)", "2801918", "min(Household Income by Race)", "49139",
+                "max(Household Income by Race)", "86970", "avg(Household Income by Race)", "70047.95"));
+        Assert.assertEquals(data.get("object3").get("count"), "34");
+
+        clientConnection.disconnect();
+        clientConnection2.disconnect();
+    }
+
+    /**
+     * Tests AggregateCSVHandler grouping by more than one column, by none, and failing.
+     *
+     * @throws IOException
+     */
+    @Test
+    public void testAggregateCSVHandlerGroups() throws IOException {
+        HttpURLConnection clientConnection = tryRequest("loadcsv?filepath=census/income_by_race_edited.csv&hasHeaders=true");
+        Assert.assertEquals(clientConnection.getResponseCode(), 200); // tests success response
+        HttpURLConnection clientConnection2 = tryRequest("aggregatecsv?groupBy=Race,3&format=columnar");
+        Map<String, Object> test = read(clientConnection2);
+        Assert.assertEquals(test.get("headers"), List.of("Race", "Year", "count"));
+        List<List<String>> columns = as(test.get("columns"), COLUMNS);
+        Assert.assertEquals(columns.get(0).size(), 79);
+        Assert.assertEquals(List.of(columns.get(0).get(0), columns.get(1).get(0), columns.get(2).get(0)),
+                List.of("Total", "2020", "5"));
+
+        HttpURLConnection clientConnection3 = tryRequest("aggregatecsv?aggregates=count,max(Year)");
+        Map<String, Map<String, String>> data = as(read(clientConnection3).get("data"), ROWS);
+        Assert.assertEquals(data.get("object1"), Map.of("count", "323", "max(Year)", "2020"));
+
+        String badRequest = "error_bad_request: groupBy must be a comma separated list of header names or"
+                + " column indexes in the loaded csv, and aggregates a comma separated list of count, or"
+                + " count, sum, min, max or avg of a column, like avg(score)";
+        HttpURLConnection clientConnection4 = tryRequest("aggregatecsv?groupBy=Planet");
+        Assert.assertEquals(read(clientConnection4).get("response_type"), badRequest);
+        HttpURLConnection clientConnection5 = tryRequest("aggregatecsv?aggregates=median(Year)");
+        Map<String, Object> test5 = read(clientConnection5);
+        Assert.assertEquals(test5.get("response_type"), badRequest);
+        Assert.assertEquals(test5.get("aggregates"), "median(Year)");
+        HttpURLConnection clientConnection6 = tryRequest("aggregatecsv?aggregates=sum");
+        Assert.assertEquals(read(clientConnection6).get("response_type"), badRequest);
+
+        clientConnection.disconnect();
+        clientConnection2.disconnect();
+        clientConnection3.disconnect();
+        clientConnection4.disconnect();
+        clientConnection5.disconnect();
+        clientConnection6.disconnect();
+    }
+}
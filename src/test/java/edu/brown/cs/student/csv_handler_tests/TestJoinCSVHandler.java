@@ -0,0 +1,166 @@
+package edu.brown.cs.student.csv_handler_tests;
+
+import edu.brown.cs.student.main.server.main.JoinCSVHandler;
+import edu.brown.cs.student.main.server.main.LoadCSVHandler;
+import org.testng.Assert;
+import org.testng.annotations.AfterTest;
+import org.testng.annotations.BeforeSuite;
+import org.testng.annotations.BeforeTest;
+import org.testng.annotations.Test;
+import spark.Spark;
+
+import java.io.IOException;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.util.List;
+import java.util.Map;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import static edu.brown.cs.student.csv_handler_tests.HandlerResponses.COLUMNS;
+import static edu.brown.cs.student.csv_handler_tests.HandlerResponses.ROWS;
+import static edu.brown.cs.student.csv_handler_tests.HandlerResponses.STRINGS;
+import static edu.brown.cs.student.csv_handler_tests.HandlerResponses.as;
+import static edu.brown.cs.student.csv_handler_tests.HandlerResponses.read;
+import static spark.Spark.after;
+
+public class TestJoinCSVHandler {
+
+    @BeforeSuite
+    public static void setupOnce() {
+        Spark.port(0);
+        Logger.getLogger("").setLevel(Level.WARNING);
+
+        after((request, response) -> {
+            response.header("Access-Control-Allow-Origin", "*");
+            response.header("Access-Control-Allow-Methods", "*");
+        });
+    }
+
+    @BeforeTest
+    public void setup() {
+        LoadCSVHandler loader = new LoadCSVHandler();
+        Spark.get("loadcsv", loader);
+        Spark.get("joincsv", new JoinCSVHandler(loader));
+        Spark.awaitInitialization();
+    }
+
+    @AfterTest
+    public void teardown() {
+        Spark.unmap("/joincsv");
+        Spark.unmap("/loadcsv");
+
+        Spark.awaitStop();
+    }
+
+    static private HttpURLConnection tryRequest(String apiCall) throws IOException {
+        URL requestURL = new URL("http://localhost:" + Spark.port() + "/" + apiCall);
+        HttpURLConnection clientConnection = (HttpURLConnection) requestURL.openConnection();
+
+        clientConnection.connect();
+        return clientConnection;
+    }
+
+    /**
+     * Tests JoinCSVHandler's inner and left joins, with the table built on the named csv.
+     *
+     * @throws IOException
+     */
+    @Test
+    public void testJoinCSVHandler() throws IOException {
+        HttpURLConnection clientConnection = tryRequest("loadcsv?filepath=census/dol_ri_earnings_disparity.csv&hasHeaders=true&name=earnings");
+        Assert.assertEquals(clientConnection.getResponseCode(), 200); // tests success response
+        HttpURLConnection clientConnection2 = tryRequest("loadcsv?filepath=census/income_by_race_edited.csv&hasHeaders=true");
+        Assert.assertEquals(clientConnection2.getResponseCode(), 200); // tests success response
+
+        HttpURLConnection clientConnection3 = tryRequest("joincsv?with=earnings&leftOn=Race&rightOn=Data%20Type&format=columnar");
+        Assert.assertEquals(clientConnection3.getResponseCode(), 200); // tests success response
+        Map<String, Object> test = read(clientConnection3);
+        Assert.assertEquals(test.get("response_type"), "success");
+        List<String> headers = as(test.get("headers"), STRINGS);
+        Assert.assertEquals(headers.size(), 15);
+        Assert.assertEquals(headers.subList(9, 11), List.of("State", "Data Type"));
+        List<List<String>> columns = as(test.get("columns"), COLUMNS);
+        Assert.assertEquals(columns.get(1).size(), 74); // 40 White rows and 34 Black ones
+        for (int k = 0; k < 74; k++) {
+            Assert.assertEquals(columns.get(10).get(k), columns.get(1).get(k));
+        }
+
+        HttpURLConnection clientConnection4 = tryRequest("joincsv?with=earnings&leftOn=Race&rightOn=Data%20Type&type=left&format=columnar");
+        columns = as(read(clientConnection4).get("columns"), COLUMNS);
+        Assert.assertEquals(columns.get(1).size(), 323); // every income row, in order
+        Assert.assertEquals(columns.get(1).get(0), "Total");
+        Assert.assertEquals(columns.get(9).get(0), "");
+
+        HttpURLConnection clientConnection5 = tryRequest("joincsv?with=earnings&leftOn=1&rightOn=1&page=2&pageSize=50");
+        Map<String, Map<String, String>> data = as(read(clientConnection5).get("data"), ROWS);
+        Assert.assertEquals(data.size(), 24); // the second page of the inner join
+        Assert.assertEquals(data.get("object51").get("State"), "RI");
+
+        clientConnection.disconnect();
+        clientConnection2.disconnect();
+        clientConnection3.disconnect();
+        clientConnection4.disconnect();
+        clientConnection5.disconnect();
+    }
+
+    /**
+     * Tests JoinCSVHandler with the table built on the loaded csv, with clashing headers, and failing.
+     *
+     * @throws IOException
+     */
+    @Test
+    public void testJoinCSVHandlerOtherSide() throws IOException {
+        HttpURLConnection clientConnection = tryRequest("loadcsv?filepath=census/income_by_race_edited.csv&hasHeaders=true&name=income");
+        Assert.assertEquals(clientConnection.getResponseCode(), 200); // tests success response
+        HttpURLConnection clientConnection2 = tryRequest("loadcsv?filepath=census/dol_ri_earnings_disparity.csv&hasHeaders=true");
+        Assert.assertEquals(clientConnection2.getResponseCode(), 200); // tests success response
+
+        HttpURLConnection clientConnection3 = tryRequest("joincsv?with=income&leftOn=Data%20Type&rightOn=Race&type=left&format=columnar");
+        List<List<String>> columns = as(read(clientConnection3).get("columns"), COLUMNS);
+        Assert.assertEquals(columns.get(1).size(), 78); // 74 matches, then the 4 earnings rows without one
+        Assert.assertEquals(columns.get(1).subList(74, 78),
+                List.of("Native American/American Indian", "Asian-Pacific Islander", "Hispanic/Latino", "Multiracial"));
+        Assert.assertEquals(columns.get(7).get(77), "");
+
+        HttpURLConnection clientConnection4 = tryRequest("joincsv?with=income&on=0&page=1&pageSize=1&format=columnar");
+        List<String> headers = as(read(clientConnection4).get("headers"), STRINGS);
+        Assert.assertEquals(headers.get(6), "ID Race"); // no header clashes here
+        HttpURLConnection clientConnection5 = tryRequest("loadcsv?filepath=census/income_by_race_edited.csv&hasHeaders=true");
+        Assert.assertEquals(clientConnection5.getResponseCode(), 200); // tests success response
+        HttpURLConnection clientConnection6 = tryRequest("joincsv?with=income&on=Race&page=1&pageSize=2&format=columnar");
+        Map<String, Object> test = read(clientConnection6);
+        List<String> clashing = as(test.get("headers"), STRINGS);
+        Assert.assertEquals(clashing.subList(9, 11), List.of("income.ID Race", "income.Race"));
+        columns = as(test.get("columns"), COLUMNS);
+        Assert.assertEquals(columns.get(0).size(), 2);
+
+        HttpURLConnection clientConnection7 = tryRequest("joincsv?with=wages&on=Race");
+        Map<String, Object> test7 = read(clientConnection7);
+        Assert.assertEquals(test7.get("response_type"), "error_datasource: make sure you loaded your csv, and"
+                + " the csv to join it with using loadcsv's name query param, before joining them");
+        Assert.assertEquals(test7.get("with"), "wages");
+        String badRequest = "error_bad_request: leftOn and rightOn (or on, for both) must be a header name or"
+                + " column index of each csv, and type 'inner' or 'left'";
+        HttpURLConnection clientConnection8 = tryRequest("joincsv?with=income&on=Planet");
+        Assert.assertEquals(read(clientConnection8).get("response_type"), badRequest);
+        HttpURLConnection clientConnection9 = tryRequest("joincsv?with=income&on=Race&type=outer");
+        Map<String, Object> test9 = read(clientConnection9);
+        Assert.assertEquals(test9.get("response_type"), badRequest);
+        Assert.assertEquals(test9.get("type"), "outer");
+        HttpURLConnection clientConnection10 = tryRequest("joincsv?with=income&on=Race&page=0&pageSize=5");
+        Assert.assertEquals(read(clientConnection10).get("response_type"), "error_bad_request: enter positive"
+                + " numbers for both page and pageSize, or leave both out to get every joined row");
+
+        clientConnection.disconnect();
+        clientConnection2.disconnect();
+        clientConnection3.disconnect();
+        clientConnection4.disconnect();
+        clientConnection5.disconnect();
+        clientConnection6.disconnect();
+        clientConnection7.disconnect();
+        clientConnection8.disconnect();
+        clientConnection9.disconnect();
+        clientConnection10.disconnect();
+    }
+}
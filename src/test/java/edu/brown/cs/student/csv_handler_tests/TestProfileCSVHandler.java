@@ -0,0 +1,120 @@
+package edu.brown.cs.student.csv_handler_tests;
+
+import edu.brown.cs.student.main.server.main.LoadCSVHandler;
+import edu.brown.cs.student.main.server.main.ProfileCSVHandler;
+import org.testng.Assert;
+import org.testng.annotations.AfterTest;
+import org.testng.annotations.BeforeSuite;
+import org.testng.annotations.BeforeTest;
+import org.testng.annotations.Test;
+import spark.Spark;
+
+import java.io.IOException;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.util.List;
+import java.util.Map;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import static edu.brown.cs.student.csv_handler_tests.HandlerResponses.OBJECTS;
+import static edu.brown.cs.student.csv_handler_tests.HandlerResponses.as;
+import static edu.brown.cs.student.csv_handler_tests.HandlerResponses.read;
+import static spark.Spark.after;
+
+public class TestProfileCSVHandler {
+
+    @BeforeSuite
+    public static void setupOnce() {
+        Spark.port(0);
+        Logger.getLogger("").setLevel(Level.WARNING);
+
+        after((request, response) -> {
+            response.header("Access-Control-Allow-Origin", "*");
+            response.header("Access-Control-Allow-Methods", "*");
+        });
+    }
+
+    @BeforeTest
+    public void setup() {
+        LoadCSVHandler loader = new LoadCSVHandler();
+        Spark.get("loadcsv", loader);
+        Spark.get("profilecsv", new ProfileCSVHandler(loader));
+        Spark.awaitInitialization();
+    }
+
+    @AfterTest
+    public void teardown() {
+        Spark.unmap("/profilecsv");
+        Spark.unmap("/loadcsv");
+
+        Spark.awaitStop();
+    }
+
+    static private HttpURLConnection tryRequest(String apiCall) throws IOException {
+        URL requestURL = new URL("http://localhost:" + Spark.port() + "/" + apiCall);
+        HttpURLConnection clientConnection = (HttpURLConnection) requestURL.openConnection();
+
+        clientConnection.connect();
+        return clientConnection;
+    }
+
+    /**
+     * Tests ProfileCSVHandler's distinct counts, most common values and quantiles.
+     *
+     * @throws IOException
+     */
+    @Test
+    public void testProfileCSVHandler() throws IOException {
+        HttpURLConnection clientConnection = tryRequest("loadcsv?filepath=census/income_by_race_edited.csv&hasHeaders=true");
+        Assert.assertEquals(clientConnection.getResponseCode(), 200); // tests success response
+        HttpURLConnection clientConnection2 = tryRequest("profilecsv?top=3&quantiles=0,0.5,1");
+        Assert.assertEquals(clientConnection2.getResponseCode(), 200); // tests success response
+
+        Map<String, Object> test = read(clientConnection2);
+        Assert.assertEquals(test.get("response_type"), "success");
+        Assert.assertEquals(test.get("rows"), 323.0);
+        List<Map<String, Object>> columns = as(test.get("columns"), OBJECTS);
+        Assert.assertEquals(columns.size(), 9);
+        Map<String, Object> race = columns.get(1);
+        Assert.assertEquals(race.get("column"), "Race");
+        Assert.assertEquals(race.get("distinct"), 10.0); // few enough values to be exact
+        Assert.assertNull(race.get("quantiles")); // no numbers
+        Assert.assertEquals(race.get("top"), List.of(
+                Map.of("value", "Asian", "count", 40.0, "error", 0.0),
+                Map.of("value", "Hispanic", "count", 40.0, "error", 0.0),
+                Map.of("value", "Total", "count", 40.0, "error", 0.0))); // ties go alphabetically
+        Map<String, Object> year = columns.get(3);
+        Assert.assertEquals(year.get("distinct"), 8.0);
+        Assert.assertEquals(year.get("quantiles"), Map.of("0", 2013.0, "0.5", 2016.0, "1", 2020.0));
+
+        clientConnection.disconnect();
+        clientConnection2.disconnect();
+    }
+
+    /**
+     * Tests ProfileCSVHandler's failure responses.
+     *
+     * @throws IOException
+     */
+    @Test
+    public void testProfileCSVHandlerBadParams() throws IOException {
+        HttpURLConnection clientConnection = tryRequest("loadcsv?filepath=stars/ten-star.csv&hasHeaders=true");
+        Assert.assertEquals(clientConnection.getResponseCode(), 200); // tests success response
+        String badRequest = "error_bad_request: top must be a number from 0 to 64, and quantiles a"
+                + " comma separated list of numbers from 0 to 1";
+        HttpURLConnection clientConnection2 = tryRequest("profilecsv?top=100");
+        Assert.assertEquals(read(clientConnection2).get("response_type"), badRequest);
+        HttpURLConnection clientConnection3 = tryRequest("profilecsv?quantiles=0.5,2");
+        Assert.assertEquals(read(clientConnection3).get("response_type"), badRequest);
+        HttpURLConnection clientConnection4 = tryRequest("profilecsv?quantiles=half");
+        Map<String, Object> test = read(clientConnection4);
+        Assert.assertEquals(test.get("response_type"), badRequest);
+        Assert.assertEquals(test.get("quantiles"), "half");
+
+        clientConnection.disconnect();
+        clientConnection2.disconnect();
+        clientConnection3.disconnect();
+        clientConnection4.disconnect();
+    }
+}
@@ -0,0 +1,131 @@
+package edu.brown.cs.student.csv_handler_tests;
+
+import com.squareup.moshi.JsonAdapter;
+import com.squareup.moshi.Moshi;
+import com.squareup.moshi.Types;
+import edu.brown.cs.student.main.server.main.LoadCSVHandler;
+
+import edu.brown.cs.student.main.server.main.ScanCSVHandler;
+import edu.brown.cs.student.main.server.main.ViewCSVHandler;
+import okio.Buffer;
+import org.testng.Assert;
+import org.testng.annotations.AfterTest;
+import org.testng.annotations.BeforeSuite;
+import org.testng.annotations.BeforeTest;
+import org.testng.annotations.Test;
+import spark.Spark;
+
+import java.io.IOException;
+import java.lang.reflect.Type;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.util.Map;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import static spark.Spark.after;
+
+public class TestScanCSVHandler {
+
+    @BeforeSuite
+    public static void setupOnce() {
+        Spark.port(0);
+        Logger.getLogger("").setLevel(Level.WARNING);
+
+        after((request, response) -> {
+            response.header("Access-Control-Allow-Origin", "*");
+            response.header("Access-Control-Allow-Methods", "*");
+        });
+    }
+
+
+    @BeforeTest
+    public void setup() {
+        LoadCSVHandler loader = new LoadCSVHandler();
+        Spark.get("loadcsv", loader);
+        Spark.get("viewcsv", new ViewCSVHandler(loader));
+        Spark.get("scancsv", new ScanCSVHandler());
+        Spark.awaitInitialization();
+    }
+
+    @AfterTest
+    public void teardown() {
+        Spark.unmap("/scancsv");
+        Spark.unmap("/viewcsv");
+        Spark.unmap("/loadcsv");
+
+        Spark.awaitStop();
+    }
+
+
+    static private HttpURLConnection tryRequest(String apiCall) throws IOException {
+        URL requestURL = new URL("http://localhost:" + Spark.port() + "/" + apiCall);
+        HttpURLConnection clientConnection = (HttpURLConnection) requestURL.openConnection();
+
+        clientConnection.connect();
+        return clientConnection;
+    }
+
+    /**
+     * Tests ScanCSVHandler finding the same rows searchcsv would, without changing the loaded csv.
+     *
+     * @throws IOException
+     */
+    @Test
+    public void testScanCSVHandler() throws IOException {
+        HttpURLConnection clientConnection = tryRequest("loadcsv?filepath=sample/kindergarten.csv&hasHeaders=false");
+        Assert.assertEquals(clientConnection.getResponseCode(), 200); // tests success response
+
+        HttpURLConnection clientConnection2 = tryRequest("scancsv?filepath=stars/ten-star.csv&hasHeaders=true"
+                + "&searchType=name&columnIdentifier=ProperName&searchVal=sol");
+        Assert.assertEquals(clientConnection2.getResponseCode(), 200); // tests success response
+
+        Type mapStringObject = Types.newParameterizedType(Map.class, String.class, Object.class);
+        Moshi moshi = new Moshi.Builder().build();
+        JsonAdapter<Map<String, Object>> adapter = moshi.adapter(mapStringObject);
+        Map<String, Object> test = adapter.fromJson(new Buffer().readFrom(clientConnection2.getInputStream()));
+        Assert.assertEquals(test.get("response_type"), "success");
+        Assert.assertEquals(test.get("data").toString(),
+                "{object1={StarID=0, ProperName=Sol, X=0, Y=0, Z=0}}");
+
+        HttpURLConnection clientConnection3 = tryRequest("scancsv?filepath=sample/kindergarten.csv&hasHeaders=false"
+                + "&searchType=all&searchVal=beth&format=csv&fields=2,0");
+        Assert.assertEquals(new Buffer().readFrom(clientConnection3.getInputStream()).readUtf8(),
+                "beth,yellow\nbeth,green\n");
+
+        // the loaded csv is still kindergarten
+        HttpURLConnection clientConnection4 = tryRequest("viewcsv?page=1&pageSize=1&format=csv");
+        Assert.assertEquals(new Buffer().readFrom(clientConnection4.getInputStream()).readUtf8(), "red,1,sam\n");
+
+        clientConnection.disconnect();
+        clientConnection2.disconnect();
+        clientConnection3.disconnect();
+        clientConnection4.disconnect();
+    }
+
+    /**
+     * Tests ScanCSVHandler with a column the file doesn't have, and a file that doesn't exist.
+     *
+     * @throws IOException
+     */
+    @Test
+    public void testScanCSVHandlerFailures() throws IOException {
+        Type mapStringObject = Types.newParameterizedType(Map.class, String.class, Object.class);
+        Moshi moshi = new Moshi.Builder().build();
+        JsonAdapter<Map<String, Object>> adapter = moshi.adapter(mapStringObject);
+
+        HttpURLConnection clientConnection = tryRequest("scancsv?filepath=stars/ten-star.csv&hasHeaders=true"
+                + "&searchType=name&columnIdentifier=Color&searchVal=sol");
+        Map<String, Object> test = adapter.fromJson(new Buffer().readFrom(clientConnection.getInputStream()));
+        Assert.assertEquals(test.get("searchType"), "name");
+
+        HttpURLConnection clientConnection2 = tryRequest("scancsv?filepath=stars/nope.csv&hasHeaders=true"
+                + "&searchType=all&searchVal=sol");
+        Map<String, Object> test2 = adapter.fromJson(new Buffer().readFrom(clientConnection2.getInputStream()));
+        Assert.assertEquals(test2.get("response_type"),
+                "error_datasource: make sure your csv's filepath is correct and within the data/ folder");
+
+        clientConnection.disconnect();
+        clientConnection2.disconnect();
+    }
+}
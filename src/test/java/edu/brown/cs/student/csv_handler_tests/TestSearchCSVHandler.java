@@ -16,12 +16,24 @@ import org.testng.annotations.Test;
 import spark.Spark;
 
 import java.io.IOException;
+import java.io.OutputStream;
 import java.lang.reflect.Type;
 import java.net.HttpURLConnection;
 import java.net.URL;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Set;
 import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import java.util.logging.Level;
 import java.util.logging.Logger;
+import java.util.stream.Stream;
+import java.util.zip.GZIPOutputStream;
 
 import static spark.Spark.after;
 
@@ -212,8 +224,21 @@ public class TestSearchCSVHandler {
         String results = "{object1={StarID=0, ProperName=Sol, X=0, Y=0, Z=0}}";
         Assert.assertEquals(test.get("data").toString(), results);
 
+        // a name that isn't one of the headers, and no name at all
+        String badRequest = "error_bad_request: make sure your data is loaded properly before searching and that"
+                + " you include searchVal and searchType queryparams, and columnIdentifier if searching by column"
+                + " name or index!";
+        HttpURLConnection clientConnection3 = tryRequest("searchcsv?searchType=name&searchVal=Sol&columnIdentifier=Color");
+        test = adapter.fromJson(new Buffer().readFrom(clientConnection3.getInputStream()));
+        Assert.assertEquals(test.get("response_type"), badRequest);
+        HttpURLConnection clientConnection4 = tryRequest("searchcsv?searchType=name&searchVal=Sol");
+        test = adapter.fromJson(new Buffer().readFrom(clientConnection4.getInputStream()));
+        Assert.assertEquals(test.get("response_type"), badRequest);
+
         clientConnection.disconnect();
         clientConnection2.disconnect();
+        clientConnection3.disconnect();
+        clientConnection4.disconnect();
     }
 
     /**
@@ -266,4 +291,722 @@ public class TestSearchCSVHandler {
         clientConnection.disconnect();
         clientConnection2.disconnect();
     }
-}
\ No newline at end of file
+
+    /**
+     * Tests SearchCSVHandler answering a repeated search with a 304 when the user sends the ETag
+     * they got, and searching again once a new csv is loaded.
+     *
+     * @throws IOException
+     */
+    @Test
+    public void testSearchCSVHandlerNotModified() throws IOException {
+        HttpURLConnection clientConnection = tryRequest("loadcsv?filepath=sample/kindergarten.csv&hasHeaders=false");
+        Assert.assertEquals(clientConnection.getResponseCode(), 200); // tests success response
+
+        HttpURLConnection clientConnection2 = tryRequest("searchcsv?searchType=all&searchVal=red");
+        Assert.assertEquals(clientConnection2.getResponseCode(), 200); // tests success response
+        String etag = clientConnection2.getHeaderField("ETag");
+        Assert.assertNotNull(etag);
+
+        // same search with the params in a different order has the same tag
+        URL requestURL = new URL("http://localhost:" + Spark.port() + "/searchcsv?searchVal=red&searchType=all");
+        HttpURLConnection clientConnection3 = (HttpURLConnection) requestURL.openConnection();
+        clientConnection3.setRequestProperty("If-None-Match", etag);
+        Assert.assertEquals(clientConnection3.getResponseCode(), 304);
+
+        HttpURLConnection clientConnection4 = tryRequest("loadcsv?filepath=sample/kindergarten.csv&hasHeaders=false");
+        Assert.assertEquals(clientConnection4.getResponseCode(), 200); // tests success response
+        HttpURLConnection clientConnection5 = (HttpURLConnection) requestURL.openConnection();
+        clientConnection5.setRequestProperty("If-None-Match", etag);
+        Assert.assertEquals(clientConnection5.getResponseCode(), 200); // reloading changes the tag
+
+        clientConnection.disconnect();
+        clientConnection2.disconnect();
+        clientConnection3.disconnect();
+        clientConnection4.disconnect();
+        clientConnection5.disconnect();
+    }
+
+    /**
+     * Tests SearchCSVHandler sending results in the formats asked for with format or Accept.
+     *
+     * @throws IOException
+     */
+    @Test
+    public void testSearchCSVHandlerFormats() throws IOException {
+        HttpURLConnection clientConnection = tryRequest("loadcsv?filepath=sample/kindergarten.csv&hasHeaders=false");
+        Assert.assertEquals(clientConnection.getResponseCode(), 200); // tests success response
+
+        HttpURLConnection clientConnection2 = tryRequest("searchcsv?searchType=all&searchVal=sam&format=columnar");
+        Assert.assertEquals(clientConnection2.getResponseCode(), 200); // tests success response
+        Assert.assertEquals(new Buffer().readFrom(clientConnection2.getInputStream()).readUtf8(),
+                "{\"response_type\":\"success\",\"headers\":[\"field1\",\"field2\",\"field3\"],"
+                        + "\"columns\":[[\"red\",\"violet\"],[\"1\",\"7\"],[\"sam\",\"sam\"]]}");
+
+        HttpURLConnection clientConnection3 = tryRequest("searchcsv?searchType=all&searchVal=sam&format=ndjson");
+        Assert.assertEquals(new Buffer().readFrom(clientConnection3.getInputStream()).readUtf8(),
+                "[\"field1\",\"field2\",\"field3\"]\n[\"red\",\"1\",\"sam\"]\n[\"violet\",\"7\",\"sam\"]\n");
+
+        // no format param, so the Accept header picks csv
+        URL requestURL = new URL("http://localhost:" + Spark.port() + "/searchcsv?searchType=all&searchVal=sam");
+        HttpURLConnection clientConnection4 = (HttpURLConnection) requestURL.openConnection();
+        clientConnection4.setRequestProperty("Accept", "application/json;q=0.5, text/csv");
+        Assert.assertTrue(clientConnection4.getContentType().startsWith("text/csv"));
+        Assert.assertEquals(new Buffer().readFrom(clientConnection4.getInputStream()).readUtf8(),
+                "red,1,sam\nviolet,7,sam\n");
+
+        HttpURLConnection clientConnection5 = tryRequest("searchcsv?searchType=all&searchVal=sam&format=xml");
+        Type mapStringObject = Types.newParameterizedType(Map.class, String.class, Object.class);
+        Moshi moshi = new Moshi.Builder().build();
+        JsonAdapter<Map<String, Object>> adapter = moshi.adapter(mapStringObject);
+        Map<String, Object> test = adapter.fromJson(new Buffer().readFrom(clientConnection5.getInputStream()));
+        Assert.assertEquals(test.get("format"), "xml");
+
+        clientConnection.disconnect();
+        clientConnection2.disconnect();
+        clientConnection3.disconnect();
+        clientConnection4.disconnect();
+        clientConnection5.disconnect();
+    }
+
+    /**
+     * Tests SearchCSVHandler only sending the columns in the fields query param.
+     *
+     * @throws IOException
+     */
+    @Test
+    public void testSearchCSVHandlerFields() throws IOException {
+        Type mapStringObject = Types.newParameterizedType(Map.class, String.class, Object.class);
+        Moshi moshi = new Moshi.Builder().build();
+        JsonAdapter<Map<String, Object>> adapter = moshi.adapter(mapStringObject);
+
+        HttpURLConnection clientConnection = tryRequest("loadcsv?filepath=sample/kindergarten.csv&hasHeaders=false");
+        Assert.assertEquals(clientConnection.getResponseCode(), 200); // tests success response
+        HttpURLConnection clientConnection2 = tryRequest("searchcsv?searchType=all&searchVal=sam&fields=2,0");
+        Map<String, Object> test = adapter.fromJson(new Buffer().readFrom(clientConnection2.getInputStream()));
+        Assert.assertEquals(test.get("data").toString(),
+                "{object1={field3=sam, field1=red}, object2={field3=sam, field1=violet}}");
+
+        HttpURLConnection clientConnection3 = tryRequest("loadcsv?filepath=sample/kindergarten.csv&hasHeaders=true");
+        Assert.assertEquals(clientConnection3.getResponseCode(), 200); // tests success response
+        HttpURLConnection clientConnection4 = tryRequest("searchcsv?searchType=all&searchVal=beth&fields=SAM&format=csv");
+        Assert.assertEquals(new Buffer().readFrom(clientConnection4.getInputStream()).readUtf8(), "sam\nbeth\nbeth\n");
+
+        HttpURLConnection clientConnection5 = tryRequest("searchcsv?searchType=all&searchVal=beth&fields=color");
+        Map<String, Object> test2 = adapter.fromJson(new Buffer().readFrom(clientConnection5.getInputStream()));
+        Assert.assertEquals(test2.get("fields"), "color");
+
+        clientConnection.disconnect();
+        clientConnection2.disconnect();
+        clientConnection3.disconnect();
+        clientConnection4.disconnect();
+        clientConnection5.disconnect();
+    }
+
+    /**
+     * Tests searching a csv that was loaded with only some columns and rows.
+     *
+     * @throws IOException
+     */
+    @Test
+    public void testSearchCSVHandlerLoadSelection() throws IOException {
+        HttpURLConnection clientConnection = tryRequest("loadcsv?filepath=sample/kindergarten.csv&hasHeaders=true"
+                + "&columns=sam,red&filterColumn=1&filterVal=4");
+        Assert.assertEquals(clientConnection.getResponseCode(), 200); // tests success response
+
+        HttpURLConnection clientConnection2 = tryRequest("searchcsv?searchType=all&searchVal=beth&format=csv");
+        Assert.assertEquals(new Buffer().readFrom(clientConnection2.getInputStream()).readUtf8(), "sam,red\nbeth,green\n");
+
+        HttpURLConnection clientConnection3 = tryRequest("loadcsv?filepath=sample/kindergarten.csv&hasHeaders=true"
+                + "&columns=color");
+        Type mapStringObject = Types.newParameterizedType(Map.class, String.class, Object.class);
+        Moshi moshi = new Moshi.Builder().build();
+        JsonAdapter<Map<String, Object>> adapter = moshi.adapter(mapStringObject);
+        Map<String, Object> test = adapter.fromJson(new Buffer().readFrom(clientConnection3.getInputStream()));
+        Assert.assertEquals(test.get("columns"), "color");
+
+        clientConnection.disconnect();
+        clientConnection2.disconnect();
+        clientConnection3.disconnect();
+    }
+
+    /**
+     * Tests loading every csv in a directory, or matching a glob, as one csv.
+     *
+     * @throws IOException
+     */
+    @Test
+    public void testSearchCSVHandlerMultiFile() throws IOException {
+        Path dir = Path.of("data/sample/multi_test");
+        try {
+            Files.createDirectories(dir);
+            Files.writeString(dir.resolve("2021.csv"), "state,count\nRI,1\nMA,2\n");
+            Files.writeString(dir.resolve("2022.csv"), "state,count\nRI,3\nCA,4\n");
+            Files.writeString(dir.resolve("notes.txt"), "not,a,csv\n");
+
+            HttpURLConnection clientConnection = tryRequest("loadcsv?filepath=sample/multi_test&hasHeaders=true&sourceColumn=file");
+            Assert.assertEquals(clientConnection.getResponseCode(), 200); // tests success response
+            HttpURLConnection clientConnection2 = tryRequest("searchcsv?searchType=name&columnIdentifier=state&searchVal=RI&format=csv");
+            Assert.assertEquals(new Buffer().readFrom(clientConnection2.getInputStream()).readUtf8(),
+                    "file,state,count\nsample/multi_test/2021.csv,RI,1\nsample/multi_test/2022.csv,RI,3\n");
+
+            HttpURLConnection clientConnection3 = tryRequest("loadcsv?filepath=sample/multi_test/*2.csv&hasHeaders=true");
+            Assert.assertEquals(clientConnection3.getResponseCode(), 200); // tests success response
+            HttpURLConnection clientConnection4 = tryRequest("searchcsv?searchType=index&columnIdentifier=0&searchVal=CA&format=csv");
+            Assert.assertEquals(new Buffer().readFrom(clientConnection4.getInputStream()).readUtf8(), "state,count\nCA,4\n");
+
+            // every file has to have the same headers
+            Files.writeString(dir.resolve("2023.csv"), "state,total\nNY,5\n");
+            HttpURLConnection clientConnection5 = tryRequest("loadcsv?filepath=sample/multi_test/20*.csv&hasHeaders=true");
+            Type mapStringObject = Types.newParameterizedType(Map.class, String.class, Object.class);
+            Moshi moshi = new Moshi.Builder().build();
+            JsonAdapter<Map<String, Object>> adapter = moshi.adapter(mapStringObject);
+            Map<String, Object> test = adapter.fromJson(new Buffer().readFrom(clientConnection5.getInputStream()));
+            Assert.assertEquals(test.get("response_type"), "error_bad_request: every csv loaded together must have the same headers");
+            Assert.assertEquals(test.get("mismatched"), "sample/multi_test/2023.csv");
+
+            clientConnection.disconnect();
+            clientConnection2.disconnect();
+            clientConnection3.disconnect();
+            clientConnection4.disconnect();
+            clientConnection5.disconnect();
+        } finally {
+            try (Stream<Path> files = Files.list(dir)) {
+                for (Path file : files.toList()) {
+                    Files.delete(file);
+                }
+            }
+            Files.delete(dir);
+        }
+    }
+
+    /**
+     * Tests loading a gzipped csv, decompressed on the thread parsing it and on a thread of its own.
+     *
+     * @throws IOException
+     */
+    @Test
+    public void testSearchCSVHandlerGzip() throws IOException {
+        Path file = Path.of("data/sample/kindergarten_test.csv.gz");
+        try {
+            try (OutputStream out = new GZIPOutputStream(Files.newOutputStream(file))) {
+                out.write(Files.readAllBytes(Path.of("data/sample/kindergarten.csv")));
+            }
+            for (String readAhead : new String[] {"false", "true"}) {
+                System.setProperty("gzip.readAhead", readAhead);
+                HttpURLConnection clientConnection = tryRequest("loadcsv?filepath=sample/kindergarten_test.csv.gz&hasHeaders=true");
+                Assert.assertEquals(clientConnection.getResponseCode(), 200); // tests success response
+                HttpURLConnection clientConnection2 = tryRequest("searchcsv?searchType=all&searchVal=beth&format=csv");
+                Assert.assertEquals(new Buffer().readFrom(clientConnection2.getInputStream()).readUtf8(),
+                        "red,1,sam\nyellow,3,beth\ngreen,4,beth\n");
+
+                clientConnection.disconnect();
+                clientConnection2.disconnect();
+            }
+        } finally {
+            System.clearProperty("gzip.readAhead");
+            Files.deleteIfExists(file);
+        }
+    }
+
+    /**
+     * Tests SearchCSVHandler range searches, and that searches still find every match when most
+     * blocks of rows are skipped.
+     *
+     * @throws IOException
+     */
+    @Test
+    public void testSearchCSVHandlerRange() throws IOException {
+        System.setProperty("zonemap.blockRows", "3"); // so ten-star.csv has four blocks to skip
+        try {
+            HttpURLConnection clientConnection = tryRequest("loadcsv?filepath=stars/ten-star.csv&hasHeaders=true");
+            Assert.assertEquals(clientConnection.getResponseCode(), 200); // tests success response
+
+            HttpURLConnection clientConnection2 = tryRequest("searchcsv?searchType=range&columnIdentifier=X&min=-1&max=1&format=csv&fields=ProperName");
+            Assert.assertEquals(new Buffer().readFrom(clientConnection2.getInputStream()).readUtf8(),
+                    "ProperName\nSol\nProxima Centauri\nRigel Kentaurus B\nRigel Kentaurus A\nBarnard's Star\n");
+            HttpURLConnection clientConnection3 = tryRequest("searchcsv?searchType=range&columnIdentifier=4&min=200&format=csv&fields=0");
+            Assert.assertEquals(new Buffer().readFrom(clientConnection3.getInputStream()).readUtf8(),
+                    "StarID\n3\n");
+            HttpURLConnection clientConnection4 = tryRequest("searchcsv?searchType=name&columnIdentifier=ProperName&searchVal=BARNARD'S%20STAR&format=csv&fields=0");
+            Assert.assertEquals(new Buffer().readFrom(clientConnection4.getInputStream()).readUtf8(),
+                    "StarID\n87666\n");
+            HttpURLConnection clientConnection5 = tryRequest("searchcsv?searchType=all&searchVal=&format=csv&fields=0");
+            Assert.assertEquals(new Buffer().readFrom(clientConnection5.getInputStream()).readUtf8(),
+                    "StarID\n1\n2\n3\n118721\n");
+
+            HttpURLConnection clientConnection6 = tryRequest("searchcsv?searchType=range&columnIdentifier=X&min=low");
+            Type mapStringObject = Types.newParameterizedType(Map.class, String.class, Object.class);
+            Moshi moshi = new Moshi.Builder().build();
+            JsonAdapter<Map<String, Object>> adapter = moshi.adapter(mapStringObject);
+            Map<String, Object> test = adapter.fromJson(new Buffer().readFrom(clientConnection6.getInputStream()));
+            Assert.assertEquals(test.get("response_type"), "error_bad_request: a range search needs a"
+                    + " column name or index for columnIdentifier and a number for min, max, or both");
+
+            clientConnection.disconnect();
+            clientConnection2.disconnect();
+            clientConnection3.disconnect();
+            clientConnection4.disconnect();
+            clientConnection5.disconnect();
+            clientConnection6.disconnect();
+        } finally {
+            System.clearProperty("zonemap.blockRows");
+        }
+    }
+
+    /**
+     * Tests SearchCSVHandler sorting matches, with a limit and with runs spilled to temp files.
+     *
+     * @throws IOException
+     */
+    @Test
+    public void testSearchCSVHandlerSort() throws IOException {
+        HttpURLConnection clientConnection = tryRequest("loadcsv?filepath=stars/ten-star.csv&hasHeaders=true");
+        Assert.assertEquals(clientConnection.getResponseCode(), 200); // tests success response
+
+        HttpURLConnection clientConnection2 = tryRequest("searchcsv?searchType=range&columnIdentifier=X&min=-1&max=1&sort=X:desc&limit=3&format=csv&fields=ProperName");
+        Assert.assertEquals(new Buffer().readFrom(clientConnection2.getInputStream()).readUtf8(),
+                "ProperName\nSol\nBarnard's Star\nProxima Centauri\n");
+        System.setProperty("sort.memoryRows", "2");
+        try {
+            HttpURLConnection clientConnection3 = tryRequest("searchcsv?searchType=range&columnIdentifier=X&min=-1&max=1&sort=ProperName&format=csv&fields=ProperName");
+            Assert.assertEquals(new Buffer().readFrom(clientConnection3.getInputStream()).readUtf8(),
+                    "ProperName\nBarnard's Star\nProxima Centauri\nRigel Kentaurus A\nRigel Kentaurus B\nSol\n");
+            clientConnection3.disconnect();
+        } finally {
+            System.clearProperty("sort.memoryRows");
+        }
+        // without sort, limit keeps the first matches in file order
+        HttpURLConnection clientConnection4 = tryRequest("searchcsv?searchType=range&columnIdentifier=X&min=-1&max=1&limit=2&format=csv&fields=0");
+        Assert.assertEquals(new Buffer().readFrom(clientConnection4.getInputStream()).readUtf8(),
+                "StarID\n0\n70667\n");
+
+        HttpURLConnection clientConnection5 = tryRequest("searchcsv?searchType=all&searchVal=Sol&limit=0");
+        Type mapStringObject = Types.newParameterizedType(Map.class, String.class, Object.class);
+        Moshi moshi = new Moshi.Builder().build();
+        JsonAdapter<Map<String, Object>> adapter = moshi.adapter(mapStringObject);
+        Map<String, Object> test = adapter.fromJson(new Buffer().readFrom(clientConnection5.getInputStream()));
+        Assert.assertEquals(test.get("response_type"), "error_bad_request: sort must be a comma separated"
+                + " list of header names or column indexes in the loaded csv, each optionally followed by"
+                + " :asc or :desc and :number or :string, and limit a positive number");
+        Assert.assertEquals(test.get("limit"), "0");
+
+        clientConnection.disconnect();
+        clientConnection2.disconnect();
+        clientConnection4.disconnect();
+        clientConnection5.disconnect();
+    }
+
+    /**
+     * Tests SearchCSVHandler answering searches sent at the same time, which share one scan.
+     *
+     * @throws Exception
+     */
+    @Test
+    public void testSearchCSVHandlerShared() throws Exception {
+        System.setProperty("zonemap.blockRows", "3");
+        System.setProperty("scan.windowMillis", "50"); // so the searches all get in on the first scan
+        ExecutorService pool = Executors.newFixedThreadPool(6);
+        try {
+            HttpURLConnection clientConnection = tryRequest("loadcsv?filepath=stars/ten-star.csv&hasHeaders=true");
+            Assert.assertEquals(clientConnection.getResponseCode(), 200); // tests success response
+            clientConnection.disconnect();
+
+            Map<String, String> searches = Map.of(
+                    "searchType=range&columnIdentifier=X&min=-1&max=1&fields=ProperName",
+                    "ProperName\nSol\nProxima Centauri\nRigel Kentaurus B\nRigel Kentaurus A\nBarnard's Star\n",
+                    "searchType=range&columnIdentifier=Z&min=0&fields=0", "StarID\n0\n1\n3\n3759\n87666\n118721\n",
+                    "searchType=range&columnIdentifier=Y&max=0&fields=0", "StarID\n0\n70667\n71454\n71457\n87666\n",
+                    "searchType=name&columnIdentifier=ProperName&searchVal=BARNARD'S%20STAR&fields=0", "StarID\n87666\n",
+                    "searchType=index&columnIdentifier=0&searchVal=3759&fields=1", "ProperName\n96 G. Psc\n",
+                    "searchType=all&searchVal=&fields=0", "StarID\n1\n2\n3\n118721\n");
+            Map<String, Future<String>> answers = new HashMap<>();
+            for (String search : searches.keySet()) {
+                answers.put(search, pool.submit(() -> {
+                    HttpURLConnection connection = tryRequest("searchcsv?format=csv&" + search);
+                    String body = new Buffer().readFrom(connection.getInputStream()).readUtf8();
+                    connection.disconnect();
+                    return body;
+                }));
+            }
+            for (String search : searches.keySet()) { // each gets its own matches back, in file order
+                Assert.assertEquals(answers.get(search).get(), searches.get(search), search);
+            }
+        } finally {
+            pool.shutdown();
+            System.clearProperty("zonemap.blockRows");
+            System.clearProperty("scan.windowMillis");
+        }
+    }
+
+    /**
+     * Tests SearchCSVHandler explaining its plans, and switching to an index once a column is
+     * searched often enough.
+     *
+     * @throws IOException
+     */
+    @Test
+    public void testSearchCSVHandlerExplain() throws IOException {
+        System.setProperty("index.dir", ""); // so no index is kept from an earlier run
+        try {
+            explain();
+        } finally {
+            System.clearProperty("index.dir");
+        }
+    }
+
+    private void explain() throws IOException {
+        HttpURLConnection clientConnection = tryRequest("loadcsv?filepath=census/income_by_race_edited.csv&hasHeaders=true");
+        Assert.assertEquals(clientConnection.getResponseCode(), 200); // tests success response
+        String search = "searchcsv?searchType=name&columnIdentifier=race&searchVal=WHITE";
+        HttpURLConnection clientConnection2 = tryRequest(search + "&format=csv&fields=0,3");
+        String scanned = new Buffer().readFrom(clientConnection2.getInputStream()).readUtf8();
+
+        Type mapStringObject = Types.newParameterizedType(Map.class, String.class, Object.class);
+        Moshi moshi = new Moshi.Builder().build();
+        JsonAdapter<Map<String, Object>> adapter = moshi.adapter(mapStringObject);
+        // the first few searches of Race are scanned, until building its index is worth it
+        for (String access : new String[] {"scan", "scan", "index", "index"}) {
+            HttpURLConnection connection = tryRequest(search + "&explain=true");
+            Map<String, Object> plan = (Map<String, Object>) adapter.fromJson(
+                    new Buffer().readFrom(connection.getInputStream())).get("plan");
+            Assert.assertEquals(plan.get("access"), access);
+            Assert.assertEquals(plan.get("search"), "Race = 'WHITE'");
+            Assert.assertEquals(plan.get("estimated_rows"), 40.0);
+            Assert.assertEquals(plan.get("actual_rows"), 40.0);
+            Assert.assertEquals(((Map<String, Object>) plan.get("costs")).keySet(), Set.of("scan", "index"));
+            connection.disconnect();
+        }
+        HttpURLConnection clientConnection3 = tryRequest(search + "&format=csv&fields=0,3&limit=100");
+        Assert.assertEquals(new Buffer().readFrom(clientConnection3.getInputStream()).readUtf8(), scanned);
+
+        HttpURLConnection clientConnection4 = tryRequest("searchcsv?searchType=all&searchVal=2020&explain=true");
+        Map<String, Object> plan = (Map<String, Object>) adapter.fromJson(
+                new Buffer().readFrom(clientConnection4.getInputStream())).get("plan");
+        Assert.assertEquals(plan.get("access"), "scan");
+        // only the columns with 2020 in them are tested, most likely first
+        Assert.assertEquals(plan.get("columns"), List.of("ID Year", "Year", "Household Income by Race",
+                "Household Income by Race Moe"));
+        Assert.assertEquals(plan.get("actual_rows"), 40.0);
+
+        HttpURLConnection clientConnection5 = tryRequest("searchcsv?searchType=range&columnIdentifier=4&min=60000&max=80000&explain=true");
+        plan = (Map<String, Object>) adapter.fromJson(
+                new Buffer().readFrom(clientConnection5.getInputStream())).get("plan");
+        Assert.assertEquals(plan.get("estimated_rows"), 120.0);
+        Assert.assertEquals(plan.get("actual_rows"), 120.0);
+
+        clientConnection.disconnect();
+        clientConnection2.disconnect();
+        clientConnection3.disconnect();
+        clientConnection4.disconnect();
+        clientConnection5.disconnect();
+    }
+
+    /**
+     * Tests that the indexes a search builds are kept in files, used straight away when the same
+     * csv is loaded again, and left alone once the csv changes.
+     *
+     * @throws IOException
+     */
+    @Test
+    public void testSearchCSVHandlerIndexFiles() throws IOException {
+        Path dir = Files.createTempDirectory("index-test");
+        Path csv = Path.of("data/sample/index_test.csv");
+        System.setProperty("index.dir", dir.toString());
+        try {
+            Files.copy(Path.of("data/census/income_by_race_edited.csv"), csv);
+            String load = "loadcsv?filepath=sample/index_test.csv&hasHeaders=true";
+            String search = "searchcsv?searchType=name&columnIdentifier=race&searchVal=WHITE&explain=true";
+            HttpURLConnection clientConnection = tryRequest(load);
+            Assert.assertEquals(clientConnection.getResponseCode(), 200); // tests success response
+            Map<String, Object> plan = explainPlan(search);
+            for (int searches = 1; !plan.get("access").equals("index"); searches++) {
+                Assert.assertTrue(searches < 10, "the index should have been built by now");
+                plan = explainPlan(search);
+            }
+            Assert.assertEquals(plan.get("index_built"), true);
+            try (Stream<Path> files = Files.list(dir)) {
+                Assert.assertEquals(files.filter(file -> file.toString().endsWith(".postings")).count(), 1L);
+            }
+
+            // loaded again, the first search uses the index from its file
+            HttpURLConnection clientConnection2 = tryRequest(load);
+            Assert.assertEquals(clientConnection2.getResponseCode(), 200); // tests success response
+            plan = explainPlan(search);
+            Assert.assertEquals(plan.get("access"), "index");
+            Assert.assertEquals(plan.get("index_built"), false);
+            Assert.assertEquals(plan.get("actual_rows"), 40.0);
+
+            // once the csv has changed, its file doesn't match and is built again
+            Files.writeString(csv, "\n1,White,2021,2021,1,1,\"Kent County, RI\",05000US44003,kent-county-ri\n",
+                    StandardOpenOption.APPEND);
+            HttpURLConnection clientConnection3 = tryRequest(load);
+            Assert.assertEquals(clientConnection3.getResponseCode(), 200); // tests success response
+            plan = explainPlan(search);
+            Assert.assertEquals(plan.get("access"), "scan");
+            Assert.assertEquals(plan.get("actual_rows"), 41.0);
+
+            clientConnection.disconnect();
+            clientConnection2.disconnect();
+            clientConnection3.disconnect();
+        } finally {
+            System.clearProperty("index.dir");
+            Files.deleteIfExists(csv);
+            try (Stream<Path> files = Files.list(dir)) {
+                for (Path file : files.toList()) {
+                    Files.delete(file);
+                }
+            }
+            Files.delete(dir);
+        }
+    }
+
+    /**
+     * Tests loading a csv with the Lucene backend: it finds the same rows as the scan for the
+     * searches both can run, and can also search text, prefixes and fuzzy words, which the scan
+     * can't.
+     *
+     * @throws IOException
+     */
+    @Test
+    public void testSearchCSVHandlerLucene() throws IOException {
+        System.setProperty("index.dir", ""); // indexed in memory
+        try {
+            String load = "loadcsv?filepath=census/income_by_race_edited.csv&hasHeaders=true";
+            String[] searches = {"searchType=name&columnIdentifier=race&searchVal=WHITE",
+                    "searchType=all&searchVal=2020", "searchType=index&columnIdentifier=0&searchVal=0",
+                    "searchType=range&columnIdentifier=4&min=60000&max=80000"};
+            HttpURLConnection clientConnection = tryRequest(load);
+            Assert.assertEquals(clientConnection.getResponseCode(), 200); // tests success response
+            String[] scanned = new String[searches.length];
+            for (int i = 0; i < searches.length; i++) {
+                HttpURLConnection connection = tryRequest("searchcsv?" + searches[i] + "&format=csv");
+                scanned[i] = new Buffer().readFrom(connection.getInputStream()).readUtf8();
+                connection.disconnect();
+            }
+            Type mapStringObject = Types.newParameterizedType(Map.class, String.class, Object.class);
+            JsonAdapter<Map<String, Object>> adapter = new Moshi.Builder().build().adapter(mapStringObject);
+            HttpURLConnection clientConnection2 = tryRequest("searchcsv?searchType=text&searchVal=bristol");
+            Map<String, Object> test = adapter.fromJson(new Buffer().readFrom(clientConnection2.getInputStream()));
+            Assert.assertEquals(test.get("response_type"),
+                    "error_bad_request: text, prefix and fuzzy searches need the csv loaded with backend=lucene");
+
+            HttpURLConnection clientConnection3 = tryRequest(load + "&backend=lucene");
+            Assert.assertEquals(clientConnection3.getResponseCode(), 200); // tests success response
+            for (int i = 0; i < searches.length; i++) {
+                HttpURLConnection connection = tryRequest("searchcsv?" + searches[i] + "&format=csv");
+                Assert.assertEquals(new Buffer().readFrom(connection.getInputStream()).readUtf8(), scanned[i]);
+                connection.disconnect();
+            }
+            HttpURLConnection clientConnection4 = tryRequest(
+                    "searchcsv?searchType=text&searchVal=Bristol%20county&columnIdentifier=geography&format=csv&fields=1,6&limit=2");
+            Assert.assertEquals(new Buffer().readFrom(clientConnection4.getInputStream()).readUtf8(),
+                    "Race,Geography\nTotal,\"Bristol County, RI\"\nWhite,\"Bristol County, RI\"\n");
+            Map<String, Object> plan = explainPlan("searchcsv?searchType=prefix&searchVal=provid&explain=true");
+            Assert.assertEquals(plan.get("access"), "lucene");
+            Assert.assertEquals(plan.get("actual_rows"), 79.0); // Providence County
+            plan = explainPlan("searchcsv?searchType=fuzzy&columnIdentifier=race&searchVal=whte&edits=1&explain=true");
+            Assert.assertEquals(plan.get("actual_rows"), 80.0); // White and White Non-Hispanic
+            HttpURLConnection clientConnection5 = tryRequest("searchcsv?searchType=fuzzy&searchVal=whte&edits=3");
+            test = adapter.fromJson(new Buffer().readFrom(clientConnection5.getInputStream()));
+            Assert.assertEquals(test.get("edits"), "3");
+
+            HttpURLConnection clientConnection6 = tryRequest(load + "&backend=elastic");
+            test = adapter.fromJson(new Buffer().readFrom(clientConnection6.getInputStream()));
+            Assert.assertEquals(test.get("response_type"), "error_bad_request: backend must be 'scan', 'lucene', or 'sql'");
+
+            clientConnection.disconnect();
+            clientConnection2.disconnect();
+            clientConnection3.disconnect();
+            clientConnection4.disconnect();
+            clientConnection5.disconnect();
+            clientConnection6.disconnect();
+        } finally {
+            System.clearProperty("index.dir");
+        }
+    }
+
+    /**
+     * Tests loading a csv with a value longer than Lucene's biggest term with the Lucene backend:
+     * the load doesn't fail, and the value's row is still found by the searches of its words.
+     *
+     * @throws IOException
+     */
+    @Test
+    public void testSearchCSVHandlerLuceneLongValue() throws IOException {
+        Path file = Path.of("data/sample/lucene_long.csv");
+        System.setProperty("index.dir", ""); // indexed in memory
+        try {
+            Files.writeString(file, "id,text\n1," + "lorem ipsum ".repeat(3000) + "\n2,short\n");
+            HttpURLConnection clientConnection =
+                    tryRequest("loadcsv?filepath=sample/lucene_long.csv&hasHeaders=true&backend=lucene");
+            Type mapStringObject = Types.newParameterizedType(Map.class, String.class, Object.class);
+            JsonAdapter<Map<String, Object>> adapter = new Moshi.Builder().build().adapter(mapStringObject);
+            Map<String, Object> test = adapter.fromJson(new Buffer().readFrom(clientConnection.getInputStream()));
+            Assert.assertEquals(test.get("response_type"), "success");
+
+            HttpURLConnection clientConnection2 = tryRequest("searchcsv?searchType=all&searchVal=SHORT&format=csv");
+            Assert.assertEquals(new Buffer().readFrom(clientConnection2.getInputStream()).readUtf8(),
+                    "id,text\n2,short\n");
+            HttpURLConnection clientConnection3 =
+                    tryRequest("searchcsv?searchType=text&searchVal=ipsum%20lorem&columnIdentifier=text&format=csv&fields=id");
+            Assert.assertEquals(new Buffer().readFrom(clientConnection3.getInputStream()).readUtf8(), "id\n1\n");
+
+            clientConnection.disconnect();
+            clientConnection2.disconnect();
+            clientConnection3.disconnect();
+        } finally {
+            System.clearProperty("index.dir");
+            Files.deleteIfExists(file);
+        }
+    }
+
+    /**
+     * Tests that searches of a csv loaded with backend=sql match the same rows the scan backend does, and that
+     * the column an equals search looks up is only indexed by its first search
+     */
+    @Test
+    public void testSearchCSVHandlerSql() throws IOException {
+        System.setProperty("index.dir", ""); // the table is kept in a temporary file
+        try {
+            String load = "loadcsv?filepath=census/income_by_race_edited.csv&hasHeaders=true";
+            String[] searches = {"searchType=name&columnIdentifier=race&searchVal=WHITE",
+                    "searchType=all&searchVal=2020", "searchType=index&columnIdentifier=0&searchVal=0",
+                    "searchType=range&columnIdentifier=4&min=60000&max=80000"};
+            HttpURLConnection clientConnection = tryRequest(load);
+            Assert.assertEquals(clientConnection.getResponseCode(), 200); // tests success response
+            String[] scanned = new String[searches.length];
+            for (int i = 0; i < searches.length; i++) {
+                HttpURLConnection connection = tryRequest("searchcsv?" + searches[i] + "&format=csv");
+                scanned[i] = new Buffer().readFrom(connection.getInputStream()).readUtf8();
+                connection.disconnect();
+            }
+
+            HttpURLConnection clientConnection2 = tryRequest(load + "&backend=SQL");
+            Assert.assertEquals(clientConnection2.getResponseCode(), 200); // tests success response
+            Map<String, Object> plan = explainPlan("searchcsv?searchType=name&columnIdentifier=year&searchVal=2020&explain=true");
+            Assert.assertEquals(plan.get("access"), "sql");
+            Assert.assertEquals(plan.get("actual_rows"), 40.0);
+            Assert.assertEquals(plan.get("index_built"), true);
+            plan = explainPlan("searchcsv?searchType=name&columnIdentifier=year&searchVal=2020&explain=true");
+            Assert.assertEquals(plan.get("index_built"), false);
+            for (int i = 0; i < searches.length; i++) {
+                HttpURLConnection connection = tryRequest("searchcsv?" + searches[i] + "&format=csv");
+                Assert.assertEquals(new Buffer().readFrom(connection.getInputStream()).readUtf8(), scanned[i]);
+                connection.disconnect();
+            }
+
+            Type mapStringObject = Types.newParameterizedType(Map.class, String.class, Object.class);
+            JsonAdapter<Map<String, Object>> adapter = new Moshi.Builder().build().adapter(mapStringObject);
+            HttpURLConnection clientConnection3 = tryRequest("searchcsv?searchType=prefix&searchVal=provid");
+            Map<String, Object> test = adapter.fromJson(new Buffer().readFrom(clientConnection3.getInputStream()));
+            Assert.assertEquals(test.get("backend"), "sql");
+
+            clientConnection.disconnect();
+            clientConnection2.disconnect();
+            clientConnection3.disconnect();
+        } finally {
+            System.clearProperty("index.dir");
+        }
+    }
+
+    /**
+     * Tests SearchCSVHandler searching every loaded csv at once, with matches tagged by csv, and
+     * that a global search stops once it has limit matches.
+     *
+     * @throws IOException
+     */
+    @Test
+    public void testSearchCSVHandlerGlobal() throws IOException {
+        System.setProperty("zonemap.blockRows", "8"); // so each csv has partitions to cancel
+        try {
+            HttpURLConnection clientConnection = tryRequest("loadcsv?filepath=census/dol_ri_earnings_disparity.csv&hasHeaders=true&name=earnings");
+            Assert.assertEquals(clientConnection.getResponseCode(), 200); // tests success response
+            HttpURLConnection clientConnection2 = tryRequest("loadcsv?filepath=census/postsecondary_education.csv&hasHeaders=true&name=education");
+            Assert.assertEquals(clientConnection2.getResponseCode(), 200);
+            HttpURLConnection clientConnection3 = tryRequest("loadcsv?filepath=census/income_by_race_edited.csv&hasHeaders=true");
+            Assert.assertEquals(clientConnection3.getResponseCode(), 200);
+
+            Type mapStringObject = Types.newParameterizedType(Map.class, String.class, Object.class);
+            JsonAdapter<Map<String, Object>> adapter = new Moshi.Builder().build().adapter(mapStringObject);
+            HttpURLConnection clientConnection4 = tryRequest("searchcsv?searchType=global&searchVal=WHITE");
+            Map<String, Object> test = adapter.fromJson(new Buffer().readFrom(clientConnection4.getInputStream()));
+            Assert.assertEquals(test.get("response_type"), "success");
+            Assert.assertEquals(test.get("datasets"),
+                    List.of("census/income_by_race_edited.csv", "earnings", "education"));
+            Assert.assertEquals(test.get("limit_reached"), false);
+            Assert.assertEquals(test.get("partitions_cancelled"), 0.0);
+            List<Map<String, Object>> data = (List<Map<String, Object>>) test.get("data");
+            Assert.assertEquals(data.size(), 43);
+            Assert.assertEquals(data.stream().filter(match -> match.get("dataset").equals("earnings")).count(), 1);
+            Assert.assertEquals(data.stream().filter(match -> match.get("dataset").equals("education")).count(), 2);
+            Assert.assertEquals(data.get(40), Map.of("dataset", "earnings",
+                    "row", List.of("RI", "White", "\" $1,058.47 \"", "395773.6521", "$1.00", "75%")));
+
+            HttpURLConnection clientConnection5 = tryRequest("searchcsv?searchType=global&searchVal=white&limit=3");
+            test = adapter.fromJson(new Buffer().readFrom(clientConnection5.getInputStream()));
+            Assert.assertEquals(((List<?>) test.get("data")).size(), 3);
+            Assert.assertEquals(test.get("limit_reached"), true);
+            Assert.assertTrue((Double) test.get("partitions_cancelled") > 0);
+
+            HttpURLConnection clientConnection6 = tryRequest("searchcsv?searchType=global&searchVal=white&limit=none");
+            test = adapter.fromJson(new Buffer().readFrom(clientConnection6.getInputStream()));
+            Assert.assertEquals(test.get("response_type"),
+                    "error_bad_request: a global search needs a searchVal, and limit a positive number");
+
+            clientConnection.disconnect();
+            clientConnection2.disconnect();
+            clientConnection3.disconnect();
+            clientConnection4.disconnect();
+            clientConnection5.disconnect();
+            clientConnection6.disconnect();
+        } finally {
+            System.clearProperty("zonemap.blockRows");
+        }
+    }
+
+    /**
+     * Tests that a global search that reaches its limit sends exactly limit matches, with
+     * partitions running on every thread when the limit is reached.
+     *
+     * @throws IOException
+     */
+    @Test
+    public void testSearchCSVHandlerGlobalLimit() throws IOException {
+        Path file = Path.of("data/sample/global_test.csv");
+        System.setProperty("zonemap.blockRows", "512");
+        try {
+            StringBuilder csv = new StringBuilder("id,value\n");
+            for (int i = 0; i < 200000; i++) {
+                csv.append(i).append(i % 7 == 0 ? ",x\n" : ",y\n");
+            }
+            Files.writeString(file, csv);
+            HttpURLConnection clientConnection = tryRequest("loadcsv?filepath=sample/global_test.csv&hasHeaders=true&name=global");
+            Assert.assertEquals(clientConnection.getResponseCode(), 200); // tests success response
+
+            Type mapStringObject = Types.newParameterizedType(Map.class, String.class, Object.class);
+            JsonAdapter<Map<String, Object>> adapter = new Moshi.Builder().build().adapter(mapStringObject);
+            for (int run = 0; run < 50; run++) {
+                HttpURLConnection connection = tryRequest("searchcsv?searchType=global&searchVal=x&limit=5000");
+                Map<String, Object> test = adapter.fromJson(new Buffer().readFrom(connection.getInputStream()));
+                Assert.assertEquals(test.get("limit_reached"), true);
+                Assert.assertEquals(((List<?>) test.get("data")).size(), 5000);
+                connection.disconnect();
+            }
+            clientConnection.disconnect();
+        } finally {
+            System.clearProperty("zonemap.blockRows");
+            Files.deleteIfExists(file);
+        }
+    }
+
+    private static Map<String, Object> explainPlan(String search) throws IOException {
+        Type mapStringObject = Types.newParameterizedType(Map.class, String.class, Object.class);
+        JsonAdapter<Map<String, Object>> adapter = new Moshi.Builder().build().adapter(mapStringObject);
+        HttpURLConnection connection = tryRequest(search);
+        Map<String, Object> plan = (Map<String, Object>) adapter.fromJson(
+                new Buffer().readFrom(connection.getInputStream())).get("plan");
+        connection.disconnect();
+        return plan;
+    }
+}
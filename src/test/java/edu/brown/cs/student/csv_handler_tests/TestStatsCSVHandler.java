@@ -0,0 +1,125 @@
+package edu.brown.cs.student.csv_handler_tests;
+
+import edu.brown.cs.student.main.server.main.LoadCSVHandler;
+import edu.brown.cs.student.main.server.main.StatsCSVHandler;
+import org.testng.Assert;
+import org.testng.annotations.AfterTest;
+import org.testng.annotations.BeforeSuite;
+import org.testng.annotations.BeforeTest;
+import org.testng.annotations.Test;
+import spark.Spark;
+
+import java.io.IOException;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.util.List;
+import java.util.Map;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import static edu.brown.cs.student.csv_handler_tests.HandlerResponses.OBJECTS;
+import static edu.brown.cs.student.csv_handler_tests.HandlerResponses.as;
+import static edu.brown.cs.student.csv_handler_tests.HandlerResponses.read;
+import static spark.Spark.after;
+
+public class TestStatsCSVHandler {
+
+    @BeforeSuite
+    public static void setupOnce() {
+        Spark.port(0);
+        Logger.getLogger("").setLevel(Level.WARNING);
+
+        after((request, response) -> {
+            response.header("Access-Control-Allow-Origin", "*");
+            response.header("Access-Control-Allow-Methods", "*");
+        });
+    }
+
+    @BeforeTest
+    public void setup() {
+        LoadCSVHandler loader = new LoadCSVHandler();
+        Spark.get("loadcsv", loader);
+        Spark.get("statscsv", new StatsCSVHandler(loader));
+        Spark.awaitInitialization();
+    }
+
+    @AfterTest
+    public void teardown() {
+        Spark.unmap("/statscsv");
+        Spark.unmap("/loadcsv");
+
+        Spark.awaitStop();
+    }
+
+    static private HttpURLConnection tryRequest(String apiCall) throws IOException {
+        URL requestURL = new URL("http://localhost:" + Spark.port() + "/" + apiCall);
+        HttpURLConnection clientConnection = (HttpURLConnection) requestURL.openConnection();
+
+        clientConnection.connect();
+        return clientConnection;
+    }
+
+    /**
+     * Tests StatsCSVHandler's statistics for each column of a loaded csv.
+     *
+     * @throws IOException
+     */
+    @Test
+    public void testStatsCSVHandler() throws IOException {
+        HttpURLConnection clientConnection = tryRequest("loadcsv?filepath=stars/ten-star.csv&hasHeaders=true");
+        Assert.assertEquals(clientConnection.getResponseCode(), 200); // tests success response
+        HttpURLConnection clientConnection2 = tryRequest("statscsv");
+        Assert.assertEquals(clientConnection2.getResponseCode(), 200); // tests success response
+
+        Map<String, Object> test = read(clientConnection2);
+        Assert.assertEquals(test.get("response_type"), "success");
+        Assert.assertEquals(test.get("rows"), 10.0);
+        Assert.assertNull(test.get("blocks")); // only sent when asked for
+        List<Map<String, Object>> columns = as(test.get("columns"), OBJECTS);
+        Assert.assertEquals(columns.size(), 5);
+        Assert.assertEquals(columns.get(1),
+                Map.of("column", "ProperName", "nulls", 4.0, "numeric", false));
+        Assert.assertEquals(columns.get(2), Map.of("column", "X", "nulls", 0.0, "numeric", true,
+                "min", -2.28262, "max", 282.43485));
+
+        clientConnection.disconnect();
+        clientConnection2.disconnect();
+    }
+
+    /**
+     * Tests StatsCSVHandler's statistics for each block of rows.
+     *
+     * @throws IOException
+     */
+    @Test
+    public void testStatsCSVHandlerBlocks() throws IOException {
+        System.setProperty("zonemap.blockRows", "4");
+        try {
+            HttpURLConnection clientConnection = tryRequest("loadcsv?filepath=stars/ten-star.csv&hasHeaders=true");
+            Assert.assertEquals(clientConnection.getResponseCode(), 200); // tests success response
+            HttpURLConnection clientConnection2 = tryRequest("statscsv?blocks=true");
+
+            Map<String, Object> test = read(clientConnection2);
+            Assert.assertEquals(test.get("blockRows"), 4.0);
+            List<Map<String, Object>> blocks = as(test.get("blocks"), OBJECTS);
+            Assert.assertEquals(blocks.size(), 3);
+            Assert.assertEquals(blocks.get(2).get("firstRow"), 8.0);
+            Assert.assertEquals(blocks.get(2).get("rows"), 2.0);
+            List<Map<String, Object>> columns = as(blocks.get(0).get("columns"), OBJECTS);
+            Assert.assertEquals(columns.get(1).get("nulls"), 3.0);
+            Assert.assertEquals(columns.get(1).get("distinct"), 1.0);
+            Assert.assertEquals(columns.get(4).get("min"), -15.24144);
+            Assert.assertEquals(columns.get(4).get("max"), 223.27753);
+
+            HttpURLConnection clientConnection3 = tryRequest("statscsv?blocks=maybe");
+            Assert.assertEquals(read(clientConnection3).get("response_type"),
+                    "error_bad_request: enter true or false for blocks query param");
+
+            clientConnection.disconnect();
+            clientConnection2.disconnect();
+            clientConnection3.disconnect();
+        } finally {
+            System.clearProperty("zonemap.blockRows");
+        }
+    }
+}
@@ -19,10 +19,14 @@ import java.io.IOException;
 import java.lang.reflect.Type;
 import java.net.HttpURLConnection;
 import java.net.URL;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
 import java.util.List;
 import java.util.Map;
 import java.util.logging.Level;
 import java.util.logging.Logger;
+import java.util.zip.GZIPInputStream;
 
 import static spark.Spark.after;
 
@@ -173,4 +177,293 @@ public class TestViewCSVHandler {
         clientConnection2.disconnect();;
         clientConnection3.disconnect();
     }
-}
\ No newline at end of file
+
+    /**
+     * Tests ViewCSVHandler viewing one page of the csv, and an invalid page.
+     *
+     * @throws IOException
+     */
+    @Test
+    public void testViewCSVHandlerPage() throws IOException {
+        HttpURLConnection clientConnection = tryRequest("loadcsv?filepath=sample/kindergarten.csv&hasHeaders=true");
+        Assert.assertEquals(clientConnection.getResponseCode(), 200); // tests success response
+
+        HttpURLConnection clientConnection2 = tryRequest("viewcsv?page=2&pageSize=4");
+        Assert.assertEquals(clientConnection2.getResponseCode(), 200); // tests success response
+
+        Type mapStringObject = Types.newParameterizedType(Map.class, String.class, Object.class);
+        Moshi moshi = new Moshi.Builder().build();
+        JsonAdapter<Map<String, Object>> adapter = moshi.adapter(mapStringObject);
+        Map<String, Object> test = adapter.fromJson(new Buffer().readFrom(clientConnection2.getInputStream()));
+        Assert.assertEquals(test.get("response_type"), "success");
+        String resultMap = "{object5={red=indigo, 1=6, sam=ellie}, object6={red=violet, 1=7, sam=sam}}";
+        Assert.assertEquals(test.get("data").toString(), resultMap); // numbering continues across pages
+
+        HttpURLConnection clientConnection3 = tryRequest("viewcsv?page=0&pageSize=4");
+        Map<String, Object> test2 = adapter.fromJson(new Buffer().readFrom(clientConnection3.getInputStream()));
+        Assert.assertEquals(test2.get("response_type"), "error_bad_request: enter positive numbers for " +
+                "both page and pageSize, or leave both out to view every row");
+
+        clientConnection.disconnect();
+        clientConnection2.disconnect();
+        clientConnection3.disconnect();
+    }
+
+    /**
+     * Tests ViewCSVHandler gzipping a big csv for a client that accepts gzip, and leaving a small
+     * one uncompressed.
+     *
+     * @throws IOException
+     */
+    @Test
+    public void testViewCSVHandlerGzip() throws IOException {
+        HttpURLConnection clientConnection = tryRequest("loadcsv?filepath=census/income_by_race_edited.csv&hasHeaders=true");
+        Assert.assertEquals(clientConnection.getResponseCode(), 200); // tests success response
+
+        HttpURLConnection clientConnection2 = tryRequest("viewcsv");
+        Assert.assertNull(clientConnection2.getHeaderField("Content-Encoding"));
+        String plain = new Buffer().readFrom(clientConnection2.getInputStream()).readUtf8();
+
+        URL requestURL = new URL("http://localhost:" + Spark.port() + "/viewcsv");
+        HttpURLConnection clientConnection3 = (HttpURLConnection) requestURL.openConnection();
+        clientConnection3.setRequestProperty("Accept-Encoding", "gzip");
+        Assert.assertEquals(clientConnection3.getHeaderField("Content-Encoding"), "gzip");
+        String unzipped = new Buffer().readFrom(new GZIPInputStream(clientConnection3.getInputStream())).readUtf8();
+        Assert.assertEquals(unzipped, plain);
+        Assert.assertNotEquals(clientConnection3.getHeaderField("ETag"), clientConnection2.getHeaderField("ETag"));
+
+        HttpURLConnection clientConnection4 = tryRequest("viewcsv?page=1&pageSize=1"); // too small to compress
+        HttpURLConnection clientConnection5 = (HttpURLConnection) new URL("http://localhost:" + Spark.port()
+                + "/viewcsv?page=1&pageSize=1").openConnection();
+        clientConnection5.setRequestProperty("Accept-Encoding", "gzip");
+        Assert.assertNull(clientConnection5.getHeaderField("Content-Encoding"));
+        Assert.assertEquals(new Buffer().readFrom(clientConnection5.getInputStream()).readUtf8(),
+                new Buffer().readFrom(clientConnection4.getInputStream()).readUtf8());
+
+        clientConnection.disconnect();
+        clientConnection2.disconnect();
+        clientConnection3.disconnect();
+        clientConnection4.disconnect();
+        clientConnection5.disconnect();
+    }
+
+    /**
+     * Tests that lines appended to the loaded csv's file show up in viewcsv without loading it
+     * again, and that a rewritten file gets loaded again.
+     *
+     * @throws Exception
+     */
+    @Test
+    public void testViewCSVHandlerReload() throws Exception {
+        Path file = Path.of("data/sample/reload_test.csv");
+        try {
+            Files.writeString(file, "color,number\nred,1\norange,2\n");
+            HttpURLConnection clientConnection = tryRequest("loadcsv?filepath=sample/reload_test.csv&hasHeaders=true");
+            Assert.assertEquals(clientConnection.getResponseCode(), 200);
+            Assert.assertEquals(viewUntil("color,number\nred,1\norange,2\n"), "color,number\nred,1\norange,2\n");
+
+            // appended lines get added on, and a half written line waits until it's finished
+            Files.writeString(file, "yellow,3\ngre", StandardOpenOption.APPEND);
+            Assert.assertEquals(viewUntil("color,number\nred,1\norange,2\nyellow,3\n"),
+                    "color,number\nred,1\norange,2\nyellow,3\n");
+            Files.writeString(file, "en,4\n", StandardOpenOption.APPEND);
+            Assert.assertEquals(viewUntil("color,number\nred,1\norange,2\nyellow,3\ngreen,4\n"),
+                    "color,number\nred,1\norange,2\nyellow,3\ngreen,4\n");
+
+            // a rewritten file is loaded from scratch, even if it's bigger than before
+            Files.writeString(file, "color,number\nblue,5\nindigo,6\nviolet,7\npink,8\nblack,9\n");
+            Assert.assertEquals(viewUntil("color,number\nblue,5\nindigo,6\nviolet,7\npink,8\nblack,9\n"),
+                    "color,number\nblue,5\nindigo,6\nviolet,7\npink,8\nblack,9\n");
+
+            clientConnection.disconnect();
+        } finally {
+            Files.deleteIfExists(file);
+        }
+    }
+
+    /**
+     * Tests that a csv loaded with backend=sql views the same as with the scan backend, over more
+     * than one page of rows read back from its table, including short rows, and that lines
+     * appended to its file show up too.
+     *
+     * @throws Exception
+     */
+    @Test
+    public void testViewCSVHandlerSql() throws Exception {
+        Path file = Path.of("data/sample/sql_view_test.csv");
+        System.setProperty("index.dir", ""); // the table is kept in a temporary file
+        try {
+            StringBuilder csv = new StringBuilder("id,word\n");
+            for (int i = 0; i < 3000; i++) {
+                csv.append(i).append(i % 7 == 0 ? "\n" : ",w" + i + "\n");
+            }
+            Files.writeString(file, csv);
+            String load = "loadcsv?filepath=sample/sql_view_test.csv&hasHeaders=true";
+            String[] views = {"viewcsv?format=csv", "viewcsv?page=11&pageSize=100&format=csv",
+                    "viewcsv?sort=word:desc&page=2&pageSize=5&format=csv"};
+            HttpURLConnection clientConnection = tryRequest(load);
+            Assert.assertEquals(clientConnection.getResponseCode(), 200); // tests success response
+            String[] scanned = new String[views.length];
+            for (int i = 0; i < views.length; i++) {
+                HttpURLConnection connection = tryRequest(views[i]);
+                scanned[i] = new Buffer().readFrom(connection.getInputStream()).readUtf8();
+                connection.disconnect();
+            }
+
+            HttpURLConnection clientConnection2 = tryRequest(load + "&backend=sql");
+            Assert.assertEquals(clientConnection2.getResponseCode(), 200); // tests success response
+            for (int i = 0; i < views.length; i++) {
+                HttpURLConnection connection = tryRequest(views[i]);
+                Assert.assertEquals(new Buffer().readFrom(connection.getInputStream()).readUtf8(), scanned[i]);
+                connection.disconnect();
+            }
+
+            Files.writeString(file, "3000,w3000\n", StandardOpenOption.APPEND);
+            csv.append("3000,w3000\n");
+            Assert.assertEquals(viewUntil(csv.toString()), csv.toString());
+
+            clientConnection.disconnect();
+            clientConnection2.disconnect();
+        } finally {
+            System.clearProperty("index.dir");
+            Files.deleteIfExists(file);
+        }
+    }
+
+    /**
+     * Views the loaded csv as csv until it's the expected csv, or 10 seconds have gone by.
+     */
+    static private String viewUntil(String expected) throws Exception {
+        String body = null;
+        for (int tries = 0; tries < 100 && !expected.equals(body); tries++) {
+            if (body != null) {
+                Thread.sleep(100);
+            }
+            HttpURLConnection clientConnection = tryRequest("viewcsv?format=csv");
+            body = new Buffer().readFrom(clientConnection.getInputStream()).readUtf8().replace("\r\n", "\n");
+            clientConnection.disconnect();
+        }
+        return body;
+    }
+
+    /**
+     * Tests that the loaded csv sent as an Arrow file or stream loads back as the same rows, and
+     * that a broken Arrow file can't be loaded.
+     *
+     * @throws IOException
+     */
+    @Test
+    public void testViewCSVHandlerArrow() throws IOException {
+        HttpURLConnection clientConnection = tryRequest("loadcsv?filepath=census/income_by_race_edited.csv&hasHeaders=true");
+        Assert.assertEquals(clientConnection.getResponseCode(), 200); // tests success response
+        HttpURLConnection clientConnection2 = tryRequest("viewcsv?format=csv");
+        String csv = new Buffer().readFrom(clientConnection2.getInputStream()).readUtf8();
+
+        Path file = Path.of("data/sample/arrow_test.arrow");
+        try {
+            for (String format : List.of("arrow", "arrow-stream")) {
+                HttpURLConnection clientConnection3 = tryRequest("viewcsv?format=" + format);
+                Assert.assertEquals(clientConnection3.getContentType(), format.equals("arrow")
+                        ? "application/vnd.apache.arrow.file" : "application/vnd.apache.arrow.stream");
+                Files.write(file, new Buffer().readFrom(clientConnection3.getInputStream()).readByteArray());
+                HttpURLConnection clientConnection4 = tryRequest("loadcsv?filepath=sample/arrow_test.arrow&hasHeaders=true");
+                Assert.assertEquals(clientConnection4.getResponseCode(), 200);
+                HttpURLConnection clientConnection5 = tryRequest("viewcsv?format=csv");
+                Assert.assertEquals(new Buffer().readFrom(clientConnection5.getInputStream()).readUtf8(), csv);
+                clientConnection3.disconnect();
+                clientConnection4.disconnect();
+                clientConnection5.disconnect();
+            }
+
+            Files.write(file, "ARROW1\0\0not really an arrow file".getBytes());
+            HttpURLConnection clientConnection6 = tryRequest("loadcsv?filepath=sample/arrow_test.arrow&hasHeaders=true");
+            Type mapStringObject = Types.newParameterizedType(Map.class, String.class, Object.class);
+            JsonAdapter<Map<String, Object>> adapter = new Moshi.Builder().build().adapter(mapStringObject);
+            Map<String, Object> test = adapter.fromJson(new Buffer().readFrom(clientConnection6.getInputStream()));
+            Assert.assertEquals(test.get("response_type"), "error_bad_request: the arrow file can't be loaded");
+            clientConnection6.disconnect();
+        } finally {
+            Files.deleteIfExists(file);
+        }
+
+        clientConnection.disconnect();
+        clientConnection2.disconnect();
+    }
+
+    /**
+     * Tests that viewing a csv loaded as a sample says it's a sample.
+     *
+     * @throws IOException
+     */
+    @Test
+    public void testViewCSVHandlerSample() throws IOException {
+        HttpURLConnection clientConnection = tryRequest("loadcsv?filepath=sample/kindergarten.csv&hasHeaders=true&sample=2&sampleMode=head");
+        Assert.assertEquals(clientConnection.getResponseCode(), 200); // tests success response
+
+        HttpURLConnection clientConnection2 = tryRequest("viewcsv");
+        Assert.assertEquals(clientConnection2.getHeaderField("X-CSV-Sample"), "head; rows=2; rowsRead=2");
+        Type mapStringObject = Types.newParameterizedType(Map.class, String.class, Object.class);
+        Moshi moshi = new Moshi.Builder().build();
+        JsonAdapter<Map<String, Object>> adapter = moshi.adapter(mapStringObject);
+        Map<String, Object> test = adapter.fromJson(new Buffer().readFrom(clientConnection2.getInputStream()));
+        Assert.assertEquals(test.get("sample").toString(), "{mode=head, rows=2.0, rowsRead=2.0}");
+        Assert.assertEquals(test.get("data").toString(),
+                "{object1={red=orange, 1=2, sam=jill}, object2={red=yellow, 1=3, sam=beth}}");
+
+        HttpURLConnection clientConnection3 = tryRequest("loadcsv?filepath=sample/kindergarten.csv&hasHeaders=true&sample=4&sampleSeed=1");
+        Assert.assertEquals(clientConnection3.getResponseCode(), 200); // tests success response
+        HttpURLConnection clientConnection4 = tryRequest("viewcsv?format=ndjson");
+        Assert.assertEquals(clientConnection4.getHeaderField("X-CSV-Sample"), "reservoir; rows=4; rowsRead=6");
+
+        HttpURLConnection clientConnection5 = tryRequest("loadcsv?filepath=sample/kindergarten.csv&hasHeaders=true&sample=all");
+        Map<String, Object> test2 = adapter.fromJson(new Buffer().readFrom(clientConnection5.getInputStream()));
+        Assert.assertEquals(test2.get("response_type"), "error_bad_request: sample must be a number of rows, "
+                + "sampleMode 'head' or 'reservoir', and sampleSeed a number");
+
+        clientConnection.disconnect();
+        clientConnection2.disconnect();
+        clientConnection3.disconnect();
+        clientConnection4.disconnect();
+        clientConnection5.disconnect();
+    }
+
+    /**
+     * Tests ViewCSVHandler sorting a page of the csv by more than one column, sorting every row
+     * with runs spilled to temp files, and an invalid sort.
+     *
+     * @throws IOException
+     */
+    @Test
+    public void testViewCSVHandlerSort() throws IOException {
+        HttpURLConnection clientConnection = tryRequest("loadcsv?filepath=stars/ten-star.csv&hasHeaders=true");
+        Assert.assertEquals(clientConnection.getResponseCode(), 200); // tests success response
+
+        // blank names go last, and then the biggest ids first
+        HttpURLConnection clientConnection2 = tryRequest("viewcsv?sort=ProperName,StarID:desc&page=2&pageSize=4&format=csv&fields=0");
+        Assert.assertEquals(new Buffer().readFrom(clientConnection2.getInputStream()).readUtf8(),
+                "StarID\n71454\n0\n118721\n3\n");
+
+        System.setProperty("sort.memoryRows", "3");
+        try {
+            HttpURLConnection clientConnection3 = tryRequest("viewcsv?sort=X:desc&format=csv&fields=0");
+            Assert.assertEquals(new Buffer().readFrom(clientConnection3.getInputStream()).readUtf8(),
+                    "StarID\n1\n3\n2\n3759\n0\n87666\n70667\n71454\n71457\n118721\n");
+            clientConnection3.disconnect();
+        } finally {
+            System.clearProperty("sort.memoryRows");
+        }
+
+        HttpURLConnection clientConnection4 = tryRequest("viewcsv?sort=Planet:desc");
+        Type mapStringObject = Types.newParameterizedType(Map.class, String.class, Object.class);
+        Moshi moshi = new Moshi.Builder().build();
+        JsonAdapter<Map<String, Object>> adapter = moshi.adapter(mapStringObject);
+        Map<String, Object> test = adapter.fromJson(new Buffer().readFrom(clientConnection4.getInputStream()));
+        Assert.assertEquals(test.get("response_type"), "error_bad_request: sort must be a comma separated"
+                + " list of header names or column indexes in the loaded csv, each optionally followed by"
+                + " :asc or :desc and :number or :string");
+
+        clientConnection.disconnect();
+        clientConnection2.disconnect();
+        clientConnection4.disconnect();
+    }
+}